@@ -1,32 +1,53 @@
 package edu.harvard.iq.datafilereader;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import edu.harvard.iq.datafilereader.tabulardata.IngestCheckpoint;
 import edu.harvard.iq.datafilereader.tabulardata.TabularDataFileReader;
 import edu.harvard.iq.datafilereader.tabulardata.TabularDataIngest;
 import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.csv.CSVFileReader;
+import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.csv.TSVFileReader;
+import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.csv.CSVIngestMode;
 import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.dta.DTA117FileReader;
 import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.dta.DTAFileReader;
 import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.por.PORFileReader;
 import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.rdata.RDATAFileReader;
 import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.sav.SAVFileReader;
+import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.xls.XLSFileReader;
 import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.xlsx.XLSXFileReader;
+import edu.harvard.iq.datafilereader.tabulardata.model.DataTable;
 import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
 import edu.harvard.iq.datafilereader.tabulardata.model.SummaryStatistic;
 import edu.harvard.iq.datafilereader.tabulardata.model.SummaryStatistic.SummaryStatisticType;
+import edu.harvard.iq.datafilereader.tabulardata.util.DoubleFormatMode;
+import edu.harvard.iq.datafilereader.tabulardata.util.Histogram;
+import edu.harvard.iq.datafilereader.tabulardata.util.HistogramCalculator;
 import edu.harvard.iq.datafilereader.tabulardata.util.IngestableDataChecker;
+import edu.harvard.iq.datafilereader.tabulardata.util.MomentsAccumulator;
 import edu.harvard.iq.datafilereader.tabulardata.util.SumStatCalculator;
+import edu.harvard.iq.datafilereader.tabulardata.util.SummaryStatisticsProfile;
 import edu.harvard.iq.datafilereader.tabulardata.util.TabularSubsetGenerator;
+import edu.harvard.iq.datafilereader.tabulardata.util.UNFCalculator;
 
 import java.util.Optional;
 
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -51,6 +72,26 @@ public class IngestService {
         STATISTICAL_FILE_EXTENSION.put("csv", "text/csv");
     }
 
+    /*
+     * The ingestable formats that our custom checks can't recognize (because 
+     * they are plain - or compressed - text, or zip archives) are recognized 
+     * by the file extension. A gzip-compressed file is recognized by the 
+     * extension in front of the ".gz" (for ex., "data.csv.gz"), if it is 
+     * one of the delimited text formats - the only readers that decompress 
+     * their input. 
+     */
+    private static Map<String, String> TABULAR_FILE_EXTENSION = new HashMap<>();
+
+    private static Set<String> GZIP_TABULAR_FILE_EXTENSION = new HashSet<>(Arrays.asList("csv", "tsv", "tab"));
+
+    static {
+        TABULAR_FILE_EXTENSION.put("csv", "text/csv");
+        TABULAR_FILE_EXTENSION.put("tsv", "text/tab-separated-values");
+        TABULAR_FILE_EXTENSION.put("tab", "text/tab-separated-values");
+        TABULAR_FILE_EXTENSION.put("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+        TABULAR_FILE_EXTENSION.put("xls", "application/vnd.ms-excel");
+    }
+
     public final static String SHAPEFILE_FILE_TYPE = "application/zipped-shapefile";
 
     public static final String MIME_TYPE_STATA = "application/x-stata";
@@ -61,6 +102,7 @@ public class IngestService {
     public static final String MIME_TYPE_CSV_ALT = "text/comma-separated-values";
 
     public static final String MIME_TYPE_XLSX = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    public static final String MIME_TYPE_XLS = "application/vnd.ms-excel";
     public static final String MIME_TYPE_SPSS_SAV = "application/x-spss-sav";
     public static final String MIME_TYPE_SPSS_POR = "application/x-spss-por";
 
@@ -73,25 +115,184 @@ public class IngestService {
     public static final String MIME_TYPE_UNDETERMINED_DEFAULT = "application/octet-stream";
     public static final String MIME_TYPE_UNDETERMINED_BINARY = "application/binary";
 
+    /*
+     * Number of variables processed concurrently by the summary statistics
+     * and UNF pass. Each one holds a full column vector in memory. 
+     */
+    @Getter
+    @Setter
+    private int summaryStatisticsThreads = Runtime.getRuntime().availableProcessors();
+
+    /*
+     * Number of bins in the histograms (fixed-width and quantile-based) 
+     * calculated for the numeric variables; 0 (the default) means no 
+     * histograms are produced.
+     */
+    @Getter
+    @Setter
+    private int histogramBins = 0;
+
+    /*
+     * Which summary statistics are calculated for the numeric variables; the 
+     * EXTENDED profile adds the higher-order moment statistics, accumulated 
+     * while each vector is unboxed, with no pass of their own.
+     */
+    @Getter
+    @Setter
+    private SummaryStatisticsProfile summaryStatisticsProfile = SummaryStatisticsProfile.BASIC;
+
+    /*
+     * How CSV files are read: in two passes (the default); in a single 
+     * pass with the variable types inferred from a leading sample of rows, 
+     * patching the columns whose type changes later in the file; or in 
+     * parallel chunks, on all the available cores. 
+     */
+    @Getter
+    @Setter
+    private CSVIngestMode csvIngestMode = CSVIngestMode.TWO_PASS;
+
+    /*
+     * Which digits are written into the tab files for the binary numeric 
+     * values of the SPSS and Stata files: those written so far (the 
+     * default), or the shortest ones that read back as the same doubles. 
+     */
+    @Getter
+    @Setter
+    private DoubleFormatMode doubleFormatMode = DoubleFormatMode.COMPATIBLE;
+
+    /*
+     * Whether a checkpoint is saved with the ingest of a CSV (or TSV) file, 
+     * so that a later version of the file, with more records appended to 
+     * it, can be ingested incrementally (see ingestAppendedData()). Saving 
+     * it costs one more read of the file. 
+     */
+    @Getter
+    @Setter
+    private boolean saveCheckpoints = false;
+
     public TabularDataIngest ingestData(final File file, final boolean produceSummaryStats) throws IOException {
         Optional<String> fileType = determineType(file, null);
 
         if (fileType.isPresent()) {
             TabularDataFileReader reader = getTabDataReaderByMimeType(fileType.get());
-            try (FileInputStream fis = new FileInputStream(file); BufferedInputStream bis = new BufferedInputStream(fis)) {
-                TabularDataIngest ingest = reader.read(bis, Optional.empty());
+            TabularDataIngest ingest = reader.read(file);
 
-                if (produceSummaryStats) {
-                    produceSummaryStatistics(ingest);
-                }
+            if (saveCheckpoints && reader instanceof CSVFileReader) {
+                ingest.setCheckpoint(((CSVFileReader) reader).createCheckpoint(file, ingest));
+            }
 
-                return ingest;
+            if (produceSummaryStats) {
+                produceSummaryStatistics(ingest);
             }
+
+            return ingest;
+        } else {
+            throw new IllegalArgumentException("Non-tabular data file supplied");
+        }
+    }
+
+    /**
+     * Reads the metadata of a file only - the variables, their labels and
+     * value labels - without reading the data or producing a tab file (see
+     * TabularDataFileReader.setMetadataOnly()); for ex., to show the
+     * dictionary of a file before it is ingested. The SPSS (SAV, POR),
+     * Stata 13 and Excel (XLSX) files are read up to the end of their
+     * dictionary (the first row of an XLSX sheet); the other formats are
+     * read in full, and their tab file is discarded.
+     */
+    public DataTable probeData(final File file) throws IOException {
+        Optional<String> fileType = determineType(file, null);
+
+        if (fileType.isPresent()) {
+            TabularDataFileReader reader = getTabDataReaderByMimeType(fileType.get());
+            reader.setMetadataOnly(true);
+            TabularDataIngest ingest = reader.read(file);
+
+            if (ingest.getTabDelimitedFile() != null) {
+                // (a reader that doesn't stop after the metadata)
+                ingest.getTabDelimitedFile().delete();
+            }
+
+            return ingest.getDataTable();
         } else {
             throw new IllegalArgumentException("Non-tabular data file supplied");
         }
     }
 
+    /**
+     * Ingests a new version of a previously ingested file, with more records 
+     * appended to it. If the previous ingest has a checkpoint saved, only 
+     * the new records are read (see CSVFileReader.readAppended()); 
+     * otherwise, or if the file has changed in any other way, the file is 
+     * ingested in full. 
+     *
+     * If the previous ingest has its summary statistics calculated, the 
+     * moments of the numeric variables saved in its checkpoint are updated 
+     * with the new values only, and the counts, means, standard deviations, 
+     * ranges (and the extended moment statistics) are derived from them. 
+     * The medians, the modes, the histograms and the UNFs can't be merged; 
+     * they are still calculated on the whole columns. 
+     */
+    public TabularDataIngest ingestAppendedData(final File file, final TabularDataIngest previousIngest,
+            final boolean produceSummaryStats) throws IOException {
+        Optional<String> fileType = determineType(file, null);
+
+        if (fileType.isPresent() && previousIngest.getCheckpoint() != null) {
+            TabularDataFileReader reader = getTabDataReaderByMimeType(fileType.get());
+            if (reader instanceof CSVFileReader) {
+                TabularDataIngest ingest = ((CSVFileReader) reader).readAppended(file, previousIngest);
+                if (ingest != null) {
+                    if (produceSummaryStats) {
+                        produceSummaryStatistics(ingest, previousIngest.getCheckpoint());
+                    }
+                    return ingest;
+                }
+            }
+            log.info("File " + file.getName() + " cannot be ingested incrementally; ingesting it in full.");
+        }
+
+        return ingestData(file, produceSummaryStats);
+    }
+
+    /**
+     * Ingests the sheets of an Excel (XLSX) workbook, each one into a 
+     * separate data table and tab file; the sheets are read in parallel. 
+     *
+     * @param sheetNames the names of the sheets to ingest; null to ingest 
+     *            all of them. 
+     * @return the ingested sheets, by name, in the order of the workbook. 
+     */
+    public Map<String, TabularDataIngest> ingestWorkbook(final File file, final Collection<String> sheetNames,
+            final boolean produceSummaryStats) throws IOException {
+        Optional<String> fileType = determineType(file, null);
+
+        if (fileType.isPresent() && fileType.get().equals(MIME_TYPE_XLSX)) {
+            XLSXFileReader reader = new XLSXFileReader();
+            Map<String, TabularDataIngest> ingests = reader.readSheets(file, sheetNames);
+
+            if (produceSummaryStats) {
+                boolean success = false;
+                try {
+                    for (TabularDataIngest ingest : ingests.values()) {
+                        produceSummaryStatistics(ingest);
+                    }
+                    success = true;
+                } finally {
+                    if (!success) {
+                        // (the tab files of all the sheets were written)
+                        for (TabularDataIngest ingest : ingests.values()) {
+                            ingest.getTabDelimitedFile().delete();
+                        }
+                    }
+                }
+            }
+
+            return ingests;
+        } else {
+            throw new IllegalArgumentException("Non-XLSX data file supplied");
+        }
+    }
+
     private TabularDataFileReader getTabDataReaderByMimeType(final String mimeType) {
         if (mimeType == null) {
             return null;
@@ -106,15 +307,27 @@ public class IngestService {
         } else if (mimeType.equals(MIME_TYPE_RDATA)) {
             ingestPlugin = new RDATAFileReader();
         } else if (mimeType.equals(MIME_TYPE_CSV) || mimeType.equals(MIME_TYPE_CSV_ALT)) {
-            ingestPlugin = new CSVFileReader();
+            CSVFileReader csvFileReader = new CSVFileReader();
+            csvFileReader.setIngestMode(csvIngestMode);
+            ingestPlugin = csvFileReader;
+        } else if (mimeType.equals(MIME_TYPE_TAB)) {
+            TSVFileReader tsvFileReader = new TSVFileReader();
+            tsvFileReader.setIngestMode(csvIngestMode);
+            ingestPlugin = tsvFileReader;
         } else if (mimeType.equals(MIME_TYPE_XLSX)) {
             ingestPlugin = new XLSXFileReader();
+        } else if (mimeType.equals(MIME_TYPE_XLS)) {
+            ingestPlugin = new XLSFileReader();
         } else if (mimeType.equals(MIME_TYPE_SPSS_SAV)) {
             ingestPlugin = new SAVFileReader();
         } else if (mimeType.equals(MIME_TYPE_SPSS_POR)) {
             ingestPlugin = new PORFileReader();
         }
 
+        if (ingestPlugin != null) {
+            ingestPlugin.setDoubleFormatMode(doubleFormatMode);
+        }
+
         return ingestPlugin;
     }
 
@@ -139,8 +352,12 @@ public class IngestService {
             return true;
         } else if (mimeType.equals(MIME_TYPE_CSV) || mimeType.equals(MIME_TYPE_CSV_ALT)) {
             return true;
+        } else if (mimeType.equals(MIME_TYPE_TAB)) {
+            return true;
         } else if (mimeType.equals(MIME_TYPE_XLSX)) {
             return true;
+        } else if (mimeType.equals(MIME_TYPE_XLS)) {
+            return true;
         } else if (mimeType.equals(MIME_TYPE_SPSS_SAV)) {
             return true;
         } else if (mimeType.equals(MIME_TYPE_SPSS_POR)) {
@@ -151,109 +368,209 @@ public class IngestService {
     }
 
     private void produceSummaryStatistics(final TabularDataIngest dataFile) throws IOException {
-        produceDiscreteNumericSummaryStatistics(dataFile);
-        produceContinuousSummaryStatistics(dataFile);
-        produceCharacterSummaryStatistics(dataFile);
+        produceSummaryStatistics(dataFile, null);
     }
 
-    private void produceDiscreteNumericSummaryStatistics(final TabularDataIngest dataFile) throws IOException {
-
+    /*
+     * If the ingest has a checkpoint, the moments of its numeric variables 
+     * are saved in it; if the checkpoint of the previous ingest of the file 
+     * (of which this one has more cases appended) has them, the moments of 
+     * the appended values are merged into them. 
+     */
+    private void produceSummaryStatistics(final TabularDataIngest dataFile,
+            final IngestCheckpoint previousCheckpoint) throws IOException {
+        /*
+         * The variables are processed in parallel: each task subsets one
+         * column vector from the "rotated" image of the tab file, calculates
+         * the summary statistics and the UNF of the variable. The rotated
+         * image is generated once, upfront, and is then shared by all the
+         * tasks.
+         */
         TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
-
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isIntervalDiscrete()
-                    && dataFile.getDataTable().getDataVariables().get(i).isTypeNumeric()) {
-                log.trace("subsetting discrete-numeric vector");
-                //Double[] variableVector = subsetGenerator.subsetDoubleVector(dataFile, i);
-                Long[] variableVector = subsetGenerator.subsetLongVector(dataFile, i);
-                // We are discussing calculating the same summary stats for 
-                // all numerics (the same kind of sumstats that we've been calculating
-                // for numeric continuous type)  -- L.A. Jul. 2014
-                calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                // calculate the UNF while we are at it:
-                log.trace("Done! (discrete numeric)");
-                variableVector = null;
+        subsetGenerator.getRotatedImage(dataFile);
+
+        int varQuantity = dataFile.getDataTable().getVarQuantity().intValue();
+        int threads = Math.max(1, Math.min(summaryStatisticsThreads, varQuantity));
+        MomentsAccumulator[] variableMoments = dataFile.getCheckpoint() != null ? new MomentsAccumulator[varQuantity]
+                : null;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < varQuantity; i++) {
+                final int varnum = i;
+                tasks.add(executor.submit(() -> {
+                    produceVariableSummaryStatistics(dataFile, subsetGenerator, varnum, previousCheckpoint,
+                            variableMoments);
+                    return null;
+                }));
             }
+            for (Future<Void> task : tasks) {
+                waitForTask(task);
+            }
+        } finally {
+            executor.shutdownNow();
         }
-    }
 
-    private void produceContinuousSummaryStatistics(final TabularDataIngest dataFile) throws IOException {
+        if (variableMoments != null) {
+            dataFile.getCheckpoint().setVariableMoments(variableMoments);
+        }
 
-        // quick, but memory-inefficient way:
-        // - this method just loads the entire file-worth of continuous vectors 
-        // into a Double[][] matrix. 
-        //Double[][] variableVectors = subsetContinuousVectors(dataFile);
-        //calculateContinuousSummaryStatistics(dataFile, variableVectors);
+        List<String> variableUNFs = new ArrayList<>();
+        for (DataVariable variable : dataFile.getDataTable().getDataVariables()) {
+            variableUNFs.add(variable.getUnf());
+        }
+        dataFile.getDataTable().setUnf(UNFCalculator.calculateDataTableUNF(variableUNFs));
+        log.trace("Calculated data table UNF: " + dataFile.getDataTable().getUnf());
+    }
 
-        // A more sophisticated way: this subsets one column at a time, using 
-        // the new optimized subsetting that does not have to read any extra 
-        // bytes from the file to extract the column:
+    private void produceVariableSummaryStatistics(final TabularDataIngest dataFile,
+            final TabularSubsetGenerator subsetGenerator, final int varnum, final IngestCheckpoint previousCheckpoint,
+            final MomentsAccumulator[] variableMoments) throws IOException {
+        DataVariable variable = dataFile.getDataTable().getDataVariables().get(varnum);
+        // (the values of date and time variables are normalized for the UNF
+        // in the format of the variable)
+        UNFCalculator unfCalculator = new UNFCalculator(variable.getFormatCategory(), variable.getFormat());
+
+        if (variable.isIntervalDiscrete() && variable.isTypeNumeric()) {
+            log.trace("subsetting discrete-numeric vector");
+            //Double[] variableVector = subsetGenerator.subsetDoubleVector(dataFile, i);
+            Long[] variableVector = subsetGenerator.subsetLongVector(dataFile, varnum);
+            // We are discussing calculating the same summary stats for 
+            // all numerics (the same kind of sumstats that we've been calculating
+            // for numeric continuous type)  -- L.A. Jul. 2014
+            calculateContinuousSummaryStatistics(dataFile, varnum, variableVector, previousCheckpoint,
+                    variableMoments);
+            // calculate the UNF while we are at it:
+            unfCalculator.update(variableVector);
+            log.trace("Done! (discrete numeric)");
+        } else if (variable.isIntervalContinuous()) {
+            // A more sophisticated way: this subsets one column at a time, using 
+            // the new optimized subsetting that does not have to read any extra 
+            // bytes from the file to extract the column:
+            log.trace("subsetting continuous vector");
+            if ("float".equals(variable.getFormat())) {
+                Float[] variableVector = subsetGenerator.subsetFloatVector(dataFile, varnum);
+                log.trace("Calculating summary statistics on a Float vector;");
+                calculateContinuousSummaryStatistics(dataFile, varnum, variableVector, previousCheckpoint,
+                        variableMoments);
+                // calculate the UNF while we are at it:
+                unfCalculator.update(variableVector);
+            } else {
+                Double[] variableVector = subsetGenerator.subsetDoubleVector(dataFile, varnum);
+                log.trace("Calculating summary statistics on a Double vector;");
+                calculateContinuousSummaryStatistics(dataFile, varnum, variableVector, previousCheckpoint,
+                        variableMoments);
+                // calculate the UNF while we are at it:
+                unfCalculator.update(variableVector);
+            }
+            log.trace("Done! (continuous);");
+        } else if (variable.isTypeCharacter()) {
+            /*
+             * At this point it's still not clear what kinds of summary stats we
+             * want for character types. Though we are pretty confident we don't
+             * want to keep doing what we used to do in the past, i.e. simply store
+             * the total counts for all the unique values; even if it's a very long
+             * vector, and *every* value in it is unique. (As a result of this, our
+             * Categorical Variable Value table is the single largest in the
+             * production database. With no evidence whatsoever, that this
+             * information is at all useful. -- L.A. Jul. 2014
+             */
+            log.trace("subsetting character vector");
+            String[] variableVector = subsetGenerator.subsetStringVector(dataFile, varnum);
+            //calculateCharacterSummaryStatistics(dataFile, i, variableVector);
+            // calculate the UNF while we are at it:
+            unfCalculator.update(variableVector);
+        } else {
+            // Numeric variables of other interval types get no summary 
+            // statistics; but they still need a UNF:
+            Double[] variableVector = subsetGenerator.subsetDoubleVector(dataFile, varnum);
+            unfCalculator.update(variableVector);
+        }
 
-        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
+        variable.setUnf(unfCalculator.getUNF());
+    }
 
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isIntervalContinuous()) {
-                log.trace("subsetting continuous vector");
-                if ("float".equals(dataFile.getDataTable().getDataVariables().get(i).getFormat())) {
-                    Float[] variableVector = subsetGenerator.subsetFloatVector(dataFile, i);
-                    log.trace("Calculating summary statistics on a Float vector;");
-                    calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                    // calculate the UNF while we are at it:
-                    variableVector = null;
-                } else {
-                    Double[] variableVector = subsetGenerator.subsetDoubleVector(dataFile, i);
-                    log.trace("Calculating summary statistics on a Double vector;");
-                    calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                    // calculate the UNF while we are at it:
-                    variableVector = null;
-                }
-                log.trace("Done! (continuous);");
+    private void waitForTask(final Future<Void> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calculating summary statistics", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
             }
+            throw new IOException("Failed to calculate summary statistics: " + ex.getCause().getMessage(), ex.getCause());
         }
     }
 
-    private void produceCharacterSummaryStatistics(final TabularDataIngest dataFile) throws IOException {
-
-        /*
-         * At this point it's still not clear what kinds of summary stats we
-         * want for character types. Though we are pretty confident we don't
-         * want to keep doing what we used to do in the past, i.e. simply store
-         * the total counts for all the unique values; even if it's a very long
-         * vector, and *every* value in it is unique. (As a result of this, our
-         * Categorical Variable Value table is the single largest in the
-         * production database. With no evidence whatsoever, that this
-         * information is at all useful. -- L.A. Jul. 2014
-         */
-
-        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
-
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isTypeCharacter()) {
-                log.trace("subsetting character vector");
-                String[] variableVector = subsetGenerator.subsetStringVector(dataFile, i);
-                //calculateCharacterSummaryStatistics(dataFile, i, variableVector);
-                // calculate the UNF while we are at it:
-                variableVector = null;
+    private void calculateContinuousSummaryStatistics(final TabularDataIngest dataFile, final int varnum,
+            final Number[] dataVector, final IngestCheckpoint previousCheckpoint,
+            final MomentsAccumulator[] variableMoments) throws IOException {
+        DataVariable variable = dataFile.getDataTable().getDataVariables().get(varnum);
+        MomentsAccumulator previousMoments = getPreviousMoments(previousCheckpoint, varnum, dataVector.length);
+        Map<SummaryStatisticType, BigDecimal> sumStats;
+
+        if (previousMoments != null) {
+            // (merged into a copy; the previous checkpoint is left as it was)
+            MomentsAccumulator moments = new MomentsAccumulator();
+            moments.combine(previousMoments);
+            sumStats = SumStatCalculator.calculateSummaryStatistics(dataVector, summaryStatisticsProfile, moments,
+                    (int) previousCheckpoint.getCaseCount());
+            if (variableMoments != null) {
+                variableMoments[varnum] = moments;
+            }
+        } else {
+            MomentsAccumulator moments = variableMoments != null ? new MomentsAccumulator() : null;
+            sumStats = SumStatCalculator.calculateSummaryStatistics(dataVector, summaryStatisticsProfile, moments);
+            if (variableMoments != null) {
+                variableMoments[varnum] = moments;
+            }
+        }
+        assignContinuousSummaryStatistics(variable, sumStats);
+
+        if (histogramBins > 0) {
+            // the range is already known from the summary statistics, so 
+            // the fixed-width bins can be filled in a single pass:
+            Histogram histogram = HistogramCalculator.calculateFixedWidthHistogram(dataVector, histogramBins,
+                    sumStats.get(SummaryStatisticType.MIN).doubleValue(),
+                    sumStats.get(SummaryStatisticType.MAX).doubleValue());
+            if (histogram != null) {
+                assignSummaryStatistic(variable, SummaryStatisticType.HIST, histogram.toString());
+            }
+            Histogram quantileHistogram = HistogramCalculator.calculateQuantileHistogram(dataVector, histogramBins);
+            if (quantileHistogram != null) {
+                assignSummaryStatistic(variable, SummaryStatisticType.QHIST, quantileHistogram.toString());
             }
         }
     }
 
-    private void calculateContinuousSummaryStatistics(final TabularDataIngest dataFile, final int varnum,
-            final Number[] dataVector) throws IOException {
-        Map<SummaryStatisticType, BigDecimal> sumStats = SumStatCalculator.calculateSummaryStatistics(dataVector);
-        assignContinuousSummaryStatistics(dataFile.getDataTable().getDataVariables().get(varnum), sumStats);
+    /*
+     * The moments of the variable saved in the previous checkpoint, if they 
+     * cover the start of the vector. 
+     */
+    private static MomentsAccumulator getPreviousMoments(final IngestCheckpoint previousCheckpoint, final int varnum,
+            final int length) {
+        if (previousCheckpoint == null || previousCheckpoint.getVariableMoments() == null
+                || previousCheckpoint.getVariableMoments().length <= varnum
+                || previousCheckpoint.getCaseCount() > length) {
+            return null;
+        }
+        return previousCheckpoint.getVariableMoments()[varnum];
     }
 
     private void assignContinuousSummaryStatistics(final DataVariable variable,
             final Map<SummaryStatisticType, BigDecimal> sumStats) throws IOException {
-        if (sumStats == null || sumStats.size() != SummaryStatisticType.values().length) {
-            throw new IOException("Wrong number of summary statistics types calculated! (" + sumStats.size() + ")");
+        if (sumStats == null || sumStats.size() != summaryStatisticsProfile.getSummaryStatisticTypes().size()) {
+            throw new IOException("Wrong number of summary statistics types calculated! ("
+                    + (sumStats == null ? 0 : sumStats.size()) + ")");
         }
 
         for (Entry<SummaryStatisticType, BigDecimal> sumStat : sumStats.entrySet()) {
             SummaryStatistic ss = new SummaryStatistic();
             ss.setType(sumStat.getKey());
-            if (!ss.isTypeMode()) {
+            if (!ss.isTypeMode() && sumStat.getValue() != null) {
                 ss.setValue(sumStat.getValue().toPlainString());
             } else {
                 ss.setValue(".");
@@ -263,6 +580,15 @@ public class IngestService {
         }
     }
 
+    private void assignSummaryStatistic(final DataVariable variable, final SummaryStatisticType type,
+            final String value) {
+        SummaryStatistic ss = new SummaryStatistic();
+        ss.setType(type);
+        ss.setValue(value);
+        ss.setDataVariable(variable);
+        variable.getSummaryStatistics().add(ss);
+    }
+
     private Optional<String> determineType(final File file, final String suppliedContentType) throws IOException {
         String recognizedType = determineFileType(file, file.getName());
         log.trace("File utility recognized the file as " + recognizedType);
@@ -284,6 +610,8 @@ public class IngestService {
             // following "ingestable" types: Stata, SPSS, R;
             // 2a. We are willing to TRUST the browser when it comes to
             //  the CSV and XSLX ingestable types.
+            //  (But not XLS: browsers label plain CSV files as 
+            //  "application/vnd.ms-excel" all the time.)
             // 3. We should ALWAYS trust our utilities when it comes to 
             // ingestable types. 
 
@@ -333,6 +661,24 @@ public class IngestService {
                     fileType = STATISTICAL_FILE_EXTENSION.get(fileExtension);
                 }
 
+                if (fileType == null) {
+                    String tabularFileExtension = fileExtension;
+                    if (fileExtension.equals("gz") && IngestableDataChecker.isGzipCompressed(f)) {
+                        // compressed delimited text; the readers decompress 
+                        // it as they go. (not any other compressed format - 
+                        // for ex., "data.xlsx.gz" - which its reader 
+                        // couldn't open)
+                        String compressedFileExtension = getFileExtension(
+                                fileName.substring(0, fileName.length() - 3));
+                        tabularFileExtension = GZIP_TABULAR_FILE_EXTENSION.contains(compressedFileExtension)
+                                ? compressedFileExtension
+                                : null;
+                    }
+                    if (tabularFileExtension != null) {
+                        fileType = TABULAR_FILE_EXTENSION.get(tabularFileExtension);
+                    }
+                }
+
                 log.trace("mime type recognized by extension: " + fileType);
             }
         } else {
@@ -0,0 +1,53 @@
+/*
+ Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+
+ Dataverse Network - A web application to share, preserve and analyze research data.
+ Developed at the Institute for Quantitative Social Science, Harvard University.
+ Version 3.0.
+ */
+package edu.harvard.iq.datafilereader.tabulardata;
+
+import java.io.Serializable;
+
+import edu.harvard.iq.datafilereader.tabulardata.util.MomentsAccumulator;
+
+/**
+ * The state saved with an ingest, from which a reader can resume it when
+ * more data has been appended to the file; so that only the new data has to
+ * be read. What the state is depends on the reader; it can be saved with
+ * the rest of the ingested metadata.
+ */
+public interface IngestCheckpoint extends Serializable {
+
+    /**
+     * The number of bytes of the file that have been ingested.
+     */
+    long getDataLength();
+
+    /**
+     * The number of cases ingested.
+     */
+    long getCaseCount();
+
+    /**
+     * The moments of the numeric variables (by variable index; null for the
+     * other variables), from which the summary statistics of the next ingest
+     * are updated with the appended values only; null if no summary
+     * statistics were calculated.
+     */
+    MomentsAccumulator[] getVariableMoments();
+
+    void setVariableMoments(MomentsAccumulator[] variableMoments);
+}
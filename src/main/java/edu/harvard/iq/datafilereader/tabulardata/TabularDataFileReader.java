@@ -22,10 +22,12 @@ package edu.harvard.iq.datafilereader.tabulardata;
 
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Optional;
-import java.util.regex.Matcher;
+
+import edu.harvard.iq.datafilereader.tabulardata.util.DoubleFormatMode;
 
 /**
  * An abstract superclass for reading and writing of a statistical data file. A
@@ -58,6 +60,41 @@ public abstract class TabularDataFileReader {
         this.dataLanguageEncoding = dataLanguageEncoding;
     }
 
+    protected DoubleFormatMode doubleFormatMode = DoubleFormatMode.COMPATIBLE;
+
+    /**
+     * Which digits the readers that format binary numeric values (SPSS,
+     * Stata) write into the tab file for them.
+     */
+    public DoubleFormatMode getDoubleFormatMode() {
+        return doubleFormatMode;
+    }
+
+    public void setDoubleFormatMode(final DoubleFormatMode doubleFormatMode) {
+        this.doubleFormatMode = doubleFormatMode;
+    }
+
+    protected boolean metadataOnly = false;
+
+    /**
+     * Whether the reader stops after the metadata of the file (the variables,
+     * their labels and value labels), without reading the data section and
+     * without writing a tab file. Only the metadata stored in the file is
+     * known then: the number of cases (where the format records it), but
+     * nothing determined from the values themselves (whether a numeric
+     * variable is continuous, the date formats...).
+     *
+     * The SPSS (SAV, POR), Stata 13 (DTA 117) and Excel (XLSX) readers
+     * support it; the others read the whole file regardless.
+     */
+    public boolean isMetadataOnly() {
+        return metadataOnly;
+    }
+
+    public void setMetadataOnly(final boolean metadataOnly) {
+        this.metadataOnly = metadataOnly;
+    }
+
     /**
      * Reads the statistical data file from a supplied {@link InputStream} and
      * returns its contents as a <code>SDIOData</code>.
@@ -85,6 +122,27 @@ public abstract class TabularDataFileReader {
      */
     public abstract TabularDataIngest read(BufferedInputStream stream, Optional<File> dataFile) throws IOException;
 
+    /**
+     * Reads the statistical data file directly from a {@link File}.
+     *
+     * The default implementation simply reads the file as a stream; the
+     * plugins that can take advantage of random access to the file (for ex.,
+     * to read it in parallel chunks) override this method.
+     *
+     * @param file
+     *            the statistical data file.
+     *
+     * @return reading results as a <code>SDIOData</code>
+     *
+     * @throws IOException
+     *             if a reading error occurs.
+     */
+    public TabularDataIngest read(final File file) throws IOException {
+        try (BufferedInputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            return read(stream, Optional.empty());
+        }
+    }
+
     // should this be an abstract method as well? 
 
     public boolean isValid(final File ddiFile) throws IOException {
@@ -133,29 +191,49 @@ public abstract class TabularDataFileReader {
         return nullRemovedString;
     }
 
-    protected String escapeCharacterString(final String rawString) {
+    public static String escapeCharacterString(final String rawString) {
         /*
          * Some special characters, like new lines and tabs need to be escaped -
          * otherwise they will break our TAB file structure! But before we
          * escape anything, all the back slashes already in the string need to
-         * be escaped themselves.
+         * be escaped themselves. (All of this is done in a single pass over
+         * the string.)
          */
-        String escapedString = rawString.replace("\\", "\\\\");
-        // escape quotes: 
-        escapedString = escapedString.replaceAll("\"", Matcher.quoteReplacement("\\\""));
-        // escape tabs and new lines:
-        escapedString = escapedString.replaceAll("\t", Matcher.quoteReplacement("\\t"));
-        escapedString = escapedString.replaceAll("\n", Matcher.quoteReplacement("\\n"));
-        escapedString = escapedString.replaceAll("\r", Matcher.quoteReplacement("\\r"));
+        StringBuilder escapedString = new StringBuilder(rawString.length() + 2);
 
         // the escaped version of the string is stored in the tab file 
         // enclosed in double-quotes; this is in order to be able 
         // to differentiate between an empty string (tab-delimited empty string in 
         // double quotes) and a missing value (tab-delimited empty string). 
 
-        escapedString = "\"" + escapedString + "\"";
+        escapedString.append('"');
+        for (int i = 0; i < rawString.length(); i++) {
+            char c = rawString.charAt(i);
+            switch (c) {
+            case '\\':
+                escapedString.append("\\\\");
+                break;
+            case '"':
+                // escape quotes: 
+                escapedString.append("\\\"");
+                break;
+            case '\t':
+                // escape tabs and new lines:
+                escapedString.append("\\t");
+                break;
+            case '\n':
+                escapedString.append("\\n");
+                break;
+            case '\r':
+                escapedString.append("\\r");
+                break;
+            default:
+                escapedString.append(c);
+            }
+        }
+        escapedString.append('"');
 
-        return escapedString;
+        return escapedString.toString();
     }
 
 }
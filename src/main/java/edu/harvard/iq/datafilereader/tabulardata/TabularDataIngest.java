@@ -41,6 +41,8 @@ public class TabularDataIngest {
 
     protected File tabDelimitedFile;
 
+    protected IngestCheckpoint checkpoint;
+
     public TabularDataIngest() {
     }
 
@@ -63,4 +65,16 @@ public class TabularDataIngest {
     public void setTabDelimitedFile(final File tabFile) {
         this.tabDelimitedFile = tabFile;
     }
+
+    /**
+     * The state from which the ingest can be resumed, when the file grows;
+     * null if it was not saved (or if the reader does not support it).
+     */
+    public IngestCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(final IngestCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
 }
@@ -20,22 +20,42 @@
 package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.csv;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
 import java.math.MathContext;
 import java.math.RoundingMode;
-import java.text.ParseException;
-import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -43,6 +63,14 @@ import edu.harvard.iq.datafilereader.tabulardata.TabularDataFileReader;
 import edu.harvard.iq.datafilereader.tabulardata.TabularDataIngest;
 import edu.harvard.iq.datafilereader.tabulardata.model.DataTable;
 import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
+import edu.harvard.iq.datafilereader.tabulardata.util.CSVTokenizer;
+import edu.harvard.iq.datafilereader.tabulardata.util.DateTimeTokenDetector;
+import edu.harvard.iq.datafilereader.tabulardata.util.FileRegionInputStream;
+import edu.harvard.iq.datafilereader.tabulardata.util.IngestableDataChecker;
+import edu.harvard.iq.datafilereader.tabulardata.util.MappedCSVTokenizer;
+import edu.harvard.iq.datafilereader.tabulardata.util.NumericTokenLexer;
+import edu.harvard.iq.datafilereader.tabulardata.util.NumericTokenLexer.TokenType;
+import edu.harvard.iq.datafilereader.tabulardata.util.TabFileColumnPatcher;
 
 /**
  * Dataverse 4.0 implementation of <code>TabularDataFileReader</code> for the
@@ -59,26 +87,97 @@ public class CSVFileReader extends TabularDataFileReader {
     private static final Logger dbglog = Logger.getLogger(CSVFileReader.class.getPackage().getName());
     private static final int DIGITS_OF_PRECISION_DOUBLE = 15;
     private static final String FORMAT_IEEE754 = "%+#." + DIGITS_OF_PRECISION_DOUBLE + "e";
+    public static final int DEFAULT_SAMPLE_SIZE = 1000;
+    // files (or parts of files) smaller than this are not split any further
+    // for the PARALLEL ingest:
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+    private static final int SCAN_BUFFER_SIZE = 1 << 16;
+    private static final int GZIP_BUFFER_SIZE = 1 << 16;
+    private static final int TAB_BUFFER_SIZE = 1 << 20;
     private MathContext doubleMathContext;
     private char delimiterChar = ',';
 
-    // DATE FORMATS
-    private static SimpleDateFormat[] DATE_FORMATS = new SimpleDateFormat[] { new SimpleDateFormat("yyyy-MM-dd") };
-
-    // TIME FORMATS
-    private static SimpleDateFormat[] TIME_FORMATS = new SimpleDateFormat[] {
-            // Date-time up to seconds with timezone, e.g. 2013-04-08 13:14:23 -0500
-            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z"),
-            // Date-time up to seconds and no timezone, e.g. 2013-04-08 13:14:23
-            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss") };
+    private CSVIngestMode ingestMode = CSVIngestMode.TWO_PASS;
+    private int sampleSize = DEFAULT_SAMPLE_SIZE;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private boolean compressFirstPass = false;
+    // whether the file being read is gzip-compressed:
+    private boolean compressedInput = false;
+    // the variable types of the last file read (for the checkpoint):
+    VariableTypes lastVariableTypes;
+
+    /*
+     * How the values of a column are stored in the tab file. 
+     */
+    enum ColumnFormat {
+        INTEGER, DECIMAL, DATE_TIME, STRING
+    }
 
     private void init() throws IOException {
         doubleMathContext = new MathContext(DIGITS_OF_PRECISION_DOUBLE, RoundingMode.HALF_EVEN);
     }
 
+    public CSVIngestMode getIngestMode() {
+        return ingestMode;
+    }
+
+    public void setIngestMode(final CSVIngestMode ingestMode) {
+        this.ingestMode = ingestMode;
+    }
+
+    /**
+     * Number of leading rows used to infer the variable types in the
+     * SPECULATIVE mode.
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public void setSampleSize(final int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Number of threads used in the PARALLEL mode; defaults to the number of
+     * available processors.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public char getDelimiterChar() {
+        return delimiterChar;
+    }
+
+    public void setDelimiterChar(final char delimiterChar) {
+        this.delimiterChar = delimiterChar;
+    }
+
+    /**
+     * Whether the copy of the file saved by the first pass of the TWO_PASS
+     * ingest is (quickly) compressed. It always is when the file itself is
+     * gzip-compressed.
+     */
+    public boolean isCompressFirstPass() {
+        return compressFirstPass;
+    }
+
+    public void setCompressFirstPass(final boolean compressFirstPass) {
+        this.compressFirstPass = compressFirstPass;
+    }
+
     /**
      * Reads a CSV file, converts it into a dataverse DataTable.
      *
+     * A gzip-compressed file is decompressed as it is read; both passes of
+     * the TWO_PASS ingest read the file, so the first pass saves a
+     * (compressed) copy of the records for the second one, rather than the
+     * decompressed file.
+     *
      * @param stream
      *            a <code>BufferedInputStream</code>.
      * @param ignored
@@ -90,496 +189,1343 @@ public class CSVFileReader extends TabularDataFileReader {
     public TabularDataIngest read(final BufferedInputStream stream, final Optional<File> dataFile) throws IOException {
         init();
 
-        TabularDataIngest ingesteddata = new TabularDataIngest();
         DataTable dataTable = new DataTable();
 
+        compressedInput = IngestableDataChecker.isGzipCompressed(stream);
+        InputStream csvStream = compressedInput ? new GZIPInputStream(stream, GZIP_BUFFER_SIZE) : stream;
+        if (compressedInput) {
+            dbglog.fine("CSV ingest: decompressing gzip-compressed input.");
+        }
+
         int lineCount = 0;
         File tabFileDestination = File.createTempFile("data-", ".tab");
-        try (BufferedReader localBufferedReader = new BufferedReader(new InputStreamReader(stream));
-                PrintWriter tabFileWriter = new PrintWriter(tabFileDestination.getAbsolutePath())) {
-            lineCount = readFile(localBufferedReader, dataTable, tabFileWriter);
+        try (BufferedReader localBufferedReader = new BufferedReader(new InputStreamReader(csvStream))) {
+            if (ingestMode == CSVIngestMode.SPECULATIVE) {
+                lineCount = readFileSinglePass(localBufferedReader, dataTable, tabFileDestination);
+            } else {
+                try (PrintWriter tabFileWriter = new PrintWriter(tabFileDestination.getAbsolutePath())) {
+                    lineCount = readFile(localBufferedReader, dataTable, tabFileWriter);
+                }
+            }
         }
 
+        return createIngest(dataTable, tabFileDestination, lineCount);
+    }
+
+    /**
+     * Reads a CSV file, converts it into a dataverse DataTable. In the
+     * PARALLEL mode the file is split into chunks that are read on separate
+     * threads; if the file cannot be read that way (for ex., if it is
+     * compressed, not in an ASCII-compatible encoding, or malformed), it is
+     * read in two passes instead. An uncompressed file is read in two passes
+     * over its memory-mapped bytes when the default charset is UTF-8 (see
+     * {@link #readFileMapped(File, DataTable, File)}); and as a stream
+     * otherwise.
+     *
+     * @param file
+     *            the CSV file.
+     * @return an <code>TabularDataIngest</code> object
+     * @throws IOException
+     *             if a reading error occurs.
+     */
+    @Override
+    public TabularDataIngest read(final File file) throws IOException {
+        if (ingestMode == CSVIngestMode.PARALLEL && isAsciiCompatible(Charset.defaultCharset())
+                && !IngestableDataChecker.isGzipCompressed(file)) {
+            init();
+
+            DataTable dataTable = new DataTable();
+            File tabFileDestination = File.createTempFile("data-", ".tab");
+            try {
+                int lineCount = readFileParallel(file, dataTable, tabFileDestination);
+                if (lineCount >= 0) {
+                    return createIngest(dataTable, tabFileDestination, lineCount);
+                }
+            } catch (IOException ex) {
+                // (if the file is really broken, the error will be reported 
+                // again, with the right line number, by the sequential ingest)
+                dbglog.fine("Parallel CSV ingest failed: " + ex.getMessage());
+            }
+            tabFileDestination.delete();
+            dbglog.info("CSV file " + file.getName() + " cannot be read in parallel; reading it in two passes.");
+        }
+        if (isMappable() && !IngestableDataChecker.isGzipCompressed(file)) {
+            init();
+
+            DataTable dataTable = new DataTable();
+            File tabFileDestination = File.createTempFile("data-", ".tab");
+            try {
+                int lineCount = readFileMapped(file, dataTable, tabFileDestination);
+                if (lineCount >= 0) {
+                    return createIngest(dataTable, tabFileDestination, lineCount);
+                }
+            } catch (IOException ex) {
+                // (the error will be reported again, with the right line 
+                // number, by the stream ingest)
+                dbglog.fine("Memory-mapped CSV ingest failed: " + ex.getMessage());
+            }
+            tabFileDestination.delete();
+            dbglog.fine("CSV file " + file.getName() + " cannot be read as UTF-8 bytes; reading it as a stream.");
+        }
+        return super.read(file);
+    }
+
+    /*
+     * Whether the file can be read by readFileMapped(), producing the same 
+     * tab file as the stream ingest (which decodes the file, and encodes the 
+     * tab file, in the default charset). 
+     */
+    private boolean isMappable() {
+        return Charset.defaultCharset().equals(StandardCharsets.UTF_8) && "\n".equals(System.lineSeparator())
+                && delimiterChar < 0x80;
+    }
+
+    TabularDataIngest createIngest(final DataTable dataTable, final File tabFileDestination,
+            final int lineCount) {
         dbglog.fine("CSV ingest: found " + lineCount + " data cases/observations.");
         dbglog.fine("Tab file produced: " + tabFileDestination.getAbsolutePath());
 
         dataTable.setUnf("UNF:6:NOTCALCULATED");
 
+        TabularDataIngest ingesteddata = new TabularDataIngest();
         ingesteddata.setTabDelimitedFile(tabFileDestination);
         ingesteddata.setDataTable(dataTable);
         return ingesteddata;
+    }
 
+    /**
+     * Creates the checkpoint of the file last read by this reader, from which 
+     * a later version of the file, with more records appended to it, can be 
+     * ingested incrementally (see 
+     * {@link #readAppended(File, TabularDataIngest)}). Returns null if the 
+     * file is compressed (the compressed bytes of the later version would 
+     * not start with the same ones). 
+     */
+    public CSVIngestCheckpoint createCheckpoint(final File file, final TabularDataIngest ingest)
+            throws IOException {
+        if (lastVariableTypes == null || IngestableDataChecker.isGzipCompressed(file)) {
+            return null;
+        }
+        MessageDigest digest = newDigest();
+        long fileLength = file.length();
+        int lastByte;
+        try (InputStream in = new FileInputStream(file)) {
+            lastByte = digestBytes(digest, in, fileLength, -1);
+        }
+        return new CSVIngestCheckpoint(fileLength, digest.digest(), lastByte,
+                ingest.getDataTable().getCaseQuantity(), delimiterChar, lastVariableTypes);
     }
 
-    public int readFile(final BufferedReader csvReader, final DataTable dataTable, final PrintWriter finalOut)
+    /**
+     * Incremental ingest of a file that is a previously ingested file (with 
+     * its checkpoint saved) with more records appended to it. The part of 
+     * the file ingested before is verified against the digest in the 
+     * checkpoint, but not parsed again: only the new records are read, and 
+     * their values widen the variable types determined before. The new 
+     * records are appended to a copy of the previous tab file (the previous 
+     * ingest is left as it was). 
+     *
+     * The result is the same as that of a full ingest of the file. The file 
+     * can't be ingested incrementally if its start has changed; or if the 
+     * new values change the type of a variable in a way that would change 
+     * how the values already in the tab file are stored (for ex., a string 
+     * in a numeric column; an integer column that becomes a decimal one 
+     * doesn't, unless it has "null" values). 
+     *
+     * @return the ingest of the whole file, with a new checkpoint; or null 
+     *         if the file has to be read in full. 
+     */
+    public TabularDataIngest readAppended(final File file, final TabularDataIngest previousIngest)
             throws IOException {
+        if (!(previousIngest.getCheckpoint() instanceof CSVIngestCheckpoint)
+                || previousIngest.getTabDelimitedFile() == null || !previousIngest.getTabDelimitedFile().exists()) {
+            return null;
+        }
+        CSVIngestCheckpoint checkpoint = (CSVIngestCheckpoint) previousIngest.getCheckpoint();
+        long dataLength = checkpoint.getDataLength();
+        long fileLength = file.length();
+        if (checkpoint.getDelimiterChar() != delimiterChar || fileLength < dataLength
+                || IngestableDataChecker.isGzipCompressed(file)) {
+            return null;
+        }
+
+        // Verify the part of the file ingested before (and digest the whole 
+        // file, for the new checkpoint): 
+
+        MessageDigest digest = newDigest();
+        int lastByte;
+        try (InputStream in = new FileInputStream(file)) {
+            lastByte = digestBytes(digest, in, dataLength, -1);
+            if (!MessageDigest.isEqual(cloneDigest(digest).digest(), checkpoint.getDigest())) {
+                dbglog.info("CSV file " + file.getName() + " has changed since it was ingested; reading it in full.");
+                return null;
+            }
+            lastByte = digestBytes(digest, in, fileLength - dataLength, lastByte);
+        }
+
+        long appendStart = findAppendStart(file, checkpoint, fileLength);
+        if (appendStart < 0) {
+            dbglog.info("The last record of CSV file " + file.getName() + " has changed; reading it in full.");
+            return null;
+        }
+
+        // First pass, over the new records: 
+
+        int variableCount = previousIngest.getDataTable().getVarQuantity().intValue();
+        VariableTypes previousTypes = checkpoint.getVariableTypes();
+        VariableTypes variableTypes = new VariableTypes(variableCount);
+        variableTypes.merge(previousTypes);
+        lastVariableTypes = variableTypes;
+
+        int newCaseCount = 0;
+        try (BufferedReader appendedReader = new BufferedReader(
+                new InputStreamReader(new FileRegionInputStream(file, appendStart, fileLength)))) {
+            CSVTokenizer csvTokenizer = new CSVTokenizer(appendedReader, delimiterChar);
+            String[] valueTokens = new String[variableCount];
+            boolean[] quoted = new boolean[variableCount];
+            while (readRecord(csvTokenizer, variableCount, valueTokens, quoted)) {
+                variableTypes.update(valueTokens, quoted);
+                newCaseCount++;
+            }
+        } catch (IOException ex) {
+            // (the error will be reported again, with the right line 
+            // number, by the full ingest)
+            dbglog.fine("Incremental CSV ingest failed: " + ex.getMessage());
+            return null;
+        }
 
-        String line;
-        String[] valueTokens;
+        long previousCaseCount = checkpoint.getCaseCount();
+        for (int i = 0; i < variableCount; i++) {
+            ColumnFormat previousFormat = previousTypes.getColumnFormat(i);
+            ColumnFormat format = variableTypes.getColumnFormat(i);
+            if (previousCaseCount > 0 && format != previousFormat && !(previousFormat == ColumnFormat.INTEGER
+                    && format == ColumnFormat.DECIMAL && !previousTypes.hasNullValue[i])) {
+                dbglog.info("variable " + i + " changes from " + previousFormat + " to " + format
+                        + " in the appended records; reading the CSV file in full.");
+                return null;
+            }
+        }
 
+        DataTable dataTable = new DataTable();
+        String[] variableNames = new String[variableCount];
+        for (int i = 0; i < variableCount; i++) {
+            variableNames[i] = previousIngest.getDataTable().getDataVariables().get(i).getName();
+        }
+        readVariables(dataTable, variableCount, variableNames);
+        long caseCount = previousCaseCount + newCaseCount;
+        dataTable.setCaseQuantity(new Long(caseCount));
+        variableTypes.apply(dataTable);
+
+        // Second, final pass: append the new records to a copy of the 
+        // previous tab file. 
+
+        File tabFileDestination = File.createTempFile("data-", ".tab");
         int lineCounter = 0;
+        try {
+            Files.copy(previousIngest.getTabDelimitedFile().toPath(), tabFileDestination.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            try (BufferedReader appendedReader = new BufferedReader(
+                    new InputStreamReader(new FileRegionInputStream(file, appendStart, fileLength)));
+                    PrintWriter tabFileWriter = new PrintWriter(new BufferedWriter(
+                            new OutputStreamWriter(new FileOutputStream(tabFileDestination, true))))) {
+                CSVTokenizer csvTokenizer = new CSVTokenizer(appendedReader, delimiterChar);
+                String[] valueTokens = new String[variableCount];
+                String[] caseRow = new String[variableCount];
+                while (readRecord(csvTokenizer, variableCount, valueTokens, null)) {
+                    for (int i = 0; i < variableCount; i++) {
+                        caseRow[i] = formatValue(variableTypes, i, valueTokens[i]);
+                    }
+                    tabFileWriter.println(StringUtils.join(caseRow, "\t"));
+                    lineCounter++;
+                }
+            }
+            if (lineCounter != newCaseCount) {
+                throw new IOException("Mismatch between line counts in first and final passes!");
+            }
+        } catch (IOException ex) {
+            tabFileDestination.delete();
+            throw ex;
+        }
 
-        // Read first line: 
+        dbglog.fine("CSV ingest: appended " + newCaseCount + " cases to the " + previousCaseCount
+                + " ingested before.");
+        TabularDataIngest ingest = createIngest(dataTable, tabFileDestination, (int) caseCount);
+        ingest.setCheckpoint(new CSVIngestCheckpoint(fileLength, digest.digest(), lastByte, caseCount,
+                delimiterChar, variableTypes));
+        return ingest;
+    }
 
-        line = csvReader.readLine();
-        line = line.replaceFirst("[\r\n]*$", "");
-        valueTokens = line.split("" + delimiterChar, -2);
+    /*
+     * Finds where the appended records start: right after the part of the 
+     * file ingested before, and the line break ending its last record. If 
+     * that record wasn't terminated, the line break must be the first thing 
+     * appended (otherwise the record itself has changed; -1 is returned). 
+     */
+    private static long findAppendStart(final File file, final CSVIngestCheckpoint checkpoint,
+            final long fileLength) throws IOException {
+        long dataLength = checkpoint.getDataLength();
+        if (dataLength == fileLength) {
+            return dataLength;
+        }
+        int next;
+        int afterNext;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(dataLength);
+            next = raf.read();
+            afterNext = raf.read();
+        }
+        if (checkpoint.getLastByte() == '\n') {
+            return dataLength;
+        } else if (checkpoint.getLastByte() == '\r') {
+            // (the LF of a CR-LF)
+            return next == '\n' ? dataLength + 1 : dataLength;
+        } else if (next == '\n') {
+            return dataLength + 1;
+        } else if (next == '\r') {
+            return afterNext == '\n' ? dataLength + 2 : dataLength + 1;
+        }
+        return -1;
+    }
 
-        if (valueTokens == null || valueTokens.length < 1) {
-            throw new IOException("Failed to read first, variable name line of the CSV file.");
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("SHA-256 digest is not available", ex);
         }
+    }
 
-        int variableCount = valueTokens.length;
+    private static MessageDigest cloneDigest(final MessageDigest digest) throws IOException {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new IOException("SHA-256 digest cannot be cloned", ex);
+        }
+    }
 
-        // Create variables: 
+    /*
+     * Digests the next "length" bytes of the stream; returns the last of 
+     * them (or lastByte, if there are none). 
+     */
+    private static int digestBytes(final MessageDigest digest, final InputStream in, final long length,
+            final int lastByte) throws IOException {
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        int last = lastByte;
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Unexpected end of the CSV file.");
+            }
+            if (read > 0) {
+                digest.update(buffer, 0, read);
+                last = buffer[read - 1] & 0xFF;
+                remaining -= read;
+            }
+        }
+        return last;
+    }
 
-        readVariables(dataTable, variableCount, valueTokens);
+    public int readFile(final BufferedReader csvReader, final DataTable dataTable, final PrintWriter finalOut)
+            throws IOException {
 
-        boolean[] isNumericVariable = new boolean[variableCount];
-        boolean[] isIntegerVariable = new boolean[variableCount];
-        boolean[] isTimeVariable = new boolean[variableCount];
-        boolean[] isDateVariable = new boolean[variableCount];
+        int lineCounter = 0;
+
+        CSVTokenizer csvTokenizer = new CSVTokenizer(csvReader, delimiterChar);
+        int variableCount = readVariableNameLine(csvTokenizer, dataTable);
+
+        VariableTypes variableTypes = new VariableTypes(variableCount);
+        lastVariableTypes = variableTypes;
 
-        File firstPassTempFile = determineVariableTypes(dataTable, isNumericVariable, isIntegerVariable, isTimeVariable,
-                isDateVariable, variableCount, csvReader);
+        File firstPassTempFile = determineVariableTypes(dataTable, variableTypes, variableCount, csvTokenizer);
 
         // Second, final pass.
 
         // Re-open the saved file and reset the line counter: 
 
-        try (BufferedReader secondPassReader = new BufferedReader(new FileReader(firstPassTempFile))) {
+        try (BufferedReader secondPassReader = openFirstPassReader(firstPassTempFile)) {
+            CSVTokenizer secondPassTokenizer = new CSVTokenizer(secondPassReader, delimiterChar);
             lineCounter = 0;
+            String[] valueTokens = new String[variableCount];
             String[] caseRow = new String[variableCount];
 
-            while ((line = secondPassReader.readLine()) != null) {
-                // chop the line:
-                line = line.replaceFirst("[\r\n]*$", "");
-                valueTokens = line.split("" + delimiterChar, -2);
+            while (readRecord(secondPassTokenizer, variableCount, valueTokens, null)) {
+                for (int i = 0; i < variableCount; i++) {
+                    caseRow[i] = formatValue(variableTypes, i, valueTokens[i]);
+                }
+
+                finalOut.println(StringUtils.join(caseRow, "\t"));
+                lineCounter++;
+
+            }
+        } finally {
+            // (the first pass copy is no longer needed)
+            firstPassTempFile.delete();
+        }
+
+        if (dataTable.getCaseQuantity().intValue() != lineCounter) {
+            throw new IOException("Mismatch between line counts in first and final passes!");
+        }
 
-                if (valueTokens == null) {
-                    throw new IOException("Failed to read line " + (lineCounter + 1) + " during the second pass.");
+        return lineCounter;
+    }
+
+    /**
+     * Single-pass ("speculative") ingest: the variable types are inferred from
+     * the leading sample of rows, and the tab file is written in the same
+     * pass, with the values of every column formatted according to its
+     * current type. If a later value changes the type of a column (for ex., a
+     * string in a numeric column), the rows written before the change are
+     * patched once the file has been read; on a consistently typed file the
+     * patch step has nothing to do.
+     *
+     * The resulting tab file and variable types are the same as with the
+     * two-pass ingest.
+     */
+    public int readFileSinglePass(final BufferedReader csvReader, final DataTable dataTable, final File tabFile)
+            throws IOException {
+        CSVTokenizer csvTokenizer = new CSVTokenizer(csvReader, delimiterChar);
+        int variableCount = readVariableNameLine(csvTokenizer, dataTable);
+        VariableTypes variableTypes = new VariableTypes(variableCount);
+        lastVariableTypes = variableTypes;
+
+        // Read and type the leading sample:
+        List<String[]> sample = new ArrayList<>();
+        boolean[] quoted = new boolean[variableCount];
+        while (sample.size() < sampleSize) {
+            String[] valueTokens = new String[variableCount];
+            if (!readRecord(csvTokenizer, variableCount, valueTokens, quoted)) {
+                break;
+            }
+            variableTypes.update(valueTokens, quoted);
+            sample.add(valueTokens);
+        }
+
+        ColumnFormat[] columnFormats = new ColumnFormat[variableCount];
+        for (int i = 0; i < variableCount; i++) {
+            columnFormats[i] = variableTypes.getColumnFormat(i);
+        }
+        // the rows [0, patchRowLimits[i]) of column i have been written with
+        // a format other than its current one:
+        long[] patchRowLimits = new long[variableCount];
+
+        int lineCounter = 0;
+        try (TabFileColumnPatcher patcher = new TabFileColumnPatcher()) {
+            try (PrintWriter tabFileWriter = new PrintWriter(tabFile.getAbsolutePath())) {
+                String[] caseRow = new String[variableCount];
+
+                for (String[] valueTokens : sample) {
+                    writeCaseRow(tabFileWriter, patcher, variableTypes, valueTokens, caseRow, lineCounter);
+                    lineCounter++;
+                }
+                sample.clear();
+
+                String[] valueTokens = new String[variableCount];
+                while (readRecord(csvTokenizer, variableCount, valueTokens, quoted)) {
+                    variableTypes.update(valueTokens, quoted);
+
+                    for (int i = 0; i < variableCount; i++) {
+                        ColumnFormat format = variableTypes.getColumnFormat(i);
+                        if (format != columnFormats[i]) {
+                            dbglog.fine("variable " + i + " changes from " + columnFormats[i] + " to " + format
+                                    + " on line " + (lineCounter + 1) + ".");
+                            columnFormats[i] = format;
+                            patchRowLimits[i] = lineCounter;
+                        }
+                    }
+
+                    writeCaseRow(tabFileWriter, patcher, variableTypes, valueTokens, caseRow, lineCounter);
+                    lineCounter++;
                 }
+            }
+
+            dataTable.setCaseQuantity(new Long(lineCounter));
+            variableTypes.apply(dataTable);
 
-                int tokenCount = valueTokens.length;
+            patcher.patch(tabFile, patchRowLimits, (column, value) -> formatValue(variableTypes, column, value));
+        }
 
-                if (tokenCount > variableCount) {
+        return lineCounter;
+    }
 
-                    // again, similar check for quote-encased strings that contain 
-                    // commas inside them. 
-                    // -- L.A. 4.0.2
+    /**
+     * Parallel ingest: the file is split into chunks at record boundaries; 
+     * the chunks are typed in parallel, the variable types of all the chunks 
+     * are merged, and then the chunks are converted in parallel into 
+     * separate tab files, which are concatenated in order. 
+     *
+     * The record boundaries are found without parsing the file: the 
+     * quotes in each nominal chunk are counted in parallel, so that the 
+     * quote parity (whether we are inside of a quoted value) is known at the 
+     * start of every chunk; and the boundary is the first line end after 
+     * that at which the parity is even. A chunk that doesn't start on a 
+     * real record boundary (because of stray quotes in unquoted values) 
+     * will fail to parse; the caller then falls back to the sequential 
+     * ingest. 
+     *
+     * The resulting tab file and variable types are the same as with the 
+     * two-pass ingest. The default charset must be ASCII-compatible. 
+     *
+     * @return the number of cases, or -1 if the file has no data rows to 
+     *         split.
+     */
+    public int readFileParallel(final File csvFile, final DataTable dataTable, final File tabFile)
+            throws IOException {
+        long fileLength = csvFile.length();
 
-                    valueTokens = null;
-                    valueTokens = new String[variableCount];
+        long dataStart;
+        try (RandomAccessFile raf = new RandomAccessFile(csvFile, "r")) {
+            dataStart = findRecordEnd(raf.getChannel(), 0, false, fileLength);
+        }
+        if (dataStart < 0 || dataStart >= fileLength) {
+            return -1;
+        }
 
-                    int tokenStart = 0;
-                    boolean quotedStringMode = false;
-                    boolean potentialDoubleDoubleQuote = false;
-                    tokenCount = 0;
+        int variableCount;
+        try (BufferedReader headerReader = new BufferedReader(
+                new InputStreamReader(new FileRegionInputStream(csvFile, 0, dataStart)))) {
+            CSVTokenizer csvTokenizer = new CSVTokenizer(headerReader, delimiterChar);
+            variableCount = readVariableNameLine(csvTokenizer, dataTable);
+            if (csvTokenizer.readRecord() >= 0) {
+                throw new IOException("Failed to find the end of the variable name line of the CSV file.");
+            }
+        }
 
-                    for (int i = 0; i < line.length(); i++) {
-                        if (tokenCount > variableCount) {
-                            throw new IOException("Reading mismatch, line " + (lineCounter + 1)
-                                    + " of the data file contains more than " + variableCount
-                                    + " comma-delimited values.");
+        int chunkCount = (int) Math.max(1, Math.min(parallelism, (fileLength - dataStart) / MIN_CHUNK_SIZE));
+        ExecutorService pool = new ForkJoinPool(Math.max(1, parallelism));
+        List<File> chunkTabFiles = new ArrayList<>();
+        try {
+            long[] chunkBoundaries = splitAtRecordBoundaries(pool, csvFile, dataStart, fileLength, chunkCount);
+            chunkCount = chunkBoundaries.length - 1;
+            dbglog.fine("CSV ingest: reading " + chunkCount + " chunks in parallel.");
+
+            // First pass: type each chunk. 
+
+            List<Future<VariableTypes>> typeTasks = new ArrayList<>();
+            List<long[]> chunkCaseCounts = new ArrayList<>();
+            for (int c = 0; c < chunkCount; c++) {
+                final long start = chunkBoundaries[c];
+                final long end = chunkBoundaries[c + 1];
+                final long[] caseCount = new long[1];
+                chunkCaseCounts.add(caseCount);
+                typeTasks.add(pool.submit(() -> {
+                    VariableTypes chunkTypes = new VariableTypes(variableCount);
+                    try (BufferedReader chunkReader = new BufferedReader(
+                            new InputStreamReader(new FileRegionInputStream(csvFile, start, end)))) {
+                        CSVTokenizer csvTokenizer = new CSVTokenizer(chunkReader, delimiterChar);
+                        String[] valueTokens = new String[variableCount];
+                        boolean[] quoted = new boolean[variableCount];
+                        while (readRecord(csvTokenizer, variableCount, valueTokens, quoted)) {
+                            chunkTypes.update(valueTokens, quoted);
+                            caseCount[0]++;
                         }
+                    }
+                    return chunkTypes;
+                }));
+            }
 
-                        char c = line.charAt(i);
-
-                        if (tokenStart == i && c == '"') {
-                            quotedStringMode = true;
-                        } else if (c == ',' && !quotedStringMode) {
-                            valueTokens[tokenCount] = line.substring(tokenStart, i);
-                            tokenCount++;
-                            tokenStart = i + 1;
-                        } else if (i == line.length() - 1) {
-                            valueTokens[tokenCount] = line.substring(tokenStart, line.length());
-                            tokenCount++;
-                        } else if (quotedStringMode && c == '"') {
-                            quotedStringMode = false;
-                            potentialDoubleDoubleQuote = true;
-                        } else if (potentialDoubleDoubleQuote && c == '"') {
-                            quotedStringMode = true;
-                            potentialDoubleDoubleQuote = false;
+            VariableTypes variableTypes = new VariableTypes(variableCount);
+            lastVariableTypes = variableTypes;
+            long lineCounter = 0;
+            for (int c = 0; c < chunkCount; c++) {
+                variableTypes.merge(waitForTask(typeTasks.get(c)));
+                lineCounter += chunkCaseCounts.get(c)[0];
+            }
+            dataTable.setCaseQuantity(new Long(lineCounter));
+            variableTypes.apply(dataTable);
+
+            // Second, final pass: convert each chunk into its own tab file. 
+
+            List<Future<Long>> writeTasks = new ArrayList<>();
+            for (int c = 0; c < chunkCount; c++) {
+                final long start = chunkBoundaries[c];
+                final long end = chunkBoundaries[c + 1];
+                final File chunkTabFile = File.createTempFile("chunk-", ".tab");
+                chunkTabFiles.add(chunkTabFile);
+                writeTasks.add(pool.submit(() -> {
+                    long chunkLineCounter = 0;
+                    try (BufferedReader chunkReader = new BufferedReader(
+                            new InputStreamReader(new FileRegionInputStream(csvFile, start, end)));
+                            PrintWriter chunkWriter = new PrintWriter(chunkTabFile.getAbsolutePath())) {
+                        CSVTokenizer csvTokenizer = new CSVTokenizer(chunkReader, delimiterChar);
+                        String[] valueTokens = new String[variableCount];
+                        String[] caseRow = new String[variableCount];
+                        while (readRecord(csvTokenizer, variableCount, valueTokens, null)) {
+                            for (int i = 0; i < variableCount; i++) {
+                                caseRow[i] = formatValue(variableTypes, i, valueTokens[i]);
+                            }
+                            chunkWriter.println(StringUtils.join(caseRow, "\t"));
+                            chunkLineCounter++;
                         }
+                    }
+                    return chunkLineCounter;
+                }));
+            }
 
+            long finalLineCounter = 0;
+            for (Future<Long> writeTask : writeTasks) {
+                finalLineCounter += waitForTask(writeTask);
+            }
+            if (finalLineCounter != lineCounter) {
+                throw new IOException("Mismatch between line counts in first and final passes!");
+            }
+
+            try (FileChannel tabFileChannel = new FileOutputStream(tabFile).getChannel()) {
+                for (File chunkTabFile : chunkTabFiles) {
+                    try (FileChannel chunkChannel = new FileInputStream(chunkTabFile).getChannel()) {
+                        long position = 0;
+                        long size = chunkChannel.size();
+                        while (position < size) {
+                            position += chunkChannel.transferTo(position, size - position, tabFileChannel);
+                        }
                     }
                 }
+            }
 
-                // TODO: 
-                // isolate CSV parsing into its own method/class, to avoid
-                // code duplication in the 2 passes, above;
-                // do not save the result of the 1st pass - simply reopen the 
-                // original file (?). 
-                // -- L.A. 4.0.2/4.1
-
-                if (tokenCount != variableCount) {
-                    throw new IOException("Reading mismatch, line " + (lineCounter + 1) + " during the second pass: "
-                            + variableCount + " delimited values expected, " + valueTokens.length + " found.");
-                }
+            return (int) lineCounter;
+        } finally {
+            pool.shutdownNow();
+            for (File chunkTabFile : chunkTabFiles) {
+                chunkTabFile.delete();
+            }
+        }
+    }
 
+    /**
+     * Memory-mapped ingest: the file is tokenized directly on its (UTF-8) 
+     * bytes, in two passes over the mapped file - the first one determines 
+     * the variable types, the second one writes the tab file. The values are 
+     * never decoded: the numbers are classified, and the date and time 
+     * values checked, through a byte view of the values; and the tab file 
+     * is written byte by byte, the numbers and dates as they are, the 
+     * strings escaped. Strings are only made of the values that are checked 
+     * for dates, and of the numeric special values. 
+     *
+     * The resulting tab file and variable types are the same as with the 
+     * two-pass ingest. 
+     *
+     * @return the number of cases, or -1 if the file is not valid UTF-8, or 
+     *         a record has the wrong number of values. 
+     */
+    public int readFileMapped(final File csvFile, final DataTable dataTable, final File tabFile)
+            throws IOException {
+        try (FileChannel channel = new FileInputStream(csvFile).getChannel()) {
+            MappedCSVTokenizer csvTokenizer = new MappedCSVTokenizer(channel, delimiterChar);
+            int variableCount = csvTokenizer.readRecord();
+            if (variableCount < 1 || !isValidUTF8(csvTokenizer.getRecordBuffer(), 0, csvTokenizer.getRecordLength())) {
+                return -1;
+            }
+            String[] variableNames = new String[variableCount];
+            for (int i = 0; i < variableCount; i++) {
+                variableNames[i] = csvTokenizer.getField(i);
+            }
+            readVariables(dataTable, variableCount, variableNames);
+
+            // First pass: 
+
+            VariableTypes variableTypes = new VariableTypes(variableCount);
+            lastVariableTypes = variableTypes;
+            ByteSequence valueToken = new ByteSequence();
+            int lineCounter = 0;
+            int tokenCount;
+            while ((tokenCount = csvTokenizer.readRecord()) >= 0) {
+                byte[] record = csvTokenizer.getRecordBuffer();
+                if (tokenCount != variableCount || !isValidUTF8(record, 0, csvTokenizer.getRecordLength())) {
+                    return -1;
+                }
                 for (int i = 0; i < variableCount; i++) {
-                    if (isNumericVariable[i]) {
-                        if (valueTokens[i] == null || valueTokens[i].equalsIgnoreCase("")
-                                || valueTokens[i].equalsIgnoreCase("NA")) {
-                            // Missing value - represented as an empty string in 
-                            // the final tab file
-                            caseRow[i] = "";
-                        } else if (valueTokens[i].equalsIgnoreCase("NaN")) {
-                            // "Not a Number" special value: 
-                            caseRow[i] = "NaN";
-                        } else if (valueTokens[i].equalsIgnoreCase("Inf") || valueTokens[i].equalsIgnoreCase("+Inf")) {
-                            // Positive infinity:
-                            caseRow[i] = "Inf";
-                        } else if (valueTokens[i].equalsIgnoreCase("-Inf")) {
-                            // Negative infinity: 
-                            caseRow[i] = "-Inf";
-                        } else if (valueTokens[i].equalsIgnoreCase("null")) {
-                            // By request from Gus - "NULL" is recognized as a 
-                            // numeric zero: 
-                            if (isIntegerVariable[i]) {
-                                caseRow[i] = "0";
-                            } else {
-                                caseRow[i] = "0.0";
-                            }
-                        } else {
-                            /*
-                             * No re-formatting is done on any other numeric
-                             * values. We'll save them as they were, for
-                             * archival purposes. The alternative solution -
-                             * formatting in sci. notation is commented-out
-                             * below.
-                             */
-                            caseRow[i] = valueTokens[i];
-                        }
-                    } else if (isTimeVariable[i] || isDateVariable[i]) {
-                        // Time and Dates are stored NOT quoted (don't ask).
-                        if (valueTokens[i] != null) {
-                            String charToken = valueTokens[i];
-                            // Dealing with quotes: 
-                            // remove the leading and trailing quotes, if present:
-                            charToken = charToken.replaceFirst("^\"*", "");
-                            charToken = charToken.replaceFirst("\"*$", "");
-                            caseRow[i] = charToken;
-                        } else {
-                            caseRow[i] = "";
+                    if (!variableTypes.isSettledString(i)) {
+                        int start = csvTokenizer.getFieldStart(i);
+                        valueToken.set(record, start, start + csvTokenizer.getFieldLength(i));
+                        variableTypes.update(i, valueToken, csvTokenizer.isQuoted(i));
+                    }
+                }
+                lineCounter++;
+            }
+            dataTable.setCaseQuantity(new Long(lineCounter));
+            variableTypes.apply(dataTable);
+
+            ColumnFormat[] columnFormats = new ColumnFormat[variableCount];
+            for (int i = 0; i < variableCount; i++) {
+                columnFormats[i] = variableTypes.getColumnFormat(i);
+            }
+
+            // Second, final pass: 
+
+            csvTokenizer = new MappedCSVTokenizer(channel, delimiterChar);
+            csvTokenizer.readRecord();
+            try (OutputStream tabFileStream = new BufferedOutputStream(new FileOutputStream(tabFile),
+                    TAB_BUFFER_SIZE)) {
+                while (csvTokenizer.readRecord() >= 0) {
+                    byte[] record = csvTokenizer.getRecordBuffer();
+                    for (int i = 0; i < variableCount; i++) {
+                        if (i > 0) {
+                            tabFileStream.write('\t');
                         }
-                    } else {
-                        // Treat as a String:
-                        // Strings are stored in tab files quoted;                                                                                   
-                        // Missing values are stored as tab-delimited nothing - 
-                        // i.e., an empty string between two tabs (or one tab and 
-                        // the new line);                                                                       
-                        // Empty strings stored as "" (quoted empty string).
-                        // For the purposes  of this CSV ingest reader, we are going
-                        // to assume that all the empty strings in the file are 
-                        // indeed empty strings, and NOT missing values:
-                        if (valueTokens[i] != null) {
-                            String charToken = valueTokens[i];
-                            // Dealing with quotes: 
-                            // remove the leading and trailing quotes, if present:
-                            charToken = charToken.replaceFirst("^\"", "");
-                            charToken = charToken.replaceFirst("\"$", "");
-                            // escape the remaining ones:
-                            charToken = charToken.replace("\"", "\\\"");
-                            // final pair of quotes:
-                            charToken = "\"" + charToken + "\"";
-                            caseRow[i] = charToken;
+                        int start = csvTokenizer.getFieldStart(i);
+                        int end = start + csvTokenizer.getFieldLength(i);
+                        if (columnFormats[i] == ColumnFormat.STRING) {
+                            writeCharacterString(tabFileStream, record, start, end);
+                        } else if (columnFormats[i] != ColumnFormat.DATE_TIME
+                                && isSpecialValueCandidate(record, start, end)) {
+                            String value = formatValue(variableTypes, i, valueToken.set(record, start, end).toString());
+                            tabFileStream.write(value.getBytes(StandardCharsets.UTF_8));
                         } else {
-                            caseRow[i] = "\"\"";
+                            tabFileStream.write(record, start, end - start);
                         }
                     }
+                    tabFileStream.write('\n');
                 }
+            }
 
-                finalOut.println(StringUtils.join(caseRow, "\t"));
-                lineCounter++;
+            return lineCounter;
+        }
+    }
 
+    /*
+     * Writes a string value to the tab file, quoted and escaped; the same 
+     * as escapeCharacterString(), on the UTF-8 bytes of the value. 
+     */
+    static void writeCharacterString(final OutputStream out, final byte[] bytes, final int start, final int end)
+            throws IOException {
+        out.write('"');
+        int copyStart = start;
+        for (int j = start; j < end; j++) {
+            byte escape;
+            switch (bytes[j]) {
+            case '\\':
+                escape = '\\';
+                break;
+            case '"':
+                escape = '"';
+                break;
+            case '\t':
+                escape = 't';
+                break;
+            case '\n':
+                escape = 'n';
+                break;
+            case '\r':
+                escape = 'r';
+                break;
+            default:
+                continue;
             }
+            out.write(bytes, copyStart, j - copyStart);
+            out.write('\\');
+            out.write(escape);
+            copyStart = j + 1;
         }
+        out.write(bytes, copyStart, end - copyStart);
+        out.write('"');
+    }
 
-        if (dataTable.getCaseQuantity().intValue() != lineCounter) {
-            throw new IOException("Mismatch between line counts in first and final passes!");
+    /*
+     * Whether the value may be one of the numeric special values (NA, NaN, 
+     * Inf, +Inf, -Inf, null), which are normalized in the tab file. 
+     */
+    static boolean isSpecialValueCandidate(final byte[] bytes, final int start, final int end) {
+        int length = end - start;
+        if (length < 2 || length > 4) {
+            return false;
         }
-
-        return lineCounter;
+        int first = bytes[start] == '+' || bytes[start] == '-' ? start + 1 : start;
+        return (bytes[first] >= 'A' && bytes[first] <= 'Z') || (bytes[first] >= 'a' && bytes[first] <= 'z');
     }
 
-    private File determineVariableTypes(final DataTable dataTable, final boolean[] isNumericVariable,
-            final boolean[] isIntegerVariable, final boolean[] isTimeVariable, final boolean[] isDateVariable,
-            final int variableCount, final BufferedReader csvReader) throws IOException {
-        int lineCounter = 0;
+    static boolean isValidUTF8(final byte[] bytes, final int start, final int end) {
+        int j = start;
+        while (j < end) {
+            int b = bytes[j] & 0xFF;
+            if (b < 0x80) {
+                j++;
+                continue;
+            }
+            int length;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                length = 2;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                length = 3;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                length = 4;
+                min = 0x10000;
+            } else {
+                return false;
+            }
+            if (j + length > end) {
+                return false;
+            }
+            int codePoint = b & (0xFF >> (length + 1));
+            for (int k = 1; k < length; k++) {
+                int c = bytes[j + k] & 0xFF;
+                if ((c & 0xC0) != 0x80) {
+                    return false;
+                }
+                codePoint = (codePoint << 6) | (c & 0x3F);
+            }
+            if (codePoint < min || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+                return false;
+            }
+            j += length;
+        }
+        return true;
+    }
 
-        for (int i = 0; i < variableCount; i++) {
-            // OK, let's assume that every variable is numeric; 
-            // but we'll go through the file and examine every value; the 
-            // moment we find a value that's not a legit numeric one, we'll 
-            // assume that it is in fact a String. 
-            isNumericVariable[i] = true;
-            isIntegerVariable[i] = true;
-            isDateVariable[i] = true;
-            isTimeVariable[i] = true;
+    /*
+     * A value in a byte buffer, as a character sequence; so that it can be 
+     * checked for a number without decoding it. The characters are the 
+     * bytes (the non-ASCII bytes of a UTF-8 value are never part of a 
+     * number); the String is decoded as UTF-8. 
+     */
+    static class ByteSequence implements CharSequence {
+        private byte[] bytes;
+        private int start;
+        private int end;
+
+        ByteSequence set(final byte[] bytes, final int start, final int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+            return this;
         }
 
-        // First, "learning" pass.
-        // (we'll save the incoming stream in another temp file:)
+        @Override
+        public int length() {
+            return end - start;
+        }
 
-        SimpleDateFormat[] selectedDateTimeFormat = new SimpleDateFormat[variableCount];
-        SimpleDateFormat[] selectedDateFormat = new SimpleDateFormat[variableCount];
+        @Override
+        public char charAt(final int index) {
+            return (char) (bytes[start + index] & 0xFF);
+        }
 
-        File firstPassTempFile = File.createTempFile("firstpass-", ".tab");
-        try (PrintWriter firstPassWriter = new PrintWriter(firstPassTempFile.getAbsolutePath())) {
-            String line = null;
-            String[] valueTokens = null;
-            while ((line = csvReader.readLine()) != null) {
-                // chop the line:
-                line = line.replaceFirst("[\r\n]*$", "");
-                valueTokens = line.split("" + delimiterChar, -2);
-
-                if (valueTokens == null) {
-                    throw new IOException("Failed to read line " + (lineCounter + 1) + " of the Data file.");
-                }
+        @Override
+        public CharSequence subSequence(final int from, final int to) {
+            return new String(bytes, start + from, to - from, StandardCharsets.UTF_8);
+        }
 
-                int tokenCount = valueTokens.length;
+        @Override
+        public String toString() {
+            return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        }
+    }
 
-                if (tokenCount > variableCount) {
+    /*
+     * Splits the data part of the file, [dataStart, fileLength), into (at 
+     * most) chunkCount chunks starting on record boundaries; returns the 
+     * chunk boundaries, from dataStart to fileLength. 
+     */
+    private static long[] splitAtRecordBoundaries(final ExecutorService pool, final File csvFile,
+            final long dataStart, final long fileLength, final int chunkCount) throws IOException {
+        long[] nominalBoundaries = new long[chunkCount + 1];
+        for (int c = 0; c <= chunkCount; c++) {
+            nominalBoundaries[c] = dataStart + (fileLength - dataStart) * c / chunkCount;
+        }
 
-                    // we'll make another attempt to parse the fields - there could be commas 
-                    // inside character strings. The only way to disambiguate this situation
-                    // we are going to support, for now, is to allow commas inside tokens 
-                    // wrapped in double quotes. We may potentially add other mechanisms, 
-                    // such as allowing to specify a custom string wrapper character (something other
-                    // than the double quote), or maybe recognizing escaped commas ("\,") as 
-                    // non-separating ones. 
-                    // -- L.A. 4.0.2
+        try (RandomAccessFile raf = new RandomAccessFile(csvFile, "r")) {
+            // (positional reads from the same channel can run concurrently)
+            FileChannel channel = raf.getChannel();
 
-                    valueTokens = null;
-                    valueTokens = new String[variableCount];
+            List<Future<Long>> countTasks = new ArrayList<>();
+            for (int c = 1; c < chunkCount; c++) {
+                final long start = nominalBoundaries[c - 1];
+                final long end = nominalBoundaries[c];
+                countTasks.add(pool.submit(() -> countQuotes(channel, start, end)));
+            }
 
-                    int tokenStart = 0;
-                    boolean quotedStringMode = false;
-                    boolean potentialDoubleDoubleQuote = false;
-                    tokenCount = 0;
+            List<Long> chunkBoundaries = new ArrayList<>();
+            chunkBoundaries.add(dataStart);
+            long quoteCount = 0;
+            for (int c = 1; c < chunkCount; c++) {
+                quoteCount += waitForTask(countTasks.get(c - 1));
+                long boundary = findRecordEnd(channel, nominalBoundaries[c], (quoteCount & 1) != 0,
+                        nominalBoundaries[c + 1]);
+                // (no boundary within the nominal chunk - it is merged with 
+                // the previous one)
+                if (boundary > chunkBoundaries.get(chunkBoundaries.size() - 1) && boundary < fileLength) {
+                    chunkBoundaries.add(boundary);
+                }
+            }
+            chunkBoundaries.add(fileLength);
 
-                    for (int i = 0; i < line.length(); i++) {
-                        if (tokenCount > variableCount) {
-                            throw new IOException("Reading mismatch, line " + (lineCounter + 1)
-                                    + " of the data file contains more than " + variableCount
-                                    + " comma-delimited values.");
-                        }
+            long[] boundaries = new long[chunkBoundaries.size()];
+            for (int c = 0; c < boundaries.length; c++) {
+                boundaries[c] = chunkBoundaries.get(c);
+            }
+            return boundaries;
+        }
+    }
 
-                        char c = line.charAt(i);
-
-                        if (tokenStart == i && c == '"') {
-                            quotedStringMode = true;
-                        } else if (c == ',' && !quotedStringMode) {
-                            valueTokens[tokenCount] = line.substring(tokenStart, i);
-                            tokenCount++;
-                            tokenStart = i + 1;
-                        } else if (i == line.length() - 1) {
-                            valueTokens[tokenCount] = line.substring(tokenStart, line.length());
-                            tokenCount++;
-                        } else if (quotedStringMode && c == '"') {
-                            quotedStringMode = false;
-                            //unless this is a double double quote in the middle of a quoted
-                            // string; apparently a standard notation for encoding double
-                            // quotes inside quoted strings (??)
-                            potentialDoubleDoubleQuote = true;
-                        } else if (potentialDoubleDoubleQuote && c == '"') {
-                            // OK, that was a "double double" quote.
-                            // going back into the quoted mode:
-                            quotedStringMode = true;
-                            potentialDoubleDoubleQuote = false;
-                            // TODO: figure out what we do with such double double quote
-                            // sequences in the final tab file. Do we want to convert 
-                            // them back to a "single double" quote?
-                            // -- L.A. 4.0.2/4.1
-                        }
+    private static long countQuotes(final FileChannel channel, final long start, final long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long quoteCount = 0;
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '"') {
+                    quoteCount++;
+                }
+            }
+            position += read;
+        }
+        return quoteCount;
+    }
 
+    /*
+     * Finds the first record terminator (a new line - LF, CR or CR-LF - 
+     * outside of quotes) at or after the position "from", given whether 
+     * "from" is inside of a quoted value. Returns the position right after 
+     * the terminator, or -1 if there is none before the limit. 
+     */
+    private static long findRecordEnd(final FileChannel channel, final long from, final boolean inQuotesAtStart,
+            final long limit) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        boolean inQuotes = inQuotesAtStart;
+        boolean afterCR = false;
+        long position = from;
+        long fileLength = channel.size();
+        // (one byte past the limit is read, to tell a CR-LF from a CR)
+        long scanEnd = Math.min(limit + 1, fileLength);
+
+        while (position < scanEnd) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), scanEnd - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++) {
+                byte b = bytes[i];
+                if (afterCR) {
+                    // a CR that's not followed by an LF is a line end:
+                    if (b != '\n') {
+                        return position + i;
+                    }
+                    afterCR = false;
+                }
+                if (position + i >= limit) {
+                    return -1;
+                }
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (!inQuotes) {
+                    if (b == '\n') {
+                        return position + i + 1;
+                    } else if (b == '\r') {
+                        afterCR = true;
                     }
                 }
+            }
+            position += read;
+        }
+        // a CR at the very end of the file:
+        return afterCR && position >= fileLength ? fileLength : -1;
+    }
 
-                //dbglog.info("Number of CSV tokens in the line number " + lineCounter + " : "+tokenCount);
+    /*
+     * Whether the record boundaries can be found by looking for the ASCII 
+     * quote and new line bytes. 
+     */
+    private static boolean isAsciiCompatible(final Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.name().startsWith("ISO-8859-") || charset.name().startsWith("windows-125");
+    }
 
-                // final token count check: 
+    private static <T> T waitForTask(final Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the CSV file", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Failed to read the CSV file: " + ex.getCause().getMessage(), ex.getCause());
+        }
+    }
 
-                if (tokenCount != variableCount) {
+    private void writeCaseRow(final PrintWriter tabFileWriter, final TabFileColumnPatcher patcher,
+            final VariableTypes variableTypes, final String[] valueTokens, final String[] caseRow, final long row)
+            throws IOException {
+        for (int i = 0; i < valueTokens.length; i++) {
+            caseRow[i] = formatValue(variableTypes, i, valueTokens[i]);
+            // Keep the original token if the formatted value doesn't 
+            // preserve it, in case the column has to be patched later:
+            if (valueTokens[i] != null && variableTypes.getColumnFormat(i) != ColumnFormat.STRING
+                    && !valueTokens[i].equals(caseRow[i])) {
+                patcher.logOriginalValue(row, i, valueTokens[i]);
+            }
+        }
+        tabFileWriter.println(StringUtils.join(caseRow, "\t"));
+    }
 
-                    throw new IOException("Reading mismatch, line " + (lineCounter + 1) + " of the Data file: "
-                            + variableCount + " delimited values expected, " + tokenCount + " found.");
-                }
+    private int readVariableNameLine(final CSVTokenizer csvTokenizer, final DataTable dataTable)
+            throws IOException {
+        // Read first line: 
 
-                for (int i = 0; i < variableCount; i++) {
-                    if (isNumericVariable[i]) {
-                        // If we haven't given up on the "numeric" status of this 
-                        // variable, let's perform some tests on it, and see if 
-                        // this value is still a parsable number:
-                        if (!StringUtils.isEmpty(valueTokens[i])) {
-
-                            boolean isNumeric = false;
-                            boolean isInteger = false;
-
-                            if (valueTokens[i].equalsIgnoreCase("NaN") || valueTokens[i].equalsIgnoreCase("NA")
-                                    || valueTokens[i].equalsIgnoreCase("Inf") || valueTokens[i].equalsIgnoreCase("+Inf")
-                                    || valueTokens[i].equalsIgnoreCase("-Inf")
-                                    || valueTokens[i].equalsIgnoreCase("null")) {
-                                isNumeric = true;
-                            } else {
-                                try {
-                                    new Double(valueTokens[i]);
-                                    isNumeric = true;
-                                } catch (NumberFormatException ex) {
-                                    // the token failed to parse as a double number;
-                                    // so we'll have to assume it's just a string variable.
-                                }
-                            }
+        int variableCount = csvTokenizer.readRecord();
 
-                            if (!isNumeric) {
-                                isNumericVariable[i] = false;
-                            } else if (isIntegerVariable[i]) {
-                                try {
-                                    new Integer(valueTokens[i]);
-                                    isInteger = true;
-                                } catch (NumberFormatException ex) {
-                                    // the token failed to parse as an integer number;
-                                    // we'll assume it's a non-integere numeric...
-                                }
-                                if (!isInteger) {
-                                    isIntegerVariable[i] = false;
-                                }
-                            }
-                        }
-                    }
+        if (variableCount < 1) {
+            throw new IOException("Failed to read first, variable name line of the CSV file.");
+        }
 
-                    // And if we have concluded that this is not a numeric column, 
-                    // let's see if we can parse the string token as a date or 
-                    // a date-time value:
-
-                    if (!isNumericVariable[i]) {
-
-                        Date dateResult = null;
-
-                        if (isTimeVariable[i]) {
-                            if (valueTokens[i] != null && (!valueTokens[i].equals(""))) {
-                                boolean isTime = false;
-
-                                if (selectedDateTimeFormat[i] != null) {
-                                    dbglog.fine("will try selected format " + selectedDateTimeFormat[i].toPattern());
-                                    ParsePosition pos = new ParsePosition(0);
-                                    dateResult = selectedDateTimeFormat[i].parse(valueTokens[i], pos);
-
-                                    if (dateResult == null) {
-                                        dbglog.fine(selectedDateTimeFormat[i].toPattern() + ": null result.");
-                                    } else if (pos.getIndex() != valueTokens[i].length()) {
-                                        dbglog.fine(selectedDateTimeFormat[i].toPattern()
-                                                + ": didn't parse to the end - bad time zone?");
-                                    } else {
-                                        // OK, successfully parsed a value!
-                                        isTime = true;
-                                        dbglog.fine(selectedDateTimeFormat[i].toPattern() + " worked!");
-                                    }
-                                } else {
-                                    for (SimpleDateFormat format : TIME_FORMATS) {
-                                        dbglog.fine("will try format " + format.toPattern());
-                                        ParsePosition pos = new ParsePosition(0);
-                                        dateResult = format.parse(valueTokens[i], pos);
-                                        if (dateResult == null) {
-                                            dbglog.fine(format.toPattern() + ": null result.");
-                                            continue;
-                                        }
-                                        if (pos.getIndex() != valueTokens[i].length()) {
-                                            dbglog.fine(
-                                                    format.toPattern() + ": didn't parse to the end - bad time zone?");
-                                            continue;
-                                        }
-                                        // OK, successfully parsed a value!
-                                        isTime = true;
-                                        dbglog.fine(format.toPattern() + " worked!");
-                                        selectedDateTimeFormat[i] = format;
-                                        break;
-                                    }
-                                }
-                                if (!isTime) {
-                                    isTimeVariable[i] = false;
-                                    // OK, the token didn't parse as a time value;
-                                    // But we will still try to parse it as a date, below.
-                                    // unless of course we have already decided that this column 
-                                    // is NOT a date. 
-                                } else {
-                                    // And if it is a time value, we are going to assume it's
-                                    // NOT a date.
-                                    isDateVariable[i] = false;
-                                }
-                            }
-                        }
+        String[] valueTokens = new String[variableCount];
+        csvTokenizer.getFields(valueTokens, null);
 
-                        if (isDateVariable[i]) {
-                            if (valueTokens[i] != null && (!valueTokens[i].equals(""))) {
-                                boolean isDate = false;
-
-                                // TODO: 
-                                // Strictly speaking, we should be doing the same thing
-                                // here as with the time formats above; select the 
-                                // first one that works, then insist that all the 
-                                // other values in this column match it... but we 
-                                // only have one, as of now, so it should be ok. 
-                                // -- L.A. 4.0 beta
-
-                                for (SimpleDateFormat format : DATE_FORMATS) {
-                                    // Strict parsing - it will throw an 
-                                    // exception if it doesn't parse!
-                                    format.setLenient(false);
-                                    dbglog.fine("will try format " + format.toPattern());
-                                    try {
-                                        dateResult = format.parse(valueTokens[i]);
-                                        dbglog.fine("format " + format.toPattern() + " worked!");
-                                        isDate = true;
-                                        selectedDateFormat[i] = format;
-                                        break;
-                                    } catch (ParseException ex) {
-                                        //Do nothing                                      
-                                        dbglog.fine("format " + format.toPattern() + " didn't work.");
-                                    }
-                                }
-                                if (!isDate) {
-                                    isDateVariable[i] = false;
-                                }
-                            }
-                        }
-                    }
+        // Create variables: 
+
+        readVariables(dataTable, variableCount, valueTokens);
+        return variableCount;
+    }
+
+    /*
+     * Reads the next CSV record (which may span several lines, if it has 
+     * quoted values with new lines in them). 
+     * Returns false at the end of the file. 
+     */
+    private boolean readRecord(final CSVTokenizer csvTokenizer, final int variableCount, final String[] valueTokens,
+            final boolean[] quoted) throws IOException {
+        long lineNumber = csvTokenizer.getLineNumber();
+        int tokenCount = csvTokenizer.readRecord();
+        if (tokenCount < 0) {
+            return false;
+        }
+
+        // final token count check: 
+
+        if (tokenCount != variableCount) {
+
+            throw new IOException("Reading mismatch, line " + lineNumber + " of the Data file: " + variableCount
+                    + " delimited values expected, " + tokenCount + " found.");
+        }
+
+        csvTokenizer.getFields(valueTokens, quoted);
+        return true;
+    }
+
+    /*
+     * Formats a value for the tab file, according to the (current) type of 
+     * the variable. 
+     */
+    String formatValue(final VariableTypes variableTypes, final int i, final String valueToken) {
+        if (variableTypes.isNumericVariable[i]) {
+            if (valueToken == null || valueToken.equalsIgnoreCase("") || valueToken.equalsIgnoreCase("NA")) {
+                // Missing value - represented as an empty string in 
+                // the final tab file
+                return "";
+            } else if (valueToken.equalsIgnoreCase("NaN")) {
+                // "Not a Number" special value: 
+                return "NaN";
+            } else if (valueToken.equalsIgnoreCase("Inf") || valueToken.equalsIgnoreCase("+Inf")) {
+                // Positive infinity:
+                return "Inf";
+            } else if (valueToken.equalsIgnoreCase("-Inf")) {
+                // Negative infinity: 
+                return "-Inf";
+            } else if (valueToken.equalsIgnoreCase("null")) {
+                // By request from Gus - "NULL" is recognized as a 
+                // numeric zero: 
+                if (variableTypes.isIntegerVariable[i]) {
+                    return "0";
+                } else {
+                    return "0.0";
                 }
+            } else {
+                /*
+                 * No re-formatting is done on any other numeric
+                 * values. We'll save them as they were, for
+                 * archival purposes. The alternative solution -
+                 * formatting in sci. notation is commented-out
+                 * below.
+                 */
+                return valueToken;
+            }
+        } else if (variableTypes.getColumnFormat(i) == ColumnFormat.DATE_TIME) {
+            // Time and Dates are stored NOT quoted (don't ask).
+            // (a quoted value is never a date; so there are no quotes to 
+            // remove)
+            return valueToken != null ? valueToken : "";
+        } else {
+            // Treat as a String:
+            // Strings are stored in tab files quoted;                                                                                   
+            // Missing values are stored as tab-delimited nothing - 
+            // i.e., an empty string between two tabs (or one tab and 
+            // the new line);                                                                       
+            // Empty strings stored as "" (quoted empty string).
+            // For the purposes  of this CSV ingest reader, we are going
+            // to assume that all the empty strings in the file are 
+            // indeed empty strings, and NOT missing values.
+            // The tokenizer has already removed the enclosing quotes and 
+            // un-doubled the quotes inside; the special characters are 
+            // escaped as in all the other tab files:
+            return escapeCharacterString(valueToken != null ? valueToken : "");
+        }
+    }
+
+    private File determineVariableTypes(final DataTable dataTable, final VariableTypes variableTypes,
+            final int variableCount, final CSVTokenizer csvTokenizer) throws IOException {
+        int lineCounter = 0;
+
+        // First, "learning" pass.
+        // (we'll save the incoming stream in another temp file; each record
+        // is written back out as a CSV line, re-quoted as necessary:)
+
+        File firstPassTempFile = File.createTempFile("firstpass-", ".tab");
+        try (PrintWriter firstPassWriter = openFirstPassWriter(firstPassTempFile)) {
+            String[] valueTokens = new String[variableCount];
+            boolean[] quoted = new boolean[variableCount];
+            while (readRecord(csvTokenizer, variableCount, valueTokens, quoted)) {
+                variableTypes.update(valueTokens, quoted);
 
-                firstPassWriter.println(line);
+                csvTokenizer.writeRecord(firstPassWriter);
                 lineCounter++;
             }
+        } catch (IOException ex) {
+            firstPassTempFile.delete();
+            throw ex;
         }
         dataTable.setCaseQuantity(new Long(lineCounter));
 
-        // Re-type the variables that we've determined are numerics:
+        variableTypes.apply(dataTable);
 
-        for (int i = 0; i < variableCount; i++) {
+        return firstPassTempFile;
+    }
+
+    private PrintWriter openFirstPassWriter(final File firstPassTempFile) throws IOException {
+        OutputStream out = new FileOutputStream(firstPassTempFile);
+        if (compressFirstPass || compressedInput) {
+            out = new FastGZIPOutputStream(out, GZIP_BUFFER_SIZE);
+        }
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)));
+    }
+
+    private BufferedReader openFirstPassReader(final File firstPassTempFile) throws IOException {
+        InputStream in = new FileInputStream(firstPassTempFile);
+        if (compressFirstPass || compressedInput) {
+            in = new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+        }
+        return new BufferedReader(new InputStreamReader(in));
+    }
+
+    /*
+     * The first pass copy is compressed for the space savings, so it should 
+     * cost as little time as possible: 
+     */
+    private static class FastGZIPOutputStream extends GZIPOutputStream {
+        FastGZIPOutputStream(final OutputStream out, final int size) throws IOException {
+            super(out, size);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+
+    /*
+     * The types of the variables, as determined from the values seen so far.
+     *
+     * Every value narrows down the possible types of its column; the result 
+     * does not depend on the order in which the values are seen, so the 
+     * types determined from separate parts of the file can be merged (see 
+     * merge(), below). 
+     * Not thread-safe (the date/time detector is not); every thread needs its 
+     * own instance. 
+     */
+    static class VariableTypes implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int variableCount;
+        private final boolean[] isNumericVariable;
+        private final boolean[] isIntegerVariable;
+        // any numeric (or numeric special) values rule out dates and times:
+        private final boolean[] hasNumericValue;
+        // the time and date formats still matching all the values, as bit 
+        // masks over DateTimeTokenDetector.TIME_FORMATS and DATE_FORMATS:
+        private final int[] timeFormatCandidates;
+        private final int[] dateFormatCandidates;
+        // "null" values are stored as 0 in an integer column, and as 0.0 in 
+        // a decimal one: 
+        private final boolean[] hasNullValue;
+
+        private transient DateTimeTokenDetector dateTimeDetector = new DateTimeTokenDetector();
+
+        VariableTypes(final int variableCount) {
+            this.variableCount = variableCount;
+            isNumericVariable = new boolean[variableCount];
+            isIntegerVariable = new boolean[variableCount];
+            hasNumericValue = new boolean[variableCount];
+            timeFormatCandidates = new int[variableCount];
+            dateFormatCandidates = new int[variableCount];
+            hasNullValue = new boolean[variableCount];
+
+            for (int i = 0; i < variableCount; i++) {
+                // OK, let's assume that every variable is numeric; 
+                // but we'll go through the file and examine every value; the 
+                // moment we find a value that's not a legit numeric one, we'll 
+                // assume that it is in fact a String. 
+                isNumericVariable[i] = true;
+                isIntegerVariable[i] = true;
+                timeFormatCandidates[i] = DateTimeTokenDetector.ALL_TIME_FORMATS;
+                dateFormatCandidates[i] = DateTimeTokenDetector.ALL_DATE_FORMATS;
+            }
+        }
+
+        boolean isTimeVariable(final int i) {
+            return !isNumericVariable[i] && !hasNumericValue[i] && timeFormatCandidates[i] != 0;
+        }
+
+        boolean isDateVariable(final int i) {
+            return !isNumericVariable[i] && !hasNumericValue[i] && timeFormatCandidates[i] == 0
+                    && dateFormatCandidates[i] != 0;
+        }
+
+        ColumnFormat getColumnFormat(final int i) {
             if (isNumericVariable[i]) {
-                dataTable.getDataVariables().get(i).setTypeNumeric();
+                return isIntegerVariable[i] ? ColumnFormat.INTEGER : ColumnFormat.DECIMAL;
+            } else if (isTimeVariable(i) || isDateVariable(i)) {
+                return ColumnFormat.DATE_TIME;
+            }
+            return ColumnFormat.STRING;
+        }
 
-                if (isIntegerVariable[i]) {
-                    dataTable.getDataVariables().get(i).setIntervalDiscrete();
-                } else {
-                    dataTable.getDataVariables().get(i).setIntervalContinuous();
+        void update(final String[] valueTokens, final boolean[] quoted) {
+            for (int i = 0; i < variableCount; i++) {
+                update(i, valueTokens[i], quoted != null && quoted[i]);
+            }
+        }
+
+        /*
+         * Updates the type of the variable i with one value. (The value can 
+         * be any character sequence, so that it doesn't have to be turned 
+         * into a String unless it needs to be checked for a date.) 
+         */
+        void update(final int i, final CharSequence valueToken, final boolean quoted) {
+            if (quoted) {
+                // A quoted value is a string, even if it looks like a 
+                // number or a date:
+                isNumericVariable[i] = false;
+                timeFormatCandidates[i] = 0;
+                dateFormatCandidates[i] = 0;
+                return;
+            }
+
+            if (StringUtils.isEmpty(valueToken)) {
+                // missing value; fits any type
+                return;
+            }
+
+            if (isNumericVariable[i]) {
+                // If we haven't given up on the "numeric" status of this 
+                // variable, let's perform some tests on it, and see if 
+                // this value is still a parsable number:
+                TokenType tokenType = NumericTokenLexer.classify(valueToken);
+                if (tokenType.isNumeric()) {
+                    hasNumericValue[i] = true;
+                    if (tokenType == TokenType.NULL) {
+                        hasNullValue[i] = true;
+                    }
+                    if (!tokenType.isInteger()) {
+                        // we'll assume it's a non-integer numeric...
+                        // (integers too large for 32 bits are still 
+                        // integers; they are stored as longs)
+                        isIntegerVariable[i] = false;
+                    }
+                    // (a numeric value is never a date or a time)
+                    return;
+                }
+                // the token failed to parse as a double number;
+                // so we'll have to assume it's just a string variable.
+                isNumericVariable[i] = false;
+            }
+
+            // And if we have concluded that this is not a numeric column, 
+            // let's see if we can parse the string token as a date or 
+            // a date-time value. (Numeric tokens don't parse as either, 
+            // so there's no need to go back to the values seen before
+            // the column stopped being numeric.) Only the formats that 
+            // have matched all the values so far are tried; so once 
+            // the format of the column has been established, it's the 
+            // only one tried. 
+
+            if (!hasNumericValue[i] && (timeFormatCandidates[i] != 0 || dateFormatCandidates[i] != 0)) {
+                String value = valueToken.toString();
+                if (timeFormatCandidates[i] != 0) {
+                    timeFormatCandidates[i] = dateTimeDetector.matchTimeFormats(value, timeFormatCandidates[i]);
+                }
+                if (dateFormatCandidates[i] != 0) {
+                    dateFormatCandidates[i] = dateTimeDetector.matchDateFormats(value, dateFormatCandidates[i]);
                 }
-            } else if (isDateVariable[i] && selectedDateFormat[i] != null) {
-                // Dates are still Strings, i.e., they are "character" and "discrete";
-                // But we add special format values for them:
-                dataTable.getDataVariables().get(i).setFormat(DATE_FORMATS[0].toPattern());
-                dataTable.getDataVariables().get(i).setFormatCategory("date");
-            } else if (isTimeVariable[i] && selectedDateTimeFormat[i] != null) {
-                // Same for time values:
-                dataTable.getDataVariables().get(i).setFormat(selectedDateTimeFormat[i].toPattern());
-                dataTable.getDataVariables().get(i).setFormatCategory("time");
             }
         }
 
-        return firstPassTempFile;
+        /*
+         * Whether the variable i is a string variable, whatever the values 
+         * that are still to come; no more values need to be checked. 
+         */
+        boolean isSettledString(final int i) {
+            return !isNumericVariable[i]
+                    && (hasNumericValue[i] || (timeFormatCandidates[i] == 0 && dateFormatCandidates[i] == 0));
+        }
+
+        /*
+         * Merges the types determined from another part of the file. 
+         */
+        void merge(final VariableTypes other) {
+            for (int i = 0; i < variableCount; i++) {
+                isNumericVariable[i] &= other.isNumericVariable[i];
+                isIntegerVariable[i] &= other.isIntegerVariable[i];
+                hasNumericValue[i] |= other.hasNumericValue[i];
+                hasNullValue[i] |= other.hasNullValue[i];
+                timeFormatCandidates[i] &= other.timeFormatCandidates[i];
+                dateFormatCandidates[i] &= other.dateFormatCandidates[i];
+            }
+        }
+
+        private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            dateTimeDetector = new DateTimeTokenDetector();
+        }
+
+        void apply(final DataTable dataTable) {
+            // Re-type the variables that we've determined are numerics:
+
+            for (int i = 0; i < variableCount; i++) {
+                if (isNumericVariable[i]) {
+                    dataTable.getDataVariables().get(i).setTypeNumeric();
+
+                    if (isIntegerVariable[i]) {
+                        dataTable.getDataVariables().get(i).setIntervalDiscrete();
+                    } else {
+                        dataTable.getDataVariables().get(i).setIntervalContinuous();
+                    }
+                } else if (isTimeVariable(i)) {
+                    // Dates and times are still Strings, i.e., they are 
+                    // "character" and "discrete"; but we add special format 
+                    // values for them. If all the values are date-times, 
+                    // it's a time variable (even though a date-time value 
+                    // also parses as a date):
+                    int k = Integer.numberOfTrailingZeros(timeFormatCandidates[i]);
+                    dataTable.getDataVariables().get(i).setFormat(DateTimeTokenDetector.TIME_FORMATS.get(k).getPattern());
+                    dataTable.getDataVariables().get(i).setFormatCategory("time");
+                } else if (isDateVariable(i)) {
+                    int k = Integer.numberOfTrailingZeros(dateFormatCandidates[i]);
+                    dataTable.getDataVariables().get(i).setFormat(DateTimeTokenDetector.DATE_FORMATS.get(k).getPattern());
+                    dataTable.getDataVariables().get(i).setFormatCategory("date");
+                }
+            }
+        }
     }
 
-    private void readVariables(final DataTable dataTable, final int variableCount, final String[] valueTokens)
+    void readVariables(final DataTable dataTable, final int variableCount, final String[] valueTokens)
             throws IOException {
         List<DataVariable> variableList = new ArrayList<>();
 
@@ -0,0 +1,96 @@
+/*
+ Copyright (C) 2005-2013, by the President and Fellows of Harvard College.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+
+ Dataverse Network - A web application to share, preserve and analyze research data.
+ Developed at the Institute for Quantitative Social Science, Harvard University.
+ Version 3.0.
+ */
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.csv;
+
+import edu.harvard.iq.datafilereader.tabulardata.IngestCheckpoint;
+import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.csv.CSVFileReader.VariableTypes;
+import edu.harvard.iq.datafilereader.tabulardata.util.MomentsAccumulator;
+
+/**
+ * The checkpoint of a CSV (or TSV) ingest: the length of the ingested file,
+ * with its SHA-256 digest, to verify that a later version of the file only
+ * has records appended to it; and the variable types determined from all
+ * the values, which the appended values can only widen; and the moments of
+ * the numeric variables, which the appended values are merged into.
+ *
+ * See {@link CSVFileReader#readAppended(java.io.File,
+ * edu.harvard.iq.datafilereader.tabulardata.TabularDataIngest)}.
+ */
+public class CSVIngestCheckpoint implements IngestCheckpoint {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long dataLength;
+    private final byte[] digest;
+    // the last byte of the file (-1 if empty); if it's not a line break,
+    // the next version of the file has to start a new line:
+    private final int lastByte;
+    private final long caseCount;
+    private final char delimiterChar;
+    private final VariableTypes variableTypes;
+    // (set once the summary statistics are calculated)
+    private MomentsAccumulator[] variableMoments;
+
+    CSVIngestCheckpoint(final long dataLength, final byte[] digest, final int lastByte, final long caseCount,
+            final char delimiterChar, final VariableTypes variableTypes) {
+        this.dataLength = dataLength;
+        this.digest = digest;
+        this.lastByte = lastByte;
+        this.caseCount = caseCount;
+        this.delimiterChar = delimiterChar;
+        this.variableTypes = variableTypes;
+    }
+
+    @Override
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    @Override
+    public long getCaseCount() {
+        return caseCount;
+    }
+
+    @Override
+    public MomentsAccumulator[] getVariableMoments() {
+        return variableMoments;
+    }
+
+    @Override
+    public void setVariableMoments(final MomentsAccumulator[] variableMoments) {
+        this.variableMoments = variableMoments;
+    }
+
+    byte[] getDigest() {
+        return digest;
+    }
+
+    int getLastByte() {
+        return lastByte;
+    }
+
+    char getDelimiterChar() {
+        return delimiterChar;
+    }
+
+    VariableTypes getVariableTypes() {
+        return variableTypes;
+    }
+}
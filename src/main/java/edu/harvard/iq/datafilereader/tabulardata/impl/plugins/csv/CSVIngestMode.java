@@ -0,0 +1,48 @@
+/*
+ Copyright (C) 2005-2013, by the President and Fellows of Harvard College.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+
+ Dataverse Network - A web application to share, preserve and analyze research data.
+ Developed at the Institute for Quantitative Social Science, Harvard University.
+ Version 3.0.
+ */
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.csv;
+
+/**
+ * How the {@link CSVFileReader} goes through the file.
+ */
+public enum CSVIngestMode {
+    /**
+     * The traditional mode: the first pass determines the variable types
+     * (saving a copy of the file); the second pass reads the copy and writes
+     * the tab file.
+     */
+    TWO_PASS,
+
+    /**
+     * Single pass: the variable types are inferred from a leading sample of
+     * rows, and the tab file is written directly; if a later value changes
+     * the type of a column, only the cells of that column written before the
+     * change are patched at the end.
+     */
+    SPECULATIVE,
+
+    /**
+     * Parallel: the file is split into chunks at record boundaries, and the
+     * chunks are typed, and then converted, on all the available cores. Only
+     * used when the reader is given the file itself; a stream is read in two
+     * passes.
+     */
+    PARALLEL
+}
@@ -0,0 +1,296 @@
+/*
+ Copyright (C) 2005-2013, by the President and Fellows of Harvard College.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+
+ Dataverse Network - A web application to share, preserve and analyze research data.
+ Developed at the Institute for Quantitative Social Science, Harvard University.
+ Version 3.0.
+ */
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.csv;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import edu.harvard.iq.datafilereader.tabulardata.TabularDataIngest;
+import edu.harvard.iq.datafilereader.tabulardata.model.DataTable;
+import edu.harvard.iq.datafilereader.tabulardata.util.IngestableDataChecker;
+
+/**
+ * Implementation of <code>TabularDataFileReader</code> for tab-separated
+ * text files, with a variable name header.
+ *
+ * A "clean" file - UTF-8, no quotes, no carriage returns, the same number
+ * of values on every line - is read without tokenizing it as CSV: a single
+ * scan validates the file and determines the variable types, and then the
+ * tab file is produced with block copies of the lines, only rewriting the
+ * values that need to be normalized (strings, which are quoted in the tab
+ * file, and the numeric special values). If no values need to be
+ * normalized, the data lines are copied into the tab file as they are.
+ *
+ * Any other file is read by the {@link CSVFileReader}, with a tab delimiter;
+ * the results are the same either way.
+ */
+public class TSVFileReader extends CSVFileReader {
+
+    private static final Logger dbglog = Logger.getLogger(TSVFileReader.class.getPackage().getName());
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    public TSVFileReader() {
+        setDelimiterChar('\t');
+    }
+
+    @Override
+    public TabularDataIngest read(final File file) throws IOException {
+        // (the tab file must come out in the same encoding, and with the
+        // same line ends, as the one produced by the CSV reader)
+        if (Charset.defaultCharset().equals(StandardCharsets.UTF_8) && "\n".equals(System.lineSeparator())
+                && !IngestableDataChecker.isGzipCompressed(file)) {
+            DataTable dataTable = new DataTable();
+            File tabFileDestination = File.createTempFile("data-", ".tab");
+            int lineCount = -1;
+            try {
+                lineCount = readCleanFile(file, dataTable, tabFileDestination);
+            } finally {
+                if (lineCount < 0) {
+                    tabFileDestination.delete();
+                }
+            }
+            if (lineCount >= 0) {
+                return createIngest(dataTable, tabFileDestination, lineCount);
+            }
+            dbglog.fine("TSV file " + file.getName() + " is not clean; reading it as a tab-delimited CSV file.");
+        }
+        return super.read(file);
+    }
+
+    /**
+     * Reads a clean tab-separated file (see above).
+     *
+     * @return the number of cases, or -1 if the file is not clean.
+     */
+    public int readCleanFile(final File tsvFile, final DataTable dataTable, final File tabFile) throws IOException {
+        int variableCount;
+        long dataStart;
+        VariableTypes variableTypes;
+        boolean[] hasSpecialValues;
+        boolean lastLineTerminated = true;
+        int lineCounter = 0;
+
+        // First pass: validate the file, and determine the variable types.
+
+        try (LineReader lines = new LineReader(new FileInputStream(tsvFile))) {
+            if (!lines.nextLine() || !lines.terminated) {
+                return -1;
+            }
+            byte[] buffer = lines.buffer;
+            for (int j = lines.start; j < lines.end; j++) {
+                if (buffer[j] == '"' || buffer[j] == '\r') {
+                    return -1;
+                }
+            }
+            if (!isValidUTF8(buffer, lines.start, lines.end)) {
+                return -1;
+            }
+            String[] variableNames = new String(buffer, lines.start, lines.end - lines.start, StandardCharsets.UTF_8)
+                    .split("\t", -1);
+            variableCount = variableNames.length;
+            readVariables(dataTable, variableCount, variableNames);
+            dataStart = lines.end - lines.start + 1;
+
+            variableTypes = new VariableTypes(variableCount);
+            lastVariableTypes = variableTypes;
+            hasSpecialValues = new boolean[variableCount];
+            ByteSequence valueToken = new ByteSequence();
+
+            while (lines.nextLine()) {
+                buffer = lines.buffer;
+                int end = lines.end;
+                int column = 0;
+                int cellStart = lines.start;
+                boolean asciiLine = true;
+                for (int j = cellStart; j <= end; j++) {
+                    if (j == end || buffer[j] == '\t') {
+                        if (column == variableCount) {
+                            return -1;
+                        }
+                        if (!variableTypes.isSettledString(column)) {
+                            variableTypes.update(column, valueToken.set(buffer, cellStart, j), false);
+                        }
+                        if (isSpecialValueCandidate(buffer, cellStart, j)) {
+                            hasSpecialValues[column] = true;
+                        }
+                        column++;
+                        cellStart = j + 1;
+                    } else if (buffer[j] == '"' || buffer[j] == '\r') {
+                        return -1;
+                    } else if (buffer[j] < 0) {
+                        asciiLine = false;
+                    }
+                }
+                if (column != variableCount || (!asciiLine && !isValidUTF8(buffer, lines.start, end))) {
+                    return -1;
+                }
+                lineCounter++;
+                lastLineTerminated = lines.terminated;
+            }
+        }
+
+        dataTable.setCaseQuantity(new Long(lineCounter));
+        variableTypes.apply(dataTable);
+
+        ColumnFormat[] columnFormats = new ColumnFormat[variableCount];
+        boolean[] rewrite = new boolean[variableCount];
+        boolean rewriteAny = false;
+        for (int i = 0; i < variableCount; i++) {
+            columnFormats[i] = variableTypes.getColumnFormat(i);
+            rewrite[i] = columnFormats[i] == ColumnFormat.STRING
+                    || (columnFormats[i] != ColumnFormat.DATE_TIME && hasSpecialValues[i]);
+            rewriteAny |= rewrite[i];
+        }
+
+        // Second pass: produce the tab file.
+
+        if (!rewriteAny) {
+            dbglog.fine("TSV ingest: copying the data lines into the tab file.");
+            try (FileChannel in = new FileInputStream(tsvFile).getChannel();
+                    FileChannel out = new FileOutputStream(tabFile).getChannel()) {
+                long position = dataStart;
+                long size = in.size();
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            }
+            if (!lastLineTerminated) {
+                try (OutputStream out = new FileOutputStream(tabFile, true)) {
+                    out.write('\n');
+                }
+            }
+            return lineCounter;
+        }
+
+        try (LineReader lines = new LineReader(new FileInputStream(tsvFile));
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(tabFile), BUFFER_SIZE)) {
+            // (skip the variable names)
+            lines.nextLine();
+
+            while (lines.nextLine()) {
+                byte[] buffer = lines.buffer;
+                int end = lines.end;
+                int column = 0;
+                int cellStart = lines.start;
+                // the values that don't need to be rewritten are copied in
+                // blocks, with the tabs between them:
+                int copyStart = cellStart;
+                for (int j = cellStart; j <= end; j++) {
+                    if (j == end || buffer[j] == '\t') {
+                        if (rewrite[column]) {
+                            out.write(buffer, copyStart, cellStart - copyStart);
+                            if (columnFormats[column] == ColumnFormat.STRING) {
+                                writeCharacterString(out, buffer, cellStart, j);
+                            } else if (isSpecialValueCandidate(buffer, cellStart, j)) {
+                                String token = new String(buffer, cellStart, j - cellStart, StandardCharsets.UTF_8);
+                                out.write(formatValue(variableTypes, column, token).getBytes(StandardCharsets.UTF_8));
+                            } else {
+                                out.write(buffer, cellStart, j - cellStart);
+                            }
+                            copyStart = j;
+                        }
+                        column++;
+                        cellStart = j + 1;
+                    }
+                }
+                out.write(buffer, copyStart, end - copyStart);
+                out.write('\n');
+            }
+        }
+
+        return lineCounter;
+    }
+
+    /*
+     * Reads the lines of a file into a byte buffer; the current line is
+     * [start, end) of the buffer (without the new line).
+     */
+    private static class LineReader implements Closeable {
+        private final InputStream in;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int start;
+        int end;
+        boolean terminated;
+        private int position = 0;
+        private int limit = 0;
+        private boolean eof = false;
+
+        LineReader(final InputStream in) {
+            this.in = in;
+        }
+
+        boolean nextLine() throws IOException {
+            int scan = position;
+            while (true) {
+                for (int j = scan; j < limit; j++) {
+                    if (buffer[j] == '\n') {
+                        start = position;
+                        end = j;
+                        terminated = true;
+                        position = j + 1;
+                        return true;
+                    }
+                }
+                if (eof) {
+                    if (position < limit) {
+                        start = position;
+                        end = limit;
+                        terminated = false;
+                        position = limit;
+                        return true;
+                    }
+                    return false;
+                }
+                // make room for more of the line, and read on:
+                if (position > 0) {
+                    System.arraycopy(buffer, position, buffer, 0, limit - position);
+                    limit -= position;
+                    position = 0;
+                }
+                if (limit == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                scan = limit;
+                int n = in.read(buffer, limit, buffer.length - limit);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    limit += n;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -59,6 +59,7 @@ import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
 import edu.harvard.iq.datafilereader.tabulardata.model.SummaryStatistic;
 import edu.harvard.iq.datafilereader.tabulardata.model.VariableCategory;
 import edu.harvard.iq.datafilereader.tabulardata.model.VariableRange;
+import edu.harvard.iq.datafilereader.tabulardata.util.DoubleFormatter;
 
 /**
  * ingest plugin for Stata 13 (117) DTA file format.
@@ -302,7 +303,7 @@ public class DTA117FileReader extends TabularDataFileReader {
 
     private NumberFormat twoDigitFormatter = new DecimalFormat("00");
 
-    private NumberFormat doubleNumberFormatter = new DecimalFormat();
+    private DoubleFormatter doubleNumberFormatter;
 
     TabularDataIngest ingesteddata = new TabularDataIngest();
 
@@ -360,8 +361,7 @@ public class DTA117FileReader extends TabularDataFileReader {
 
         logger.fine("constant table to be used:\n" + constantTable);
 
-        doubleNumberFormatter.setGroupingUsed(false);
-        doubleNumberFormatter.setMaximumFractionDigits(340); // TODO: WTF???
+        doubleNumberFormatter = new DoubleFormatter(getDoubleFormatMode());
 
         /*
          * No longer necessary to use variable service bean during ingest!
@@ -388,7 +388,7 @@ public class DTA117FileReader extends TabularDataFileReader {
 
         // shit ton of diagnostics (still) needed here!!  -- L.A.
 
-        if (dataFile != null) {
+        if (dataFile.isPresent()) {
             throw new IOException("this plugin does not support external raw data files");
         }
 
@@ -431,15 +431,30 @@ public class DTA117FileReader extends TabularDataFileReader {
             // (we are skipping it)
             readCharacteristics(dataReader);
 
-            // Data!
-            readData(dataReader);
-
-            // STRLs: 
-            // (potentially) large, (potentially) non-ASCII character strings
-            // saved outside the <data>...</data> section, and referenced 
-            // in the data rows using (v,o) notation - see the documentation 
-            // for more information. 
-            readSTRLs(dataReader);
+            if (isMetadataOnly()) {
+                // no data: straight to the value labels, at the offset
+                // recorded in the map (skipping the <data> and <strls>
+                // sections without reading them)
+                if (dataReader.getByteOffset() != dtaMap.getOffset_data()) {
+                    throw new IOException("Data section expected at offset " + dtaMap.getOffset_data()
+                            + "; found at offset " + dataReader.getByteOffset());
+                }
+                dataReader.skipToOffset(dtaMap.getOffset_vallabs());
+                if (dataReader.getByteOffset() != dtaMap.getOffset_vallabs()) {
+                    throw new IOException("Failed to skip to the value labels section at offset "
+                            + dtaMap.getOffset_vallabs() + "; at offset " + dataReader.getByteOffset());
+                }
+            } else {
+                // Data!
+                readData(dataReader);
+
+                // STRLs: 
+                // (potentially) large, (potentially) non-ASCII character strings
+                // saved outside the <data>...</data> section, and referenced 
+                // in the data rows using (v,o) notation - see the documentation 
+                // for more information. 
+                readSTRLs(dataReader);
+            }
 
             // finally, Value Labels:
             readValueLabels(dataReader);
@@ -1784,18 +1799,19 @@ public class DTA117FileReader extends TabularDataFileReader {
          */
 
         private int bufferMoreBytes() throws IOException {
+            // the last buffer has been used up: increment the total byte 
+            // offset by its size. (not by the buffer_byte_offset - when the
+            // buffer is refilled in the middle of readBytes(), that is 
+            // not where the last buffer ended)
+            if (this.buffer_size > 0) {
+                byte_offset += this.buffer_size;
+            }
+
             int actual_bytes_read = stream.read(byte_buffer, 0, DEFAULT_BUFFER_SIZE);
 
             // set the current buffer size to the actual number of 
-            // bytes read: 
+            // bytes read, and reset the current buffer offset: 
             this.buffer_size = actual_bytes_read;
-
-            // reset the current buffer offset and increment the total
-            // byte offset by the size of the last buffer - that should be 
-            // equal to the buffer_byte_offset. 
-            // (TODO: check that this is the case!)
-
-            byte_offset += buffer_byte_offset;
             buffer_byte_offset = 0;
 
             return actual_bytes_read;
@@ -2108,6 +2124,38 @@ public class DTA117FileReader extends TabularDataFileReader {
             logger.fine("exiting at offset " + buffer_byte_offset);
         }
 
+        /*
+         * Skips the bytes up to the (absolute) offset, without reading them
+         * (unless the stream can only skip them by reading).
+         */
+        public void skipToOffset(final long offset) throws IOException {
+            long n = offset - getByteOffset();
+            if (n < 0) {
+                throw new IOException("Cannot skip back to offset " + offset + " from offset " + getByteOffset());
+            }
+            if (n <= buffer_size - buffer_byte_offset) {
+                buffer_byte_offset += (int) n;
+                return;
+            }
+            // past the end of the buffer:
+            n -= buffer_size - buffer_byte_offset;
+            byte_offset += buffer_size;
+            buffer_size = 0;
+            buffer_byte_offset = 0;
+            while (n > 0) {
+                long skipped = stream.skip(n);
+                if (skipped <= 0) {
+                    if (stream.read() < 0) {
+                        throw new IOException("Unexpected end of file; offset " + offset + " not reached.");
+                    }
+                    skipped = 1;
+                }
+                n -= skipped;
+                byte_offset += skipped;
+            }
+            bufferMoreBytes();
+        }
+
         private boolean checkTag(final String tag) throws IOException {
             if (tag == null || tag.equals("")) {
                 throw new IOException("opening tag must be a non-empty string.");
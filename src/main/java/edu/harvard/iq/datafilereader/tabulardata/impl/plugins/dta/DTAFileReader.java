@@ -59,6 +59,7 @@ import edu.harvard.iq.datafilereader.tabulardata.TabularDataIngest;
 import edu.harvard.iq.datafilereader.tabulardata.model.DataTable;
 import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
 import edu.harvard.iq.datafilereader.tabulardata.model.VariableCategory;
+import edu.harvard.iq.datafilereader.tabulardata.util.DoubleFormatter;
 
 /**
  * ingest plugin for Stata DTA file format.
@@ -349,7 +350,7 @@ public class DTAFileReader extends TabularDataFileReader {
 
     private NumberFormat twoDigitFormatter = new DecimalFormat("00");
 
-    private NumberFormat doubleNumberFormatter = new DecimalFormat();
+    private DoubleFormatter doubleNumberFormatter;
 
     TabularDataIngest ingesteddata = new TabularDataIngest();
 
@@ -436,8 +437,7 @@ public class DTAFileReader extends TabularDataFileReader {
             dbgLog.fine("constant table to be used:\n" + constantTable);
         }
 
-        doubleNumberFormatter.setGroupingUsed(false);
-        doubleNumberFormatter.setMaximumFractionDigits(340);
+        doubleNumberFormatter = new DoubleFormatter(getDoubleFormatMode());
         /*
          * it's no longer necessary to use the variable service to look up
          * various type entities: -- L.A. 4.0 beta 9
@@ -1634,9 +1634,18 @@ public class DTAFileReader extends TabularDataFileReader {
              */
             //String[][] dateFormat = new String[nvar][nobs];
 
+            // the (non-date) double values of a row are formatted into the 
+            // same char buffer, one after the other, and written from there 
+            // (doubleLengths[j] is -1 where the value is in dataRow instead):
+            char[] doubleChars = new char[4 * doubleNumberFormatter.getMaxLength()];
+            int[] doubleStarts = new int[nvar];
+            int[] doubleLengths = new int[nvar];
+
             for (int i = 0; i < nobs; i++) {
                 byte[] dataRowBytes = new byte[bytes_per_row];
                 Object[] dataRow = new Object[nvar];
+                int doubleCharCount = 0;
+                Arrays.fill(doubleLengths, -1);
 
                 int nbytes = stream.read(dataRowBytes, 0, bytes_per_row);
 
@@ -1827,7 +1836,13 @@ public class DTAFileReader extends TabularDataFileReader {
                                 dataRow[columnCounter] = ddt.decodedDateTime;
                                 dataTable.getDataVariables().get(columnCounter).setFormat(ddt.format);
                             } else {
-                                dataRow[columnCounter] = doubleNumberFormatter.format(double_datum);
+                                if (doubleChars.length - doubleCharCount < doubleNumberFormatter.getMaxLength()) {
+                                    doubleChars = Arrays.copyOf(doubleChars, 2 * doubleChars.length);
+                                }
+                                doubleStarts[columnCounter] = doubleCharCount;
+                                doubleLengths[columnCounter] = doubleNumberFormatter.format(double_datum,
+                                        doubleChars, doubleCharCount);
+                                doubleCharCount += doubleLengths[columnCounter];
                             }
 
                         }
@@ -1894,7 +1909,17 @@ public class DTAFileReader extends TabularDataFileReader {
                 } // for-columnCounter
 
                 // Dump the row of data to the tab-delimited file we are producing:
-                pwout.println(StringUtils.join(dataRow, "\t"));
+                for (int columnCounter = 0; columnCounter < nvar; columnCounter++) {
+                    if (columnCounter > 0) {
+                        pwout.write('\t');
+                    }
+                    if (doubleLengths[columnCounter] >= 0) {
+                        pwout.write(doubleChars, doubleStarts[columnCounter], doubleLengths[columnCounter]);
+                    } else if (dataRow[columnCounter] != null) {
+                        pwout.write(dataRow[columnCounter].toString());
+                    }
+                }
+                pwout.println();
 
                 if (dbgLog.isLoggable(Level.FINE)) {
                     //dbgLog.fine(i + "-th row's data={" + StringUtils.join(dataRow, ",") + "};");
@@ -31,13 +31,13 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -69,6 +69,7 @@ import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.sav.SPSSConstants;
 import edu.harvard.iq.datafilereader.tabulardata.model.DataTable;
 import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
 import edu.harvard.iq.datafilereader.tabulardata.model.VariableCategory;
+import edu.harvard.iq.datafilereader.tabulardata.util.DoubleFormatter;
 
 /**
  * ingest plugin for SPSS/POR ("portable") file format.
@@ -148,9 +149,9 @@ public class PORFileReader extends TabularDataFileReader {
     private SimpleDateFormat sdf_dhms = new SimpleDateFormat("DDD HH:mm:ss");
     private SimpleDateFormat sdf_hms = new SimpleDateFormat("HH:mm:ss");
 
-    // DecimalFormat for doubles
+    // formatter for doubles
     // may need more setXXXX() to handle scientific data
-    private NumberFormat doubleNumberFormatter = new DecimalFormat();
+    private DoubleFormatter doubleNumberFormatter;
 
     private String[] variableFormatTypeList;
     private String[] dateFormatList;
@@ -164,8 +165,7 @@ public class PORFileReader extends TabularDataFileReader {
         sdf_dhms.setTimeZone(TimeZone.getTimeZone("GMT"));
         sdf_hms.setTimeZone(TimeZone.getTimeZone("GMT"));
 
-        doubleNumberFormatter.setGroupingUsed(false);
-        doubleNumberFormatter.setMaximumFractionDigits(340); // TODO: 340?? -- L.A. 4.0 beta
+        doubleNumberFormatter = new DoubleFormatter(getDoubleFormatMode());
     }
 
     @Override
@@ -180,12 +180,20 @@ public class PORFileReader extends TabularDataFileReader {
             extendedLabels = createLabelMap(additionalData.get());
         }
 
-        File tempPORfile = decodeHeader(stream);
+        decodeHeader(stream);
+        File tempPORfile = null;
         BufferedReader bfReader = null;
 
         try {
-            bfReader = new BufferedReader(
-                    new InputStreamReader(new FileInputStream(tempPORfile.getAbsolutePath()), "US-ASCII"));
+            if (isMetadataOnly()) {
+                // (the lines are joined on the fly, so that the file is only 
+                // read up to the data)
+                bfReader = new BufferedReader(new LineJoiningReader(stream));
+            } else {
+                tempPORfile = saveWithoutLineTerminators(stream);
+                bfReader = new BufferedReader(
+                        new InputStreamReader(new FileInputStream(tempPORfile.getAbsolutePath()), "US-ASCII"));
+            }
             if (bfReader == null) {
                 dbgLog.fine("bfReader is null");
                 throw new IOException("bufferedReader is null");
@@ -210,6 +218,13 @@ public class PORFileReader extends TabularDataFileReader {
                     if ((missingValueTable != null) && (missingValueTable.size() > 0)) {
                         processMissingValueData();
                     }
+
+                    if (isMetadataOnly()) {
+                        // the dictionary is over; the data is not read
+                        decodeFormatCategories();
+                        dateFormatList = new String[varQnty];
+                        break;
+                    }
                 }
 
                 if (headerId.equals("8") && isCurrentVariableString) {
@@ -235,7 +250,7 @@ public class PORFileReader extends TabularDataFileReader {
                 ex.printStackTrace();
             }
 
-            if (tempPORfile.exists()) {
+            if (tempPORfile != null && tempPORfile.exists()) {
                 tempPORfile.delete();
             }
         }
@@ -411,9 +426,8 @@ public class PORFileReader extends TabularDataFileReader {
         }
     }
 
-    private File decodeHeader(final InputStream stream) throws IOException {
+    private void decodeHeader(final InputStream stream) throws IOException {
         dbgLog.fine("decodeHeader(): start");
-        File tempPORfile = null;
 
         if (stream == null) {
             throw new IllegalArgumentException("file == null!");
@@ -557,9 +571,14 @@ public class PORFileReader extends TabularDataFileReader {
             dbgLog.fine("this file is NOT spss-por type");
             throw new IllegalArgumentException("decodeHeader: POR ID token was not found");
         }
+    }
 
-        // save the POR file without new line characters
-
+    /*
+     * Saves the POR file without new line characters (and without its first
+     * 5 lines).
+     */
+    private File saveWithoutLineTerminators(final InputStream stream) throws IOException {
+        File tempPORfile = null;
         FileOutputStream fileOutPOR = null;
         Writer fileWriter = null;
 
@@ -1077,6 +1096,19 @@ public class PORFileReader extends TabularDataFileReader {
         ///smd.getFileInformation().put("document", StringUtils.join(document," " ));
     }
 
+    /*
+     * Establishes the format categories (date, time, other...) of the
+     * variables, from their print formats.
+     */
+    private void decodeFormatCategories() {
+        variableFormatTypeList = new String[varQnty];
+        for (int i = 0; i < varQnty; i++) {
+            variableFormatTypeList[i] = SPSSConstants.FORMAT_CATEGORY_TABLE
+                    .get(printFormatTable.get(variableNameList.get(i)));
+            formatCategoryTable.put(variableNameList.get(i), variableFormatTypeList[i]);
+        }
+    }
+
     private void decodeData(final BufferedReader reader) throws IOException {
         dbgLog.fine("decodeData(): start");
         // TODO: get rid of this "variableTypeFinal"; -- L.A. 4.0 beta
@@ -1094,12 +1126,7 @@ public class PORFileReader extends TabularDataFileReader {
             fileOutTab = new FileOutputStream(tabDelimitedDataFile);
             pwout = new PrintWriter(new OutputStreamWriter(fileOutTab, "utf8"), true);
 
-            variableFormatTypeList = new String[varQnty];
-            for (int i = 0; i < varQnty; i++) {
-                variableFormatTypeList[i] = SPSSConstants.FORMAT_CATEGORY_TABLE
-                        .get(printFormatTable.get(variableNameList.get(i)));
-                formatCategoryTable.put(variableNameList.get(i), variableFormatTypeList[i]);
-            }
+            decodeFormatCategories();
 
             // contents (variable) checker concering decimals
             Arrays.fill(variableTypeFinal, 0);
@@ -1715,4 +1742,45 @@ public class PORFileReader extends TabularDataFileReader {
         return varLabelMap;
     }
 
+    /*
+     * Reads the POR file as the characters of its lines, without the line
+     * terminators and without the first 5 lines: what the file saved by
+     * saveWithoutLineTerminators() reads back as (but each non-ASCII byte
+     * comes out as a single U+FFFD); straight from the stream, reading no
+     * more of it than what is decoded.
+     */
+    private static class LineJoiningReader extends Reader {
+        private static final int SKIPPED_LINES = 5;
+        private final InputStream stream;
+        private int lineCounter = 0;
+        private boolean afterCR = false;
+
+        LineJoiningReader(final InputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            int count = 0;
+            while (count < len) {
+                int b = stream.read();
+                if (b < 0) {
+                    break;
+                }
+                if (b == '\r' || (b == '\n' && !afterCR)) {
+                    // (CR, LF or CR LF: the end of a line)
+                    lineCounter++;
+                } else if (b != '\n' && lineCounter >= SKIPPED_LINES) {
+                    cbuf[off + count++] = b < 0x80 ? (char) b : '\uFFFD';
+                }
+                afterCR = b == '\r';
+            }
+            return count == 0 && len > 0 ? -1 : count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // (the stream belongs to the caller)
+        }
+    }
 }
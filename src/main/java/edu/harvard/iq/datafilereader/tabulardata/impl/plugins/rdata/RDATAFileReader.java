@@ -31,8 +31,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -58,6 +56,7 @@ import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
 import edu.harvard.iq.datafilereader.tabulardata.model.VariableCategory;
 import edu.harvard.iq.datafilereader.tabulardata.rserve.RRequest;
 import edu.harvard.iq.datafilereader.tabulardata.rserve.RRequestBuilder;
+import edu.harvard.iq.datafilereader.tabulardata.util.DoubleFormatter;
 
 /**
  * Dataverse 4.0 implementation of <code>TabularDataFileReader</code> for the
@@ -130,7 +129,7 @@ public class RDATAFileReader extends TabularDataFileReader {
     private RWorkspace mRWorkspace;
 
     // Number formatter
-    NumberFormat doubleNumberFormatter = new DecimalFormat();
+    DoubleFormatter doubleNumberFormatter;
 
     // Builds R Requests for an R-server
     private RRequestBuilder mRequestBuilder;
@@ -462,8 +461,7 @@ public class RDATAFileReader extends TabularDataFileReader {
     }
 
     private void init() throws IOException {
-        doubleNumberFormatter.setGroupingUsed(false);
-        doubleNumberFormatter.setMaximumFractionDigits(340);
+        doubleNumberFormatter = new DoubleFormatter(getDoubleFormatMode());
 
     }
 
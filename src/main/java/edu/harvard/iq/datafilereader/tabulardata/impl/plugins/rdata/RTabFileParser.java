@@ -27,8 +27,10 @@ import java.util.logging.Logger;
 
 import org.apache.commons.lang3.StringUtils;
 
+import edu.harvard.iq.datafilereader.tabulardata.TabularDataFileReader;
 import edu.harvard.iq.datafilereader.tabulardata.model.DataTable;
 import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
+import edu.harvard.iq.datafilereader.tabulardata.util.CSVTokenizer;
 
 /**
  * This is a customized version of CSVFileReader;
@@ -85,8 +87,8 @@ public class RTabFileParser implements Serializable {
 
         String[] caseRow = new String[varQnty];
 
-        String line;
-        String[] valueTokens;
+        String[] valueTokens = new String[varQnty];
+        boolean[] quotedTokens = new boolean[varQnty];
 
         int lineCounter = 0;
 
@@ -138,20 +140,19 @@ public class RTabFileParser implements Serializable {
             // throw exception!
         }
         
-        while ((line = csvReader.readLine()) != null) {
-            // chop the line:
-            line = line.replaceFirst("[\r\n]*$", "");
-            valueTokens = line.split(""+delimiterChar, -2);
-
-            if (valueTokens == null) {
-                throw new IOException("Failed to read line "+(lineCounter+1)+" of the Data file.");
-
-            }
-
-            if (valueTokens.length != varQnty) {
+        // R quotes the character values (and the numeric values, converted 
+        // to character, see below) and doubles the quotes inside them; 
+        // character values may contain new lines and tabs, so the file is 
+        // read one (quote-aware) record at a time, not one line at a time:
+        CSVTokenizer csvTokenizer = new CSVTokenizer(csvReader, delimiterChar);
+        int tokenCount;
+
+        while ((tokenCount = csvTokenizer.readRecord()) >= 0) {
+            if (tokenCount != varQnty) {
                 throw new IOException("Reading mismatch, line "+(lineCounter+1)+" of the Data file: " +
-                        varQnty + " delimited values expected, "+valueTokens.length+" found.");
+                        varQnty + " delimited values expected, "+tokenCount+" found.");
             }
+            csvTokenizer.getFields(valueTokens, quotedTokens);
 
             //dbgLog.fine("case: "+lineCounter);
 
@@ -159,19 +160,15 @@ public class RTabFileParser implements Serializable {
                 //dbgLog.fine("value: "+valueTokens[i]);
 
                 if (isCharacterVariable[i]) {
-                    // String. Adding to the table, quoted.
-                    // Empty strings stored as " " (one white space):
-                    if (valueTokens[i] != null && (!valueTokens[i].equals(""))) {
+                    // String. Adding to the table, quoted and escaped.
+                    // An empty quoted token is an empty string; an empty
+                    // unquoted one (R's na="") is a missing value:
+                    if (valueTokens[i] != null && (!valueTokens[i].equals("") || quotedTokens[i])) {
                         String charToken = valueTokens[i];
-                        // Dealing with quotes: 
-                        // remove the leading and trailing quotes, if present:
-                        charToken = charToken.replaceFirst("^\"", "");
-                        charToken = charToken.replaceFirst("\"$", "");
-                        // escape the remaining ones:
-                        charToken = charToken.replace("\"", "\\\"");
-                        // final pair of quotes:
+                        // (the tokenizer has already removed the enclosing 
+                        // quotes, and un-doubled the ones inside)
                         if (isTimeVariable==null || (!isTimeVariable[i])) {
-                            charToken = "\"" + charToken + "\"";
+                            charToken = TabularDataFileReader.escapeCharacterString(charToken);
                         }
                         caseRow[i] = charToken;
                     } else {
@@ -197,10 +194,7 @@ public class RTabFileParser implements Serializable {
                     // to remove all these quotes, and then we'll be fine. 
                     
                     dbgLog.fine("R Tab File Parser; double value: "+valueTokens[i]); 
-                    // Dealing with quotes: 
-                    // remove the leading and trailing quotes, if present:
-                    valueTokens[i] = valueTokens[i].replaceFirst("^\"", "");
-                    valueTokens[i] = valueTokens[i].replaceFirst("\"$", "");
+                    // (the quotes have already been removed by the tokenizer)
                     if (valueTokens[i] != null && valueTokens[i].equalsIgnoreCase("NA")) {
                         caseRow[i] = "";
                     } else if (valueTokens[i] != null && valueTokens[i].equalsIgnoreCase("NaN")) {
@@ -230,9 +224,6 @@ public class RTabFileParser implements Serializable {
                 } else if (isBooleanVariable[i]) {
                     if (valueTokens[i] != null) {
                         String charToken = valueTokens[i];
-                        // remove the leading and trailing quotes, if present:
-                        charToken = charToken.replaceFirst("^\"", "");
-                        charToken = charToken.replaceFirst("\"$", "");
                         
                         if (charToken.equals("FALSE")) {
                             caseRow[i] = "0";
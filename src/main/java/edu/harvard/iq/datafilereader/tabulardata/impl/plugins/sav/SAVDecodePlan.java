@@ -0,0 +1,136 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.sav;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The layout of a case of an SPSS/SAV file, compiled once from the
+ * dictionary, so that the data section can be decoded without looking
+ * anything up per value.
+ *
+ * A case is a sequence of OBS units (8 byte values): one per numeric
+ * variable, and one or more per string variable (the segments of the
+ * string; a string longer than 255 bytes is stored as a sequence of 255
+ * byte strings, which are joined back together). For every OBS unit, the
+ * plan holds what it is, and the variable it belongs to; and for every
+ * variable, the bits of its print format needed to format its values.
+ */
+final class SAVDecodePlan {
+
+    /** The OBS unit is the value of a numeric variable. */
+    static final byte NUMERIC = 0;
+    /** The OBS unit is the first segment of a string variable. */
+    static final byte STRING = 1;
+    /** The OBS unit continues the string of the previous one. */
+    static final byte STRING_SEGMENT = 2;
+    /**
+     * The OBS unit continues the string of the previous one, with its last
+     * byte dropped (the 32nd segment of a 255 byte string).
+     */
+    static final byte STRING_SEGMENT_7 = 3;
+
+    final int obsCount;
+    final int variableCount;
+    // per OBS unit:
+    final byte[] obsKinds;
+    final int[] obsVariables;
+    // per variable:
+    final boolean[] isString;
+    final String[] formatTypes;
+    final String[] printFormats;
+    final int[] decimalPositions;
+    // whether the numeric values are checked for decimal points (to tell
+    // the continuous variables from the discrete ones):
+    final boolean[] checkDecimal;
+
+    private SAVDecodePlan(final int obsCount, final int variableCount) {
+        this.obsCount = obsCount;
+        this.variableCount = variableCount;
+        obsKinds = new byte[obsCount];
+        obsVariables = new int[obsCount];
+        isString = new boolean[variableCount];
+        formatTypes = new String[variableCount];
+        printFormats = new String[variableCount];
+        decimalPositions = new int[variableCount];
+        checkDecimal = new boolean[variableCount];
+    }
+
+    /**
+     * Compiles the plan.
+     *
+     * @param obsTypes the type of every OBS unit of a case, as decoded from
+     *            the type 2 records (0: numeric; &gt; 0: string, of that
+     *            length; -1: string continuation; -2: string continuation,
+     *            last segment of a 255 byte string).
+     * @param variableTypes the type of every variable (0: numeric; &gt; 0:
+     *            string).
+     * @param formatTypes the format category of every variable (date,
+     *            time, other...).
+     * @param printFormats the SPSS print format of every variable.
+     * @param decimalPositions the number of decimals of the print format of
+     *            every variable.
+     */
+    static SAVDecodePlan compile(final List<Integer> obsTypes, final List<Integer> variableTypes,
+            final String[] formatTypes, final String[] printFormats, final List<Integer> decimalPositions)
+            throws IOException {
+        int variableCount = variableTypes.size();
+        SAVDecodePlan plan = new SAVDecodePlan(obsTypes.size(), variableCount);
+
+        int variable = -1;
+        for (int j = 0; j < plan.obsCount; j++) {
+            int obsType = obsTypes.get(j);
+            if (obsType == -1 || obsType == -2) {
+                if (variable < 0 || plan.obsKinds[j - 1] == NUMERIC) {
+                    throw new IOException("String continuation in OBS unit " + j + " does not follow a string.");
+                }
+                plan.obsKinds[j] = obsType == -1 ? STRING_SEGMENT : STRING_SEGMENT_7;
+            } else if (obsType >= 0) {
+                variable++;
+                if (variable == variableCount) {
+                    throw new IOException("The OBS units of a case hold more than the " + variableCount
+                            + " variables defined (OBS unit " + j + " starts another one).");
+                }
+                plan.obsKinds[j] = obsType == 0 ? NUMERIC : STRING;
+            } else {
+                throw new IOException("Invalid type " + obsType + " of OBS unit " + j + ".");
+            }
+            plan.obsVariables[j] = variable;
+        }
+        if (variable + 1 != variableCount) {
+            throw new IOException("The " + plan.obsCount + " OBS units of a case hold " + (variable + 1)
+                    + " variables; " + variableCount + " variables are defined.");
+        }
+
+        for (int k = 0; k < variableCount; k++) {
+            plan.isString[k] = variableTypes.get(k) > 0;
+            plan.formatTypes[k] = formatTypes[k];
+            plan.printFormats[k] = printFormats[k];
+            plan.decimalPositions[k] = decimalPositions.get(k);
+            plan.checkDecimal[k] = !plan.isString[k]
+                    && !("date".equals(formatTypes[k])
+                    || "time".equals(formatTypes[k])
+                    || "WKDAY".equals(printFormats[k])
+                    || "MONTH".equals(printFormats[k]));
+        }
+        return plan;
+    }
+}
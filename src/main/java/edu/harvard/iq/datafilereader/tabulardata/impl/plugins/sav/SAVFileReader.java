@@ -21,17 +21,19 @@ package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.sav;
 
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -48,6 +50,10 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -64,6 +70,7 @@ import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
 import edu.harvard.iq.datafilereader.tabulardata.model.SummaryStatistic;
 import edu.harvard.iq.datafilereader.tabulardata.model.VariableCategory;
 import edu.harvard.iq.datafilereader.tabulardata.model.VariableRange;
+import edu.harvard.iq.datafilereader.tabulardata.util.DoubleFormatter;
 
 
 
@@ -89,10 +96,16 @@ public class SAVFileReader  extends TabularDataFileReader{
     private static final int LENGTH_SAV_INT_BLOCK = 4;
     // note: OBS block is either double or String, not Integer
     private static final int LENGTH_SAV_OBS_BLOCK = 8;
+    // the string OBS unit of the compressed byte code 254 (and the last 
+    // segment of a 255 byte string, with its last byte dropped):
+    private static final String BLANK_OBS_BLOCK = "        ";
+    private static final String BLANK_OBS_BLOCK_7 = "       ";
     
     private static final int SAV_MAGIC_NUMBER_LENGTH = LENGTH_SAV_INT_BLOCK;
     
     private static String SAV_FILE_SIGNATURE = "$FL2";
+    // ZSAV: the data section is zlib-compressed
+    private static String ZSAV_FILE_SIGNATURE = "$FL3";
 
     
     
@@ -167,6 +180,12 @@ public class SAVFileReader  extends TabularDataFileReader{
 
     private static double SYSMIS_LITTLE =0xFFFFFFFFFFFFEFFFL;
     private static double SYSMIS_BIG =0xFFEFFFFFFFFFFFFFL;
+    // the bits of the numeric system missing value (-DBL_MAX), and the same 
+    // bytes in the other byte order:
+    private static final long SYSMIS_BITS = 0xFFEFFFFFFFFFFFFFL;
+    private static final long SYSMIS_BITS_SWAPPED = 0xFFFFFFFFFFFFEFFFL;
+    // the default number of bytes of uncompressed data decoded by a task:
+    private static final long UNCOMPRESSED_RANGE_SIZE = 1 << 26;
     
     private static Calendar GCO = new GregorianCalendar();
     
@@ -230,6 +249,7 @@ public class SAVFileReader  extends TabularDataFileReader{
 
     private boolean isLittleEndian = false;     
     private boolean isDataSectionCompressed = true; 
+    private boolean isDataSectionZlibCompressed = false; 
 
     private Map<Integer, String> OBSIndexToVariableName =
         new LinkedHashMap<>(); 
@@ -255,7 +275,7 @@ public class SAVFileReader  extends TabularDataFileReader{
 
     Map<String, InvalidData> invalidDataTable = new LinkedHashMap<>(); // this variable used in 2 methods; only one uses it to set the smd value -- ??
 
-    NumberFormat doubleNumberFormatter = new DecimalFormat();
+    DoubleFormatter doubleNumberFormatter;
 
     Set<Integer> decimalVariableSet = new HashSet<>(); 
     
@@ -276,6 +296,11 @@ public class SAVFileReader  extends TabularDataFileReader{
 
 
     Map<String, String> OBSTypeHexValue = new LinkedHashMap<>();    
+
+    // the file being read, if it was supplied (rather than a stream):
+    private File savFile = null;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long uncompressedRangeSize = UNCOMPRESSED_RANGE_SIZE;
     
     /*
      * TODO: add a comment explaining the whole thing about this default
@@ -315,6 +340,32 @@ public class SAVFileReader  extends TabularDataFileReader{
         this.MissingValueForTextDataFileString = MissingValueToken;
     }
 
+    /**
+     * Number of threads inflating the data blocks of a ZSAV file; defaults
+     * to the number of available processors. Only used when the reader is
+     * given the file itself; a stream is inflated sequentially.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /*
+     * The number of bytes of an uncompressed data section decoded by a task
+     * (rounded down to whole cases; at least one); the tests use small
+     * ranges to split small files.
+     */
+    long getUncompressedRangeSize() {
+        return uncompressedRangeSize;
+    }
+
+    void setUncompressedRangeSize(final long uncompressedRangeSize) {
+        this.uncompressedRangeSize = uncompressedRangeSize;
+    }
+
     // Methods ---------------------------------------------------------------//
 
     private void init() throws IOException {
@@ -324,14 +375,28 @@ public class SAVFileReader  extends TabularDataFileReader{
         sdf_dhms.setTimeZone(TimeZone.getTimeZone("GMT"));
         sdf_hms.setTimeZone(TimeZone.getTimeZone("GMT"));
                 
-        doubleNumberFormatter.setGroupingUsed(false);
-        doubleNumberFormatter.setMaximumFractionDigits(340);
+        doubleNumberFormatter = new DoubleFormatter(getDoubleFormatMode());
         
         if (getDataLanguageEncoding() != null) {
             defaultCharSet = getDataLanguageEncoding(); 
         }
     }
 
+    /**
+     * Reads the SAV file; with the file itself available, the data blocks
+     * of a ZSAV file are inflated in parallel, and an uncompressed data
+     * section is memory-mapped and decoded in parallel.
+     */
+    @Override
+    public TabularDataIngest read(final File file) throws IOException {
+        savFile = file;
+        try (SAVFileInputStream stream = new SAVFileInputStream(new FileInputStream(file))) {
+            return read(stream, Optional.empty());
+        } finally {
+            savFile = null;
+        }
+    }
+
     @Override
     public TabularDataIngest read(final BufferedInputStream stream, final Optional<File> dataFile) throws IOException {
         dbgLog.info("SAVFileReader: read() start");
@@ -415,9 +480,17 @@ public class SAVFileReader  extends TabularDataFileReader{
 	    dbgLog.fine("***** SAVFileReader: executing method decodeRecordType999");
 	    decodeRecordType999(stream);
 
-	    methodCurrentlyExecuted = "decodeRecordTypeData";
-	    dbgLog.fine("***** SAVFileReader: executing method decodeRecordTypeData");
-	    decodeRecordTypeData(stream); 
+	    if (isMetadataOnly()) {
+	        // the dictionary is over; the format categories of the
+	        // variables are established as for the data, but the data
+	        // section is not read:
+	        methodCurrentlyExecuted = "compileDecodePlan";
+	        compileDecodePlan();
+	    } else {
+	        methodCurrentlyExecuted = "decodeRecordTypeData";
+	        dbgLog.fine("***** SAVFileReader: executing method decodeRecordTypeData");
+	        decodeRecordTypeData(stream);
+	    }
 
 		
 	} catch (IllegalArgumentException e) {
@@ -550,7 +623,7 @@ public class SAVFileReader  extends TabularDataFileReader{
             throw new IllegalArgumentException("stream == null!");
         }
         // the length of the magic number is 4 (1-byte character * 4)
-        // its value is expected to be $FL2
+        // its value is expected to be $FL2 ($FL3 for ZSAV)
 
         byte[] b = new byte[SAV_MAGIC_NUMBER_LENGTH];
         
@@ -574,7 +647,7 @@ public class SAVFileReader  extends TabularDataFileReader{
         String hdr4sav = new String(b);
         dbgLog.fine("from string=" + hdr4sav);
 
-        if (hdr4sav.equals(SAV_FILE_SIGNATURE)) {
+        if (hdr4sav.equals(SAV_FILE_SIGNATURE) || hdr4sav.equals(ZSAV_FILE_SIGNATURE)) {
             dbgLog.fine("this file is spss-sav type");
             // initialize version-specific parameter
             init();
@@ -781,6 +854,10 @@ public class SAVFileReader  extends TabularDataFileReader{
                 // data section is not compressed
                 isDataSectionCompressed = false;
                 dbgLog.fine("data section is not compressed");
+            } else if (compression_switch == 2) {
+                // ZSAV: bytecode-compressed data, in zlib-compressed blocks
+                isDataSectionZlibCompressed = true;
+                dbgLog.fine("data section is zlib-compressed (ZSAV)");
             } else {
                 dbgLog.fine("data section is compressed:"+compression_switch);
             }
@@ -2323,8 +2400,16 @@ public class SAVFileReader  extends TabularDataFileReader{
         if (stream ==null){
             throw new IllegalArgumentException("stream == null!");
         }
-        if (isDataSectionCompressed){
+        if (isDataSectionZlibCompressed) {
+            try (ZSAVDataInputStream zstream = ZSAVDataInputStream.open(stream, savFile, isLittleEndian, parallelism)) {
+                decodeRecordTypeDataCompressed(zstream);
+            }
+        } else if (isDataSectionCompressed){
             decodeRecordTypeDataCompressed(stream);
+        } else if (savFile != null && stream instanceof SAVFileInputStream) {
+            // a local file: the data section is mapped, and decoded in 
+            // parallel
+            decodeRecordTypeDataUnCompressed(savFile, ((SAVFileInputStream) stream).getPosition());
         } else {
             decodeRecordTypeDataUnCompressed(stream);
         }
@@ -2340,18 +2425,11 @@ public class SAVFileReader  extends TabularDataFileReader{
 	        
         try {
 
-            // create a File object to save the tab-delimited data file
-            File tabDelimitedDataFile = File.createTempFile("tempTabfile.", ".tab");
-
-            String tabDelimitedDataFileName   = tabDelimitedDataFile.getAbsolutePath();
-
-            // save the temp file name in the metadata object
-            ///smd.getFileInformation().put("tabDelimitedDataFileLocation", tabDelimitedDataFileName);
-            ingesteddata.setTabDelimitedFile(tabDelimitedDataFile);
-
-            fileOutTab = new FileOutputStream(tabDelimitedDataFile);
+            fileOutTab = new FileOutputStream(createTabFile());
             
-            pwout = new PrintWriter(new OutputStreamWriter(fileOutTab, "utf8"), true);
+            // (not flushed line by line; the writer is closed when the data
+            // section is done)
+            pwout = new PrintWriter(new OutputStreamWriter(fileOutTab, "utf8"));
 
         } catch (FileNotFoundException ex) {
             ex.printStackTrace();
@@ -2366,153 +2444,135 @@ public class SAVFileReader  extends TabularDataFileReader{
 
     }
 
-    void decodeRecordTypeDataCompressed(final InputStream stream) throws IOException {
-
-        dbgLog.fine("***** decodeRecordTypeDataCompressed(): start *****");
+    /*
+     * Creates the tab file, and saves it in the ingest object.
+     */
+    private File createTabFile() throws IOException {
+        // create a File object to save the tab-delimited data file
+        File tabDelimitedDataFile = File.createTempFile("tempTabfile.", ".tab");
 
-        if (stream == null) {
-            throw new IllegalArgumentException("decodeRecordTypeDataCompressed: stream == null!");
-        }
+        // save the temp file name in the metadata object
+        ///smd.getFileInformation().put("tabDelimitedDataFileLocation", tabDelimitedDataFileName);
+        ingesteddata.setTabDelimitedFile(tabDelimitedDataFile);
 
-        PrintWriter pwout = createOutputWriter(stream);
+        return tabDelimitedDataFile;
+    }
 
+    /*
+     * Establishes the format categories of the variables, and compiles the 
+     * dictionary into a decode plan (what every OBS unit of a case is, and 
+     * which variable it belongs to). 
+     */
+    private SAVDecodePlan compileDecodePlan() throws IOException {
         int varQnty = dataTable.getVarQuantity().intValue();
-        int caseQnty = dataTable.getCaseQuantity().intValue();
 
         dbgLog.fine("varQnty: " + varQnty);
 
         dateFormatList = new String[varQnty];
 
-        boolean hasStringVarContinuousBlock =
-                obsNonVariableBlockSet.size() > 0 ? true : false;
-        dbgLog.fine("hasStringVarContinuousBlock=" + hasStringVarContinuousBlock);
-
-        int ii = 0;
-
-        int OBS = LENGTH_SAV_OBS_BLOCK;
-        int nOBS = OBSUnitsPerCase;
-
         dbgLog.fine("OBSUnitsPerCase=" + OBSUnitsPerCase);
 
-        int caseIndex = 0;
-
         dbgLog.fine("printFormatTable:\n" + printFormatTable);
         variableFormatTypeList = new String[varQnty];
-
-
+        String[] printFormatList = new String[varQnty];
 
         for (int i = 0; i < varQnty; i++) {
-            variableFormatTypeList[i] = SPSSConstants.FORMAT_CATEGORY_TABLE.get(
-                    printFormatTable.get(variableNameList.get(i)));
+            printFormatList[i] = printFormatTable.get(variableNameList.get(i));
+            variableFormatTypeList[i] = SPSSConstants.FORMAT_CATEGORY_TABLE.get(printFormatList[i]);
             dbgLog.fine("i=" + i + "th variableFormatTypeList=" + variableFormatTypeList[i]);
             formatCategoryTable.put(variableNameList.get(i), variableFormatTypeList[i]);
         }
         dbgLog.fine("variableFormatType:\n" + Arrays.deepToString(variableFormatTypeList));
         dbgLog.fine("formatCategoryTable:\n" + formatCategoryTable);
 
-        // TODO: 
-        // Make sure the date formats are actually preserved! 
-        // (this is something that was collected in the code below and passed
-        // to the UNF calculator). 
-        // -- L.A. 4.0 alpha
-        List<String> casewiseRecordForTabFile = new ArrayList<>();
+        SAVDecodePlan plan = SAVDecodePlan.compile(OBSwiseTypelList, variableTypelList,
+                variableFormatTypeList, printFormatList, formatDecimalPointPositionList);
+        if (plan.obsCount != OBSUnitsPerCase) {
+            throw new IOException("The dictionary describes " + plan.obsCount + " OBS units per case; "
+                    + "the file header, " + OBSUnitsPerCase + ".");
+        }
+        return plan;
+    }
 
-        try {
-            // this compression is applied only to non-float data, i.e. integer;
-            // 8-byte float datum is kept in tact
-            boolean hasReachedEOF = false;
+    void decodeRecordTypeDataCompressed(final InputStream stream) throws IOException {
 
-            OBSERVATION:
-            while (true) {
+        dbgLog.fine("***** decodeRecordTypeDataCompressed(): start *****");
+
+        if (stream == null) {
+            throw new IllegalArgumentException("decodeRecordTypeDataCompressed: stream == null!");
+        }
 
-                dbgLog.fine("SAV Reader: compressed: ii=" + ii + "-th iteration");
+        PrintWriter pwout = createOutputWriter(stream);
 
-                byte[] octate = new byte[LENGTH_SAV_OBS_BLOCK];
+        int caseQnty = dataTable.getCaseQuantity().intValue();
+        int nOBS = OBSUnitsPerCase;
 
-                int nbytes = stream.read(octate);
+        // The dictionary is compiled once into a decode plan, and the cases
+        // are decoded into the same buffers (those of the case writer), 
+        // reused from one case to the next: 
+        SAVDecodePlan plan = compileDecodePlan();
+        CaseWriter caseWriter = new CaseWriter(plan);
+
+        // the formatted values of the compressed (integer) codes:
+        String[] compressedValues = new String[252];
+        DoubleFormatter numberFormatter = new DoubleFormatter(getDoubleFormatMode());
+        for (int byteCode = 1; byteCode < 252; byteCode++) {
+            compressedValues[byteCode] = numberFormatter.format(byteCode - 100);
+        }
 
-                // processCompressedOBSblock ()
+        byte[] octate = new byte[LENGTH_SAV_OBS_BLOCK];
+        byte[] uncompressedByte = new byte[LENGTH_SAV_OBS_BLOCK];
+        ByteBuffer bb_double = ByteBuffer.wrap(uncompressedByte);
+        if (isLittleEndian) {
+            bb_double.order(ByteOrder.LITTLE_ENDIAN);
+        }
 
-                // (this means process a block of 8 compressed OBS
-                // values -- should result in 64 bytes of data total)
+        int caseIndex = 0;
+        // the position of the next OBS unit in the case:
+        int obs = 0;
 
-                for (int i = 0; i < LENGTH_SAV_OBS_BLOCK; i++) {
+        try {
+            // this compression is applied only to non-float data, i.e. integer;
+            // 8-byte float datum is kept in tact
+            boolean hasReachedEOF = false;
 
+            // 8 bytes of compression flags (byte codes), followed by 8x8 
+            // or fewer (depending on the flags) bytes of uncompressed data:
+            while (!hasReachedEOF) {
 
-                    dbgLog.finer("i=" + i + "-th iteration");
-                    int octate_i = octate[i];
-                    //dbgLog.fine("octate="+octate_i);
-                    if (octate_i < 0) {
-                        octate_i += 256;
-                    }
-                    int byteCode = octate_i;//octate_i & 0xF;
-                    //out.println("byeCode="+byteCode);
+                int nbytes = readBytes(stream, octate);
 
-                    // processCompressedOBS
+                for (int i = 0; i < nbytes && !hasReachedEOF; i++) {
+                    int byteCode = octate[i] & 0xFF;
+                    String datum = null;
 
                     switch (byteCode) {
+                        case 0:
+                            // 00: padding; do nothing
+                            continue;
                         case 252:
                             // end of the file
                             dbgLog.fine("SAV Reader: compressed: end of file mark [FC] was found");
                             hasReachedEOF = true;
-                            break;
+                            continue;
                         case 253:
                             // FD: uncompressed data follows after this octate
                             // long string datum or float datum
-                            // read the following octate
-                            byte[] uncompressedByte = new byte[LENGTH_SAV_OBS_BLOCK];
-                            int ucbytes = stream.read(uncompressedByte);
-                            int typeIndex = (ii * OBS + i) % nOBS;
-
-                            if ((OBSwiseTypelList.get(typeIndex) > 0) ||
-                                    (OBSwiseTypelList.get(typeIndex) == -1)) {
-                                // code= >0 |-1: string or its conitiguous block
-                                // decode as a string object
-                                String strdatum = new String(
-                                        Arrays.copyOfRange(uncompressedByte,
-                                        0, LENGTH_SAV_OBS_BLOCK), defaultCharSet);
-                                //out.println("str_datum="+strdatum+"<-");
-                                // add this non-missing-value string datum
-                                casewiseRecordForTabFile.add(strdatum);
-                            //out.println("casewiseRecordForTabFile(String)="+casewiseRecordForTabFile);
-                            } else if (OBSwiseTypelList.get(typeIndex) == -2) {
-                                String strdatum = new String(
-                                        Arrays.copyOfRange(uncompressedByte,
-                                        0, LENGTH_SAV_OBS_BLOCK - 1), defaultCharSet);
-                                casewiseRecordForTabFile.add(strdatum);
-                            //out.println("casewiseRecordForTabFile(String)="+casewiseRecordForTabFile);
-                            } else if (OBSwiseTypelList.get(typeIndex) == 0) {
-                                // code= 0: numeric
-
-                                ByteBuffer bb_double = ByteBuffer.wrap(
-                                        uncompressedByte, 0, LENGTH_SAV_OBS_BLOCK);
-                                if (isLittleEndian) {
-                                    bb_double.order(ByteOrder.LITTLE_ENDIAN);
-                                }
-
-                                Double ddatum = bb_double.getDouble();
-                                // out.println("ddatum="+ddatum);
-                                // add this non-missing-value numeric datum
-                                casewiseRecordForTabFile.add(doubleNumberFormatter.format(ddatum));
-                                dbgLog.fine("SAV Reader: compressed: added value to dataLine: " + ddatum);
-
-                            } else {
-                                dbgLog.fine("SAV Reader: out-of-range exception");
-                                throw new IOException("out-of-range value was found");
+                            if (readBytes(stream, uncompressedByte) < LENGTH_SAV_OBS_BLOCK) {
+                                throw new IOException("unexpected end of the data section, in case " + (caseIndex + 1));
                             }
-
-                            /*
-                            // EOF-check after reading this octate
-                            if (stream.available() == 0){
-                            hasReachedEOF = true;
-                            dbgLog.fine(
-                            "SAV Reader: *** After reading an uncompressed octate," +
-                            " reached the end of the file at "+ii
-                            +"th iteration and i="+i+"th octate position [0-start] *****");
+                            switch (plan.obsKinds[obs]) {
+                                case SAVDecodePlan.NUMERIC:
+                                    caseWriter.setNumber(plan.obsVariables[obs], bb_double.getDouble(0));
+                                    break;
+                                case SAVDecodePlan.STRING_SEGMENT_7:
+                                    caseWriter.appendStringSegment(plan.obsVariables[obs], uncompressedByte, 0,
+                                            LENGTH_SAV_OBS_BLOCK - 1);
+                                    break;
+                                default:
+                                    caseWriter.appendStringSegment(plan.obsVariables[obs], uncompressedByte, 0,
+                                            LENGTH_SAV_OBS_BLOCK);
                             }
-                             */
-
-
                             break;
                         case 254:
                             // FE: used as the missing value for string variables
@@ -2520,425 +2580,65 @@ public class SAVFileReader  extends TabularDataFileReader{
                             // string variable does not accept space-only data
                             // cf: uncompressed case
                             // 20 20 20 20 20 20 20 20
-                            // add the string missing value
-                            // out.println("254: String missing data");
-
-                            casewiseRecordForTabFile.add(" ");  // add "." here?
-
-
-                            // Note that technically this byte flag (254/xFE) means
-                            // that *eight* white space characters should be
-                            // written to the output stream. This caused me
-                            // a great amount of confusion, because it appeared
-                            // to me that there was a mismatch between the number
-                            // of bytes advertised in the variable metadata and
-                            // the number of bytes actually found in the data
-                            // section of a compressed SAV file; this is because
-                            // these 8 bytes "come out of nowhere"; they are not
-                            // written in the data section, but this flag specifies
-                            // that they should be added to the output.
-                            // Also, as I pointed out above, we are only writing
-                            // out one whitespace character, not 8 as instructed.
-                            // This appears to be legit; these blocks of 8 spaces
-                            // seem to be only used for padding, and all such
-                            // multiple padding spaces are stripped anyway during
-                            // the post-processing.
-
 
+                            // This byte flag (254/xFE) means that *eight* white 
+                            // space characters are written to the output stream. 
+                            // The trailing padding is stripped anyway, when the 
+                            // case is written; but a segment of a long string can
+                            // be all blank in the middle of the value, where the 
+                            // blanks are kept (as in an uncompressed file):
+                            if (plan.obsKinds[obs] == SAVDecodePlan.NUMERIC) {
+                                datum = " ";
+                            } else if (plan.obsKinds[obs] == SAVDecodePlan.STRING_SEGMENT_7) {
+                                datum = BLANK_OBS_BLOCK_7;
+                            } else {
+                                datum = BLANK_OBS_BLOCK;
+                            }
                             break;
                         case 255:
                             // FF: system missing value for numeric variables
                             // cf: uncompressed case (sysmis)
                             // FF FF FF FF FF FF eF FF(little endian)
-                            // add the numeric missing value
-                            dbgLog.fine("SAV Reader: compressed: Missing Value, numeric");
-                            casewiseRecordForTabFile.add(MissingValueForTextDataFileNumeric);
-
-                            break;
-                        case 0:
-                            // 00: do nothing
-                            dbgLog.fine("SAV Reader: compressed: doing nothing (zero); ");
-
+                            datum = MissingValueForTextDataFileNumeric;
                             break;
                         default:
-                            //out.println("byte code(default)="+ byteCode);
-                            if ((byteCode > 0) && (byteCode < 252)) {
-                                // datum is compressed
-                                //Integer unCompressed = Integer.valueOf(byteCode -100);
-                                // add this uncompressed numeric datum
-                                Double unCompressed = Double.valueOf(byteCode - 100);
-                                dbgLog.fine("SAV Reader: compressed: default case: " + unCompressed);
-
-                                casewiseRecordForTabFile.add(doubleNumberFormatter.format(unCompressed));
-                            // out.println("uncompressed="+unCompressed);
-                            // out.println("dataline="+casewiseRecordForTabFile);
-                            }
-                    }// end of switch
-
-                    // out.println("end of switch");
-
-
-                    // The-end-of-a-case(row)-processing
-
-                    // this line that follows, and the code around it
-                    // is really confusing:
-                    int varCounter = (ii * OBS + i + 1) % nOBS;
-                    // while both OBS and LENGTH_SAV_OBS_BLOCK = 8
-                    // (OBS was initialized as OBS=LENGTH_SAV_OBS_BLOCK),
-                    // the 2 values mean different things:
-                    // LENGTH_SAV_OBS_BLOCK is the number of bytes in one OBS;
-                    // and OBS is the number of OBS blocks that we process
-                    // at a time. I.e., we process 8 chunks of 8 bytes at a time.
-                    // This is how data is organized inside an SAV file:
-                    // 8 bytes of compression flags, followd by 8x8 or fewer
-                    // (depending on the flags) bytes of compressed data.
-                    // I should rename this OBS variable something more
-                    // meaningful.
-                    //
-                    // Also, the "varCounter" variable name is entirely
-                    // misleading -- it counts not variables, but OBS blocks.
-
-                    dbgLog.fine("SAV Reader: compressed: OBS counter=" + varCounter + "(ii=" + ii + ")");
-
-                    if ((ii * OBS + i + 1) % nOBS == 0) {
-
-                        //out.println("casewiseRecordForTabFile(before)="+casewiseRecordForTabFile);
-
-                        // out.println("all variables in a case are parsed == nOBS");
-                        // out.println("hasStringVarContinuousBlock="+hasStringVarContinuousBlock);
-
-                        // check whether a string-variable's continuous block exits
-                        // if so, they must be joined
-
-                        if (hasStringVarContinuousBlock) {
-
-                            // string-variable's continuous-block-concatenating-processing
-
-                            //out.println("concatenating process starts");
-                            //out.println("casewiseRecordForTabFile(before)="+casewiseRecordForTabFile);
-                            //out.println("casewiseRecordForTabFile(before:size)="+casewiseRecordForTabFile.size());
-
-                            StringBuilder sb = new StringBuilder("");
-                            int firstPosition = 0;
-
-                            Set<Integer> removeJset = new HashSet<>();
-                            for (int j = 0; j < nOBS; j++) {
-                                dbgLog.fine("RTD: j=" + j + "-th type =" + OBSwiseTypelList.get(j));
-                                if ((OBSwiseTypelList.get(j) == -1) ||
-                                        (OBSwiseTypelList.get(j) == -2)) {
-                                    // Continued String variable found at j-th
-                                    // position. look back the j-1
-                                    firstPosition = j - 1;
-                                    int lastJ = j;
-                                    String concatenated = null;
-
-                                    removeJset.add(j);
-                                    sb.append(casewiseRecordForTabFile.get(j - 1));
-                                    sb.append(casewiseRecordForTabFile.get(j));
-                                    
-				    for (int jc = 1; ; jc++) {
-                                        if ((j + jc == nOBS) 
-					    || ((OBSwiseTypelList.get(j + jc) != -1) 
-						&& (OBSwiseTypelList.get(j + jc) != -2))) {
-
-                                            // j is the end unit of this string variable
-                                            concatenated = sb.toString();
-                                            sb.setLength(0);
-                                            lastJ = j + jc;
-                                            break;
-                                        } else {
-                                            sb.append(casewiseRecordForTabFile.get(j + jc));
-                                            removeJset.add(j + jc);
-                                        }
-                                    }
-                                    casewiseRecordForTabFile.set(j - 1, concatenated);
-
-                                    //out.println(j-1+"th concatenated="+concatenated);
-                                    j = lastJ - 1;
-
-                                } // end-of-if: continuous-OBS only
-
-                            } // end of loop-j
-
-                            //out.println("removeJset="+removeJset);
-
-                            // a new list that stores a new case with concatanated string data
-                            List<String> newDataLine = new ArrayList<>();
-
-                            for (int jl = 0; jl < casewiseRecordForTabFile.size(); jl++) {
-                                //out.println("jl="+jl+"-th datum =["+casewiseRecordForTabFile.get(jl)+"]");
-
-                                if (!removeJset.contains(jl)) {
-
-//                                if (casewiseRecordForTabFile.get(jl).equals(MissingValueForTextDataFileString)){
-//                                    out.println("NA-S jl= "+jl+"=["+casewiseRecordForTabFile.get(jl)+"]");
-//                                } else if (casewiseRecordForTabFile.get(jl).equals(MissingValueForTextDataFileNumeric)){
-//                                    out.println("NA-N jl= "+jl+"=["+casewiseRecordForTabFile.get(jl)+"]");
-//                                } else if (casewiseRecordForTabFile.get(jl)==null){
-//                                    out.println("null case jl="+jl+"=["+casewiseRecordForTabFile.get(jl)+"]");
-//                                } else if (casewiseRecordForTabFile.get(jl).equals("NaN")){
-//                                    out.println("NaN jl= "+jl+"=["+casewiseRecordForTabFile.get(jl)+"]");
-//                                } else if (casewiseRecordForTabFile.get(jl).equals("")){
-//                                    out.println("blank jl= "+jl+"=["+casewiseRecordForTabFile.get(jl)+"]");
-//                                } else if (casewiseRecordForTabFile.get(jl).equals(" ")){
-//                                    out.println("space jl= "+jl+"=["+casewiseRecordForTabFile.get(jl)+"]");
-//                                }
-
-                                    newDataLine.add(casewiseRecordForTabFile.get(jl));
-                                } else {
-//                                out.println("Excluded: jl="+jl+"-th datum=["+casewiseRecordForTabFile.get(jl)+"]");
-                                }
-                            }  // end of loop-jl
-
-                            //out.println("new casewiseRecordForTabFile="+newDataLine);
-                            //out.println("new casewiseRecordForTabFile(size)="+newDataLine.size());
-
-                            casewiseRecordForTabFile = newDataLine;
-
-                        } // end-if: stringContinuousVar-exist case
-
-                        // caseIndex starts from 1 not 0
-                        caseIndex = (ii * OBS + i + 1) / nOBS;
-
-                        for (int k = 0; k < casewiseRecordForTabFile.size(); k++) {
-
-                            dbgLog.fine("k=" + k + "-th variableTypelList=" + variableTypelList.get(k));
-
-                            if (variableTypelList.get(k) > 0) {
-
-                                // Strip the String variables off the
-                                // whitespace padding:
-
-                                // [ snipped ]
-
-                                // I've removed the block of code above where
-                                // String values were substring()-ed to the
-                                // length specified in the variable metadata;
-                                // Doing that was not enough, since a string
-                                // can still be space-padded inside its
-                                // advertised capacity. (note that extended
-                                // variables can have many kylobytes of such
-                                // padding in them!) Plus it was completely
-                                // redundant, since we are stripping all the
-                                // trailing white spaces with
-                                // StringUtils.stripEnd() below:
-
-
-                                String paddRemoved = StringUtils.stripEnd(casewiseRecordForTabFile.get(k).toString(), null);
-                                // TODO: clean this up.  For now, just make sure that strings contain at least one blank space.
-                                if (paddRemoved.equals("")) {
-                                    paddRemoved = " ";
-                                }
-                                //casewiseRecordForTabFile.set(k, "\"" + paddRemoved.replaceAll("\"", Matcher.quoteReplacement("\\\"")) + "\"");
-                                casewiseRecordForTabFile.set(k, escapeCharacterString(paddRemoved));
-
-                            // end of String var case
-
-                            } // end of variable-type check
-
-                            if (casewiseRecordForTabFile.get(k) != null && !casewiseRecordForTabFile.get(k).equals(MissingValueForTextDataFileNumeric)) {
-				
-                                String variableFormatType = variableFormatTypeList[k];
-                                dbgLog.finer("k=" + k + "th printFormatTable format=" + printFormatTable.get(variableNameList.get(k)));
-
-                                int formatDecimalPointPosition = formatDecimalPointPositionList.get(k);
-				
-
-                                if (variableFormatType.equals("date")) {
-                                    dbgLog.finer("date case");
-
-                                    long dateDatum = Long.parseLong(casewiseRecordForTabFile.get(k).toString()) * 1000L - SPSS_DATE_OFFSET;
-
-                                    String newDatum = sdf_ymd.format(new Date(dateDatum));
-                                    dbgLog.finer("k=" + k + ":" + newDatum);
-                                    /* saving date format */
-                                    dbgLog.finer("saving dateFormat[k] = " + sdf_ymd.toPattern());
-                                    casewiseRecordForTabFile.set(k, newDatum);
-                                    dateFormatList[k] = sdf_ymd.toPattern();
-                                //formatCategoryTable.put(variableNameList.get(k), "date");
-                                } else if (variableFormatType.equals("time")) {
-                                    dbgLog.finer("time case:DTIME or DATETIME or TIME");
-                                    //formatCategoryTable.put(variableNameList.get(k), "time");
-
-                                    if (printFormatTable.get(variableNameList.get(k)).equals("DTIME")) {
-                                        // We're not even going to try to handle "DTIME"
-                                        // values as time/dates in dataverse; this is a weird
-                                        // format that nobody uses outside of SPSS.
-                                        // (but we do need to remember to treat the resulting values 
-                                        // as character strings, not numerics!)
-                                        
-                                        if (casewiseRecordForTabFile.get(k).toString().indexOf(".") < 0) {
-                                            long dateDatum = Long.parseLong(casewiseRecordForTabFile.get(k).toString()) * 1000L - SPSS_DATE_BIAS;
-                                            String newDatum = sdf_dhms.format(new Date(dateDatum));
-                                            dbgLog.finer("k=" + k + ":" + newDatum);
-                                            casewiseRecordForTabFile.set(k, newDatum);
-                                        } else {
-                                            // decimal point included
-                                            String[] timeData = casewiseRecordForTabFile.get(k).toString().split("\\.");
-
-                                            dbgLog.finer(StringUtils.join(timeData, "|"));
-                                            long dateDatum = Long.parseLong(timeData[0]) * 1000L - SPSS_DATE_BIAS;
-                                            StringBuilder sb_time = new StringBuilder(
-                                                    sdf_dhms.format(new Date(dateDatum)));
-                                            dbgLog.finer(sb_time.toString());
-
-                                            if (formatDecimalPointPosition > 0) {
-                                                sb_time.append("." + timeData[1].substring(0, formatDecimalPointPosition));
-                                            }
-
-                                            dbgLog.finer("k=" + k + ":" + sb_time.toString());
-                                            casewiseRecordForTabFile.set(k, sb_time.toString());
-                                        }
-                                    } else if (printFormatTable.get(variableNameList.get(k)).equals("DATETIME")) {
-                                        // TODO: 
-                                        // (for both datetime and "dateless" time)
-                                        // keep the longest of the matching formats - i.e., if there are *some*
-                                        // values in the vector that have thousands of a second, that should be 
-                                        // part of the saved format!
-                                        //  -- L.A. Aug. 12 2014 
-                                        if (casewiseRecordForTabFile.get(k).toString().indexOf(".") < 0) {
-                                            long dateDatum = Long.parseLong(casewiseRecordForTabFile.get(k).toString()) * 1000L - SPSS_DATE_OFFSET;
-                                            String newDatum = sdf_ymdhms.format(new Date(dateDatum));
-                                            dbgLog.finer("k=" + k + ":" + newDatum);
-                                            casewiseRecordForTabFile.set(k, newDatum);
-                                            dateFormatList[k] = sdf_ymdhms.toPattern();
-                                        } else {
-                                            // decimal point included
-                                            String[] timeData = casewiseRecordForTabFile.get(k).toString().split("\\.");
-
-                                            //dbgLog.finer(StringUtils.join(timeData, "|"));
-                                            long dateDatum = Long.parseLong(timeData[0]) * 1000L - SPSS_DATE_OFFSET;
-                                            StringBuilder sb_time = new StringBuilder(
-                                                    sdf_ymdhms.format(new Date(dateDatum)));
-                                            //dbgLog.finer(sb_time.toString());
-
-                                            if (formatDecimalPointPosition > 0) {
-                                                sb_time.append("." + timeData[1].substring(0, formatDecimalPointPosition));
-                                            }
-                                            dbgLog.finer("k=" + k + ":" + sb_time.toString());
-                                            casewiseRecordForTabFile.set(k, sb_time.toString());
-                                            dateFormatList[k] = sdf_ymdhms.toPattern() + (formatDecimalPointPosition > 0 ? ".S" : "" );
-                                        }
-                                    } else if (printFormatTable.get(variableNameList.get(k)).equals("TIME")) {
-                                        // TODO: 
-                                        // double-check that we are handling "dateless" time correctly... -- L.A. Aug. 2014
-                                        if (casewiseRecordForTabFile.get(k).toString().indexOf(".") < 0) {
-                                            long dateDatum = Long.parseLong(casewiseRecordForTabFile.get(k).toString()) * 1000L;
-                                            String newDatum = sdf_hms.format(new Date(dateDatum));
-                                            dbgLog.finer("k=" + k + ":" + newDatum);
-                                            casewiseRecordForTabFile.set(k, newDatum);
-                                            if (dateFormatList[k] == null) {
-                                                dateFormatList[k] = sdf_hms.toPattern();
-                                            }
-                                        } else {
-                                            // decimal point included
-                                            String[] timeData = casewiseRecordForTabFile.get(k).toString().split("\\.");
-
-                                            //dbgLog.finer(StringUtils.join(timeData, "|"));
-                                            long dateDatum = Long.parseLong(timeData[0]) * 1000L;
-                                            StringBuilder sb_time = new StringBuilder(
-                                                    sdf_hms.format(new Date(dateDatum)));
-                                            //dbgLog.finer(sb_time.toString());
-
-                                            if (formatDecimalPointPosition > 0) {
-                                                sb_time.append("." + timeData[1].substring(0, formatDecimalPointPosition));
-                                            }
-                                            dbgLog.finer("k=" + k + ":" + sb_time.toString());
-                                            casewiseRecordForTabFile.set(k, sb_time.toString());
-                                            
-                                            String format_hmsS = sdf_hms.toPattern() + (formatDecimalPointPosition > 0 ? ".S" : "");
-                                            if (dateFormatList[k] == null || (format_hmsS.length() > dateFormatList[k].length())) {
-                                                dateFormatList[k] = format_hmsS;
-                                            }
-                                        }
-                                    }
-				    
-                                } else if (variableFormatType.equals("other")) {
-                                    dbgLog.finer("other non-date/time case:=" + i);
-
-                                    if (printFormatTable.get(variableNameList.get(k)).equals("WKDAY")) {
-                                        // day of week
-                                        dbgLog.finer("data k=" + k + ":" + casewiseRecordForTabFile.get(k));
-                                        dbgLog.finer("data k=" + k + ":" + SPSSConstants.WEEKDAY_LIST.get(Integer.valueOf(casewiseRecordForTabFile.get(k).toString()) - 1));
-                                        String newDatum = SPSSConstants.WEEKDAY_LIST.get(Integer.valueOf(casewiseRecordForTabFile.get(k).toString()) - 1);
-                                        casewiseRecordForTabFile.set(k, newDatum);
-                                        dbgLog.finer("wkday:k=" + k + ":" + casewiseRecordForTabFile.get(k));
-                                    } else if (printFormatTable.get(variableNameList.get(k)).equals("MONTH")) {
-                                        // month
-                                        dbgLog.finer("data k=" + k + ":" + casewiseRecordForTabFile.get(k));
-                                        dbgLog.finer("data k=" + k + ":" + SPSSConstants.MONTH_LIST.get(Integer.valueOf(casewiseRecordForTabFile.get(k).toString()) - 1));
-                                        String newDatum = SPSSConstants.MONTH_LIST.get(Integer.valueOf(casewiseRecordForTabFile.get(k).toString()) - 1);
-                                        casewiseRecordForTabFile.set(k, newDatum);
-                                        dbgLog.finer("month:k=" + k + ":" + casewiseRecordForTabFile.get(k));
-                                    }
-                                }
-				
-				
-                            } // end: date-time-datum check
-
-
-                        } // end: loop-k(2nd: variable-wise-check)
-
-
-                        // write to tab file
-                        if (casewiseRecordForTabFile.size() > 0) {
-                            pwout.println(StringUtils.join(casewiseRecordForTabFile, "\t"));
-                        }
-
-                        // numeric contents-check
-                        for (int l = 0; l < casewiseRecordForTabFile.size(); l++) {
-                            if (variableFormatTypeList[l].equals("date")
-                                    || variableFormatTypeList[l].equals("time")
-                                    || printFormatTable.get(variableNameList.get(l)).equals("WKDAY")
-                                    || printFormatTable.get(variableNameList.get(l)).equals("MONTH")) {
-                                // TODO: 
-                                // figure out if any special handling is still needed here in 4.0. 
-                                // -- L.A. - Aug. 2014
+                            // datum is compressed: (byteCode - 100)
+                            datum = compressedValues[byteCode];
+                    }
 
-                            } else {
-                                if (variableTypelList.get(l) <= 0) {
-                                    if (casewiseRecordForTabFile.get(l).toString().indexOf(".") >= 0) {
-                                        decimalVariableSet.add(l);
-                                    }
-                                }
-                            }
+                    if (datum != null) {
+                        if (plan.obsKinds[obs] == SAVDecodePlan.NUMERIC) {
+                            caseWriter.setValue(plan.obsVariables[obs], datum);
+                        } else {
+                            caseWriter.caseStrings[plan.obsVariables[obs]].append(datum);
                         }
+                    }
 
-                        // reset the case-wise working objects
-			casewiseRecordForTabFile.clear();
+                    if (++obs == nOBS) {
+                        // The-end-of-a-case(row)-processing
+                        caseWriter.writeCase(pwout);
+                        obs = 0;
+                        caseIndex++;
 
-			if ( caseQnty > 0 ) {
-			    if ( caseIndex == caseQnty ) {
-				hasReachedEOF = true; 
-			    }
-			}
-
- 			if (hasReachedEOF){
-                            break;
+                        if (caseQnty > 0 && caseIndex == caseQnty) {
+                            hasReachedEOF = true;
                         }
+                    }
+                }
 
-                    } // if(The-end-of-a-case(row)-processing)
-
-                } // loop-i (OBS unit)
-
-                if ((hasReachedEOF) || (stream.available() == 0)) {
+                if (nbytes < LENGTH_SAV_OBS_BLOCK || stream.available() == 0) {
                     // reached the end of this file
-                    // do exit-processing
-
-                    dbgLog.fine("***** reached the end of the file at " + ii + "th iteration *****");
-
-                    break OBSERVATION;
+                    dbgLog.fine("***** reached the end of the file after " + caseIndex + " cases *****");
+                    break;
                 }
-		
-                ii++;
-
-            } // while loop
+            }
 
             pwout.close();
         } catch (IOException ex) {
             throw ex;
         }
 	
+        caseWriter.merge();
 	
         dbgLog.fine("<<<<<<");
         dbgLog.fine("formatCategoryTable = " + formatCategoryTable);
@@ -2950,6 +2650,22 @@ public class SAVFileReader  extends TabularDataFileReader{
         dbgLog.fine("decodeRecordTypeDataCompressed(): end");
     }
 
+    /*
+     * Reads as many bytes as the buffer holds, unless the stream ends 
+     * first; returns the number of bytes read.
+     */
+    private static int readBytes(final InputStream stream, final byte[] buffer) throws IOException {
+        int n = 0;
+        while (n < buffer.length) {
+            int nbytes = stream.read(buffer, n, buffer.length - n);
+            if (nbytes < 0) {
+                break;
+            }
+            n += nbytes;
+        }
+        return n;
+    }
+
 
     void decodeRecordTypeDataUnCompressed(final InputStream stream) throws IOException {
         dbgLog.fine("***** decodeRecordTypeDataUnCompressed(): start *****");
@@ -2958,411 +2674,537 @@ public class SAVFileReader  extends TabularDataFileReader{
             throw new IllegalArgumentException("decodeRecordTypeDataUnCompressed: stream == null!");
         }
 
-        int varQnty = dataTable.getVarQuantity().intValue();
-        
-
         // 
         // set-up tab file
         
         PrintWriter pwout = createOutputWriter ( stream ); 
         
-        boolean hasStringVarContinuousBlock = 
-            obsNonVariableBlockSet.size() > 0 ? true : false;
-        dbgLog.fine("hasStringVarContinuousBlock="+hasStringVarContinuousBlock);
-        
-        int ii = 0;
-        
-        int OBS = LENGTH_SAV_OBS_BLOCK;
-        int nOBS = OBSUnitsPerCase;
-        
-        dbgLog.fine("OBSUnitsPerCase="+OBSUnitsPerCase);
-        
+        int caseQnty = dataTable.getCaseQuantity().intValue();
+
+        SAVDecodePlan plan = compileDecodePlan();
+        CaseWriter caseWriter = new CaseWriter(plan);
+
+        // every case takes the same number of bytes (8 per OBS unit): 
+        byte[] caseBytes = new byte[LENGTH_SAV_OBS_BLOCK * OBSUnitsPerCase];
+        ByteBuffer caseBuffer = ByteBuffer.wrap(caseBytes);
+        if (isLittleEndian) {
+            caseBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
         int caseIndex = 0;
-        
-        dbgLog.fine("printFormatTable:\n"+printFormatTable);
 
-        variableFormatTypeList = new String[varQnty];
-        dateFormatList = new String[varQnty];
+        try {
+            while (caseQnty <= 0 || caseIndex < caseQnty) {  // case-wise loop
+                int nbytes = readBytes(stream, caseBytes);
+                if (nbytes == 0) {
+                    // reached the end of this file
+                    break;
+                }
+                if (nbytes < caseBytes.length) {
+                    throw new IOException("unexpected end of the data section, in case " + (caseIndex + 1));
+                }
 
-        for (int i = 0; i < varQnty; i++){
-            variableFormatTypeList[i]=SPSSConstants.FORMAT_CATEGORY_TABLE.get(
-									      printFormatTable.get(variableNameList.get(i)));
-            dbgLog.fine("i="+i+"th variableFormatTypeList="+variableFormatTypeList[i]);
-            formatCategoryTable.put(variableNameList.get(i), variableFormatTypeList[i]);
+                caseWriter.decodeUncompressedCase(caseBytes, caseBuffer);
+                caseWriter.writeCase(pwout);
+                caseIndex++;
+            }
+
+            // close the writer
+            pwout.close();
+
+        } catch (IOException ex) {
+	    throw ex; 
         }
-        dbgLog.fine("variableFormatType:\n"+Arrays.deepToString(variableFormatTypeList));
-        dbgLog.fine("formatCategoryTable:\n"+formatCategoryTable);
 
-        int numberOfDecimalVariables = 0;
+        caseWriter.merge();
         
-        // TODO: 
-        // Make sure the date formats are actually preserved! 
-        // (this is something that was collected in the code below and passed
-        // to the UNF calculator). 
-        // -- L.A. 4.0 alpha
-        
-        List<String> casewiseRecordForTabFile = new ArrayList<>();
-        
-        
-        // missing values are written to the tab-delimited file by
-        // using the default or user-specified missing-value  strings;
-        // however, to calculate UNF/summary statistics,
-        // classes for these calculations require their specific 
-        // missing values that differ from the above missing-value
-        // strings; therefore, after row data for the tab-delimited 
-        // file are written, missing values in a row are changed to
-        // UNF/summary-statistics-OK ones.
-
-        // data-storage object for sumStat
-        ///dataTable2 = new Object[varQnty][caseQnty];
-	// storage of date formats to pass to UNF	
-        ///dateFormats = new String[varQnty][caseQnty];
+        // contents check
+        dbgLog.fine("reached the end of the file after " + caseIndex + " cases");
+        dbgLog.fine("decimalVariableSet="+decimalVariableSet);
 
-        try {
-            for (int i = 0; ; i++){  // case-wise loop
-                
-                byte[] buffer = new byte[OBS*nOBS];
-                
-                int nbytesuc =  stream.read(buffer);
-                
-                StringBuilder sb_stringStorage = new StringBuilder("");
-
-                for (int k=0; k < nOBS; k++){
-                    int offset= OBS*k;
-
-                    // uncompressed case
-                    // numeric missing value == sysmis
-                    // FF FF FF FF FF FF eF FF(little endian)
-                    // string missing value
-                    // 20 20 20 20 20 20 20 20
-                    // cf: compressed case 
-                    // numeric type:sysmis == 0xFF
-                    // string type: missing value == 0xFE
-                    // 
-
-                    boolean isNumeric = OBSwiseTypelList.get(k)==0 ? true : false;
-                    
-                    if (isNumeric){
-                        dbgLog.finer(k+"-th variable is numeric");
-                        // interprete as double
-                        ByteBuffer bb_double = ByteBuffer.wrap(
-                            buffer, offset , LENGTH_SAV_OBS_BLOCK);
-                        if (isLittleEndian){
-                            bb_double.order(ByteOrder.LITTLE_ENDIAN);
-                        }
-                        //char[] hexpattern =
-                        String dphex = new String(Hex.encodeHex(
-                                Arrays.copyOfRange(bb_double.array(),
-                                offset, offset+LENGTH_SAV_OBS_BLOCK)));
-                        dbgLog.finer("dphex="+ dphex);
-                            
-                        if ((dphex.equals("ffffffffffffefff"))||
-                            (dphex.equals("ffefffffffffffff"))){
-                            //casewiseRecordForTabFile.add(systemMissingValue);
-                            // add the numeric missing value
-			    dbgLog.fine("SAV Reader: adding: Missing Value (numeric)");
-                            casewiseRecordForTabFile.add(MissingValueForTextDataFileNumeric);
-                        } else {
-                            Double ddatum  = bb_double.getDouble();
-                            dbgLog.fine("SAV Reader: adding: ddatum="+ddatum);
+        dbgLog.fine("***** decodeRecordTypeDataUnCompressed(): end *****");
+    }
 
-                            // add this non-missing-value numeric datum
-                            casewiseRecordForTabFile.add(doubleNumberFormatter.format(ddatum)) ;
-                        }
-                    
-                    } else {
-                        dbgLog.finer(k+"-th variable is string");
-                        // string case
-                        // strip space-padding
-                        // do not trim: string might have spaces within it
-                        // the missing value (hex) for a string variable is:
-                        // "20 20 20 20 20 20 20 20"
-                        
-                        
-                        String strdatum = new String(
-                            Arrays.copyOfRange(buffer,
-                            offset, (offset+LENGTH_SAV_OBS_BLOCK)),defaultCharSet);
-                        dbgLog.finer("str_datum="+strdatum);
-                        // add this non-missing-value string datum 
-                        casewiseRecordForTabFile.add(strdatum);
-
-                    } // if isNumeric
-                
-                } // k-loop
-
-                // String-variable's continuous block exits:
-                if (hasStringVarContinuousBlock){
-		    // continuous blocks: string case
-		    // concatenating process
-                    //dbgLog.fine("concatenating process starts");
-
-                    //dbgLog.fine("casewiseRecordForTabFile(before)="+casewiseRecordForTabFile);
-                    //dbgLog.fine("casewiseRecordForTabFile(before:size)="+casewiseRecordForTabFile.size());
-
-                    StringBuilder sb = new StringBuilder("");
-                    int firstPosition = 0;
-
-                    Set<Integer> removeJset = new HashSet<>();
-                    for (int j=0; j< nOBS; j++){
-                        dbgLog.finer("j="+j+"-th type ="+OBSwiseTypelList.get(j));
-                        if (OBSwiseTypelList.get(j) == -1){
-                            // String continued fount at j-th 
-                            // look back the j-1 
-                            firstPosition = j-1;
-                            int lastJ = j;
-                            String concatanated = null;
-
-                            removeJset.add(j);
-                            sb.append(casewiseRecordForTabFile.get(j-1));
-                            sb.append(casewiseRecordForTabFile.get(j));
-                            for (int jc =1; ; jc++ ){
-                                if (OBSwiseTypelList.get(j+jc) != -1){
-                                // j is the end unit of this string variable
-                                    concatanated = sb.toString();
-                                    sb.setLength(0);
-                                   lastJ = j+jc;
-                                   break;
-                                } else {
-                                    sb.append(casewiseRecordForTabFile.get(j+jc));
-                                    removeJset.add(j+jc);
-                                }
-                            }
-                            casewiseRecordForTabFile.set(j-1, concatanated); 
+    /**
+     * Decodes the uncompressed data section of a local SAV file. 
+     *
+     * Every case takes the same number of bytes, so the data section can be 
+     * split into ranges of cases without reading it: the ranges are 
+     * memory-mapped, and decoded in parallel, each into a tab file of its 
+     * own; the tab files of the ranges are appended to the tab file in 
+     * order, as they are done (no more than twice as many ranges as there 
+     * are threads are decoded ahead, so they don't pile up on the disk). 
+     *
+     * @param dataOffset the position of the data section in the file.
+     */
+    void decodeRecordTypeDataUnCompressed(final File file, final long dataOffset) throws IOException {
+        dbgLog.fine("***** decodeRecordTypeDataUnCompressed(): start *****");
 
-                            //out.println(j-1+"th concatanated="+concatanated);
-                            j = lastJ -1; 
+        File tabFile = createTabFile();
 
-                        } // end-of-if: continuous-OBS only
-                    } // end of loop-j
+        long caseQnty = dataTable.getCaseQuantity().longValue();
+        SAVDecodePlan plan = compileDecodePlan();
+        long caseLength = (long) LENGTH_SAV_OBS_BLOCK * OBSUnitsPerCase;
 
-                    List<String> newDataLine = new ArrayList<>();
-                    
-                    for (int jl=0; jl<casewiseRecordForTabFile.size();jl++){
-                        //out.println("jl="+jl+"-th datum =["+casewiseRecordForTabFile.get(jl)+"]");
-                        
-                        if (!removeJset.contains(jl) ){
-                            newDataLine.add(casewiseRecordForTabFile.get(jl));
-                        } 
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel tabFileChannel = new FileOutputStream(tabFile).getChannel()) {
+            FileChannel channel = raf.getChannel();
+            long dataLength = channel.size() - dataOffset;
+            if (caseQnty <= 0) {
+                if (dataLength % caseLength != 0) {
+                    throw new IOException("unexpected end of the data section, in case "
+                            + (dataLength / caseLength + 1));
+                }
+                caseQnty = dataLength / caseLength;
+            } else if (dataLength < caseQnty * caseLength) {
+                throw new IOException("unexpected end of the data section, in case "
+                        + (dataLength / caseLength + 1));
+            }
+
+            long casesPerRange = Math.max(1, uncompressedRangeSize / caseLength);
+            int rangeCount = (int) ((caseQnty + casesPerRange - 1) / casesPerRange);
+            int threads = Math.max(1, Math.min(parallelism, rangeCount));
+            dbgLog.fine("decoding " + caseQnty + " cases in " + rangeCount + " ranges, on " + threads + " threads");
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<CaseWriter>> rangeTasks = new ArrayList<>();
+            List<File> rangeTabFiles = new ArrayList<>();
+            try {
+                for (int r = 0; r < rangeCount; r++) {
+                    // (the ranges ahead)
+                    while (rangeTasks.size() < rangeCount && rangeTasks.size() < r + 2 * threads) {
+                        long firstCase = rangeTasks.size() * casesPerRange;
+                        long rangeCases = Math.min(casesPerRange, caseQnty - firstCase);
+                        File rangeTabFile = File.createTempFile("range-", ".tab");
+                        rangeTabFiles.add(rangeTabFile);
+                        rangeTasks.add(pool.submit(() -> decodeUncompressedRange(channel, plan,
+                                dataOffset + firstCase * caseLength, (int) rangeCases, rangeTabFile)));
                     }
 
-                    dbgLog.fine("new casewiseRecordForTabFile="+newDataLine);
-                    dbgLog.fine("new casewiseRecordForTabFile(size)="+newDataLine.size());
-                    
-                    casewiseRecordForTabFile = newDataLine;
+                    CaseWriter rangeWriter = waitForTask(rangeTasks.get(r));
+                    rangeWriter.merge();
 
-                } // end-if: stringContinuousVar-exist case
+                    File rangeTabFile = rangeTabFiles.get(r);
+                    try (FileChannel rangeChannel = new FileInputStream(rangeTabFile).getChannel()) {
+                        long position = 0;
+                        long size = rangeChannel.size();
+                        while (position < size) {
+                            position += rangeChannel.transferTo(position, size - position, tabFileChannel);
+                        }
+                    }
+                    rangeTabFile.delete();
+                }
+            } finally {
+                pool.shutdownNow();
+                for (File rangeTabFile : rangeTabFiles) {
+                    rangeTabFile.delete();
+                }
+            }
+        }
 
-                caseIndex++;
-                dbgLog.finer("caseIndex="+caseIndex);
-                for (int k = 0; k < casewiseRecordForTabFile.size(); k++){
+        dbgLog.fine("decimalVariableSet="+decimalVariableSet);
 
-                    if (variableTypelList.get(k) > 0) {
+        dbgLog.fine("***** decodeRecordTypeDataUnCompressed(): end *****");
+    }
 
-			// See my comments for this padding removal logic
-			// in the "compressed" method -- L.A.
+    /*
+     * Decodes a range of cases of the uncompressed data section into a tab 
+     * file; returns the case writer, with the date formats and the decimal 
+     * variables found in the range.
+     */
+    private CaseWriter decodeUncompressedRange(final FileChannel channel, final SAVDecodePlan plan,
+            final long start, final int caseCount, final File rangeTabFile) throws IOException {
+        CaseWriter caseWriter = new CaseWriter(plan);
+
+        byte[] caseBytes = new byte[LENGTH_SAV_OBS_BLOCK * OBSUnitsPerCase];
+        ByteBuffer caseBuffer = ByteBuffer.wrap(caseBytes);
+        if (isLittleEndian) {
+            caseBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
 
-			String paddRemoved = StringUtils.stripEnd(casewiseRecordForTabFile.get(k).toString(), null);
-			// TODO: clean this up.  For now, just make sure that strings contain at least one blank space.
-			if (paddRemoved.equals("")) {
-			    paddRemoved = " ";
-			}
+        MappedByteBuffer range = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                (long) caseCount * caseBytes.length);
+        try (PrintWriter pwout = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(rangeTabFile), "utf8"))) {
+            for (int i = 0; i < caseCount; i++) {
+                range.get(caseBytes);
+                caseWriter.decodeUncompressedCase(caseBytes, caseBuffer);
+                caseWriter.writeCase(pwout);
+            }
+        }
+        return caseWriter;
+    }
 
-			//casewiseRecordForTabFile.set(k, "\"" + paddRemoved.replaceAll("\"", Matcher.quoteReplacement("\\\"")) + "\"");
-                        casewiseRecordForTabFile.set(k, escapeCharacterString(paddRemoved));
-			
-			// end of String var case
+    private static <T> T waitForTask(final Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the SAV file", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Failed to read the SAV file: " + ex.getCause().getMessage(), ex.getCause());
+        }
+    }
 
-                    } // end of variable-type check
-                    
-                    if (casewiseRecordForTabFile.get(k)!=null && !casewiseRecordForTabFile.get(k).equals(MissingValueForTextDataFileNumeric)){
-                        
-                        // to do date conversion
-                        String variableFormatType =  variableFormatTypeList[k];
-                        dbgLog.finer("k="+k+"th variable format="+variableFormatType);
+    /*
+     * Decodes cases, and writes them into a tab file. A case writer has 
+     * buffers and formatters of its own, and keeps the date formats and the 
+     * decimal variables found in the cases it has written, until merge() 
+     * adds them to those of the reader; so separate ranges of cases can be 
+     * written by separate case writers, on separate threads. 
+     */
+    private class CaseWriter {
+        final SAVDecodePlan plan;
+        // the numeric values of the case, and the strings (joined from 
+        // their segments); the numbers are formatted into the same char 
+        // buffer, one after the other (numberLengths[k] is -1 where the 
+        // value is in caseValues instead: the missing and compressed ones):
+        private final String[] caseValues;
+        final StringBuilder[] caseStrings;
+        private char[] numberChars;
+        private int numberCharCount;
+        private final int[] numberStarts;
+        private final int[] numberLengths;
+        // the numeric variables written as they are formatted (not dates, 
+        // times, weekdays or months):
+        private final boolean[] isPlainNumber;
+        private final boolean[] isDecimalVariable;
+        private final String[] dateFormats;
+        private final DoubleFormatter numberFormatter = new DoubleFormatter(getDoubleFormatMode());
+        private final SimpleDateFormat sdf_ymd = (SimpleDateFormat) SAVFileReader.this.sdf_ymd.clone();
+        private final SimpleDateFormat sdf_ymdhms = (SimpleDateFormat) SAVFileReader.this.sdf_ymdhms.clone();
+        private final SimpleDateFormat sdf_dhms = (SimpleDateFormat) SAVFileReader.this.sdf_dhms.clone();
+        private final SimpleDateFormat sdf_hms = (SimpleDateFormat) SAVFileReader.this.sdf_hms.clone();
+        private final boolean isAsciiCompatible = isAsciiCompatible(defaultCharSet);
+
+        CaseWriter(final SAVDecodePlan plan) {
+            this.plan = plan;
+            caseValues = new String[plan.variableCount];
+            caseStrings = new StringBuilder[plan.variableCount];
+            numberChars = new char[4 * numberFormatter.getMaxLength()];
+            numberStarts = new int[plan.variableCount];
+            numberLengths = new int[plan.variableCount];
+            isPlainNumber = new boolean[plan.variableCount];
+            for (int k = 0; k < plan.variableCount; k++) {
+                if (plan.isString[k]) {
+                    caseStrings[k] = new StringBuilder();
+                } else {
+                    isPlainNumber[k] = !"date".equals(plan.formatTypes[k])
+                            && !"time".equals(plan.formatTypes[k])
+                            && !("other".equals(plan.formatTypes[k])
+                                    && ("WKDAY".equals(plan.printFormats[k]) || "MONTH".equals(plan.printFormats[k])));
+                }
+            }
+            isDecimalVariable = new boolean[plan.variableCount];
+            dateFormats = new String[plan.variableCount];
+        }
 
-                        int formatDecimalPointPosition = formatDecimalPointPositionList.get(k);
+        /*
+         * Formats the value of the k-th (numeric) variable into the number 
+         * buffer. 
+         */
+        void setNumber(final int k, final double value) {
+            if (numberChars.length - numberCharCount < numberFormatter.getMaxLength()) {
+                numberChars = Arrays.copyOf(numberChars, 2 * numberChars.length);
+            }
+            numberStarts[k] = numberCharCount;
+            numberLengths[k] = numberFormatter.format(value, numberChars, numberCharCount);
+            numberCharCount += numberLengths[k];
+        }
 
-                        if (variableFormatType.equals("date")){
-                            dbgLog.finer("date case");
+        /*
+         * Sets the value of the k-th (numeric) variable to one formatted 
+         * already. 
+         */
+        void setValue(final int k, final String value) {
+            caseValues[k] = value;
+            numberLengths[k] = -1;
+        }
 
-                            long dateDatum = Long.parseLong(casewiseRecordForTabFile.get(k).toString())*1000L- SPSS_DATE_OFFSET;
+        /*
+         * Decodes the OBS units of an uncompressed case. 
+         */
+        void decodeUncompressedCase(final byte[] caseBytes, final ByteBuffer caseBuffer)
+                throws UnsupportedEncodingException {
+            for (int j = 0; j < plan.obsCount; j++) {
+                int offset = LENGTH_SAV_OBS_BLOCK * j;
+                switch (plan.obsKinds[j]) {
+                    case SAVDecodePlan.NUMERIC:
+                        // numeric missing value == sysmis
+                        // FF FF FF FF FF FF eF FF(little endian)
+                        long bits = caseBuffer.getLong(offset);
+                        if (bits == SYSMIS_BITS || bits == SYSMIS_BITS_SWAPPED) {
+                            setValue(plan.obsVariables[j], MissingValueForTextDataFileNumeric);
+                        } else {
+                            setNumber(plan.obsVariables[j], Double.longBitsToDouble(bits));
+                        }
+                        break;
+                    case SAVDecodePlan.STRING_SEGMENT_7:
+                        appendStringSegment(plan.obsVariables[j], caseBytes, offset, LENGTH_SAV_OBS_BLOCK - 1);
+                        break;
+                    default:
+                        // string missing value
+                        // 20 20 20 20 20 20 20 20
+                        // (the padding is stripped when the case is written)
+                        appendStringSegment(plan.obsVariables[j], caseBytes, offset, LENGTH_SAV_OBS_BLOCK);
+                }
+            }
+        }
 
-                            String newDatum = sdf_ymd.format(new Date(dateDatum));
-                            dbgLog.finer("k="+k+":"+newDatum);
+        /*
+         * Appends a segment of the value of the k-th (string) variable. Each
+         * segment is decoded on its own; the segments that are all ASCII are
+         * copied as they are, if the character set allows it. 
+         */
+        void appendStringSegment(final int k, final byte[] bytes, final int offset, final int length)
+                throws UnsupportedEncodingException {
+            StringBuilder value = caseStrings[k];
+            if (isAsciiCompatible) {
+                int i = offset;
+                while (i < offset + length && bytes[i] >= 0) {
+                    i++;
+                }
+                if (i == offset + length) {
+                    for (i = offset; i < offset + length; i++) {
+                        value.append((char) bytes[i]);
+                    }
+                    return;
+                }
+            }
+            value.append(new String(bytes, offset, length, defaultCharSet));
+        }
 
-                            casewiseRecordForTabFile.set(k, newDatum);
-                            dateFormatList[k] = sdf_ymd.toPattern();
-                        } else if (variableFormatType.equals("time")) {
-                            dbgLog.finer("time case:DTIME or DATETIME or TIME");
-                            //formatCategoryTable.put(variableNameList.get(k), "time");
-                            // not treating DTIME as date/time; see comment elsewhere in 
-                            // the code; 
-                            // (but we do need to remember to treat the resulting values 
-                            // as character strings, not numerics!)
-                            
-                            if (printFormatTable.get(variableNameList.get(k)).equals("DTIME")){
-
-                                if (casewiseRecordForTabFile.get(k).toString().indexOf(".") < 0){
-                                    long dateDatum  = Long.parseLong(casewiseRecordForTabFile.get(k).toString())*1000L - SPSS_DATE_BIAS;
-                                    String newDatum = sdf_dhms.format(new Date(dateDatum));
-                                    // Note: DTIME is not a complete date, so we don't save a date format with it
-                                    dbgLog.finer("k="+k+":"+newDatum);
-                                    casewiseRecordForTabFile.set(k, newDatum);
-                                } else {
-                                    // decimal point included
-                                    String[] timeData = casewiseRecordForTabFile.get(k).toString().split("\\.");
-
-                                    dbgLog.finer(StringUtils.join(timeData, "|"));
-                                    long dateDatum = Long.parseLong(timeData[0])*1000L - SPSS_DATE_BIAS;
-                                    StringBuilder sb_time = new StringBuilder(
-                                        sdf_dhms.format(new Date(dateDatum)));
-                                    
-                                    if (formatDecimalPointPosition > 0){
-                                        sb_time.append("."+timeData[1].substring(0,formatDecimalPointPosition));
-                                    }
-                                    
-                                    
-                                    dbgLog.finer("k="+k+":"+sb_time.toString());
-                                    casewiseRecordForTabFile.set(k, sb_time.toString());
-                                }
-                            } else if (printFormatTable.get(variableNameList.get(k)).equals("DATETIME")){
-                                // TODO: 
-                                // (for both datetime and "dateless" time)
-                                // keep the longest of the matching formats - i.e., if there are *some*
-                                // values in the vector that have thousands of a second, that should be 
-                                // part of the saved format!
-                                //  -- L.A. Aug. 12 2014 
-
-                                if (casewiseRecordForTabFile.get(k).toString().indexOf(".") < 0){
-                                    long dateDatum  = Long.parseLong(casewiseRecordForTabFile.get(k).toString())*1000L - SPSS_DATE_OFFSET;
-                                    String newDatum = sdf_ymdhms.format(new Date(dateDatum));
-                                    dbgLog.finer("k="+k+":"+newDatum);
-                                    casewiseRecordForTabFile.set(k, newDatum);
-                                    dateFormatList[k] = sdf_ymdhms.toPattern();
-                                } else {
-                                    // decimal point included
-                                    String[] timeData = casewiseRecordForTabFile.get(k).toString().split("\\.");
-
-                                    //dbgLog.finer(StringUtils.join(timeData, "|"));
-                                    long dateDatum = Long.parseLong(timeData[0])*1000L- SPSS_DATE_OFFSET;
-                                    StringBuilder sb_time = new StringBuilder(
-                                        sdf_ymdhms.format(new Date(dateDatum)));
-                                    //dbgLog.finer(sb_time.toString());
-                                    
-                                    if (formatDecimalPointPosition > 0){
-                                        sb_time.append("."+timeData[1].substring(0,formatDecimalPointPosition));
-                                    }
-                                    dbgLog.finer("k="+k+":"+sb_time.toString());
-                                    casewiseRecordForTabFile.set(k, sb_time.toString());
-                                    // datetime with milliseconds:
-                                    dateFormatList[k] = sdf_ymdhms.toPattern() + (formatDecimalPointPosition > 0 ? ".S" : "" );
-                                }
-                            } else if (printFormatTable.get(variableNameList.get(k)).equals("TIME")){
-                                if (casewiseRecordForTabFile.get(k).toString().indexOf(".") < 0){
-                                    long dateDatum = Long.parseLong(casewiseRecordForTabFile.get(k).toString())*1000L;
-                                    String newDatum = sdf_hms.format(new Date(dateDatum));
-                                    dbgLog.finer("k="+k+":"+newDatum);
-                                    casewiseRecordForTabFile.set(k, newDatum);
-                                    if (dateFormatList[k] == null) {
-                                        dateFormatList[k] = sdf_hms.toPattern();
-                                    }
-                                } else {
-                                    // decimal point included
-                                    String[] timeData = casewiseRecordForTabFile.get(k).toString().split("\\.");
-
-                                    //dbgLog.finer(StringUtils.join(timeData, "|"));
-                                    long dateDatum = Long.parseLong(timeData[0])*1000L;
-                                    StringBuilder sb_time = new StringBuilder(
-                                        sdf_hms.format(new Date(dateDatum)));
-                                    //dbgLog.finer(sb_time.toString());
-                                    
-                                    if (formatDecimalPointPosition > 0){
-                                        sb_time.append("."+timeData[1].substring(0,formatDecimalPointPosition));
-                                    }
-                                    dbgLog.finer("k="+k+":"+sb_time.toString());
-                                    casewiseRecordForTabFile.set(k, sb_time.toString());
-                                    // time, possibly with milliseconds:
-                                    String format_hmsS = sdf_hms.toPattern() + (formatDecimalPointPosition > 0 ? ".S" : "" );
-                                    if (dateFormatList[k] == null || (format_hmsS.length() > dateFormatList[k].length())) {
-                                        dateFormatList[k] = format_hmsS;
-                                    }
-                                }
-                            }
-                        } else if (variableFormatType.equals("other")){
-                            dbgLog.finer("other non-date/time case");
-
-                            if (printFormatTable.get(variableNameList.get(k)).equals("WKDAY")){
-                                // day of week
-                                dbgLog.finer("data k="+k+":"+casewiseRecordForTabFile.get(k));
-                                dbgLog.finer("data k="+k+":"+SPSSConstants.WEEKDAY_LIST.get(Integer.valueOf(casewiseRecordForTabFile.get(k).toString())-1));
-                                String newDatum = SPSSConstants.WEEKDAY_LIST.get(Integer.valueOf(casewiseRecordForTabFile.get(k).toString())-1);
-                                casewiseRecordForTabFile.set(k, newDatum);
-                                dbgLog.finer("wkday:k="+k+":"+casewiseRecordForTabFile.get(k));
-                            } else if (printFormatTable.get(variableNameList.get(k)).equals("MONTH")){
-                                // month
-                                dbgLog.finer("data k="+k+":"+casewiseRecordForTabFile.get(k));
-                                dbgLog.finer("data k="+k+":"+SPSSConstants.MONTH_LIST.get(Integer.valueOf(casewiseRecordForTabFile.get(k).toString())-1));
-                                String newDatum = SPSSConstants.MONTH_LIST.get(Integer.valueOf(casewiseRecordForTabFile.get(k).toString())-1);
-                                casewiseRecordForTabFile.set(k, newDatum);
-                                dbgLog.finer("month:k="+k+":"+casewiseRecordForTabFile.get(k));
+        /*
+         * Writes the decoded case into the tab file, and clears the strings 
+         * and the number buffer for the next one. The plain numbers are 
+         * written straight from the buffer. 
+         */
+        void writeCase(final PrintWriter pwout) {
+            for (int k = 0; k < plan.variableCount; k++) {
+                if (k > 0) {
+                    pwout.write('\t');
+                }
 
+                String value;
+                if (plan.isString[k]) {
+                    value = caseStrings[k].toString();
+                    caseStrings[k].setLength(0);
+                } else if (numberLengths[k] < 0) {
+                    value = caseValues[k];
+                } else if (isPlainNumber[k]) {
+                    int start = numberStarts[k];
+                    int end = start + numberLengths[k];
+                    pwout.write(numberChars, start, numberLengths[k]);
+
+                    // numeric contents-check: "decimal variables" become 
+                    // continuous ones
+                    if (plan.checkDecimal[k] && !isDecimalVariable[k]) {
+                        for (int i = start; i < end; i++) {
+                            if (numberChars[i] == '.') {
+                                isDecimalVariable[k] = true;
+                                break;
                             }
-                        } 
-			// end of date/time block
-                    } // end: date-time-datum check
+                        }
+                    }
+                    continue;
+                } else {
+                    value = new String(numberChars, numberStarts[k], numberLengths[k]);
+                }
+                value = formatCaseValue(k, value);
 
-                } // end: loop-k(2nd: variablte-wise-check)
+                if (value != null) {
+                    pwout.write(value);
 
-		// write to tab file
-		if (casewiseRecordForTabFile.size() > 0) {
-		    pwout.println(StringUtils.join(casewiseRecordForTabFile, "\t"));
-		}
-		
-                // numeric contents-check
-                for (int l = 0; l < casewiseRecordForTabFile.size(); l++){
-                    if ( variableFormatTypeList[l].equals("date") ||
-                         variableFormatTypeList[l].equals("time") ||
-                         printFormatTable.get(variableNameList.get(l)).equals("WKDAY") ||
-                         printFormatTable.get(variableNameList.get(l)).equals("MONTH") ) {
-                        
-                    } else { 
-                        if (variableTypelList.get(l) <= 0) {
-                            if (casewiseRecordForTabFile.get(l).toString().indexOf(".") >= 0){
-                                decimalVariableSet.add(l);
-                            }
+                    // numeric contents-check: "decimal variables" become 
+                    // continuous ones
+                    if (plan.checkDecimal[k] && !isDecimalVariable[k] && value.indexOf('.') >= 0) {
+                        isDecimalVariable[k] = true;
+                    }
+                }
+            }
+            pwout.println();
+            numberCharCount = 0;
+        }
+
+        /*
+         * Adds the date formats and the decimal variables found to those of 
+         * the reader; the case writers of the ranges of a data section are 
+         * merged in order, with the same result as if a single one had 
+         * written all the cases. 
+         */
+        void merge() {
+            for (int k = 0; k < plan.variableCount; k++) {
+                if (dateFormats[k] != null) {
+                    if ("TIME".equals(plan.printFormats[k])) {
+                        // (the longest of the formats)
+                        if (dateFormatList[k] == null || dateFormats[k].length() > dateFormatList[k].length()) {
+                            dateFormatList[k] = dateFormats[k];
                         }
+                    } else {
+                        dateFormatList[k] = dateFormats[k];
                     }
                 }
-                
-                // reset the case-wise working objects
-                casewiseRecordForTabFile.clear();
-                
-                if (stream.available() == 0){
-                    // reached the end of this file
-                    // do exit-processing
+                if (isDecimalVariable[k]) {
+                    decimalVariableSet.add(k);
+                }
+            }
+        }
 
-                    dbgLog.fine("reached the end of the file at "+ii
-				+"th iteration");
+        /*
+         * The tab file representation of a value of the k-th variable, as 
+         * decoded from the data section: the strings are stripped of their 
+         * padding, and escaped; the date and time values are formatted (and 
+         * their formats saved). 
+         */
+        private String formatCaseValue(final int k, final String value) {
+            String datum = value;
+
+            if (plan.isString[k]) {
+                // Strip the String variables off the whitespace padding
+                // (note that extended variables can have many kylobytes of such
+                // padding in them!):
+                String paddRemoved = StringUtils.stripEnd(datum, null);
+                // TODO: clean this up.  For now, just make sure that strings contain at least one blank space.
+                if (paddRemoved.equals("")) {
+                    paddRemoved = " ";
+                }
+                datum = escapeCharacterString(paddRemoved);
+            }
 
-                    break;
-                } // if eof processing
-            } //i-loop: case(row) iteration
+            if (datum == null || datum.equals(MissingValueForTextDataFileNumeric)) {
+                return datum;
+            }
 
-            // close the writer
-            pwout.close();
-            
+            String variableFormatType = plan.formatTypes[k];
+            String printFormat = plan.printFormats[k];
+            int formatDecimalPointPosition = plan.decimalPositions[k];
+
+            if ("date".equals(variableFormatType)) {
+                long dateDatum = Long.parseLong(datum) * 1000L - SPSS_DATE_OFFSET;
+                datum = sdf_ymd.format(new Date(dateDatum));
+                /* saving date format */
+                dateFormats[k] = sdf_ymd.toPattern();
+            } else if ("time".equals(variableFormatType)) {
+                if ("DTIME".equals(printFormat)) {
+                    // We're not even going to try to handle "DTIME"
+                    // values as time/dates in dataverse; this is a weird
+                    // format that nobody uses outside of SPSS.
+                    // (but we do need to remember to treat the resulting values 
+                    // as character strings, not numerics!)
+
+                    if (datum.indexOf(".") < 0) {
+                        long dateDatum = Long.parseLong(datum) * 1000L - SPSS_DATE_BIAS;
+                        datum = sdf_dhms.format(new Date(dateDatum));
+                    } else {
+                        // decimal point included
+                        String[] timeData = datum.split("\\.");
 
-        } catch (IOException ex) {
-	    throw ex; 
+                        long dateDatum = Long.parseLong(timeData[0]) * 1000L - SPSS_DATE_BIAS;
+                        StringBuilder sb_time = new StringBuilder(
+                                sdf_dhms.format(new Date(dateDatum)));
+
+                        if (formatDecimalPointPosition > 0) {
+                            sb_time.append("." + timeData[1].substring(0, formatDecimalPointPosition));
+                        }
+
+                        datum = sb_time.toString();
+                    }
+                } else if ("DATETIME".equals(printFormat)) {
+                    // TODO: 
+                    // (for both datetime and "dateless" time)
+                    // keep the longest of the matching formats - i.e., if there are *some*
+                    // values in the vector that have thousands of a second, that should be 
+                    // part of the saved format!
+                    //  -- L.A. Aug. 12 2014 
+                    if (datum.indexOf(".") < 0) {
+                        long dateDatum = Long.parseLong(datum) * 1000L - SPSS_DATE_OFFSET;
+                        datum = sdf_ymdhms.format(new Date(dateDatum));
+                        dateFormats[k] = sdf_ymdhms.toPattern();
+                    } else {
+                        // decimal point included
+                        String[] timeData = datum.split("\\.");
+
+                        long dateDatum = Long.parseLong(timeData[0]) * 1000L - SPSS_DATE_OFFSET;
+                        StringBuilder sb_time = new StringBuilder(
+                                sdf_ymdhms.format(new Date(dateDatum)));
+
+                        if (formatDecimalPointPosition > 0) {
+                            sb_time.append("." + timeData[1].substring(0, formatDecimalPointPosition));
+                        }
+                        datum = sb_time.toString();
+                        dateFormats[k] = sdf_ymdhms.toPattern() + (formatDecimalPointPosition > 0 ? ".S" : "" );
+                    }
+                } else if ("TIME".equals(printFormat)) {
+                    // TODO: 
+                    // double-check that we are handling "dateless" time correctly... -- L.A. Aug. 2014
+                    if (datum.indexOf(".") < 0) {
+                        long dateDatum = Long.parseLong(datum) * 1000L;
+                        datum = sdf_hms.format(new Date(dateDatum));
+                        if (dateFormats[k] == null) {
+                            dateFormats[k] = sdf_hms.toPattern();
+                        }
+                    } else {
+                        // decimal point included
+                        String[] timeData = datum.split("\\.");
+
+                        long dateDatum = Long.parseLong(timeData[0]) * 1000L;
+                        StringBuilder sb_time = new StringBuilder(
+                                sdf_hms.format(new Date(dateDatum)));
+
+                        if (formatDecimalPointPosition > 0) {
+                            sb_time.append("." + timeData[1].substring(0, formatDecimalPointPosition));
+                        }
+                        datum = sb_time.toString();
+
+                        String format_hmsS = sdf_hms.toPattern() + (formatDecimalPointPosition > 0 ? ".S" : "");
+                        if (dateFormats[k] == null || (format_hmsS.length() > dateFormats[k].length())) {
+                            dateFormats[k] = format_hmsS;
+                        }
+                    }
+                }
+            } else if ("other".equals(variableFormatType)) {
+                if ("WKDAY".equals(printFormat)) {
+                    // day of week
+                    datum = SPSSConstants.WEEKDAY_LIST.get(Integer.valueOf(datum) - 1);
+                } else if ("MONTH".equals(printFormat)) {
+                    // month
+                    datum = SPSSConstants.MONTH_LIST.get(Integer.valueOf(datum) - 1);
+                }
+            }
+
+            return datum;
         }
-        
-        // contents check
-        dbgLog.fine("numberOfDecimalVariables="+numberOfDecimalVariables);
-        dbgLog.fine("decimalVariableSet="+decimalVariableSet);
+    }
 
-        dbgLog.fine("***** decodeRecordTypeDataUnCompressed(): end *****");
+    /*
+     * Whether the character set decodes the ASCII bytes into the same 
+     * characters.
+     */
+    private static boolean isAsciiCompatible(final String charsetName) {
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+        }
+        try {
+            String decoded = new String(ascii, charsetName);
+            if (decoded.length() != ascii.length) {
+                return false;
+            }
+            for (int i = 0; i < ascii.length; i++) {
+                if (decoded.charAt(i) != i) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (UnsupportedEncodingException ex) {
+            return false;
+        }
     }
 
+
     // Utility Methods  -----------------------------------------------------//
 
     private boolean variableNameIsAnIncrement (final String varNameBase, final String variableName){
@@ -3645,5 +3487,22 @@ public class SAVFileReader  extends TabularDataFileReader{
     }    
         
     
-}
+    /*
+     * A buffered stream over a file, that knows its position in the file
+     * (where the data section starts, once the dictionary has been read).
+     */
+    private static class SAVFileInputStream extends BufferedInputStream {
+        private final FileInputStream fileIn;
+
+        SAVFileInputStream(final FileInputStream fileIn) {
+            super(fileIn);
+            this.fileIn = fileIn;
+        }
 
+        synchronized long getPosition() throws IOException {
+            // (the position of the file, less what's buffered but not read)
+            return fileIn.getChannel().position() - (count - pos);
+        }
+    }
+
+}
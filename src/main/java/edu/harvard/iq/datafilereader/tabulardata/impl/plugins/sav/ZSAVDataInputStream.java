@@ -0,0 +1,391 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.sav;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The data section of a ZSAV (zlib-compressed SPSS) file, as the stream of
+ * bytecode-compressed data it holds; i.e., what the data section of a
+ * compressed ($FL2) SAV file would be.
+ *
+ * In a ZSAV file, the bytecode-compressed data is split into blocks (of
+ * about 4 MB, uncompressed), each one deflated into an independent zlib
+ * stream. The blocks are preceded by a "zheader" (the offsets of the
+ * zheader and of the "ztrailer") and followed by the ztrailer, an index of
+ * the offsets and sizes of the blocks.
+ *
+ * When the file itself is available, the ztrailer is read first, and the
+ * blocks are inflated in parallel, on a pool of threads, a few blocks ahead
+ * of the reader; they are still returned in order. Otherwise, the blocks
+ * are inflated one after another, as they come from the stream.
+ */
+class ZSAVDataInputStream extends InputStream {
+
+    private static Logger dbgLog = Logger.getLogger(ZSAVDataInputStream.class.getPackage().getName());
+
+    private static final int LENGTH_ZHEADER = 24;
+    private static final int LENGTH_ZTRAILER_ENTRY = 24;
+    private static final int LENGTH_INPUT_BUFFER = 1 << 16;
+    // the number of blocks inflated ahead of the reader, per thread:
+    private static final int BLOCKS_AHEAD_PER_THREAD = 2;
+
+    // the inflated data, returned by read():
+    private byte[] buffer = new byte[0];
+    private int position = 0;
+    private int limit = 0;
+
+    // sequential inflation, from the stream:
+    private InputStream source;
+    private Inflater inflater;
+    private byte[] input;
+    private int inputLength;
+    private long compressedRemaining;
+
+    // parallel inflation, from the file:
+    private RandomAccessFile file;
+    private Block[] blocks;
+    private ExecutorService pool;
+    private ArrayDeque<Future<byte[]>> inflatedBlocks;
+    private int blocksAhead;
+    private int nextBlock = 0;
+
+    private ZSAVDataInputStream() {
+    }
+
+    /**
+     * Reads the zheader that starts the data section of a ZSAV file, and
+     * opens the bytecode-compressed data that follows.
+     *
+     * @param stream the ZSAV stream, positioned at the zheader.
+     * @param savFile the ZSAV file; if null, the blocks are inflated
+     *            sequentially, from the stream.
+     * @param isLittleEndian the byte order of the file.
+     * @param parallelism the number of threads inflating the blocks.
+     */
+    static ZSAVDataInputStream open(final InputStream stream, final File savFile, final boolean isLittleEndian,
+            final int parallelism) throws IOException {
+        byte[] zheader = new byte[LENGTH_ZHEADER];
+        readFully(stream, zheader);
+        ByteBuffer bb_zheader = ByteBuffer.wrap(zheader);
+        if (isLittleEndian) {
+            bb_zheader.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        long zheaderOffset = bb_zheader.getLong();
+        long ztrailerOffset = bb_zheader.getLong();
+        long ztrailerLength = bb_zheader.getLong();
+        dbgLog.fine("ZSAV: zheader_ofs=" + zheaderOffset + ", ztrailer_ofs=" + ztrailerOffset + ", ztrailer_len="
+                + ztrailerLength);
+
+        long dataOffset = zheaderOffset + LENGTH_ZHEADER;
+        if (zheaderOffset <= 0 || ztrailerOffset < dataOffset || ztrailerLength < LENGTH_ZTRAILER_ENTRY
+                || ztrailerLength % LENGTH_ZTRAILER_ENTRY != 0) {
+            throw new IOException("Invalid ZSAV zheader: zheader_ofs=" + zheaderOffset + ", ztrailer_ofs="
+                    + ztrailerOffset + ", ztrailer_len=" + ztrailerLength);
+        }
+
+        ZSAVDataInputStream zstream = new ZSAVDataInputStream();
+        if (savFile != null) {
+            zstream.file = new RandomAccessFile(savFile, "r");
+            try {
+                zstream.blocks = readZtrailer(zstream.file.getChannel(), isLittleEndian, dataOffset,
+                        ztrailerOffset, ztrailerLength);
+            } catch (IOException ex) {
+                zstream.file.close();
+                throw ex;
+            }
+            int threads = Math.max(1, Math.min(parallelism, zstream.blocks.length));
+            dbgLog.fine("ZSAV: inflating " + zstream.blocks.length + " blocks on " + threads + " threads");
+            zstream.pool = Executors.newFixedThreadPool(threads);
+            zstream.inflatedBlocks = new ArrayDeque<>();
+            zstream.blocksAhead = threads * BLOCKS_AHEAD_PER_THREAD;
+        } else {
+            zstream.source = stream;
+            zstream.inflater = new Inflater();
+            zstream.input = new byte[LENGTH_INPUT_BUFFER];
+            zstream.buffer = new byte[LENGTH_INPUT_BUFFER];
+            zstream.compressedRemaining = ztrailerOffset - dataOffset;
+        }
+        return zstream;
+    }
+
+    /*
+     * Reads the index of the blocks, and checks that the blocks are laid out
+     * back to back between the zheader and the ztrailer.
+     */
+    private static Block[] readZtrailer(final FileChannel channel, final boolean isLittleEndian,
+            final long dataOffset, final long ztrailerOffset, final long ztrailerLength) throws IOException {
+        if (ztrailerOffset + ztrailerLength > channel.size()) {
+            throw new IOException("ZSAV ztrailer past the end of the file.");
+        }
+        ByteBuffer bb_ztrailer = ByteBuffer.allocate((int) ztrailerLength);
+        readFully(channel, bb_ztrailer, ztrailerOffset);
+        bb_ztrailer.flip();
+        if (isLittleEndian) {
+            bb_ztrailer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        long bias = bb_ztrailer.getLong();
+        long zero = bb_ztrailer.getLong();
+        int blockSize = bb_ztrailer.getInt();
+        int blockCount = bb_ztrailer.getInt();
+        dbgLog.fine("ZSAV: bias=" + bias + ", zero=" + zero + ", block_size=" + blockSize + ", n_blocks="
+                + blockCount);
+        if (blockCount != ztrailerLength / LENGTH_ZTRAILER_ENTRY - 1) {
+            throw new IOException("ZSAV ztrailer of " + ztrailerLength + " bytes for " + blockCount + " blocks.");
+        }
+
+        Block[] blocks = new Block[blockCount];
+        long compressedOffset = dataOffset;
+        for (int i = 0; i < blockCount; i++) {
+            long uncompressedOfs = bb_ztrailer.getLong();
+            Block block = new Block(bb_ztrailer.getLong(), bb_ztrailer.getInt(), bb_ztrailer.getInt());
+            if (block.compressedOffset != compressedOffset || block.uncompressedSize < 0
+                    || block.uncompressedSize > blockSize || block.compressedSize < 0) {
+                throw new IOException("Invalid ZSAV block " + i + ": uncompressed_ofs=" + uncompressedOfs
+                        + ", compressed_ofs=" + block.compressedOffset + ", uncompressed_size="
+                        + block.uncompressedSize + ", compressed_size=" + block.compressedSize);
+            }
+            compressedOffset += block.compressedSize;
+            blocks[i] = block;
+        }
+        if (compressedOffset != ztrailerOffset) {
+            throw new IOException("ZSAV blocks end at " + compressedOffset + "; the ztrailer is at "
+                    + ztrailerOffset + ".");
+        }
+        return blocks;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Reads up to len bytes; fewer only at the end of the data (the reads
+     * go across the block boundaries).
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int done = 0;
+        while (done < len) {
+            if (position == limit && !fill()) {
+                break;
+            }
+            int n = Math.min(len - done, limit - position);
+            System.arraycopy(buffer, position, b, off + done, n);
+            position += n;
+            done += n;
+        }
+        return done == 0 ? -1 : done;
+    }
+
+    /**
+     * The number of bytes inflated and not yet read; 0 only at the end of
+     * the data (the compressed data decoder relies on this to detect the
+     * end of the data section). When the inflated bytes have all been read,
+     * this waits for the next block.
+     */
+    @Override
+    public int available() throws IOException {
+        if (position == limit && !fill()) {
+            return 0;
+        }
+        return limit - position;
+    }
+
+    /*
+     * Inflates more data into the buffer; false at the end of the data.
+     */
+    private boolean fill() throws IOException {
+        return pool != null ? fillFromBlocks() : fillFromStream();
+    }
+
+    private boolean fillFromBlocks() throws IOException {
+        while (true) {
+            while (inflatedBlocks.size() < blocksAhead && nextBlock < blocks.length) {
+                Block block = blocks[nextBlock++];
+                inflatedBlocks.add(pool.submit(() -> inflate(block)));
+            }
+            Future<byte[]> inflatedBlock = inflatedBlocks.poll();
+            if (inflatedBlock == null) {
+                return false;
+            }
+            try {
+                buffer = inflatedBlock.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while inflating the ZSAV data.", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Failed to inflate a ZSAV block: " + cause.getMessage(), cause);
+            }
+            position = 0;
+            limit = buffer.length;
+            if (limit > 0) {
+                return true;
+            }
+        }
+    }
+
+    /*
+     * Reads and inflates one block (on a thread of the pool; the reads are
+     * positional, so they don't share a file position).
+     */
+    private byte[] inflate(final Block block) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate(block.compressedSize);
+        readFully(file.getChannel(), compressed, block.compressedOffset);
+
+        byte[] inflated = new byte[block.uncompressedSize];
+        Inflater blockInflater = new Inflater();
+        try {
+            blockInflater.setInput(compressed.array(), 0, block.compressedSize);
+            int n = 0;
+            while (n < inflated.length && !blockInflater.finished()) {
+                int inflatedBytes = blockInflater.inflate(inflated, n, inflated.length - n);
+                if (inflatedBytes == 0 && (blockInflater.needsInput() || blockInflater.needsDictionary())) {
+                    break;
+                }
+                n += inflatedBytes;
+            }
+            if (n != inflated.length || !blockInflater.finished()) {
+                throw new IOException("ZSAV block at " + block.compressedOffset + " does not inflate to "
+                        + block.uncompressedSize + " bytes.");
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Invalid ZSAV block at " + block.compressedOffset + ": " + ex.getMessage(), ex);
+        } finally {
+            blockInflater.end();
+        }
+        return inflated;
+    }
+
+    private boolean fillFromStream() throws IOException {
+        try {
+            while (true) {
+                if (inflater.finished()) {
+                    // the end of a block; the rest of the input belongs to
+                    // the next one:
+                    int remaining = inflater.getRemaining();
+                    inflater.reset();
+                    if (remaining > 0) {
+                        inflater.setInput(input, inputLength - remaining, remaining);
+                    }
+                }
+                if (inflater.needsInput()) {
+                    if (compressedRemaining == 0) {
+                        if (inflater.getBytesRead() > 0) {
+                            throw new EOFException("Truncated ZSAV block.");
+                        }
+                        return false;
+                    }
+                    inputLength = source.read(input, 0, (int) Math.min(input.length, compressedRemaining));
+                    if (inputLength < 0) {
+                        throw new EOFException("Unexpected end of the ZSAV data.");
+                    }
+                    compressedRemaining -= inputLength;
+                    inflater.setInput(input, 0, inputLength);
+                }
+                limit = inflater.inflate(buffer);
+                position = 0;
+                if (limit > 0) {
+                    return true;
+                }
+                if (inflater.needsDictionary()) {
+                    throw new IOException("Invalid ZSAV block: a preset dictionary is required.");
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Invalid ZSAV block: " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        if (inflater != null) {
+            inflater.end();
+        }
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    private static void readFully(final InputStream stream, final byte[] b) throws IOException {
+        int n = 0;
+        while (n < b.length) {
+            int read = stream.read(b, n, b.length - n);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of the ZSAV file.");
+            }
+            n += read;
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer bb, final long offset)
+            throws IOException {
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, offset + bb.position()) < 0) {
+                throw new EOFException("Unexpected end of the ZSAV file.");
+            }
+        }
+    }
+
+    /*
+     * An entry of the ztrailer.
+     */
+    private static class Block {
+        final long compressedOffset;
+        final int uncompressedSize;
+        final int compressedSize;
+
+        Block(final long compressedOffset, final int uncompressedSize, final int compressedSize) {
+            this.compressedOffset = compressedOffset;
+            this.uncompressedSize = uncompressedSize;
+            this.compressedSize = compressedSize;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ Copyright (C) 2005-2013, by the President and Fellows of Harvard College.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+
+ Dataverse Network - A web application to share, preserve and analyze research data.
+ Developed at the Institute for Quantitative Social Science, Harvard University.
+ Version 3.0.
+ */
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.xls;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BlankRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.DimensionsRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.MulBlankRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.poifs.filesystem.DirectoryNode;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.ErrorConstants;
+
+import edu.harvard.iq.datafilereader.tabulardata.TabularDataFileReader;
+import edu.harvard.iq.datafilereader.tabulardata.TabularDataIngest;
+import edu.harvard.iq.datafilereader.tabulardata.model.DataTable;
+import edu.harvard.iq.datafilereader.tabulardata.util.SpreadsheetTabFileWriter;
+import edu.harvard.iq.datafilereader.tabulardata.util.TabFileColumnPatcher;
+
+/**
+ * Ingest plugin for legacy Excel (XLS, BIFF8) spreadsheets.
+ *
+ * The workbook is read with the event API of Apache POI: the records of the
+ * workbook stream are passed to a listener one at a time, and the rows of
+ * the first worksheet are written into the tab file as they go by, without
+ * building the workbook model; the memory used doesn't depend on the size of
+ * the sheet (only the shared strings table of the workbook is kept). The
+ * rows are typed and formatted by the same {@link SpreadsheetTabFileWriter}
+ * as the rows of XLSX sheets.
+ */
+public class XLSFileReader extends TabularDataFileReader {
+
+    private static final Logger dbglog = Logger.getLogger(XLSFileReader.class.getPackage().getName());
+
+    /**
+     * Reads an XLS file, converts it into a dataverse DataTable. Only the
+     * first sheet of the workbook is read.
+     *
+     * @param stream a <code>BufferedInputStream</code>.
+     * @param ignored
+     * @return an <code>TabularDataIngest</code> object
+     * @throws IOException if a reading error occurs.
+     */
+    @Override
+    public TabularDataIngest read(final BufferedInputStream stream, final Optional<File> dataFile) throws IOException {
+        // (the OLE2 container is read into memory; the records are still
+        // streamed from it)
+        try (NPOIFSFileSystem fs = new NPOIFSFileSystem(stream)) {
+            return readWorkbook(fs.getRoot());
+        }
+    }
+
+    /**
+     * Reads an XLS file, converts it into a dataverse DataTable. Only the
+     * first sheet of the workbook is read; the OLE2 container is read from
+     * the file as needed.
+     */
+    @Override
+    public TabularDataIngest read(final File file) throws IOException {
+        try (NPOIFSFileSystem fs = new NPOIFSFileSystem(file, true)) {
+            return readWorkbook(fs.getRoot());
+        }
+    }
+
+    private TabularDataIngest readWorkbook(final DirectoryNode root) throws IOException {
+        DataTable dataTable = new DataTable();
+
+        File tabFileDestination = File.createTempFile("data-", ".tab");
+        boolean success = false;
+        try (TabFileColumnPatcher patcher = new TabFileColumnPatcher()) {
+            SpreadsheetTabFileWriter rowWriter;
+            try (PrintWriter tabFileWriter = new PrintWriter(tabFileDestination.getAbsolutePath())) {
+                rowWriter = new SpreadsheetTabFileWriter(dataTable, tabFileWriter, patcher);
+                HSSFRequest request = new HSSFRequest();
+                request.addListenerForAllRecords(new SheetListener(rowWriter));
+                new HSSFEventFactory().abortableProcessWorkbookEvents(request, root);
+            } catch (HSSFUserException | RuntimeException ex) {
+                throw new IOException("Could not parse Excel/XLS spreadsheet. " + ex.getMessage(), ex);
+            }
+
+            if (dataTable.getCaseQuantity() == null || dataTable.getCaseQuantity().intValue() < 1) {
+                String errorMessage;
+                if (dataTable.getVarQuantity() == null || dataTable.getVarQuantity().intValue() < 1) {
+                    errorMessage = "No rows of data found in the Excel (XLS) file.";
+                } else {
+                    errorMessage = "Only one row of data (column name header?) detected in the Excel (XLS) file.";
+                }
+                throw new IOException(errorMessage);
+            }
+
+            rowWriter.patch(tabFileDestination);
+            success = true;
+        } finally {
+            if (!success) {
+                tabFileDestination.delete();
+            }
+        }
+
+        dataTable.setUnf("UNF:6:NOTCALCULATED");
+
+        TabularDataIngest ingesteddata = new TabularDataIngest();
+        ingesteddata.setTabDelimitedFile(tabFileDestination);
+        ingesteddata.setDataTable(dataTable);
+
+        dbglog.fine("Produced temporary file " + tabFileDestination.getAbsolutePath());
+        dbglog.fine("Found " + dataTable.getVarQuantity() + " variables, " + dataTable.getCaseQuantity()
+                + " observations.");
+
+        return ingesteddata;
+    }
+
+    /*
+     * The text of a numeric cell value, as the XLSX reader writes it: in a
+     * numeric column, the values are normalized with Double.toString()
+     * anyway; in a string column, the XLSX reader keeps the text stored in
+     * the sheet, which POI writes with Double.toString() too ("3.0").
+     */
+    static String formatNumber(final double value) {
+        return Double.toString(value);
+    }
+
+    /*
+     * Collects the cells of the first worksheet of the workbook, row by row;
+     * the first row holds the variable names. Stops reading the workbook at
+     * the end of the sheet.
+     */
+    private static class SheetListener extends AbortableHSSFListener {
+
+        private final SpreadsheetTabFileWriter rowWriter;
+        private SSTRecord sharedStrings;
+        // nesting of the substreams (the sheets, and the charts embedded in
+        // them):
+        private int depth = 0;
+        private boolean inSheet = false;
+        private int columnCount = 0;
+        private boolean variableHeader = true;
+        private int currentRow = -1;
+        private String[] rowValues;
+        // the rows of the current block of rows, that are still to come
+        // (a row with no cells is still a row of missing values):
+        private final Deque<Integer> blockRows = new ArrayDeque<>();
+        // the column of the formula cell whose string value comes in the
+        // next StringRecord:
+        private int stringFormulaColumn = -1;
+
+        SheetListener(final SpreadsheetTabFileWriter rowWriter) {
+            this.rowWriter = rowWriter;
+        }
+
+        @Override
+        public short abortableProcessRecord(final Record record) throws HSSFUserException {
+            try {
+                return readRecord(record);
+            } catch (IOException ex) {
+                throw new HSSFUserException(ex.getMessage(), ex);
+            }
+        }
+
+        private short readRecord(final Record record) throws IOException {
+            switch (record.getSid()) {
+            case BOFRecord.sid:
+                depth++;
+                if (depth == 1 && ((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+                    inSheet = true;
+                }
+                return 0;
+            case EOFRecord.sid:
+                depth--;
+                if (inSheet && depth == 0) {
+                    endRow();
+                    startRow(Integer.MAX_VALUE);
+                    rowWriter.finish();
+                    // (the first sheet is done; no need to read the rest)
+                    return 1;
+                }
+                return 0;
+            case SSTRecord.sid:
+                sharedStrings = (SSTRecord) record;
+                return 0;
+            default:
+                break;
+            }
+            if (!inSheet || depth != 1) {
+                return 0;
+            }
+
+            switch (record.getSid()) {
+            case RowRecord.sid:
+                blockRows.add(((RowRecord) record).getRowNumber());
+                break;
+            case DimensionsRecord.sid:
+                // (the index of the last column + 1)
+                columnCount = ((DimensionsRecord) record).getLastCol();
+                dbglog.fine("Established variable (column) count: " + columnCount);
+                break;
+            case NumberRecord.sid:
+                setCell(record, formatNumber(((NumberRecord) record).getValue()));
+                break;
+            case LabelSSTRecord.sid:
+                LabelSSTRecord label = (LabelSSTRecord) record;
+                setCell(record, sharedStrings.getString(label.getSSTIndex()).getString());
+                break;
+            case LabelRecord.sid:
+                setCell(record, ((LabelRecord) record).getValue());
+                break;
+            case FormulaRecord.sid:
+                // (the value cached when the workbook was last calculated)
+                FormulaRecord formula = (FormulaRecord) record;
+                switch (formula.getCachedResultType()) {
+                case Cell.CELL_TYPE_NUMERIC:
+                    setCell(record, formatNumber(formula.getValue()));
+                    break;
+                case Cell.CELL_TYPE_STRING:
+                    setCell(record, formula.hasCachedResultString() ? null : "");
+                    if (formula.hasCachedResultString()) {
+                        stringFormulaColumn = formula.getColumn();
+                    }
+                    break;
+                case Cell.CELL_TYPE_BOOLEAN:
+                    setCell(record, formula.getCachedBooleanValue() ? "1" : "0");
+                    break;
+                case Cell.CELL_TYPE_ERROR:
+                    setCell(record, ErrorConstants.getText(formula.getCachedErrorValue()));
+                    break;
+                default:
+                    setCell(record, null);
+                }
+                break;
+            case StringRecord.sid:
+                if (stringFormulaColumn >= 0) {
+                    rowValues[stringFormulaColumn] = ((StringRecord) record).getString();
+                    stringFormulaColumn = -1;
+                }
+                break;
+            case BoolErrRecord.sid:
+                BoolErrRecord boolErr = (BoolErrRecord) record;
+                if (boolErr.isBoolean()) {
+                    setCell(record, boolErr.getBooleanValue() ? "1" : "0");
+                } else {
+                    setCell(record, ErrorConstants.getText(boolErr.getErrorValue()));
+                }
+                break;
+            case BlankRecord.sid:
+                // (a formatted cell with no value; the row is there)
+                setCell(record, null);
+                break;
+            case MulBlankRecord.sid:
+                MulBlankRecord blanks = (MulBlankRecord) record;
+                startRow(blanks.getRow());
+                break;
+            default:
+                break;
+            }
+            return 0;
+        }
+
+        private void setCell(final Record record, final String value) throws IOException {
+            CellValueRecordInterface cell = (CellValueRecordInterface) record;
+            startRow(cell.getRow());
+            int column = cell.getColumn();
+            if (column >= columnCount) {
+                throw new IOException("Cell in column " + (column + 1) + ", outside the " + columnCount
+                        + " columns of the sheet.");
+            }
+            rowValues[column] = value;
+        }
+
+        /*
+         * The cells come in the order of the rows; a cell in another row
+         * ends the current one (and the rows with no cells before it).
+         */
+        private void startRow(final int row) throws IOException {
+            if (row == currentRow) {
+                return;
+            }
+            endRow();
+            while (!blockRows.isEmpty() && blockRows.peek() <= row) {
+                int blockRow = blockRows.poll();
+                if (blockRow < row) {
+                    openRow(blockRow);
+                    endRow();
+                }
+            }
+            if (row != Integer.MAX_VALUE) {
+                openRow(row);
+            }
+        }
+
+        private void openRow(final int row) throws IOException {
+            if (columnCount < 1) {
+                throw new IOException("Could not establish column count, or invalid column count encountered.");
+            }
+            if (rowValues == null) {
+                rowValues = new String[columnCount];
+            }
+            currentRow = row;
+        }
+
+        private void endRow() throws IOException {
+            if (currentRow < 0) {
+                return;
+            }
+            if (variableHeader) {
+                rowWriter.writeHeader(rowValues.clone());
+                variableHeader = false;
+            } else {
+                rowWriter.writeRow(rowValues);
+            }
+            Arrays.fill(rowValues, null);
+            currentRow = -1;
+            stringFormulaColumn = -1;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ Copyright (C) 2005-2013, by the President and Fellows of Harvard College.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+
+ Dataverse Network - A web application to share, preserve and analyze research data.
+ Developed at the Institute for Quantitative Social Science, Harvard University.
+ Version 3.0.
+ */
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.xlsx;
+
+import java.util.Arrays;
+
+/**
+ * Decodes the column letters of the cell references of a sheet ("B12",
+ * "AA3", up to "XFD1048576") into 0-based column numbers, with a lookup
+ * table of the letter values.
+ */
+final class ColumnDecoder {
+
+    /** The number of columns of an Excel 2007+ sheet (A to XFD). */
+    static final int MAX_COLUMNS = 16384;
+
+    // the value of every ASCII character as a column letter (A is 1, Z
+    // is 26), or -1:
+    private static final int[] LETTER_VALUES = new int[128];
+
+    static {
+        Arrays.fill(LETTER_VALUES, -1);
+        for (char c = 'A'; c <= 'Z'; c++) {
+            LETTER_VALUES[c] = c - 'A' + 1;
+        }
+    }
+
+    private ColumnDecoder() {
+    }
+
+    /**
+     * The column of a cell reference; -1 if the reference doesn't start
+     * with valid column letters.
+     */
+    static int decode(final CharSequence reference) {
+        int column = 0;
+        int i = 0;
+        for (; i < reference.length(); i++) {
+            char c = reference.charAt(i);
+            int value = c < 128 ? LETTER_VALUES[c] : -1;
+            if (value < 0) {
+                break;
+            }
+            column = column * 26 + value;
+            if (column > MAX_COLUMNS) {
+                return -1;
+            }
+        }
+        return i == 0 ? -1 : column - 1;
+    }
+}
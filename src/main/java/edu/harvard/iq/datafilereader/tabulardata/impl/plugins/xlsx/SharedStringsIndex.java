@@ -0,0 +1,348 @@
+/*
+ Copyright (C) 2005-2013, by the President and Fellows of Harvard College.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+
+ Dataverse Network - A web application to share, preserve and analyze research data.
+ Developed at the Institute for Quantitative Social Science, Harvard University.
+ Version 3.0.
+ */
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.xlsx;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.xssf.model.SharedStringsTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * The shared strings of an XLSX workbook, as a memory-mapped index.
+ *
+ * The shared strings part of the workbook is streamed through a SAX parser
+ * (it is never loaded as a SharedStringsTable), and the plain text of every
+ * string is appended to a UTF-8 "blob" file; a second file holds the offsets
+ * of the strings in the blob. Both files are then memory-mapped, so the heap
+ * used by the index doesn't depend on the number (or the size) of the
+ * strings; a string is only decoded when a cell refers to it.
+ *
+ * The index is read-only, so a single one can be used by the parsers of all
+ * the sheets of the workbook, running concurrently.
+ */
+public class SharedStringsIndex {
+
+    // (a multiple of 8, so that no offset straddles two segments)
+    private static final int SEGMENT_SIZE = 1 << 30;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // the escapes of the characters not allowed in XML, as decoded by
+    // XSSFRichTextString:
+    private static final Pattern ESCAPED_CHARACTER = Pattern.compile("_x([0-9A-F]{4})_");
+
+    private final int count;
+    private final MappedByteBuffer[] offsetSegments;
+    private final MappedByteBuffer[] blobSegments;
+
+    private SharedStringsIndex(final int count, final File offsetsFile, final File blobFile) throws IOException {
+        this.count = count;
+        this.offsetSegments = map(offsetsFile);
+        this.blobSegments = map(blobFile);
+    }
+
+    /**
+     * Indexes the shared strings of the workbook (none, if it has no shared
+     * strings part).
+     */
+    public static SharedStringsIndex read(final OPCPackage pkg) throws IOException {
+        return read(pkg, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Indexes the first shared strings of the workbook, up to the limit; the
+     * rest of the shared strings part is not read.
+     */
+    public static SharedStringsIndex read(final OPCPackage pkg, final int limit) throws IOException {
+        List<PackagePart> parts = pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+        if (parts.isEmpty() || limit <= 0) {
+            return new Builder().build();
+        }
+        try (InputStream sharedStringsData = parts.get(0).getInputStream()) {
+            return read(sharedStringsData, limit);
+        }
+    }
+
+    /**
+     * Indexes the shared strings in the XML of a shared strings part.
+     */
+    public static SharedStringsIndex read(final InputStream sharedStringsData) throws IOException {
+        return read(sharedStringsData, Integer.MAX_VALUE);
+    }
+
+    private static SharedStringsIndex read(final InputStream sharedStringsData, final int limit) throws IOException {
+        Builder builder = new Builder();
+        try {
+            XMLReader parser = XMLReaderFactory.createXMLReader();
+            parser.setContentHandler(new SharedStringsHandler(builder, limit));
+            try {
+                parser.parse(new InputSource(sharedStringsData));
+            } catch (LimitReachedException ex) {
+                // (the strings past the limit are not needed)
+            }
+            return builder.build();
+        } catch (SAXException ex) {
+            throw new IOException("Could not parse the shared strings of the Excel/XLSX spreadsheet. "
+                    + ex.getMessage(), ex);
+        } finally {
+            builder.discard();
+        }
+    }
+
+    /**
+     * Indexes the strings of a shared strings table already loaded.
+     */
+    public static SharedStringsIndex of(final SharedStringsTable sst) throws IOException {
+        Builder builder = new Builder();
+        try {
+            if (sst != null) {
+                for (int i = 0; i < sst.getItems().size(); i++) {
+                    builder.add(new XSSFRichTextString(sst.getEntryAt(i)).toString());
+                }
+            }
+            return builder.build();
+        } finally {
+            builder.discard();
+        }
+    }
+
+    public String get(final int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Shared string " + index + " of " + count + ".");
+        }
+        long start = getOffset(index);
+        byte[] bytes = new byte[(int) (getOffset(index + 1) - start)];
+        int done = 0;
+        while (done < bytes.length) {
+            long position = start + done;
+            // (a duplicate, so that concurrent reads don't share a position)
+            ByteBuffer segment = blobSegments[(int) (position / SEGMENT_SIZE)].duplicate();
+            segment.position((int) (position % SEGMENT_SIZE));
+            int length = Math.min(bytes.length - done, segment.remaining());
+            segment.get(bytes, done, length);
+            done += length;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Parses the index of a shared string, from the text of a cell value;
+     * -1 if the text is not a valid index.
+     */
+    static int parseIndex(final char[] text, final int length) {
+        if (length == 0) {
+            return -1;
+        }
+        int idx = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text[i];
+            if (c < '0' || c > '9' || idx > (Integer.MAX_VALUE - 9) / 10) {
+                return -1;
+            }
+            idx = idx * 10 + (c - '0');
+        }
+        return idx;
+    }
+
+    private long getOffset(final int index) {
+        long position = 8L * index;
+        return offsetSegments[(int) (position / SEGMENT_SIZE)].getLong((int) (position % SEGMENT_SIZE));
+    }
+
+    /*
+     * Maps the file, and deletes it; the mapping stays valid until it's
+     * garbage-collected.
+     */
+    private static MappedByteBuffer[] map(final File file) throws IOException {
+        MappedByteBuffer[] segments;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            segments = new MappedByteBuffer[(int) Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        }
+        if (!file.delete()) {
+            // (a mapped file can't be deleted on some systems)
+            file.deleteOnExit();
+        }
+        return segments;
+    }
+
+    static String decodeEscapedCharacters(final String value) {
+        if (value.indexOf("_x") < 0) {
+            return value;
+        }
+        StringBuilder decoded = new StringBuilder(value.length());
+        Matcher matcher = ESCAPED_CHARACTER.matcher(value);
+        int end = 0;
+        while (matcher.find()) {
+            decoded.append(value, end, matcher.start());
+            decoded.append((char) Integer.parseInt(matcher.group(1), 16));
+            end = matcher.end();
+        }
+        decoded.append(value, end, value.length());
+        return decoded.toString();
+    }
+
+    /*
+     * Writes the strings into the blob and offsets files.
+     */
+    private static class Builder {
+        private final File offsetsFile;
+        private final File blobFile;
+        private final DataOutputStream offsetsOut;
+        private final OutputStream blobOut;
+        private long offset = 0;
+        private int count = 0;
+        private boolean built = false;
+
+        Builder() throws IOException {
+            offsetsFile = File.createTempFile("sst-offsets-", ".bin");
+            blobFile = File.createTempFile("sst-strings-", ".bin");
+            offsetsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile),
+                    BUFFER_SIZE));
+            blobOut = new BufferedOutputStream(new FileOutputStream(blobFile), BUFFER_SIZE);
+        }
+
+        void add(final String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            offsetsOut.writeLong(offset);
+            blobOut.write(bytes);
+            offset += bytes.length;
+            count++;
+        }
+
+        SharedStringsIndex build() throws IOException {
+            // (the end of the last string)
+            offsetsOut.writeLong(offset);
+            offsetsOut.close();
+            blobOut.close();
+            built = true;
+            return new SharedStringsIndex(count, offsetsFile, blobFile);
+        }
+
+        /*
+         * Deletes the files, if the index wasn't built.
+         */
+        void discard() throws IOException {
+            if (!built) {
+                offsetsOut.close();
+                blobOut.close();
+                offsetsFile.delete();
+                blobFile.delete();
+            }
+        }
+    }
+
+    /*
+     * Extracts the plain text of the strings (<si> elements) of a shared
+     * strings part: the text of the string (<t>), or the texts of its rich
+     * text runs (<r><t>), without the phonetic runs (<rPh>).
+     */
+    private static class SharedStringsHandler extends DefaultHandler {
+        private final Builder builder;
+        private final int limit;
+        private final StringBuilder text = new StringBuilder();
+        private boolean inString = false;
+        private boolean inPhoneticRun = false;
+        private boolean inText = false;
+
+        SharedStringsHandler(final Builder builder, final int limit) {
+            this.builder = builder;
+            this.limit = limit;
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String name,
+                final Attributes attributes) throws SAXException {
+            String element = localName.isEmpty() ? name : localName;
+            if (element.equals("si")) {
+                inString = true;
+                text.setLength(0);
+            } else if (element.equals("rPh")) {
+                inPhoneticRun = true;
+            } else if (element.equals("t") && inString && !inPhoneticRun) {
+                inText = true;
+            }
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String name) throws SAXException {
+            String element = localName.isEmpty() ? name : localName;
+            if (element.equals("t")) {
+                inText = false;
+            } else if (element.equals("rPh")) {
+                inPhoneticRun = false;
+            } else if (element.equals("si")) {
+                try {
+                    builder.add(decodeEscapedCharacters(text.toString()));
+                } catch (IOException ex) {
+                    throw new SAXException(ex);
+                }
+                inString = false;
+                if (builder.count >= limit) {
+                    throw new LimitReachedException();
+                }
+            }
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) throws SAXException {
+            if (inText) {
+                text.append(ch, start, length);
+            }
+        }
+    }
+
+    /*
+     * Stops the parsing of the shared strings, once the limit is reached.
+     */
+    private static class LimitReachedException extends SAXException {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ Copyright (C) 2005-2013, by the President and Fellows of Harvard College.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+
+ Dataverse Network - A web application to share, preserve and analyze research data.
+ Developed at the Institute for Quantitative Social Science, Harvard University.
+ Version 3.0.
+ */
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.xlsx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import edu.harvard.iq.datafilereader.tabulardata.model.DataTable;
+import edu.harvard.iq.datafilereader.tabulardata.util.SpreadsheetTabFileWriter;
+
+/**
+ * Reads the first row of a worksheet (the variable names) with a StAX
+ * cursor ({@link XMLStreamReader}), for the metadata-only probe of the
+ * {@link XLSXFileReader}: the cursor stops at the end of the row, so the
+ * rest of the sheet is never parsed (the SAX handler reads the sheets of
+ * a full ingest).
+ */
+class StaxSheetParser {
+
+    private static final Logger dbglog = Logger.getLogger(StaxSheetParser.class.getPackage().getName());
+
+    private final SharedStringsIndex sharedStrings;
+    private final DataTable dataTable;
+    private final SpreadsheetTabFileWriter rowWriter;
+    private final XMLInputFactory inputFactory;
+    // the text of the current value, in a reusable buffer:
+    private char[] cellText = new char[256];
+    private int cellTextLength = 0;
+    private String[] variableNames;
+
+    StaxSheetParser(final SharedStringsIndex sharedStrings, final DataTable dataTable,
+            final SpreadsheetTabFileWriter rowWriter) {
+        this.sharedStrings = sharedStrings;
+        this.dataTable = dataTable;
+        this.rowWriter = rowWriter;
+        inputFactory = createInputFactory();
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        // (a sheet has no business declaring a DTD or entities)
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return inputFactory;
+    }
+
+    /**
+     * The number of shared strings needed for the first row of the sheet
+     * (the highest shared string index of its cells, plus one); so that a
+     * header parser can do with the first strings of the workbook.
+     */
+    static int countHeaderSharedStrings(final InputStream sheet) throws IOException, XMLStreamException {
+        XMLStreamReader reader = createInputFactory().createXMLStreamReader(sheet);
+        try {
+            int count = 0;
+            boolean isString = false;
+            StringBuilder value = null;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (reader.getLocalName().equals("c")) {
+                        isString = "s".equals(reader.getAttributeValue(null, "t"));
+                    } else if (reader.getLocalName().equals("v") && isString) {
+                        value = new StringBuilder();
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    if (value != null) {
+                        value.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (reader.getLocalName().equals("v") && value != null) {
+                        char[] text = value.toString().toCharArray();
+                        int idx = SharedStringsIndex.parseIndex(text, text.length);
+                        if (idx < 0) {
+                            throw new IOException("Invalid shared string index: " + value);
+                        }
+                        count = Math.max(count, idx + 1);
+                        value = null;
+                    } else if (reader.getLocalName().equals("row") || reader.getLocalName().equals("sheetData")) {
+                        return count;
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parses the first row of the sheet, and writes it with the row writer
+     * as the header; which creates the variables.
+     */
+    void parseHeader(final InputStream sheet) throws IOException, XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(sheet);
+        try {
+            int columnCount = 0;
+            boolean nextIsString = false;
+            boolean inValue = false;
+
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    String startName = reader.getLocalName();
+                    if (startName.equals("c")) {
+                        columnCount = getColumnCount(reader.getAttributeValue(null, "r"));
+                        nextIsString = "s".equals(reader.getAttributeValue(null, "t"));
+                        if (columnCount < 0) {
+                            throw new IOException("Could not establish position index of a cell element unambiguously!");
+                        }
+                        if (columnCount >= variableNames.length) {
+                            throw new IOException("Cell in column " + (columnCount + 1) + " of a sheet of "
+                                    + variableNames.length + " columns.");
+                        }
+                    } else if (startName.equals("v")) {
+                        inValue = true;
+                        cellTextLength = 0;
+                    } else if (startName.equals("row")) {
+                        startVariables(reader);
+                    }
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    if (inValue) {
+                        appendText(reader);
+                    }
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    String endName = reader.getLocalName();
+                    if (endName.equals("v")) {
+                        inValue = false;
+                        if (nextIsString) {
+                            variableNames[columnCount] = sharedStrings.get(parseSharedStringIndex());
+                            nextIsString = false;
+                        } else {
+                            variableNames[columnCount] = new String(cellText, 0, cellTextLength);
+                        }
+                    } else if (endName.equals("row")) {
+                        dbglog.fine("variableHeader mode; ");
+                        rowWriter.writeHeader(variableNames);
+                        return;
+                    }
+                    break;
+
+                default:
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /*
+     * Establishes the number of variables from the spans ("1:12") of the
+     * first row.
+     */
+    private void startVariables(final XMLStreamReader reader) throws IOException {
+        String rAttribute = reader.getAttributeValue(null, "r");
+        if (rAttribute == null) {
+            dbglog.warning("Null r attribute in the first row element!");
+        } else if (!rAttribute.equals("1")) {
+            dbglog.warning("Attribute r of the first row element is not \"1\"!");
+        }
+
+        int varCount = -1;
+        String spansAttribute = reader.getAttributeValue(null, "spans");
+        if (spansAttribute == null) {
+            dbglog.warning("Null spans attribute in the first row element!");
+        } else {
+            int colIndex = spansAttribute.indexOf(':');
+            if (colIndex < 1 || (colIndex == spansAttribute.length() - 1)) {
+                dbglog.warning("Invalid spans attribute in the first row element: "+spansAttribute+"!");
+            }
+            try {
+                varCount = Integer.parseInt(spansAttribute.substring(colIndex + 1));
+            } catch (NumberFormatException ex) {
+                varCount = -1;
+            }
+        }
+
+        if (varCount < 1 || varCount > ColumnDecoder.MAX_COLUMNS) {
+            throw new IOException("Could not establish column count, or invalid column count encountered.");
+        }
+
+        dbglog.info("Established variable (column) count: "+varCount);
+
+        dataTable.setVarQuantity(new Long(varCount));
+        variableNames = new String[varCount];
+    }
+
+    private int getColumnCount(final String cellReference) {
+        if (cellReference == null) {
+            return -1;
+        }
+        int count = ColumnDecoder.decode(cellReference);
+        if (count < 0) {
+            dbglog.warning("Unsupported column index tag: "+cellReference);
+        }
+        return count;
+    }
+
+    private void appendText(final XMLStreamReader reader) {
+        int length = reader.getTextLength();
+        if (cellTextLength + length > cellText.length) {
+            cellText = Arrays.copyOf(cellText, Math.max(cellText.length * 2, cellTextLength + length));
+        }
+        System.arraycopy(reader.getTextCharacters(), reader.getTextStart(), cellText, cellTextLength, length);
+        cellTextLength += length;
+    }
+
+    private int parseSharedStringIndex() throws IOException {
+        int idx = SharedStringsIndex.parseIndex(cellText, cellTextLength);
+        if (idx < 0) {
+            throw new IOException("Invalid shared string index: " + new String(cellText, 0, cellTextLength));
+        }
+        return idx;
+    }
+}
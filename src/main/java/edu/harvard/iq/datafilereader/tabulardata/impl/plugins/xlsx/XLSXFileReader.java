@@ -21,25 +21,36 @@ package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.xlsx;
 
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
-import org.apache.commons.lang3.StringUtils;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
 import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
 import org.apache.poi.xssf.eventusermodel.XSSFReader;
 import org.apache.poi.xssf.model.SharedStringsTable;
-import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 import org.xml.sax.Attributes;
-import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
@@ -49,7 +60,8 @@ import org.xml.sax.helpers.XMLReaderFactory;
 import edu.harvard.iq.datafilereader.tabulardata.TabularDataFileReader;
 import edu.harvard.iq.datafilereader.tabulardata.TabularDataIngest;
 import edu.harvard.iq.datafilereader.tabulardata.model.DataTable;
-import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
+import edu.harvard.iq.datafilereader.tabulardata.util.SpreadsheetTabFileWriter;
+import edu.harvard.iq.datafilereader.tabulardata.util.TabFileColumnPatcher;
 
 
 /**
@@ -67,13 +79,27 @@ public class XLSXFileReader extends TabularDataFileReader {
 
     private static final Logger dbglog = Logger.getLogger(XLSXFileReader.class.getPackage().getName());
     private char delimiterChar = '\t';
+    private int parallelism = Runtime.getRuntime().availableProcessors();
 
     private void init() throws IOException {
         
     }
     
     /**
-     * Reads an XLSX file, converts it into a dataverse DataTable.
+     * Number of sheets read concurrently by {@link #readSheets(File, Collection)};
+     * defaults to the number of available processors.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Reads an XLSX file, converts it into a dataverse DataTable. Only the
+     * first sheet of the workbook is read.
      *
      * @param stream a <code>BufferedInputStream</code>.
      * @param ignored
@@ -83,127 +109,276 @@ public class XLSXFileReader extends TabularDataFileReader {
     @Override
     public TabularDataIngest read(final BufferedInputStream stream, final Optional<File> dataFile) throws IOException {
         init();
-        
-        TabularDataIngest ingesteddata = new TabularDataIngest();
-        DataTable dataTable = new DataTable();
 
-        File firstPassTempFile = File.createTempFile("firstpass-", ".tab");
-        PrintWriter firstPassWriter = new PrintWriter(firstPassTempFile.getAbsolutePath());
         try {
-            processSheet(stream, dataTable, firstPassWriter);
-        } catch (Exception ex) {
-            throw new IOException("Could not parse Excel/XLSX spreadsheet. "+ex.getMessage());
+            // (the whole package is unpacked into memory)
+            return readFirstSheet(OPCPackage.open(stream));
+        } catch (OpenXML4JException ex) {
+            throw new IOException("Could not parse Excel/XLSX spreadsheet. " + ex.getMessage());
         }
+    }
 
-        if (dataTable.getCaseQuantity() == null || dataTable.getCaseQuantity().intValue() < 1) {
-            String errorMessage; 
-            if (dataTable.getVarQuantity() == null || dataTable.getVarQuantity().intValue() < 1) {
-                errorMessage = "No rows of data found in the Excel (XLSX) file.";
-            } else {
-                errorMessage = "Only one row of data (column name header?) detected in the Excel (XLSX) file.";
+    /**
+     * Reads an XLSX file, converts it into a dataverse DataTable. Only the
+     * first sheet of the workbook is read.
+     *
+     * The package is opened as a zip file, so only the parts that are needed
+     * (the workbook, the shared strings and the sheet) are read, streamed
+     * from their zip entries.
+     */
+    @Override
+    public TabularDataIngest read(final File file) throws IOException {
+        init();
+
+        return readFirstSheet(openPackage(file));
+    }
+
+    private TabularDataIngest readFirstSheet(final OPCPackage pkg) throws IOException {
+        if (isMetadataOnly()) {
+            return readFirstSheetVariables(pkg);
+        }
+        try {
+            XSSFReader r = new XSSFReader(pkg);
+            SharedStringsIndex sharedStrings = SharedStringsIndex.read(pkg);
+            Iterator<InputStream> sheets = r.getSheetsData();
+            if (!sheets.hasNext()) {
+                throw new IOException("No sheets found in the Excel (XLSX) file.");
             }
-            throw new IOException(errorMessage);
+            try (InputStream sheet = sheets.next()) {
+                return readSheet(sheet, sharedStrings);
+            }
+        } catch (OpenXML4JException ex) {
+            throw new IOException("Could not parse Excel/XLSX spreadsheet. " + ex.getMessage());
+        } finally {
+            // (closes the package without saving it)
+            pkg.revert();
         }
-        
-        // 2nd pass:
-        
-        File tabFileDestination = File.createTempFile("data-", ".tab");
-        PrintWriter finalWriter = new PrintWriter(tabFileDestination.getAbsolutePath());
-        
-        BufferedReader secondPassReader = new BufferedReader(new FileReader(firstPassTempFile));
-        
-        int varQnty = dataTable.getVarQuantity().intValue();
-        int lineCounter = 0;
-        String line = null;
-        String[] caseRow = new String[varQnty];
-        String[] valueTokens;
+    }
 
-        
-        while ((line = secondPassReader.readLine()) != null) {
-            // chop the line:
-            line = line.replaceFirst("[\r\n]*$", "");
-            valueTokens = line.split("" + delimiterChar, -2);
+    /*
+     * Reads the variables of the first sheet, from its first row, without a
+     * tab file: the rest of the sheet is not parsed, and only the shared
+     * strings up to the last one the first row refers to are indexed. (The
+     * types of the variables can't be told without the data; they are left
+     * as strings.)
+     */
+    private TabularDataIngest readFirstSheetVariables(final OPCPackage pkg) throws IOException {
+        try {
+            XSSFReader r = new XSSFReader(pkg);
+            int sharedStringCount;
+            try (InputStream sheet = openFirstSheet(r)) {
+                sharedStringCount = StaxSheetParser.countHeaderSharedStrings(sheet);
+            }
+            SharedStringsIndex sharedStrings = SharedStringsIndex.read(pkg, sharedStringCount);
 
-            if (valueTokens == null) {
-                throw new IOException("Failed to read line " + (lineCounter + 1) + " during the second pass.");
+            DataTable dataTable = new DataTable();
+            try (InputStream sheet = openFirstSheet(r)) {
+                new StaxSheetParser(sharedStrings, dataTable, new SpreadsheetTabFileWriter(dataTable, null, null))
+                        .parseHeader(sheet);
+            }
+            if (dataTable.getDataVariables() == null || dataTable.getDataVariables().isEmpty()) {
+                throw new IOException("No rows of data found in the Excel (XLSX) file.");
             }
+            dataTable.setUnf("UNF:6:NOTCALCULATED");
+            return new TabularDataIngest(dataTable);
+        } catch (OpenXML4JException | XMLStreamException ex) {
+            throw new IOException("Could not parse Excel/XLSX spreadsheet. " + ex.getMessage());
+        } finally {
+            // (closes the package without saving it)
+            pkg.revert();
+        }
+    }
 
-            if (valueTokens.length != varQnty) {
-                throw new IOException("Reading mismatch, line " + (lineCounter + 1) + " during the second pass: "
-                        + varQnty + " delimited values expected, " + valueTokens.length + " found.");
+    private static InputStream openFirstSheet(final XSSFReader r) throws IOException, OpenXML4JException {
+        Iterator<InputStream> sheets = r.getSheetsData();
+        if (!sheets.hasNext()) {
+            throw new IOException("No sheets found in the Excel (XLSX) file.");
+        }
+        return sheets.next();
+    }
+
+    /*
+     * Opens the package read-only, from a zip file.
+     */
+    private static OPCPackage openPackage(final File file) throws IOException {
+        try {
+            return OPCPackage.open(file.getPath(), PackageAccess.READ);
+        } catch (InvalidFormatException ex) {
+            throw new IOException("Could not open Excel/XLSX spreadsheet. " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads the sheets of an XLSX workbook, each one into its own DataTable
+     * and tab file. The sheets are parsed concurrently, on a pool of
+     * {@link #getParallelism()} threads; the shared strings of the workbook
+     * are indexed once, into a read-only, memory-mapped
+     * {@link SharedStringsIndex} used by all of them.
+     *
+     * @param file the XLSX file.
+     * @param sheetNames the names of the sheets to read; null to read all of
+     *            them.
+     * @return the ingested sheets, by name, in the order of the workbook.
+     * @throws IOException if a reading error occurs, or a named sheet is not
+     *             found.
+     */
+    public Map<String, TabularDataIngest> readSheets(final File file, final Collection<String> sheetNames)
+            throws IOException {
+        init();
+
+        Map<String, Future<TabularDataIngest>> sheetTasks = new LinkedHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        Map<String, TabularDataIngest> sheetIngests = new LinkedHashMap<>();
+        boolean success = false;
+        OPCPackage pkg = openPackage(file);
+        try {
+            XSSFReader r = new XSSFReader(pkg);
+            SharedStringsIndex sharedStrings = SharedStringsIndex.read(pkg);
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) r.getSheetsData();
+            while (sheets.hasNext()) {
+                // (the iterator opens every sheet it moves on to; each task 
+                // opens its own sheet again, on its own thread)
+                sheets.next().close();
+                String sheetName = sheets.getSheetName();
+                if (sheetNames != null && !sheetNames.contains(sheetName)) {
+                    continue;
+                }
+                PackagePart sheetPart = sheets.getSheetPart();
+                dbglog.fine("reading sheet " + sheetName);
+                sheetTasks.put(sheetName, pool.submit(() -> {
+                    try (InputStream sheetStream = new InterruptibleInputStream(sheetPart.getInputStream())) {
+                        return readSheet(sheetStream, sharedStrings);
+                    }
+                }));
             }
-        
-            for (int i = 0; i < varQnty; i++) {
-                if (dataTable.getDataVariables().get(i).isTypeNumeric()) {
-                    if (valueTokens[i] == null || valueTokens[i].equals(".") || valueTokens[i].equals("") || valueTokens[i].equalsIgnoreCase("NA")) {
-                        // Missing value - represented as an empty string in 
-                        // the final tab file
-                        caseRow[i] = "";
-                    } else if (valueTokens[i].equalsIgnoreCase("NaN")) {
-                        // "Not a Number" special value: 
-                        caseRow[i] = "NaN";
-                    } else if (valueTokens[i].equalsIgnoreCase("Inf")
-                            || valueTokens[i].equalsIgnoreCase("+Inf")) {
-                        // Positive infinity:
-                        caseRow[i] = "Inf";
-                    } else if (valueTokens[i].equalsIgnoreCase("-Inf")) {
-                        // Negative infinity: 
-                        caseRow[i] = "-Inf";
-                    } else if (valueTokens[i].equalsIgnoreCase("null")) {
-                        // By request from Gus - "NULL" is recognized as a 
-                        // numeric zero: 
-                        caseRow[i] = "0";
-                    } else {
+            if (sheetNames != null) {
+                for (String sheetName : sheetNames) {
+                    if (!sheetTasks.containsKey(sheetName)) {
+                        throw new IOException("Sheet " + sheetName + " not found in the Excel (XLSX) file.");
+                    }
+                }
+            }
+
+            for (Map.Entry<String, Future<TabularDataIngest>> sheetTask : sheetTasks.entrySet()) {
+                sheetIngests.put(sheetTask.getKey(), waitForSheet(sheetTask.getKey(), sheetTask.getValue()));
+            }
+            success = true;
+            return sheetIngests;
+        } catch (OpenXML4JException ex) {
+            throw new IOException("Could not parse Excel/XLSX spreadsheet. " + ex.getMessage());
+        } finally {
+            // (the tasks still running stop at the next read of their 
+            // sheet, and delete their own tab files; the package is only 
+            // closed once they are all done with it)
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            pkg.revert();
+            if (!success) {
+                // (the sheets that were read before the failure)
+                for (Future<TabularDataIngest> sheetTask : sheetTasks.values()) {
+                    if (sheetTask.isDone() && !sheetTask.isCancelled()) {
                         try {
-                            Double testDoubleValue = new Double(valueTokens[i]);
-                            caseRow[i] = testDoubleValue.toString();
-                        } catch (Exception ex) {
-                            throw new IOException ("Failed to parse a value recognized as numeric in the first pass! column: "+i+", value: "+valueTokens[i]);
+                            sheetTask.get().getTabDelimitedFile().delete();
+                        } catch (InterruptedException | ExecutionException ex) {
+                            // (the sheet failed; it has no tab file)
                         }
-                    }    
-                } else {
-                    // Treat as a String:
-                    // Strings are stored in tab files quoted;                                                                                   
-                    // Missing values are stored as tab-delimited nothing - 
-                    // i.e., an empty string between two tabs (or one tab and 
-                    // the new line);                                                                       
-                    // Empty strings stored as "" (quoted empty string).
-                    
-                    if (valueTokens[i] != null && !valueTokens[i].equals(".")) {
-                        String charToken = valueTokens[i];
-                        // Dealing with quotes: 
-                        // remove the leading and trailing quotes, if present:
-                        charToken = charToken.replaceFirst("^\"", "");
-                        charToken = charToken.replaceFirst("\"$", "");
-                        // escape the remaining ones:
-                        charToken = charToken.replace("\"", "\\\"");
-                        // final pair of quotes:
-                        charToken = "\"" + charToken + "\"";
-                        caseRow[i] = charToken;
-                    } else {
-                        caseRow[i] = "";
                     }
                 }
             }
-            
-            finalWriter.println(StringUtils.join(caseRow, "\t"));
-            lineCounter++;
+        }
+    }
 
-            
+    /*
+     * A sheet stream that fails once the thread reading it is interrupted, 
+     * so that the sheet tasks stop when the reading of the workbook fails. 
+     */
+    private static class InterruptibleInputStream extends FilterInputStream {
+
+        InterruptibleInputStream(final InputStream in) {
+            super(in);
         }
 
-        secondPassReader.close();
-        finalWriter.close();
-        
-        if (dataTable.getCaseQuantity().intValue() != lineCounter) {
-            throw new IOException("Mismatch between line counts in first and final passes!");
+        @Override
+        public int read() throws IOException {
+            checkInterrupted();
+            return super.read();
         }
-        
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            checkInterrupted();
+            return super.read(b, off, len);
+        }
+
+        private static void checkInterrupted() throws InterruptedIOException {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("The reading of the sheet was interrupted.");
+            }
+        }
+    }
+
+    private static TabularDataIngest waitForSheet(final String sheetName, final Future<TabularDataIngest> task)
+            throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading sheet " + sheetName, ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Sheet " + sheetName + ": " + ex.getCause().getMessage(), ex.getCause());
+        }
+    }
+
+    /*
+     * Reads one sheet, in a single pass: the rows are written into the tab
+     * file as they are parsed, with the variable types known so far; the
+     * cells of the columns that turn out not to be numeric after some of
+     * their rows were written are corrected at the end.
+     */
+    private TabularDataIngest readSheet(final InputStream sheet, final SharedStringsIndex sharedStrings)
+            throws IOException {
+        DataTable dataTable = new DataTable();
+
+        File tabFileDestination = File.createTempFile("data-", ".tab");
+        boolean success = false;
+        try (TabFileColumnPatcher patcher = new TabFileColumnPatcher()) {
+            SpreadsheetTabFileWriter rowWriter;
+            try (PrintWriter tabFileWriter = new PrintWriter(tabFileDestination.getAbsolutePath())) {
+                rowWriter = new SpreadsheetTabFileWriter(dataTable, tabFileWriter, patcher);
+                fetchSheetParser(new SheetHandler(sharedStrings, dataTable, rowWriter)).parse(new InputSource(sheet));
+            } catch (Exception ex) {
+                throw new IOException("Could not parse Excel/XLSX spreadsheet. " + ex.getMessage());
+            }
+
+            if (dataTable.getCaseQuantity() == null || dataTable.getCaseQuantity().intValue() < 1) {
+                String errorMessage;
+                if (dataTable.getVarQuantity() == null || dataTable.getVarQuantity().intValue() < 1) {
+                    errorMessage = "No rows of data found in the Excel (XLSX) file.";
+                } else {
+                    errorMessage = "Only one row of data (column name header?) detected in the Excel (XLSX) file.";
+                }
+                throw new IOException(errorMessage);
+            }
+
+            rowWriter.patch(tabFileDestination);
+            success = true;
+        } finally {
+            if (!success) {
+                tabFileDestination.delete();
+            }
+        }
+
         dataTable.setUnf("UNF:6:NOTCALCULATED");
-        
+
+        TabularDataIngest ingesteddata = new TabularDataIngest();
         ingesteddata.setTabDelimitedFile(tabFileDestination);
         ingesteddata.setDataTable(dataTable);
-        
+
         dbglog.fine("Produced temporary file "+ingesteddata.getTabDelimitedFile().getAbsolutePath());
         dbglog.fine("Found "+dataTable.getVarQuantity()+" variables, "+dataTable.getCaseQuantity()+" observations.");
         String varNames = null;
@@ -216,34 +391,60 @@ public class XLSXFileReader extends TabularDataFileReader {
         }
         dbglog.fine("Variable names: "+varNames);
 
-        
         return ingesteddata;
-
     }
 
     public void processSheet(final String filename, final DataTable dataTable, final PrintWriter tempOut) throws Exception {
-        BufferedInputStream xlsxInputStream = new BufferedInputStream(new FileInputStream(new File(filename)));
-        processSheet(xlsxInputStream, dataTable, tempOut);
+        processSheet(openPackage(new File(filename)), dataTable, tempOut);
     }
 
     public void processSheet(final BufferedInputStream inputStream, final DataTable dataTable,
             final PrintWriter tempOut) throws Exception {
+        processSheet(OPCPackage.open(inputStream), dataTable, tempOut);
+    }
+
+    private void processSheet(final OPCPackage pkg, final DataTable dataTable, final PrintWriter tempOut)
+            throws Exception {
         dbglog.info("entering processSheet");
-        OPCPackage pkg = OPCPackage.open(inputStream);
-        XSSFReader r = new XSSFReader(pkg);
-        SharedStringsTable sst = r.getSharedStringsTable();
-
-        XMLReader parser = fetchSheetParser(sst, dataTable, tempOut);
-
-        // rId2 found by processing the Workbook
-        // Seems to either be rId# or rSheet#
-        InputStream sheet1 = r.getSheet("rId1");
-        InputSource sheetSource = new InputSource(sheet1);
-        parser.parse(sheetSource);
-        sheet1.close();
+        try {
+            XSSFReader r = new XSSFReader(pkg);
+            SharedStringsIndex sharedStrings = SharedStringsIndex.read(pkg);
+
+            XMLReader parser = fetchSheetParser(sharedStrings, dataTable, tempOut);
+
+            // (the first sheet of the workbook; its relationship id is not 
+            // necessarily rId1)
+            InputStream sheet1 = r.getSheetsData().next();
+            InputSource sheetSource = new InputSource(sheet1);
+            parser.parse(sheetSource);
+            sheet1.close();
+        } finally {
+            pkg.revert();
+        }
     }
-    
+
     public XMLReader fetchSheetParser(final SharedStringsTable sst, final DataTable dataTable, final PrintWriter tempOut) throws SAXException {
+        try {
+            return fetchSheetParser(SharedStringsIndex.of(sst), dataTable, tempOut);
+        } catch (IOException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    /**
+     * Creates a parser for a sheet, writing its rows into the tab file
+     * writer. The values are formatted with the variable types known when
+     * each row is written; the rows written before a column was found not
+     * to be numeric are not corrected (see {@link #readSheets(File,
+     * Collection)}, which does).
+     */
+    public XMLReader fetchSheetParser(final SharedStringsIndex sharedStrings, final DataTable dataTable,
+            final PrintWriter tempOut) throws SAXException {
+        return fetchSheetParser(new SheetHandler(sharedStrings, dataTable,
+                new SpreadsheetTabFileWriter(dataTable, tempOut, null)));
+    }
+
+    private XMLReader fetchSheetParser(final SheetHandler handler) throws SAXException {
         // An attempt to use org.apache.xerces.parsers.SAXParser resulted 
         // in some weird conflict in the app; the default XMLReader obtained 
         // from the XMLReaderFactory (from xml-apis.jar) appears to be working
@@ -258,8 +459,6 @@ public class XLSXFileReader extends TabularDataFileReader {
         // -- L.A. 4.0 alpha 1
  
         XMLReader xReader = XMLReaderFactory.createXMLReader();
-        dbglog.fine("creating new SheetHandler;");
-        ContentHandler handler = new SheetHandler(sst, dataTable, tempOut);
         xReader.setContentHandler(handler);
         return xReader;
     }
@@ -267,37 +466,31 @@ public class XLSXFileReader extends TabularDataFileReader {
     private static class SheetHandler extends DefaultHandler {
 
         private DataTable dataTable;
-        private SharedStringsTable sst;
-        private String cellContents;
+        private SharedStringsIndex sharedStrings;
+        // the text of the current element, in a reusable buffer:
+        private char[] cellText = new char[256];
+        private int cellTextLength = 0;
         private boolean nextIsString;
         private boolean variableHeader;
         //private List<String> variableNames;
         private String[] variableNames;
-        private int caseCount;
         private int columnCount; 
-        boolean[] isNumericVariable;
         String[] dataRow; 
-        PrintWriter tempOut; 
+        SpreadsheetTabFileWriter rowWriter;
 
-        private SheetHandler(final SharedStringsTable sst) {
-            this(sst, null, null);
-        }
-
-        private SheetHandler(final SharedStringsTable sst, final DataTable dataTable, final PrintWriter tempOut) {
-            this.sst = sst;
+        private SheetHandler(final SharedStringsIndex sharedStrings, final DataTable dataTable,
+                final SpreadsheetTabFileWriter rowWriter) {
+            this.sharedStrings = sharedStrings;
             this.dataTable = dataTable;
-            this.tempOut = tempOut; 
+            this.rowWriter = rowWriter;
             variableHeader = true;
             //variableNames = new ArrayList<String>(); 
-            caseCount = 0; 
             columnCount = 0; 
         }
         
         @Override
         public void startElement(final String uri, final String localName, final String name,
                 final Attributes attributes) throws SAXException {
-            dbglog.fine("entering startElement ("+name+")");
-
             // first raw encountered: 
             if (variableHeader && name.equals("row")) {
                 Long varCount = null; 
@@ -340,12 +533,9 @@ public class XLSXFileReader extends TabularDataFileReader {
                 String indexAttribute = attributes.getValue("r");
                 
                 if (indexAttribute == null) {
-                    dbglog.warning("Null r attribute in a cell element!");
+                    throw new SAXException("Null r attribute in a cell element!");
                 } 
-                if (!indexAttribute.matches(".*[0-9]")) {
-                    dbglog.warning("Invalid index (r) attribute in a cell element: "+indexAttribute+"!"); 
-                }
-                columnCount = getColumnCount(indexAttribute.replaceFirst("[0-9].*$", ""));
+                columnCount = getColumnCount(indexAttribute);
                 
                 if (columnCount < 0) {
                     throw new SAXException("Could not establish position index of a cell element unambiguously!");
@@ -359,176 +549,82 @@ public class XLSXFileReader extends TabularDataFileReader {
                 }
             }
             // Clear contents cache
-            cellContents = "";
+            cellTextLength = 0;
         }
 
-        private int getColumnCount(final String columnTag) {
-            int count = -1;
-            if (columnTag.length() == 1 && columnTag.matches("[A-Z]")) {
-                count = columnTag.charAt(0) - 'A';
-            } else {
-                dbglog.warning("Unsupported column index tag: "+columnTag);
+        /*
+         * The column of a cell, from its reference (for ex., "B12" is in
+         * the column 1).
+         */
+        private int getColumnCount(final String cellReference) {
+            int count = ColumnDecoder.decode(cellReference);
+            if (count < 0) {
+                dbglog.warning("Unsupported column index tag: "+cellReference);
             }
-            
             return count;
         }
         
-        private String getColumnLetterTag(final int columnCount) {
-            if (columnCount < 0 || columnCount > 25) {
-                dbglog.warning("Multi-letter column codes not yet supported.");
-                return null; 
-            }
-            int letterCode = 'A' + columnCount;
-            char[] letterTag = new char[1]; 
-            letterTag[0] = (char)letterCode;
-            return new String(letterTag);
-        }
-        
         @Override
         public void endElement(final String uri, final String localName, final String name)
                 throws SAXException {
-            dbglog.fine("entering endElement ("+name+")");
-            // Process the content cache as required.
-            // Do it now, as characters() may be called more than once
-            if (nextIsString) {
-                int idx = Integer.parseInt(cellContents);
-                cellContents = new XSSFRichTextString(sst.getEntryAt(idx)).toString();
-                nextIsString = false;
-            }
-
             // v => contents of a cell
             // Output after we've seen the string contents
             if (name.equals("v")) {
+                String cellContents;
+                if (nextIsString) {
+                    cellContents = sharedStrings.get(parseSharedStringIndex());
+                    nextIsString = false;
+                } else {
+                    cellContents = new String(cellText, 0, cellTextLength);
+                }
                 if (variableHeader) {
-                    dbglog.fine("variable header mode; cell "+columnCount+", cell contents: "+cellContents);
-                    
                     //variableNames.add(cellContents);
                     variableNames[columnCount] = cellContents;
                 } else {
                     dataRow[columnCount] = cellContents;
-                    dbglog.fine("data row mode; cell "+columnCount+", cell contents: "+cellContents);
                 }
             }
             
             if (name.equals("row")) {
-                if (variableHeader) {
-                    // Initialize variables:
-                    dbglog.fine("variableHeader mode; ");
-                    List<DataVariable> variableList = new ArrayList<>();
-                    //columnCount = variableNames.size();
-                    columnCount = dataTable.getVarQuantity().intValue();
-                    
-                    for (int i = 0; i < columnCount; i++) {
-                        String varName = variableNames[i];
-                        
-
-                        if (varName == null || varName.equals("")) {
-                            varName = getColumnLetterTag(i);
-                            // TODO: 
-                            // Add a sensible variable name validation algorithm.
-                            // -- L.A. 4.0 alpha 1
-                            //throw new IOException ("Invalid variable names in the first line!");
-                        }
-                        
-                        if (varName == null) {
-                            throw new SAXException("Could not establish variable name for column "+i);
-                        }
-                        
-                        varName = varName.replaceAll("[ _\t\n\r]", "");
-                        
-                        DataVariable dv = new DataVariable();
-                        dv.setName(varName);
-                        dv.setLabel(varName);
-                        dv.setInvalidRanges(new ArrayList());
-                        dv.setSummaryStatistics(new ArrayList());
-                        dv.setUnf("UNF:6:NOTCALCULATED");
-                        dv.setCategories(new ArrayList());
-                        variableList.add(dv);
-
-                        dv.setTypeCharacter();
-                        dv.setIntervalDiscrete();
-
-                        dv.setFileOrder(i);
-                        dv.setDataTable(dataTable);
-                    }
-        
-                    dataTable.setDataVariables(variableList);
-                    isNumericVariable = new boolean[columnCount];
-                    
-                    for (int i=0; i<columnCount; i++) {
-                        // OK, let's assume that every variable is numeric; 
-                        // but we'll go through the file and examine every value; the 
-                        // moment we find a value that's not a legit numeric one, we'll 
-                        // assume that it is in fact a String. 
-                        isNumericVariable[i] = true; 
-                    }
-                    variableHeader = false; 
-                } else {
-                    dbglog.fine("row mode;");
-                    // go through the values and make an educated guess about the 
-                    // data types:
-                    
-                    for (int i = 0; i < dataTable.getVarQuantity().intValue(); i++) {
-                        if (isNumericVariable[i]) {
-                            // If we haven't given up on the "numeric" status of this 
-                            // variable, let's perform some tests on it, and see if 
-                            // this value is still a parsable number:
-                            if (dataRow[i] != null && (!dataRow[i].equals(""))) {
-
-                                boolean isNumeric = false; 
-                        
-                                if (dataRow[i].equalsIgnoreCase(".")
-                                        || dataRow[i].equalsIgnoreCase("NaN")
-                                        || dataRow[i].equalsIgnoreCase("NA")
-                                        || dataRow[i].equalsIgnoreCase("Inf")
-                                        || dataRow[i].equalsIgnoreCase("+Inf")
-                                        || dataRow[i].equalsIgnoreCase("-Inf")
-                                        || dataRow[i].equalsIgnoreCase("null")) {
-                                    isNumeric = true;
-                                } else {
-                                    try {
-                                        Double testDoubleValue = new Double(dataRow[i]);
-                                        isNumeric = true; 
-                                    } catch (Exception ex) {
-                                        // the token failed to parse as a double number;
-                                        // so we'll have to assume it's just a string variable.
-                                    }
-                                }
-                                if (!isNumeric) {
-                                    isNumericVariable[i] = false; 
-                                }
-                            }
-                        } 
+                try {
+                    if (variableHeader) {
+                        // Initialize variables:
+                        dbglog.fine("variableHeader mode; ");
+                        rowWriter.writeHeader(variableNames);
+                        variableHeader = false; 
+                        dataRow = new String[variableNames.length];
+                    } else {
+                        rowWriter.writeRow(dataRow);
+                        Arrays.fill(dataRow, null);
                     }
-                    
-                    // print out the data row:
-                    tempOut.println(StringUtils.join(dataRow, "\t"));
-                    caseCount++;
+                } catch (IOException ex) {
+                    throw new SAXException(ex);
                 }
                 columnCount = 0;
-                dataRow = new String[dataTable.getVarQuantity().intValue()];
             }
             
             if (name.equals("sheetData")) {
-                dataTable.setCaseQuantity(new Long(caseCount));
-            
-                // Re-type the variables that we've determined are numerics:
-        
-                for (int i = 0; i < dataTable.getVarQuantity().intValue(); i++) {
-                    if (isNumericVariable[i]) {
-                        dataTable.getDataVariables().get(i).setTypeNumeric();
-                        dataTable.getDataVariables().get(i).setIntervalContinuous();
-                    }
-                }
-                
-                tempOut.close(); 
+                rowWriter.finish();
             }
         }
 
+        private int parseSharedStringIndex() throws SAXException {
+            int idx = SharedStringsIndex.parseIndex(cellText, cellTextLength);
+            if (idx < 0) {
+                throw new SAXException("Invalid shared string index: "
+                        + new String(cellText, 0, cellTextLength));
+            }
+            return idx;
+        }
+
         @Override
         public void characters(final char[] ch, final int start, final int length)
                 throws SAXException {
-            cellContents += new String(ch, start, length);
+            if (cellTextLength + length > cellText.length) {
+                cellText = Arrays.copyOf(cellText, Math.max(cellText.length * 2, cellTextLength + length));
+            }
+            System.arraycopy(ch, start, cellText, cellTextLength, length);
+            cellTextLength += length;
         }
     }
 
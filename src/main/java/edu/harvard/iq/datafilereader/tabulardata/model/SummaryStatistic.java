@@ -45,9 +45,13 @@ public class SummaryStatistic implements Serializable {
     
     /*
      * type of this Summary Statistic value (for ex., "median", "mean", etc.)
+     * HIST and QHIST are the fixed-width and quantile-based histograms;
+     * their values are in the format produced by util.Histogram.
+     * SUM, RANGE, CV (coefficient of variation), SKEW and KURT are only 
+     * calculated with the extended summary statistics profile.
      */
     
-    public enum SummaryStatisticType {MEAN, MEDN, MODE, MIN, MAX, STDEV, VALD, INVD}; 
+    public enum SummaryStatisticType {MEAN, MEDN, MODE, MIN, MAX, STDEV, VALD, INVD, HIST, QHIST, SUM, RANGE, CV, SKEW, KURT}; 
     
     private SummaryStatisticType type;
 
@@ -84,6 +88,27 @@ public class SummaryStatistic implements Serializable {
         if (isTypeInvalid()) {
             return "invd";
         }
+        if (isTypeHistogram()) {
+            return "hist";
+        }
+        if (isTypeQuantileHistogram()) {
+            return "qhist";
+        }
+        if (isTypeSum()) {
+            return "sum";
+        }
+        if (isTypeRange()) {
+            return "range";
+        }
+        if (isTypeCoefficientOfVariation()) {
+            return "cv";
+        }
+        if (isTypeSkewness()) {
+            return "skew";
+        }
+        if (isTypeKurtosis()) {
+            return "kurt";
+        }
         
         return null; 
     }
@@ -113,6 +138,27 @@ public class SummaryStatistic implements Serializable {
         else if ("invd".equals(label)) {
             setTypeInvalid();
         }
+        else if ("hist".equals(label)) {
+            setTypeHistogram();
+        }
+        else if ("qhist".equals(label)) {
+            setTypeQuantileHistogram();
+        }
+        else if ("sum".equals(label)) {
+            setTypeSum();
+        }
+        else if ("range".equals(label)) {
+            setTypeRange();
+        }
+        else if ("cv".equals(label)) {
+            setTypeCoefficientOfVariation();
+        }
+        else if ("skew".equals(label)) {
+            setTypeSkewness();
+        }
+        else if ("kurt".equals(label)) {
+            setTypeKurtosis();
+        }
     }
     
     public void setTypeMean() {
@@ -147,6 +193,34 @@ public class SummaryStatistic implements Serializable {
         this.type = SummaryStatisticType.INVD;
     }
     
+    public void setTypeHistogram() {
+        this.type = SummaryStatisticType.HIST;
+    }
+    
+    public void setTypeQuantileHistogram() {
+        this.type = SummaryStatisticType.QHIST;
+    }
+    
+    public void setTypeSum() {
+        this.type = SummaryStatisticType.SUM;
+    }
+    
+    public void setTypeRange() {
+        this.type = SummaryStatisticType.RANGE;
+    }
+    
+    public void setTypeCoefficientOfVariation() {
+        this.type = SummaryStatisticType.CV;
+    }
+    
+    public void setTypeSkewness() {
+        this.type = SummaryStatisticType.SKEW;
+    }
+    
+    public void setTypeKurtosis() {
+        this.type = SummaryStatisticType.KURT;
+    }
+    
     
     public boolean isTypeMean() {
         return this.type == SummaryStatisticType.MEAN;
@@ -180,6 +254,34 @@ public class SummaryStatistic implements Serializable {
         return this.type == SummaryStatisticType.INVD;
     }
     
+    public boolean isTypeHistogram() {
+        return this.type == SummaryStatisticType.HIST;
+    }
+    
+    public boolean isTypeQuantileHistogram() {
+        return this.type == SummaryStatisticType.QHIST;
+    }
+    
+    public boolean isTypeSum() {
+        return this.type == SummaryStatisticType.SUM;
+    }
+    
+    public boolean isTypeRange() {
+        return this.type == SummaryStatisticType.RANGE;
+    }
+    
+    public boolean isTypeCoefficientOfVariation() {
+        return this.type == SummaryStatisticType.CV;
+    }
+    
+    public boolean isTypeSkewness() {
+        return this.type == SummaryStatisticType.SKEW;
+    }
+    
+    public boolean isTypeKurtosis() {
+        return this.type == SummaryStatisticType.KURT;
+    }
+    
     /* 
      * Custom overrides for hashCode(), equals() and toString() methods:
      */
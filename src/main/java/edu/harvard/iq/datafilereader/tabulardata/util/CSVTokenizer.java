@@ -0,0 +1,367 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Streaming tokenizer of delimited text files (CSV, as defined by RFC 4180;
+ * or any other single-character delimiter).
+ *
+ * A single state machine, running over a reusable character buffer, splits
+ * the input into records and fields: fields may be enclosed in double
+ * quotes, in which case they can contain delimiters, line breaks (CR, LF or
+ * CRLF) and doubled ("") quotes, which stand for a single quote. A record
+ * ends with an unquoted line break, or with the end of the input.
+ *
+ * The tokenizer is lenient about the input that does not strictly follow the
+ * RFC: a quote inside an unquoted field, or characters following the closing
+ * quote of a quoted field, are kept as part of the field. A quoted field that
+ * is never closed is an error.
+ *
+ * The fields of the current record are kept in a single reusable buffer;
+ * {@link #getField(int)} creates the String on demand, and
+ * {@link #getRecordBuffer()}, {@link #getFieldStart(int)} and
+ * {@link #getFieldLength(int)} give direct access to the characters.
+ *
+ * Not thread-safe.
+ */
+public class CSVTokenizer {
+
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    private static final char QUOTE = '"';
+    private static final char CR = '\r';
+    private static final char LF = '\n';
+
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+
+    private final Reader reader;
+    private final char delimiter;
+
+    private final char[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfInput = false;
+    // a CR ending the previous record; an LF immediately following it is
+    // part of the same line break:
+    private boolean skipLineFeed = false;
+
+    private char[] recordChars = new char[1024];
+    private int recordLength = 0;
+    private int[] fieldStarts = new int[64];
+    private int[] fieldEnds = new int[64];
+    private boolean[] quotedFields = new boolean[64];
+    private int fieldCount = 0;
+
+    private long recordNumber = 0;
+    private long lineNumber = 1;
+
+    public CSVTokenizer(final Reader reader, final char delimiter) {
+        this(reader, delimiter, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CSVTokenizer(final Reader reader, final char delimiter, final int bufferSize) {
+        if (delimiter == QUOTE || delimiter == CR || delimiter == LF) {
+            throw new IllegalArgumentException("Invalid delimiter character: " + (int) delimiter);
+        }
+        this.reader = reader;
+        this.delimiter = delimiter;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the number of fields in the record, or -1 at the end of the
+     *         input.
+     */
+    public int readRecord() throws IOException {
+        recordLength = 0;
+        fieldCount = 0;
+
+        int state = FIELD_START;
+        int fieldStart = 0;
+        boolean quoted = false;
+        boolean started = false;
+        long quoteLineNumber = 0;
+
+        while (true) {
+            if (position >= limit && !fill()) {
+                break;
+            }
+            char c = buffer[position++];
+
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (c == LF) {
+                    continue;
+                }
+            }
+            started = true;
+
+            switch (state) {
+            case FIELD_START:
+                if (c == QUOTE) {
+                    state = QUOTED;
+                    quoted = true;
+                    quoteLineNumber = lineNumber;
+                    break;
+                }
+                state = UNQUOTED;
+                // fall through
+            case UNQUOTED:
+                if (c == delimiter) {
+                    endField(fieldStart, quoted);
+                    fieldStart = recordLength;
+                    quoted = false;
+                    state = FIELD_START;
+                } else if (c == CR || c == LF) {
+                    return endRecord(c, fieldStart, quoted);
+                } else {
+                    append(c);
+                    // copy the rest of a plain run of characters in bulk:
+                    int run = position;
+                    while (run < limit) {
+                        char next = buffer[run];
+                        if (next == delimiter || next == CR || next == LF) {
+                            break;
+                        }
+                        run++;
+                    }
+                    if (run > position) {
+                        append(buffer, position, run - position);
+                        position = run;
+                    }
+                }
+                break;
+            case QUOTED:
+                if (c == QUOTE) {
+                    state = QUOTE_IN_QUOTED;
+                } else {
+                    // copy up to the next quote in bulk, counting the line
+                    // breaks on the way:
+                    int run = position - 1;
+                    while (run < limit && buffer[run] != QUOTE) {
+                        char next = buffer[run];
+                        if (next == LF || (next == CR && (run + 1 == limit || buffer[run + 1] != LF))) {
+                            lineNumber++;
+                        }
+                        run++;
+                    }
+                    append(buffer, position - 1, run - position + 1);
+                    position = run;
+                }
+                break;
+            case QUOTE_IN_QUOTED:
+                if (c == QUOTE) {
+                    // a doubled quote:
+                    append(QUOTE);
+                    state = QUOTED;
+                } else if (c == delimiter) {
+                    endField(fieldStart, quoted);
+                    fieldStart = recordLength;
+                    quoted = false;
+                    state = FIELD_START;
+                } else if (c == CR || c == LF) {
+                    return endRecord(c, fieldStart, quoted);
+                } else {
+                    // stray characters after the closing quote:
+                    append(c);
+                    state = UNQUOTED;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Invalid tokenizer state: " + state);
+            }
+        }
+
+        // end of the input:
+        if (state == QUOTED) {
+            throw new IOException("Unterminated quoted field, starting on line " + quoteLineNumber + ".");
+        }
+        if (!started) {
+            return -1;
+        }
+        endField(fieldStart, quoted);
+        recordNumber++;
+        return fieldCount;
+    }
+
+    private int endRecord(final char lineBreak, final int fieldStart, final boolean quoted) {
+        endField(fieldStart, quoted);
+        if (lineBreak == CR) {
+            skipLineFeed = true;
+        }
+        lineNumber++;
+        recordNumber++;
+        return fieldCount;
+    }
+
+    private void endField(final int fieldStart, final boolean quoted) {
+        if (fieldCount == fieldStarts.length) {
+            int size = fieldCount * 2;
+            fieldStarts = Arrays.copyOf(fieldStarts, size);
+            fieldEnds = Arrays.copyOf(fieldEnds, size);
+            quotedFields = Arrays.copyOf(quotedFields, size);
+        }
+        fieldStarts[fieldCount] = fieldStart;
+        fieldEnds[fieldCount] = recordLength;
+        quotedFields[fieldCount] = quoted;
+        fieldCount++;
+    }
+
+    private void append(final char c) {
+        if (recordLength == recordChars.length) {
+            recordChars = Arrays.copyOf(recordChars, recordLength * 2);
+        }
+        recordChars[recordLength++] = c;
+    }
+
+    private void append(final char[] chars, final int offset, final int length) {
+        if (recordLength + length > recordChars.length) {
+            recordChars = Arrays.copyOf(recordChars, Math.max(recordChars.length * 2, recordLength + length));
+        }
+        System.arraycopy(chars, offset, recordChars, recordLength, length);
+        recordLength += length;
+    }
+
+    private boolean fill() throws IOException {
+        if (endOfInput) {
+            return false;
+        }
+        int count;
+        do {
+            count = reader.read(buffer, 0, buffer.length);
+        } while (count == 0);
+        if (count < 0) {
+            endOfInput = true;
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    public String getField(final int i) {
+        checkField(i);
+        return new String(recordChars, fieldStarts[i], fieldEnds[i] - fieldStarts[i]);
+    }
+
+    /**
+     * Whether the field was enclosed in quotes; for ex., to tell an empty
+     * string ("") from a missing value.
+     */
+    public boolean isQuoted(final int i) {
+        checkField(i);
+        return quotedFields[i];
+    }
+
+    /**
+     * Copies the fields of the current record into the arrays, which must be
+     * at least {@link #getFieldCount()} long; the quoted flags are optional.
+     */
+    public void getFields(final String[] fields, final boolean[] quoted) {
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = new String(recordChars, fieldStarts[i], fieldEnds[i] - fieldStarts[i]);
+            if (quoted != null) {
+                quoted[i] = quotedFields[i];
+            }
+        }
+    }
+
+    /**
+     * The (unquoted) characters of the current record; valid until the next
+     * record is read.
+     */
+    public char[] getRecordBuffer() {
+        return recordChars;
+    }
+
+    public int getFieldStart(final int i) {
+        checkField(i);
+        return fieldStarts[i];
+    }
+
+    public int getFieldLength(final int i) {
+        checkField(i);
+        return fieldEnds[i] - fieldStarts[i];
+    }
+
+    /**
+     * Number of records read so far (i.e., 1-based number of the current
+     * record).
+     */
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    /**
+     * 1-based number of the line where the next record starts.
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Writes the current record out as a CSV line, with the same delimiter,
+     * quoting the fields that were quoted in the input; reading it back
+     * produces the same fields.
+     */
+    public void writeRecord(final Writer out) throws IOException {
+        for (int i = 0; i < fieldCount; i++) {
+            if (i > 0) {
+                out.write(delimiter);
+            }
+            if (quotedFields[i]) {
+                out.write(QUOTE);
+                int start = fieldStarts[i];
+                for (int j = start; j < fieldEnds[i]; j++) {
+                    if (recordChars[j] == QUOTE) {
+                        out.write(recordChars, start, j - start + 1);
+                        out.write(QUOTE);
+                        start = j + 1;
+                    }
+                }
+                out.write(recordChars, start, fieldEnds[i] - start);
+                out.write(QUOTE);
+            } else {
+                out.write(recordChars, fieldStarts[i], fieldEnds[i] - fieldStarts[i]);
+            }
+        }
+        out.write(LF);
+    }
+
+    private void checkField(final int i) {
+        if (i < 0 || i >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + i + " of a record with " + fieldCount + " fields.");
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import edu.harvard.iq.datafilereader.tabulardata.TabularDataIngest;
+import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
+
+/**
+ * Calculates the covariance and correlation matrices of the numeric variables
+ * of an ingested file; a companion to the {@link SumStatCalculator}.
+ *
+ * Rather than subsetting every variable into memory, the tab-delimited file
+ * is streamed in blocks of rows: each block is parsed into primitive
+ * column-major vectors, and the co-moments of every pair of variables are
+ * calculated over the block (in two passes, from the block means) and merged
+ * into running totals (Chan et al.). The pairs are partitioned among the
+ * worker threads, and the next block is parsed while the current one is being
+ * processed. So the memory used is proportional to the number of variables
+ * times the block size, not to the size of the file.
+ *
+ * Missing values are handled pairwise (see {@link CorrelationMatrix}); NaNs
+ * and infinite values are treated as missing.
+ */
+public class CorrelationCalculator {
+
+    private static Logger logger = Logger.getLogger(CorrelationCalculator.class.getPackage().getName());
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /**
+     * Correlation matrix of all the numeric variables of the ingested file.
+     */
+    public static CorrelationMatrix calculateCorrelationMatrix(final TabularDataIngest dataFile)
+            throws IOException {
+        return calculateCorrelationMatrix(dataFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static CorrelationMatrix calculateCorrelationMatrix(final TabularDataIngest dataFile, final int threads)
+            throws IOException {
+        List<DataVariable> variables = dataFile.getDataTable().getDataVariables();
+        List<Integer> numericColumns = new ArrayList<>();
+        for (int i = 0; i < variables.size(); i++) {
+            if (variables.get(i).isTypeNumeric()) {
+                numericColumns.add(i);
+            }
+        }
+        int[] columns = new int[numericColumns.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = numericColumns.get(i);
+        }
+        return calculateCorrelationMatrix(dataFile.getTabDelimitedFile(), columns, threads, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Correlation matrix of the specified columns (0-based) of a
+     * tab-delimited file. The matrix is indexed in the ascending order of the
+     * column numbers.
+     */
+    public static CorrelationMatrix calculateCorrelationMatrix(final File tabFile, final int[] columns,
+            final int threads, final int blockSize) throws IOException {
+        int[] sortedColumns = validateColumns(columns);
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        PairwiseMoments moments = new PairwiseMoments(sortedColumns.length);
+        int taskCount = Math.max(1, Math.min(threads, moments.pairCount));
+
+        double[][] block = new double[sortedColumns.length][blockSize];
+        double[][] nextBlock = new double[sortedColumns.length][blockSize];
+        long totalRows = 0;
+
+        ExecutorService executor = taskCount > 1 ? Executors.newFixedThreadPool(taskCount) : null;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(tabFile), StandardCharsets.UTF_8))) {
+            int rows = readBlock(reader, sortedColumns, block);
+            while (rows > 0) {
+                List<Future<Void>> tasks = new ArrayList<>();
+                if (executor != null) {
+                    final double[][] currentBlock = block;
+                    final int currentRows = rows;
+                    for (int t = 0; t < taskCount; t++) {
+                        final int fromPair = (int) ((long) moments.pairCount * t / taskCount);
+                        final int toPair = (int) ((long) moments.pairCount * (t + 1) / taskCount);
+                        tasks.add(executor.submit(() -> {
+                            moments.accumulate(currentBlock, currentRows, fromPair, toPair);
+                            return null;
+                        }));
+                    }
+                } else {
+                    moments.accumulate(block, rows, 0, moments.pairCount);
+                }
+                totalRows += rows;
+
+                // parse the next block while this one is being processed:
+                int nextRows = readBlock(reader, sortedColumns, nextBlock);
+                for (Future<Void> task : tasks) {
+                    waitForTask(task);
+                }
+
+                double[][] swap = block;
+                block = nextBlock;
+                nextBlock = swap;
+                rows = nextRows;
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        logger.fine("calculated the correlation matrix of " + sortedColumns.length + " variables over "
+                + totalRows + " rows.");
+        return moments.toCorrelationMatrix(sortedColumns);
+    }
+
+    /**
+     * Correlation matrix of in-memory vectors, of the same length; NaNs are
+     * treated as missing values.
+     */
+    public static CorrelationMatrix calculateCorrelationMatrix(final double[][] vectors) {
+        int[] columns = new int[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            columns[i] = i;
+            if (vectors[i].length != vectors[0].length) {
+                throw new IllegalArgumentException("All the vectors must have the same length.");
+            }
+        }
+        PairwiseMoments moments = new PairwiseMoments(vectors.length);
+        if (vectors.length > 0) {
+            double[][] finiteVectors = new double[vectors.length][];
+            for (int i = 0; i < vectors.length; i++) {
+                finiteVectors[i] = new double[vectors[i].length];
+                for (int r = 0; r < vectors[i].length; r++) {
+                    finiteVectors[i][r] = Double.isInfinite(vectors[i][r]) ? Double.NaN : vectors[i][r];
+                }
+            }
+            moments.accumulate(finiteVectors, vectors[0].length, 0, moments.pairCount);
+        }
+        return moments.toCorrelationMatrix(columns);
+    }
+
+    private static int[] validateColumns(final int[] columns) {
+        int[] sortedColumns = Arrays.copyOf(columns, columns.length);
+        Arrays.sort(sortedColumns);
+        for (int i = 0; i < sortedColumns.length; i++) {
+            if (sortedColumns[i] < 0 || (i > 0 && sortedColumns[i] == sortedColumns[i - 1])) {
+                throw new IllegalArgumentException("Invalid or repeated column number: " + sortedColumns[i]);
+            }
+        }
+        return sortedColumns;
+    }
+
+    /**
+     * Reads up to block-size rows, storing the values of the selected
+     * (ascending) columns in the column-major block.
+     *
+     * @return the number of rows read; 0 at the end of the file.
+     */
+    private static int readBlock(final BufferedReader reader, final int[] columns, final double[][] block)
+            throws IOException {
+        int blockSize = block.length > 0 ? block[0].length : DEFAULT_BLOCK_SIZE;
+        int rows = 0;
+        String line;
+        while (rows < blockSize && (line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int column = 0;
+            int start = 0;
+            int next = 0;
+            while (next < columns.length) {
+                int end = line.indexOf('\t', start);
+                if (end < 0) {
+                    end = line.length();
+                }
+                if (column == columns[next]) {
+                    block[next++][rows] = parseValue(line, start, end);
+                }
+                if (end == line.length()) {
+                    break;
+                }
+                start = end + 1;
+                column++;
+            }
+            // short line: the remaining columns are missing
+            for (; next < columns.length; next++) {
+                block[next][rows] = Double.NaN;
+            }
+            rows++;
+        }
+        return rows;
+    }
+
+    private static double parseValue(final String line, final int start, final int end) {
+        if (start == end) {
+            return Double.NaN;
+        }
+        try {
+            double value = Double.parseDouble(line.substring(start, end));
+            // "Inf"/"-Inf" do not parse; infinities in any other notation
+            // are treated as missing just the same:
+            return Double.isInfinite(value) ? Double.NaN : value;
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+
+    private static void waitForTask(final Future<Void> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calculating the correlation matrix", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to calculate the correlation matrix", e.getCause());
+        }
+    }
+
+    /**
+     * Running pairwise counts, means, sums of squares and co-moments, for all
+     * the pairs (i, j), i <= j, of the variables. Every pair is only ever
+     * updated by one thread at a time.
+     */
+    private static class PairwiseMoments {
+
+        private final int variableCount;
+        private final int pairCount;
+        private final int[] pairX;
+        private final int[] pairY;
+
+        private final long[] n;
+        private final double[] meanX;
+        private final double[] meanY;
+        private final double[] m2X;
+        private final double[] m2Y;
+        private final double[] cXY;
+
+        PairwiseMoments(final int variableCount) {
+            this.variableCount = variableCount;
+            this.pairCount = variableCount * (variableCount + 1) / 2;
+            pairX = new int[pairCount];
+            pairY = new int[pairCount];
+            int p = 0;
+            for (int i = 0; i < variableCount; i++) {
+                for (int j = i; j < variableCount; j++) {
+                    pairX[p] = i;
+                    pairY[p] = j;
+                    p++;
+                }
+            }
+            n = new long[pairCount];
+            meanX = new double[pairCount];
+            meanY = new double[pairCount];
+            m2X = new double[pairCount];
+            m2Y = new double[pairCount];
+            cXY = new double[pairCount];
+        }
+
+        void accumulate(final double[][] block, final int rows, final int fromPair, final int toPair) {
+            for (int p = fromPair; p < toPair; p++) {
+                double[] x = block[pairX[p]];
+                double[] y = block[pairY[p]];
+
+                // block means, over the complete pairs:
+                long nb = 0;
+                double sumX = 0.0;
+                double sumY = 0.0;
+                for (int r = 0; r < rows; r++) {
+                    double xv = x[r];
+                    double yv = y[r];
+                    if (xv == xv && yv == yv) {
+                        nb++;
+                        sumX += xv;
+                        sumY += yv;
+                    }
+                }
+                if (nb == 0) {
+                    continue;
+                }
+                double mbX = sumX / nb;
+                double mbY = sumY / nb;
+
+                // centered sums of squares and co-moment of the block:
+                double bm2X = 0.0;
+                double bm2Y = 0.0;
+                double bcXY = 0.0;
+                for (int r = 0; r < rows; r++) {
+                    double xv = x[r];
+                    double yv = y[r];
+                    if (xv == xv && yv == yv) {
+                        double dx = xv - mbX;
+                        double dy = yv - mbY;
+                        bm2X += dx * dx;
+                        bm2Y += dy * dy;
+                        bcXY += dx * dy;
+                    }
+                }
+                merge(p, nb, mbX, mbY, bm2X, bm2Y, bcXY);
+            }
+        }
+
+        private void merge(final int p, final long nb, final double mbX, final double mbY, final double bm2X,
+                final double bm2Y, final double bcXY) {
+            if (n[p] == 0) {
+                n[p] = nb;
+                meanX[p] = mbX;
+                meanY[p] = mbY;
+                m2X[p] = bm2X;
+                m2Y[p] = bm2Y;
+                cXY[p] = bcXY;
+                return;
+            }
+            double na = n[p];
+            double nx = na + nb;
+            double deltaX = mbX - meanX[p];
+            double deltaY = mbY - meanY[p];
+            double factor = na * nb / nx;
+
+            m2X[p] += bm2X + deltaX * deltaX * factor;
+            m2Y[p] += bm2Y + deltaY * deltaY * factor;
+            cXY[p] += bcXY + deltaX * deltaY * factor;
+            meanX[p] += deltaX * nb / nx;
+            meanY[p] += deltaY * nb / nx;
+            n[p] += nb;
+        }
+
+        CorrelationMatrix toCorrelationMatrix(final int[] columns) {
+            long[][] pairCounts = new long[variableCount][variableCount];
+            double[][] covariance = new double[variableCount][variableCount];
+            double[][] correlation = new double[variableCount][variableCount];
+            for (int p = 0; p < pairCount; p++) {
+                int i = pairX[p];
+                int j = pairY[p];
+                double cov = Double.NaN;
+                double cor = Double.NaN;
+                if (n[p] > 1) {
+                    cov = cXY[p] / (n[p] - 1);
+                    if (m2X[p] > 0.0 && m2Y[p] > 0.0) {
+                        cor = cXY[p] / Math.sqrt(m2X[p] * m2Y[p]);
+                        // rounding may take it (very) slightly out of range:
+                        cor = Math.max(-1.0, Math.min(1.0, cor));
+                    }
+                }
+                pairCounts[i][j] = pairCounts[j][i] = n[p];
+                covariance[i][j] = covariance[j][i] = cov;
+                correlation[i][j] = correlation[j][i] = cor;
+            }
+            return new CorrelationMatrix(columns, pairCounts, covariance, correlation);
+        }
+    }
+}
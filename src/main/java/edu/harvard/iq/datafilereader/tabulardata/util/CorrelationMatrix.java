@@ -0,0 +1,104 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.util.Arrays;
+
+/**
+ * Pairwise covariance and correlation matrices of a set of numeric
+ * variables, as calculated by the {@link CorrelationCalculator}.
+ *
+ * Missing values are handled pairwise: the entry for variables i and j is
+ * calculated over the cases where both of them have a finite value, and
+ * {@link #getPairCount(int, int)} is the number of such cases. So the
+ * diagonal holds the variances (and the numbers of valid values) of the
+ * variables. Entries that are not defined (fewer than 2 complete pairs; or,
+ * for the correlation, a constant variable) are NaN.
+ *
+ * The matrices are indexed by the position of the variable in
+ * {@link #getColumns()}, not by the variable number in the data table.
+ */
+public class CorrelationMatrix {
+
+    private final int[] columns;
+    private final long[][] pairCounts;
+    private final double[][] covariance;
+    private final double[][] correlation;
+
+    CorrelationMatrix(final int[] columns, final long[][] pairCounts, final double[][] covariance,
+            final double[][] correlation) {
+        this.columns = columns;
+        this.pairCounts = pairCounts;
+        this.covariance = covariance;
+        this.correlation = correlation;
+    }
+
+    /**
+     * The numbers (0-based) of the variables, in the order of the rows and
+     * columns of the matrices.
+     */
+    public int[] getColumns() {
+        return Arrays.copyOf(columns, columns.length);
+    }
+
+    public int getVariableCount() {
+        return columns.length;
+    }
+
+    public long getPairCount(final int i, final int j) {
+        return pairCounts[i][j];
+    }
+
+    public double getCovariance(final int i, final int j) {
+        return covariance[i][j];
+    }
+
+    public double getCorrelation(final int i, final int j) {
+        return correlation[i][j];
+    }
+
+    public long[][] getPairCounts() {
+        return copy(pairCounts);
+    }
+
+    public double[][] getCovarianceMatrix() {
+        return copy(covariance);
+    }
+
+    public double[][] getCorrelationMatrix() {
+        return copy(correlation);
+    }
+
+    private static double[][] copy(final double[][] matrix) {
+        double[][] copy = new double[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            copy[i] = Arrays.copyOf(matrix[i], matrix[i].length);
+        }
+        return copy;
+    }
+
+    private static long[][] copy(final long[][] matrix) {
+        long[][] copy = new long[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            copy[i] = Arrays.copyOf(matrix[i], matrix[i].length);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.text.ParsePosition;
+import java.time.Month;
+import java.time.Year;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Detects the date and date-time (time) formats of text values.
+ *
+ * The candidate formats are tried on a value only if its "shape" - the
+ * value with every run of digits replaced by a single '9', and every run of
+ * letters by a single 'A' - is one of the shapes of the format; so most
+ * values that are not dates are rejected without parsing. The values are
+ * then parsed with immutable {@link DateTimeFormatter}s, without resolving,
+ * and the fields are validated strictly (no February 30, no hour 25).
+ *
+ * The formats are shared; but an instance of the detector is not
+ * thread-safe (it reuses its scratch buffers), so every thread needs its
+ * own.
+ *
+ * The sets of the formats that match a value are returned as bit masks over
+ * {@link #TIME_FORMATS} and {@link #DATE_FORMATS}; the formats of a column
+ * are the intersection of the masks of all its values.
+ */
+public class DateTimeTokenDetector {
+
+    /**
+     * A date or date-time format.
+     */
+    public static final class DateTimeFormat {
+        private final String pattern;
+        private final DateTimeFormatter formatter;
+        private final String[] shapes;
+        private final boolean zoned;
+
+        private DateTimeFormat(final String pattern, final DateTimeFormatter formatter, final boolean zoned,
+                final String... shapes) {
+            this.pattern = pattern;
+            this.formatter = formatter;
+            this.zoned = zoned;
+            this.shapes = shapes;
+        }
+
+        /**
+         * The format, as a SimpleDateFormat pattern; this is the format stored
+         * in the variable metadata.
+         */
+        public String getPattern() {
+            return pattern;
+        }
+
+        DateTimeFormatter getFormatter() {
+            return formatter;
+        }
+
+        @Override
+        public String toString() {
+            return pattern;
+        }
+    }
+
+    // Date-time formats, in the order of preference:
+    public static final List<DateTimeFormat> TIME_FORMATS = Collections.unmodifiableList(Arrays.asList(
+            // Date-time up to seconds with timezone, e.g. 2013-04-08 13:14:23 -0500
+            new DateTimeFormat("yyyy-MM-dd HH:mm:ss z", formatter("uuuu-M-d H:mm:ss [xxx][xx][VV][z]"), true,
+                    "9-9-9 9:9:9 A", "9-9-9 9:9:9 -9", "9-9-9 9:9:9 +9", "9-9-9 9:9:9 -9:9", "9-9-9 9:9:9 +9:9",
+                    "9-9-9 9:9:9 A/A", "9-9-9 9:9:9 A/A_A"),
+            // Date-time up to seconds and no timezone, e.g. 2013-04-08 13:14:23
+            new DateTimeFormat("yyyy-MM-dd HH:mm:ss", formatter("uuuu-M-d H:mm:ss"), false, "9-9-9 9:9:9"),
+            // ... with fractions of a second, e.g. 2013-04-08 13:14:23.250
+            new DateTimeFormat("yyyy-MM-dd HH:mm:ss.SSS",
+                    new DateTimeFormatterBuilder().appendPattern("uuuu-M-d H:mm:ss")
+                            .appendFraction(ChronoField.NANO_OF_SECOND, 1, 9, true).toFormatter(Locale.ENGLISH),
+                    false, "9-9-9 9:9:9.9"),
+            // ... up to minutes, e.g. 2013-04-08 13:14
+            new DateTimeFormat("yyyy-MM-dd HH:mm", formatter("uuuu-M-d H:mm"), false, "9-9-9 9:9"),
+            // ISO 8601, e.g. 2013-04-08T13:14:23 or 2013-04-08T13:14:23.250
+            new DateTimeFormat("yyyy-MM-dd'T'HH:mm:ss",
+                    new DateTimeFormatterBuilder().appendPattern("uuuu-MM-dd'T'HH:mm:ss").optionalStart()
+                            .appendFraction(ChronoField.NANO_OF_SECOND, 1, 9, true).optionalEnd()
+                            .toFormatter(Locale.ENGLISH),
+                    false, "9-9-9A9:9:9", "9-9-9A9:9:9.9"),
+            // ISO 8601 with a UTC offset, e.g. 2013-04-08T13:14:23Z or 2013-04-08T13:14:23-05:00
+            new DateTimeFormat("yyyy-MM-dd'T'HH:mm:ssXXX",
+                    new DateTimeFormatterBuilder().appendPattern("uuuu-MM-dd'T'HH:mm:ss").optionalStart()
+                            .appendFraction(ChronoField.NANO_OF_SECOND, 1, 9, true).optionalEnd().appendOffsetId()
+                            .toFormatter(Locale.ENGLISH),
+                    true, "9-9-9A9:9:9A", "9-9-9A9:9:9-9:9", "9-9-9A9:9:9+9:9", "9-9-9A9:9:9.9A",
+                    "9-9-9A9:9:9.9-9:9", "9-9-9A9:9:9.9+9:9"),
+            // US, e.g. 4/8/2013 13:14:23
+            new DateTimeFormat("M/d/yyyy H:mm:ss", formatter("M/d/uuuu H:mm:ss"), false, "9/9/9 9:9:9"),
+            new DateTimeFormat("M/d/yyyy H:mm", formatter("M/d/uuuu H:mm"), false, "9/9/9 9:9")));
+
+    // Date formats, in the order of preference:
+    public static final List<DateTimeFormat> DATE_FORMATS = Collections.unmodifiableList(Arrays.asList(
+            // ISO 8601, e.g. 2013-04-08
+            new DateTimeFormat("yyyy-MM-dd", formatter("uuuu-M-d"), false, "9-9-9"),
+            new DateTimeFormat("yyyy/MM/dd", formatter("uuuu/M/d"), false, "9/9/9"),
+            // US, e.g. 4/8/2013
+            new DateTimeFormat("M/d/yyyy", formatter("M/d/uuuu"), false, "9/9/9"),
+            // European, e.g. 8/4/2013 or 8.4.2013
+            new DateTimeFormat("d/M/yyyy", formatter("d/M/uuuu"), false, "9/9/9"),
+            new DateTimeFormat("d.M.yyyy", formatter("d.M.uuuu"), false, "9.9.9"),
+            // With month names, e.g. 08-Apr-2013, 8 Apr 2013, Apr 8, 2013
+            new DateTimeFormat("dd-MMM-yyyy", formatter("d-MMM-uuuu"), false, "9-A-9"),
+            new DateTimeFormat("d MMM yyyy", formatter("d MMM uuuu"), false, "9 A 9"),
+            new DateTimeFormat("MMM d, yyyy", formatter("MMM d, uuuu"), false, "A 9, 9")));
+
+    public static final int ALL_TIME_FORMATS = (1 << TIME_FORMATS.size()) - 1;
+    public static final int ALL_DATE_FORMATS = (1 << DATE_FORMATS.size()) - 1;
+
+    // no date or time value is longer than this:
+    private static final int MAX_LENGTH = 64;
+
+    private final StringBuilder shape = new StringBuilder(MAX_LENGTH);
+    private final ParsePosition position = new ParsePosition(0);
+
+    private static DateTimeFormatter formatter(final String pattern) {
+        return new DateTimeFormatterBuilder().parseCaseInsensitive().appendPattern(pattern)
+                .toFormatter(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the subset of the candidate time formats that match the entire
+     * value.
+     */
+    public int matchTimeFormats(final String value, final int candidates) {
+        if (candidates == 0 || !computeShape(value)) {
+            return 0;
+        }
+        int matching = 0;
+        for (int k = 0; k < TIME_FORMATS.size(); k++) {
+            if ((candidates & (1 << k)) != 0) {
+                DateTimeFormat format = TIME_FORMATS.get(k);
+                if (matchesShape(format, false) && parse(format, value, false)) {
+                    matching |= 1 << k;
+                }
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Returns the subset of the candidate date formats that match the value.
+     * A date-time value matches the format of its date part (so a column
+     * with both dates and date-times is a date column).
+     */
+    public int matchDateFormats(final String value, final int candidates) {
+        if (candidates == 0 || !computeShape(value)) {
+            return 0;
+        }
+        int matching = 0;
+        for (int k = 0; k < DATE_FORMATS.size(); k++) {
+            if ((candidates & (1 << k)) != 0) {
+                DateTimeFormat format = DATE_FORMATS.get(k);
+                if (matchesShape(format, true) && parse(format, value, true)) {
+                    matching |= 1 << k;
+                }
+            }
+        }
+        return matching;
+    }
+
+    /*
+     * Computes the shape of the value; returns false if it can't be a date
+     * or a time.
+     */
+    private boolean computeShape(final String value) {
+        shape.setLength(0);
+        if (value.length() > MAX_LENGTH) {
+            return false;
+        }
+        boolean digits = false;
+        char last = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            char s;
+            if (c >= '0' && c <= '9') {
+                s = '9';
+                digits = true;
+            } else if (Character.isLetter(c)) {
+                s = 'A';
+            } else {
+                s = c;
+            }
+            if (s != last || (s != '9' && s != 'A')) {
+                shape.append(s);
+            }
+            last = s;
+        }
+        return digits;
+    }
+
+    private boolean matchesShape(final DateTimeFormat format, final boolean datePrefix) {
+        for (String formatShape : format.shapes) {
+            int length = formatShape.length();
+            if (shape.length() >= length && shape.indexOf(formatShape) == 0) {
+                if (shape.length() == length) {
+                    return true;
+                }
+                // a date followed by a time:
+                if (datePrefix && shape.length() > length + 1 && shape.charAt(length + 1) == '9'
+                        && (shape.charAt(length) == ' ' || shape.charAt(length) == 'A')) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean parse(final DateTimeFormat format, final String value, final boolean datePrefix) {
+        position.setIndex(0);
+        position.setErrorIndex(-1);
+        TemporalAccessor parsed = format.formatter.parseUnresolved(value, position);
+        if (parsed == null || position.getErrorIndex() >= 0) {
+            return false;
+        }
+        int end = position.getIndex();
+        if (end != value.length()) {
+            // (the date part of a date-time value)
+            if (!datePrefix || !(value.charAt(end) == ' ' || value.charAt(end) == 'T')) {
+                return false;
+            }
+        }
+        if (format.zoned && parsed.query(TemporalQueries.zone()) == null) {
+            return false;
+        }
+        return isValid(parsed);
+    }
+
+    /*
+     * Strict validation of the parsed fields.
+     */
+    private static boolean isValid(final TemporalAccessor parsed) {
+        if (!parsed.isSupported(ChronoField.YEAR) || !parsed.isSupported(ChronoField.MONTH_OF_YEAR)
+                || !parsed.isSupported(ChronoField.DAY_OF_MONTH)) {
+            return false;
+        }
+        long year = parsed.getLong(ChronoField.YEAR);
+        long month = parsed.getLong(ChronoField.MONTH_OF_YEAR);
+        long day = parsed.getLong(ChronoField.DAY_OF_MONTH);
+        if (month < 1 || month > 12 || day < 1 || day > Month.of((int) month).length(Year.isLeap(year))) {
+            return false;
+        }
+        return isInRange(parsed, ChronoField.HOUR_OF_DAY, 23) && isInRange(parsed, ChronoField.MINUTE_OF_HOUR, 59)
+                && isInRange(parsed, ChronoField.SECOND_OF_MINUTE, 59);
+    }
+
+    private static boolean isInRange(final TemporalAccessor parsed, final ChronoField field, final long max) {
+        if (!parsed.isSupported(field)) {
+            return true;
+        }
+        long value = parsed.getLong(field);
+        return value >= 0 && value <= max;
+    }
+}
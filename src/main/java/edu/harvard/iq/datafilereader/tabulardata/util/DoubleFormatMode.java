@@ -0,0 +1,44 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+/**
+ * Which digits the {@link DoubleFormatter} writes for a double value.
+ */
+public enum DoubleFormatMode {
+    /**
+     * The digits of {@link Double#toString(double)}, as the DecimalFormat
+     * the readers used to format the numeric values wrote them; the tab
+     * files come out byte for byte the same as before (on Java 19 and
+     * later, where Double.toString writes other digits, the values are
+     * formatted with a DecimalFormat).
+     */
+    COMPATIBLE,
+
+    /**
+     * The shortest digits that read back as the same double (the closest
+     * to the value, if there are several). Computed with integer
+     * arithmetic, without allocating anything; the values only differ from
+     * the COMPATIBLE ones where Double.toString writes more digits than
+     * necessary, and they always parse to the same double.
+     */
+    SHORTEST
+}
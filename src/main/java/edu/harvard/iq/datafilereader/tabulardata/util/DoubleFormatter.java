@@ -0,0 +1,430 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.math.BigInteger;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+
+/**
+ * Formats double values the way the readers write them into the tab files:
+ * in plain notation (never with an exponent), without grouping, and with as
+ * many fraction digits as the value needs; integer values have no fraction
+ * ("5", not "5.0"). This is what the DecimalFormat with up to 340 fraction
+ * digits, that the readers used to format their values with, wrote (with
+ * the same symbols and affixes, those of the default locale); but the
+ * characters are written directly into a char array, without going
+ * through the DecimalFormat digit list and string buffers.
+ *
+ * The digits are chosen according to the {@link DoubleFormatMode}: those
+ * of {@link Double#toString(double)} (COMPATIBLE, the default); or the
+ * shortest ones that read back as the same double (SHORTEST), computed with
+ * the Schubfach algorithm (R. Giulietti, "The Schubfach way to render
+ * doubles", 2021) on 64 bit integers, without allocating anything. Either
+ * way, a formatted value parses back to the same double.
+ *
+ * Since Java 19, Double.toString() writes the shortest digits too, while
+ * DecimalFormat still writes those of the old algorithm (some values get a
+ * couple more digits: 282879384806159008, not 282879384806159000); on such
+ * a runtime, the COMPATIBLE values are formatted with a DecimalFormat, so
+ * that they keep coming out the same.
+ *
+ * A formatter writes into a buffer of its own, so it is not thread-safe;
+ * use one per thread.
+ */
+public final class DoubleFormatter {
+
+    /**
+     * The maximum number of characters of a formatted number, with a one
+     * char minus sign (see {@link #getMaxLength()}).
+     */
+    public static final int MAX_LENGTH = 328;
+
+    // the binary64 format:
+    private static final int P = 53;
+    private static final int BQ_MASK = 0x7FF;
+    private static final long T_MASK = (1L << (P - 1)) - 1;
+    private static final int Q_MIN = -1074;
+    private static final long C_MIN = 1L << (P - 1);
+    private static final long MASK_63 = (1L << 63) - 1;
+
+    // the range of the decimal exponents k of the Schubfach computation:
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+    // for k in [K_MIN, K_MAX], the 126 bit g = floor(10^-k 2^-r) + 1, with
+    // r such that 2^125 <= 10^-k 2^-r < 2^126, split into its higher and
+    // lower 63 bits (g1 at 2 (k - K_MIN), g0 next to it):
+    private static final long[] G = new long[2 * (K_MAX - K_MIN + 1)];
+
+    // whether Double.toString() writes the digits DecimalFormat writes (a
+    // value the two algorithms disagree on):
+    private static final boolean TO_STRING_MATCHES_DECIMAL_FORMAT =
+            Double.toString(2.82879384806159E17).equals("2.82879384806159008E17");
+
+    static {
+        BigInteger mask63 = BigInteger.valueOf(MASK_63);
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            int r = flog2pow10(-k) - 125;
+            BigInteger numerator = BigInteger.TEN.pow(Math.max(-k, 0)).shiftLeft(Math.max(-r, 0));
+            BigInteger denominator = BigInteger.TEN.pow(Math.max(k, 0)).shiftLeft(Math.max(r, 0));
+            BigInteger g = numerator.divide(denominator).add(BigInteger.ONE);
+            G[2 * (k - K_MIN)] = g.shiftRight(63).longValue();
+            G[2 * (k - K_MIN) + 1] = g.and(mask63).longValue();
+        }
+    }
+
+    private final DoubleFormatMode mode;
+    private final char zeroDigit;
+    private final char decimalSeparator;
+    // the affixes of the locale's number pattern (the negative prefix is 
+    // more than a minus sign in some locales; in ar_EG, a bidi mark too):
+    private final String positivePrefix;
+    private final String positiveSuffix;
+    private final String negativePrefix;
+    private final String negativeSuffix;
+    private final String nan;
+    private final String infinity;
+
+    // the digits (0-9) of the value being formatted, without leading or
+    // trailing zeros, and the position of the decimal point relative to
+    // the first one:
+    private final byte[] digits = new byte[20];
+    private int digitCount;
+    private int pointPosition;
+    // the decimal value (significand 10^exponent) computed by Schubfach:
+    private long decimalSignificand;
+    private int decimalExponent;
+
+    private final char[] buffer;
+    // (COMPATIBLE, where Double.toString() doesn't do)
+    private final NumberFormat decimalFormat;
+
+    public DoubleFormatter() {
+        this(DoubleFormatMode.COMPATIBLE);
+    }
+
+    public DoubleFormatter(final DoubleFormatMode mode) {
+        this.mode = mode;
+        // (the symbols and affixes of the DecimalFormat the readers used)
+        DecimalFormat localeFormat = new DecimalFormat();
+        DecimalFormatSymbols symbols = localeFormat.getDecimalFormatSymbols();
+        zeroDigit = symbols.getZeroDigit();
+        decimalSeparator = symbols.getDecimalSeparator();
+        positivePrefix = localeFormat.getPositivePrefix();
+        positiveSuffix = localeFormat.getPositiveSuffix();
+        negativePrefix = localeFormat.getNegativePrefix();
+        negativeSuffix = localeFormat.getNegativeSuffix();
+        nan = symbols.getNaN();
+        infinity = symbols.getInfinity();
+        int affixLength = Math.max(positivePrefix.length() + positiveSuffix.length(),
+                negativePrefix.length() + negativeSuffix.length());
+        // (MAX_LENGTH counts a one char minus sign)
+        buffer = new char[Math.max(nan.length(), Math.max(MAX_LENGTH - 1, infinity.length()) + affixLength)];
+        if (mode == DoubleFormatMode.COMPATIBLE && !TO_STRING_MATCHES_DECIMAL_FORMAT) {
+            decimalFormat = new DecimalFormat();
+            decimalFormat.setGroupingUsed(false);
+            decimalFormat.setMaximumFractionDigits(340);
+        } else {
+            decimalFormat = null;
+        }
+    }
+
+    public DoubleFormatMode getMode() {
+        return mode;
+    }
+
+    /**
+     * The maximum number of characters {@link #format(double, char[], int)}
+     * writes: {@link #MAX_LENGTH}, or more, if the NaN or infinity symbols,
+     * or the affixes of the locale are longer.
+     */
+    public int getMaxLength() {
+        return buffer.length;
+    }
+
+    public String format(final double value) {
+        return new String(buffer, 0, format(value, buffer, 0));
+    }
+
+    /**
+     * Writes the formatted value into the array, from the offset on; at
+     * most {@link #getMaxLength()} characters are written. NaN and infinity
+     * are written with the symbols of the locale, and the numbers with the
+     * prefix and suffix of its number pattern, as DecimalFormat does.
+     *
+     * @return the number of characters written.
+     */
+    public int format(final double value, final char[] chars, final int offset) {
+        if (decimalFormat != null) {
+            String formatted = decimalFormat.format(value);
+            formatted.getChars(0, formatted.length(), chars, offset);
+            return formatted.length();
+        }
+        if (Double.isNaN(value)) {
+            nan.getChars(0, nan.length(), chars, offset);
+            return nan.length();
+        }
+        // (-0.0 is written as "-0", as DecimalFormat does)
+        boolean isNegative = value < 0 || (value == 0 && 1 / value < 0);
+        int position = writeString(isNegative ? negativePrefix : positivePrefix, chars, offset);
+        position = writeNumber(value, chars, position);
+        return writeString(isNegative ? negativeSuffix : positiveSuffix, chars, position) - offset;
+    }
+
+    private static int writeString(final String s, final char[] chars, final int offset) {
+        s.getChars(0, s.length(), chars, offset);
+        return offset + s.length();
+    }
+
+    /*
+     * Writes the absolute value, without the affixes; returns the position 
+     * after it.
+     */
+    private int writeNumber(final double value, final char[] chars, final int offset) {
+        int position = offset;
+        if (Double.isInfinite(value)) {
+            return writeString(infinity, chars, position);
+        }
+        if (value == 0) {
+            chars[position++] = zeroDigit;
+            return position;
+        }
+
+        if (mode == DoubleFormatMode.SHORTEST) {
+            shortestDigits(Math.abs(value));
+        } else {
+            compatibleDigits(Math.abs(value));
+        }
+
+        if (pointPosition <= 0) {
+            // 0.000ddd
+            chars[position++] = zeroDigit;
+            chars[position++] = decimalSeparator;
+            for (int i = pointPosition; i < 0; i++) {
+                chars[position++] = zeroDigit;
+            }
+            position = writeDigits(chars, position, 0, digitCount);
+        } else if (pointPosition >= digitCount) {
+            // ddd000
+            position = writeDigits(chars, position, 0, digitCount);
+            for (int i = digitCount; i < pointPosition; i++) {
+                chars[position++] = zeroDigit;
+            }
+        } else {
+            // ddd.ddd
+            position = writeDigits(chars, position, 0, pointPosition);
+            chars[position++] = decimalSeparator;
+            position = writeDigits(chars, position, pointPosition, digitCount);
+        }
+        return position;
+    }
+
+    private int writeDigits(final char[] chars, final int offset, final int start, final int end) {
+        int position = offset;
+        for (int i = start; i < end; i++) {
+            chars[position++] = (char) (zeroDigit + digits[i]);
+        }
+        return position;
+    }
+
+    /*
+     * The digits of Double.toString() ("123.45", "0.00123", "1.2345E-5",
+     * "1.0E10"...) of a positive value.
+     */
+    private void compatibleDigits(final double value) {
+        String javaFormat = Double.toString(value);
+        digitCount = 0;
+        int integerDigits = 0;
+        boolean isFraction = false;
+        int exponent = 0;
+        for (int i = 0; i < javaFormat.length(); i++) {
+            char c = javaFormat.charAt(i);
+            if (c == '.') {
+                isFraction = true;
+            } else if (c == 'E') {
+                boolean isNegative = javaFormat.charAt(i + 1) == '-';
+                for (int j = isNegative ? i + 2 : i + 1; j < javaFormat.length(); j++) {
+                    exponent = 10 * exponent + (javaFormat.charAt(j) - '0');
+                }
+                if (isNegative) {
+                    exponent = -exponent;
+                }
+                break;
+            } else if (c != '0' || digitCount > 0) {
+                digits[digitCount++] = (byte) (c - '0');
+                if (!isFraction) {
+                    integerDigits++;
+                }
+            } else if (isFraction) {
+                // a leading zero of the fraction
+                integerDigits--;
+            }
+        }
+        while (digitCount > 0 && digits[digitCount - 1] == 0) {
+            digitCount--;
+        }
+        pointPosition = integerDigits + exponent;
+    }
+
+    /*
+     * The shortest digits that read back as the (positive) value.
+     */
+    private void shortestDigits(final double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        long t = bits & T_MASK;
+        int bq = (int) (bits >>> (P - 1)) & BQ_MASK;
+        if (bq != 0) {
+            // normal: value = c 2^q
+            int mq = -Q_MIN + 1 - bq;
+            long c = C_MIN | t;
+            if (0 < mq && mq < P && (c >> mq) << mq == c) {
+                // an integer, below 2^53: its digits are the shortest
+                decimalSignificand = c >> mq;
+                decimalExponent = 0;
+            } else {
+                toDecimal(-mq, c);
+            }
+        } else {
+            // subnormal
+            toDecimal(Q_MIN, t);
+        }
+
+        // the digits of the significand, without the trailing zeros:
+        long f = decimalSignificand;
+        int e = decimalExponent;
+        while (f % 10 == 0) {
+            f /= 10;
+            e++;
+        }
+        digitCount = 0;
+        for (long rest = f; rest > 0; rest /= 10) {
+            digitCount++;
+        }
+        for (int i = digitCount - 1; i >= 0; i--) {
+            digits[i] = (byte) (f % 10);
+            f /= 10;
+        }
+        pointPosition = digitCount + e;
+    }
+
+    /*
+     * Schubfach: finds the shortest decimal in the rounding interval of
+     * c 2^q (the closest one to it, if there are several of that length),
+     * computed with the 126 bit approximations of the powers of ten. See
+     * section 9 of the paper for the notation; vb, vbl and vbr are the
+     * value and the bounds of the interval, scaled by 4 10^-k.
+     */
+    private void toDecimal(final int q, final long c) {
+        int out = (int) c & 0x1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != C_MIN || q == Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            // the interval is narrower below a power of two
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+
+        long g1 = G[2 * (k - K_MIN)];
+        long g0 = G[2 * (k - K_MIN) + 1];
+
+        long vb = roundToOdd(g1, g0, cb << h);
+        long vbl = roundToOdd(g1, g0, cbl << h);
+        long vbr = roundToOdd(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 10) {
+            // one digit less: s' = floor(s / 10), by a multiplication (a
+            // low precision subnormal value may need a single digit)
+            long sp10 = 10 * multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                decimalSignificand = upin ? sp10 : tp10;
+                decimalExponent = k;
+                return;
+            }
+        }
+
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            decimalSignificand = uin ? s : t;
+        } else {
+            // both are in the interval: the closest one (the even one, on
+            // a tie)
+            long cmp = vb - ((s + t) << 1);
+            decimalSignificand = cmp < 0 || (cmp == 0 && (s & 0x1) == 0) ? s : t;
+        }
+        decimalExponent = k;
+    }
+
+    /*
+     * The product g cp 2^-127 (g = g1 2^63 + g0), rounded to odd.
+     */
+    private static long roundToOdd(final long g1, final long g0, final long cp) {
+        long x1 = multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (((z & MASK_63) + MASK_63) >>> 63);
+    }
+
+    /*
+     * The higher 64 bits of the 128 bit product of two non-negative longs
+     * (Math.multiplyHigh() is not there before Java 9).
+     */
+    private static long multiplyHigh(final long x, final long y) {
+        long x1 = x >>> 32;
+        long x0 = x & 0xFFFFFFFFL;
+        long y1 = y >>> 32;
+        long y0 = y & 0xFFFFFFFFL;
+        long p00 = x0 * y0;
+        long p01 = x0 * y1;
+        long p10 = x1 * y0;
+        long middle = (p00 >>> 32) + (p01 & 0xFFFFFFFFL) + (p10 & 0xFFFFFFFFL);
+        return x1 * y1 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+    }
+
+    // floor(e log10(2)), floor(log10(3/4 2^e)) and floor(e log2(10)), for
+    // the exponents of doubles, as fixed point multiplications:
+
+    private static int flog10pow2(final int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    private static int flog10threeQuartersPow2(final int e) {
+        return (int) (e * 661_971_961_083L + (-274_743_187_321L) >> 41);
+    }
+
+    private static int flog2pow10(final int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+}
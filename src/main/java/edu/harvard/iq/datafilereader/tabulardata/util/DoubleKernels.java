@@ -0,0 +1,47 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+/**
+ * Primitive reduction kernels over ranges of double vectors, used by the
+ * summary statistics calculations.
+ *
+ * The implementation is selected by {@link DoubleKernelsFactory}: the plain
+ * Java 8 one is {@link ScalarDoubleKernels}; on Java 17+ the multi-release
+ * jar provides a Vector API implementation, used when the
+ * jdk.incubator.vector module is available (i.e., when the JVM is started
+ * with "--add-modules jdk.incubator.vector").
+ *
+ * min and max follow the semantics of Math.min and Math.max: the result is
+ * NaN if any of the values is NaN. All of them return NaN (or 0, for the NaN
+ * count) for an empty range. The order in which the values are added up is
+ * not specified, so sums may differ in the last bits between the
+ * implementations.
+ */
+public interface DoubleKernels {
+
+    double sum(double[] values, int begin, int length);
+
+    double min(double[] values, int begin, int length);
+
+    double max(double[] values, int begin, int length);
+
+    int countNaNs(double[] values, int begin, int length);
+}
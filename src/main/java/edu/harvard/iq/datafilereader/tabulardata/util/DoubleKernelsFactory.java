@@ -0,0 +1,39 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+/**
+ * Provides the {@link DoubleKernels} implementation for the running JVM.
+ *
+ * This is the Java 8 version, which always returns the scalar kernels; the
+ * multi-release jar overrides it, under META-INF/versions/17, with a version
+ * that can pick the Vector API kernels.
+ */
+public class DoubleKernelsFactory {
+
+    private static final DoubleKernels KERNELS = new ScalarDoubleKernels();
+
+    private DoubleKernelsFactory() {
+    }
+
+    public static DoubleKernels getKernels() {
+        return KERNELS;
+    }
+}
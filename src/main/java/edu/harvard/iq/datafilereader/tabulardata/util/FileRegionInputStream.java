@@ -0,0 +1,123 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream over a byte range [start, end) of a file.
+ *
+ * The bytes are read with positional reads on the file channel, so any
+ * number of these streams can read different parts of the same file at the
+ * same time (for ex., to process a large file in parallel chunks). The
+ * stream is not buffered.
+ */
+public class FileRegionInputStream extends InputStream {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+    private long mark;
+
+    public FileRegionInputStream(final File file, final long start, final long end) throws IOException {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid file region: [" + start + ", " + end + ")");
+        }
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.end = Math.min(end, channel.size());
+        this.position = Math.min(start, this.end);
+        this.mark = this.position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= end) {
+            return -1;
+        }
+        int n = (int) Math.min(len, end - position);
+        int read = channel.read(ByteBuffer.wrap(b, off, n), position);
+        if (read < 0) {
+            // the file has been truncated since it was opened:
+            return -1;
+        }
+        position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, end - position);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(final int readlimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        position = mark;
+    }
+
+    /**
+     * The current position of the stream in the file.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
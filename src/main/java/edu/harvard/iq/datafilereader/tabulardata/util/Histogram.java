@@ -0,0 +1,221 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.util.Arrays;
+
+/**
+ * Binned distribution of a numeric variable.
+ *
+ * The bins are defined by n + 1 ascending edges; bin i covers the half-open
+ * interval [edge(i), edge(i+1)), except for the last bin, which also includes
+ * its upper edge. Values outside of the edges, NaNs and infinite values are
+ * not counted.
+ *
+ * The histogram can be filled one value at a time, with {@link #add(double)},
+ * so it can be built in a single pass over a column once the edges are known.
+ */
+public class Histogram {
+
+    private static final String EDGES_KEY = "edges=";
+    private static final String COUNTS_KEY = "counts=";
+
+    private final double[] edges;
+    private final long[] counts;
+
+    // fixed-width bins can be located arithmetically:
+    private final boolean fixedWidth;
+    private final double binWidth;
+
+    private Histogram(final double[] edges, final long[] counts, final boolean fixedWidth) {
+        this.edges = edges;
+        this.counts = counts;
+        this.fixedWidth = fixedWidth;
+        this.binWidth = fixedWidth ? (edges[edges.length - 1] - edges[0]) / counts.length : Double.NaN;
+    }
+
+    /**
+     * Creates an empty histogram with the specified bin edges.
+     */
+    public Histogram(final double[] edges) {
+        this(validateEdges(edges), new long[edges.length - 1], false);
+    }
+
+    /**
+     * Creates an empty histogram of equal-width bins spanning [min, max].
+     * If min and max are equal, a single bin is created.
+     */
+    public static Histogram fixedWidth(final double min, final double max, final int bins) {
+        if (bins < 1) {
+            throw new IllegalArgumentException("Number of histogram bins must be positive: " + bins);
+        }
+        if (Double.isNaN(min) || Double.isNaN(max) || Double.isInfinite(min) || Double.isInfinite(max)
+                || min > max) {
+            throw new IllegalArgumentException("Invalid histogram range: [" + min + ", " + max + "]");
+        }
+        if (min == max) {
+            return new Histogram(new double[] { min, max }, new long[1], false);
+        }
+        double[] edges = new double[bins + 1];
+        double width = (max - min) / bins;
+        for (int i = 0; i < bins; i++) {
+            edges[i] = min + i * width;
+        }
+        edges[bins] = max;
+        return new Histogram(edges, new long[bins], true);
+    }
+
+    public void add(final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        int bin = findBin(value);
+        if (bin >= 0) {
+            counts[bin]++;
+        }
+    }
+
+    public void add(final double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            add(values[i]);
+        }
+    }
+
+    public int getBinCount() {
+        return counts.length;
+    }
+
+    public double[] getEdges() {
+        return Arrays.copyOf(edges, edges.length);
+    }
+
+    public long[] getCounts() {
+        return Arrays.copyOf(counts, counts.length);
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    private int findBin(final double value) {
+        int last = counts.length - 1;
+        if (value < edges[0] || value > edges[last + 1]) {
+            return -1;
+        }
+        if (value == edges[last + 1]) {
+            return last;
+        }
+        if (fixedWidth) {
+            int bin = (int) ((value - edges[0]) / binWidth);
+            // correct for the rounding of the division near the edges:
+            if (bin > last) {
+                bin = last;
+            }
+            while (bin > 0 && value < edges[bin]) {
+                bin--;
+            }
+            while (bin < last && value >= edges[bin + 1]) {
+                bin++;
+            }
+            return bin;
+        }
+        int position = Arrays.binarySearch(edges, value);
+        if (position >= 0) {
+            // on an edge; with repeated edges, the value belongs to the
+            // last bin that starts with it:
+            while (position < last && edges[position + 1] == value) {
+                position++;
+            }
+            return Math.min(position, last);
+        }
+        return -position - 2;
+    }
+
+    /**
+     * The string representation used as the value of the histogram summary
+     * statistics: "edges=e0,e1,...,en;counts=c1,...,cn".
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(EDGES_KEY);
+        for (int i = 0; i < edges.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(edges[i]);
+        }
+        sb.append(';').append(COUNTS_KEY);
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(counts[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses the representation produced by {@link #toString()}.
+     */
+    public static Histogram valueOf(final String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null histogram value");
+        }
+        int separator = value.indexOf(';');
+        if (!value.startsWith(EDGES_KEY) || separator < 0
+                || !value.startsWith(COUNTS_KEY, separator + 1)) {
+            throw new IllegalArgumentException("Invalid histogram value: " + value);
+        }
+        String[] edgeTokens = value.substring(EDGES_KEY.length(), separator).split(",");
+        String[] countTokens = value.substring(separator + 1 + COUNTS_KEY.length()).split(",");
+        if (edgeTokens.length != countTokens.length + 1) {
+            throw new IllegalArgumentException("Invalid histogram value: " + value);
+        }
+        double[] edges = new double[edgeTokens.length];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = Double.parseDouble(edgeTokens[i]);
+        }
+        long[] counts = new long[countTokens.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = Long.parseLong(countTokens[i]);
+        }
+        return new Histogram(validateEdges(edges), counts, false);
+    }
+
+    private static double[] validateEdges(final double[] edges) {
+        if (edges == null || edges.length < 2) {
+            throw new IllegalArgumentException("A histogram needs at least 2 bin edges.");
+        }
+        for (int i = 0; i < edges.length; i++) {
+            if (Double.isNaN(edges[i]) || Double.isInfinite(edges[i])) {
+                throw new IllegalArgumentException("Invalid histogram bin edge: " + edges[i]);
+            }
+            if (i > 0 && edges[i] < edges[i - 1]) {
+                throw new IllegalArgumentException("Histogram bin edges must be in ascending order.");
+            }
+        }
+        return Arrays.copyOf(edges, edges.length);
+    }
+}
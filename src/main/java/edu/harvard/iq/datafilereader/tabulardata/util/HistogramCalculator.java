@@ -0,0 +1,158 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Calculates binned distributions (histograms) of numeric variables; a
+ * companion to the {@link SumStatCalculator}.
+ *
+ * Two kinds of histograms are supported: fixed-width bins, spanning the range
+ * of the variable; and quantile-based bins, with (approximately) the same
+ * number of values in each bin. Missing values, NaNs and infinite values are
+ * excluded.
+ */
+public class HistogramCalculator {
+
+    private static Logger logger = Logger.getLogger(HistogramCalculator.class.getPackage().getName());
+
+    /**
+     * Fixed-width histogram, in two passes over the vector: the first one
+     * establishes the range of the values, the second one fills the bins.
+     *
+     * @return the histogram, or null if there are no finite values in the
+     *         vector.
+     */
+    public static Histogram calculateFixedWidthHistogram(final double[] x, final int bins) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < x.length; i++) {
+            if (isFinite(x[i])) {
+                if (x[i] < min) {
+                    min = x[i];
+                }
+                if (x[i] > max) {
+                    max = x[i];
+                }
+            }
+        }
+        if (min > max) {
+            return null;
+        }
+        Histogram histogram = Histogram.fixedWidth(min, max, bins);
+        histogram.add(x);
+        return histogram;
+    }
+
+    /**
+     * Fixed-width histogram, in a single pass over the vector, using the min
+     * and max values already known from the summary statistics. If either of
+     * them is not finite, falls back to the two-pass calculation.
+     */
+    public static Histogram calculateFixedWidthHistogram(final double[] x, final int bins, final double min,
+            final double max) {
+        if (!isFinite(min) || !isFinite(max) || min > max) {
+            return calculateFixedWidthHistogram(x, bins);
+        }
+        Histogram histogram = Histogram.fixedWidth(min, max, bins);
+        histogram.add(x);
+        return histogram;
+    }
+
+    public static Histogram calculateFixedWidthHistogram(final Number[] x, final int bins, final double min,
+            final double max) {
+        return calculateFixedWidthHistogram(prepareFiniteValues(x), bins, min, max);
+    }
+
+    /**
+     * Quantile-based histogram: the bin edges are the k/bins quantiles of the
+     * values, so that the bins hold (approximately) the same number of values.
+     * Bins collapsing onto the same edge, because of repeated values, are
+     * merged; so the resulting histogram may have fewer bins than requested.
+     *
+     * @return the histogram, or null if there are no finite values in the
+     *         vector.
+     */
+    public static Histogram calculateQuantileHistogram(final double[] x, final int bins) {
+        if (bins < 1) {
+            throw new IllegalArgumentException("Number of histogram bins must be positive: " + bins);
+        }
+        double[] sorted = filterFiniteValues(x);
+        if (sorted.length == 0) {
+            return null;
+        }
+        Arrays.sort(sorted);
+
+        double[] edges = new double[bins + 1];
+        int edgeCount = 0;
+        for (int k = 0; k <= bins; k++) {
+            int position = (int) Math.round((double) k * (sorted.length - 1) / bins);
+            double edge = sorted[position];
+            if (edgeCount == 0 || edge > edges[edgeCount - 1]) {
+                edges[edgeCount++] = edge;
+            }
+        }
+        if (edgeCount == 1) {
+            // all the values are the same:
+            edges[edgeCount++] = edges[0];
+        }
+
+        Histogram histogram = new Histogram(Arrays.copyOf(edges, edgeCount));
+        histogram.add(sorted);
+        logger.fine("calculated quantile histogram with " + histogram.getBinCount() + " bins.");
+        return histogram;
+    }
+
+    public static Histogram calculateQuantileHistogram(final Number[] x, final int bins) {
+        return calculateQuantileHistogram(prepareFiniteValues(x), bins);
+    }
+
+    private static double[] prepareFiniteValues(final Number[] x) {
+        double[] values = new double[x.length];
+        int c = 0;
+        for (int i = 0; i < x.length; i++) {
+            if (x[i] != null) {
+                double value = x[i].doubleValue();
+                if (isFinite(value)) {
+                    values[c++] = value;
+                }
+            }
+        }
+        return c == values.length ? values : Arrays.copyOf(values, c);
+    }
+
+    private static double[] filterFiniteValues(final double[] x) {
+        double[] values = new double[x.length];
+        int c = 0;
+        for (int i = 0; i < x.length; i++) {
+            if (isFinite(x[i])) {
+                values[c++] = x[i];
+            }
+        }
+        return Arrays.copyOf(values, c);
+    }
+
+    private static boolean isFinite(final double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+}
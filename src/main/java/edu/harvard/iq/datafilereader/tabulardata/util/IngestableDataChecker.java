@@ -23,11 +23,13 @@ package edu.harvard.iq.datafilereader.tabulardata.util;
 import static java.lang.System.err;
 import static java.lang.System.out;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.BufferUnderflowException;
@@ -181,7 +183,8 @@ public class IngestableDataChecker implements java.io.Serializable {
         if (DEBUG) {
             out.println("from string=" + hdr4sav);
         }
-        if (hdr4sav.equals("$FL2")) {
+        // ($FL3: ZSAV, with a zlib-compressed data section)
+        if (hdr4sav.equals("$FL2") || hdr4sav.equals("$FL3")) {
             if (DEBUG) {
                 out.println("this file is spss-sav type");
             }
@@ -576,6 +579,28 @@ public class IngestableDataChecker implements java.io.Serializable {
         return result;
     }
 
+    /**
+     * Checks for the gzip magic number at the start of the stream; the stream
+     * must support mark/reset, and is reset to where it was.
+     */
+    public static boolean isGzipCompressed(final InputStream stream) throws IOException {
+        stream.mark(2);
+        try {
+            return stream.read() == 0x1F && stream.read() == 0x8B;
+        } finally {
+            stream.reset();
+        }
+    }
+
+    /**
+     * Checks for the gzip magic number at the start of the file.
+     */
+    public static boolean isGzipCompressed(final File fh) throws IOException {
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(fh), 2)) {
+            return isGzipCompressed(stream);
+        }
+    }
+
     // public instance methods ------------------------------------------------
     public String detectTabularDataFormat(final File fh) {
         boolean DEBUG = false;
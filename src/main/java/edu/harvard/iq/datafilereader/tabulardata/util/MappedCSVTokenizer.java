@@ -0,0 +1,330 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Byte-level tokenizer of delimited text files, reading a memory-mapped
+ * file.
+ *
+ * The same state machine as {@link CSVTokenizer} (and the same leniency),
+ * but running directly over the bytes of the file, which is mapped in
+ * windows; the characters are never decoded. This works for any
+ * ASCII-compatible encoding (the delimiter, the quotes and the line breaks
+ * are single ASCII bytes, and never part of a multi-byte character); the
+ * fields are decoded as UTF-8 by {@link #getField(int)}.
+ *
+ * The fields of the current record are kept in a single reusable byte
+ * buffer ({@link #getRecordBuffer()}), with the enclosing quotes removed and
+ * the doubled quotes un-doubled.
+ *
+ * Not thread-safe.
+ */
+public class MappedCSVTokenizer {
+
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 26;
+
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+
+    private final FileChannel channel;
+    private final byte delimiter;
+    private final long end;
+    private final int windowSize;
+
+    // the mapped window of the file, and the position in it:
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position = 0;
+    private int limit = 0;
+    private boolean skipLineFeed = false;
+
+    private byte[] recordBytes = new byte[1024];
+    private int recordLength = 0;
+    private int[] fieldStarts = new int[64];
+    private int[] fieldEnds = new int[64];
+    private boolean[] quotedFields = new boolean[64];
+    private int fieldCount = 0;
+
+    private long lineNumber = 1;
+
+    public MappedCSVTokenizer(final FileChannel channel, final char delimiter) throws IOException {
+        this(channel, 0, channel.size(), delimiter, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Reads the region [start, end) of the file.
+     */
+    public MappedCSVTokenizer(final FileChannel channel, final long start, final long end, final char delimiter,
+            final int windowSize) {
+        if (delimiter == QUOTE || delimiter == CR || delimiter == LF || delimiter >= 0x80) {
+            throw new IllegalArgumentException("Invalid delimiter character: " + (int) delimiter);
+        }
+        this.channel = channel;
+        this.delimiter = (byte) delimiter;
+        this.end = end;
+        this.windowSize = windowSize;
+        this.windowStart = start;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the number of fields in the record, or -1 at the end of the
+     *         input.
+     */
+    public int readRecord() throws IOException {
+        recordLength = 0;
+        fieldCount = 0;
+
+        int state = FIELD_START;
+        int fieldStart = 0;
+        boolean quoted = false;
+        boolean started = false;
+        long quoteLineNumber = 0;
+
+        while (true) {
+            if (position >= limit && !fill()) {
+                break;
+            }
+            byte c = window.get(position++);
+
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (c == LF) {
+                    continue;
+                }
+            }
+            started = true;
+
+            switch (state) {
+            case FIELD_START:
+                if (c == QUOTE) {
+                    state = QUOTED;
+                    quoted = true;
+                    quoteLineNumber = lineNumber;
+                    break;
+                }
+                state = UNQUOTED;
+                // fall through
+            case UNQUOTED:
+                if (c == delimiter) {
+                    endField(fieldStart, quoted);
+                    fieldStart = recordLength;
+                    quoted = false;
+                    state = FIELD_START;
+                } else if (c == CR || c == LF) {
+                    return endRecord(c, fieldStart, quoted);
+                } else {
+                    // copy the plain run of bytes in bulk:
+                    int run = position;
+                    while (run < limit) {
+                        byte next = window.get(run);
+                        if (next == delimiter || next == CR || next == LF) {
+                            break;
+                        }
+                        run++;
+                    }
+                    append(position - 1, run - position + 1);
+                    position = run;
+                }
+                break;
+            case QUOTED:
+                if (c == QUOTE) {
+                    state = QUOTE_IN_QUOTED;
+                } else {
+                    // copy up to the next quote in bulk, counting the line
+                    // breaks on the way:
+                    int run = position - 1;
+                    while (run < limit) {
+                        byte next = window.get(run);
+                        if (next == QUOTE) {
+                            break;
+                        }
+                        if (next == LF || (next == CR && (run + 1 == limit || window.get(run + 1) != LF))) {
+                            lineNumber++;
+                        }
+                        run++;
+                    }
+                    append(position - 1, run - position + 1);
+                    position = run;
+                }
+                break;
+            case QUOTE_IN_QUOTED:
+                if (c == QUOTE) {
+                    // a doubled quote:
+                    append(QUOTE);
+                    state = QUOTED;
+                } else if (c == delimiter) {
+                    endField(fieldStart, quoted);
+                    fieldStart = recordLength;
+                    quoted = false;
+                    state = FIELD_START;
+                } else if (c == CR || c == LF) {
+                    return endRecord(c, fieldStart, quoted);
+                } else {
+                    // stray characters after the closing quote:
+                    append(c);
+                    state = UNQUOTED;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Invalid tokenizer state: " + state);
+            }
+        }
+
+        // end of the input:
+        if (state == QUOTED) {
+            throw new IOException("Unterminated quoted field, starting on line " + quoteLineNumber + ".");
+        }
+        if (!started) {
+            return -1;
+        }
+        endField(fieldStart, quoted);
+        return fieldCount;
+    }
+
+    private int endRecord(final byte lineBreak, final int fieldStart, final boolean quoted) {
+        endField(fieldStart, quoted);
+        if (lineBreak == CR) {
+            skipLineFeed = true;
+        }
+        lineNumber++;
+        return fieldCount;
+    }
+
+    private void endField(final int fieldStart, final boolean quoted) {
+        if (fieldCount == fieldStarts.length) {
+            int size = fieldCount * 2;
+            fieldStarts = Arrays.copyOf(fieldStarts, size);
+            fieldEnds = Arrays.copyOf(fieldEnds, size);
+            quotedFields = Arrays.copyOf(quotedFields, size);
+        }
+        fieldStarts[fieldCount] = fieldStart;
+        fieldEnds[fieldCount] = recordLength;
+        quotedFields[fieldCount] = quoted;
+        fieldCount++;
+    }
+
+    private void append(final byte c) {
+        if (recordLength == recordBytes.length) {
+            recordBytes = Arrays.copyOf(recordBytes, recordLength * 2);
+        }
+        recordBytes[recordLength++] = c;
+    }
+
+    /*
+     * Appends the bytes [from, from + length) of the current window.
+     */
+    private void append(final int from, final int length) {
+        if (recordLength + length > recordBytes.length) {
+            recordBytes = Arrays.copyOf(recordBytes, Math.max(recordBytes.length * 2, recordLength + length));
+        }
+        window.position(from);
+        window.get(recordBytes, recordLength, length);
+        recordLength += length;
+    }
+
+    /*
+     * Maps the next window of the file.
+     */
+    private boolean fill() throws IOException {
+        if (window != null) {
+            windowStart += limit;
+        }
+        if (windowStart >= end) {
+            return false;
+        }
+        limit = (int) Math.min(windowSize, end - windowStart);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, limit);
+        position = 0;
+        return true;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * The field, decoded as UTF-8.
+     */
+    public String getField(final int i) {
+        checkField(i);
+        return new String(recordBytes, fieldStarts[i], fieldEnds[i] - fieldStarts[i], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Whether the field was enclosed in quotes; for ex., to tell an empty
+     * string ("") from a missing value.
+     */
+    public boolean isQuoted(final int i) {
+        checkField(i);
+        return quotedFields[i];
+    }
+
+    /**
+     * The (unquoted) bytes of the current record; valid until the next
+     * record is read.
+     */
+    public byte[] getRecordBuffer() {
+        return recordBytes;
+    }
+
+    /**
+     * The length of the current record in the record buffer.
+     */
+    public int getRecordLength() {
+        return recordLength;
+    }
+
+    public int getFieldStart(final int i) {
+        checkField(i);
+        return fieldStarts[i];
+    }
+
+    public int getFieldLength(final int i) {
+        checkField(i);
+        return fieldEnds[i] - fieldStarts[i];
+    }
+
+    /**
+     * 1-based number of the line where the next record starts.
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    private void checkField(final int i) {
+        if (i < 0 || i >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + i + " of a record with " + fieldCount + " fields.");
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.io.Serializable;
+
+/**
+ * Single-pass accumulator of the count, sum, range and the first four
+ * central moments of a numeric vector.
+ *
+ * The moments are updated with the numerically stable online recurrences
+ * (Welford's, extended to the 3rd and 4th moments by Terriberry); two
+ * accumulators filled from separate parts of the same vector can be merged
+ * with {@link #combine(MomentsAccumulator)} (Chan et al., Pebay), which makes
+ * it possible to fill them in parallel, or incrementally.
+ *
+ * Skewness and kurtosis are the bias-corrected sample statistics (the same
+ * definitions as in commons-math and most statistical packages); the
+ * kurtosis is the excess kurtosis.
+ */
+public class MomentsAccumulator implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long n = 0;
+    private double mean = 0.0;
+    private double m2 = 0.0;
+    private double m3 = 0.0;
+    private double m4 = 0.0;
+    private double sum = 0.0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    /**
+     * Adds a value; NaNs (missing values) are ignored.
+     */
+    public void add(final double x) {
+        if (Double.isNaN(x)) {
+            return;
+        }
+        long n1 = n;
+        n++;
+        double delta = x - mean;
+        double deltaN = delta / n;
+        double deltaN2 = deltaN * deltaN;
+        double term1 = delta * deltaN * n1;
+
+        mean += deltaN;
+        m4 += term1 * deltaN2 * ((double) n * n - 3 * n + 3) + 6 * deltaN2 * m2 - 4 * deltaN * m3;
+        m3 += term1 * deltaN * (n - 2) - 3 * deltaN * m2;
+        m2 += term1;
+
+        sum += x;
+        if (n == 1) {
+            min = x;
+            max = x;
+        } else {
+            if (x < min) {
+                min = x;
+            }
+            if (x > max) {
+                max = x;
+            }
+        }
+    }
+
+    public void add(final double[] values) {
+        add(values, 0, values.length);
+    }
+
+    public void add(final double[] values, final int begin, final int length) {
+        for (int i = begin; i < begin + length; i++) {
+            add(values[i]);
+        }
+    }
+
+    /**
+     * Merges the moments accumulated by another instance into this one.
+     */
+    public void combine(final MomentsAccumulator other) {
+        if (other.n == 0) {
+            return;
+        }
+        if (n == 0) {
+            n = other.n;
+            mean = other.mean;
+            m2 = other.m2;
+            m3 = other.m3;
+            m4 = other.m4;
+            sum = other.sum;
+            min = other.min;
+            max = other.max;
+            return;
+        }
+
+        double na = n;
+        double nb = other.n;
+        double nx = na + nb;
+        double delta = other.mean - mean;
+        double delta2 = delta * delta;
+        double delta3 = delta * delta2;
+        double delta4 = delta2 * delta2;
+
+        double combinedM4 = m4 + other.m4
+                + delta4 * na * nb * (na * na - na * nb + nb * nb) / (nx * nx * nx)
+                + 6.0 * delta2 * (na * na * other.m2 + nb * nb * m2) / (nx * nx)
+                + 4.0 * delta * (na * other.m3 - nb * m3) / nx;
+        double combinedM3 = m3 + other.m3
+                + delta3 * na * nb * (na - nb) / (nx * nx)
+                + 3.0 * delta * (na * other.m2 - nb * m2) / nx;
+        double combinedM2 = m2 + other.m2 + delta2 * na * nb / nx;
+
+        n += other.n;
+        mean += delta * nb / nx;
+        m2 = combinedM2;
+        m3 = combinedM3;
+        m4 = combinedM4;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getN() {
+        return n;
+    }
+
+    public double getSum() {
+        return n == 0 ? Double.NaN : sum;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getRange() {
+        return n == 0 ? Double.NaN : max - min;
+    }
+
+    public double getMean() {
+        return n == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * Sample (n - 1) variance.
+     */
+    public double getVariance() {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        if (n == 1) {
+            return 0.0;
+        }
+        return m2 / (n - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Coefficient of variation: the standard deviation relative to the mean.
+     * NaN when the mean is zero.
+     */
+    public double getCoefficientOfVariation() {
+        double mean = getMean();
+        if (mean == 0.0) {
+            return Double.NaN;
+        }
+        return getStandardDeviation() / mean;
+    }
+
+    public double getSkewness() {
+        if (n < 3 || m2 == 0.0) {
+            return Double.NaN;
+        }
+        double variance = m2 / (n - 1);
+        double dn = n;
+        return (dn / ((dn - 1) * (dn - 2))) * m3 / (variance * Math.sqrt(variance));
+    }
+
+    public double getKurtosis() {
+        if (n < 4 || m2 == 0.0) {
+            return Double.NaN;
+        }
+        double variance = m2 / (n - 1);
+        double dn = n;
+        return (dn * (dn + 1) / ((dn - 1) * (dn - 2) * (dn - 3))) * m4 / (variance * variance)
+                - 3 * (dn - 1) * (dn - 1) / ((dn - 2) * (dn - 3));
+    }
+}
@@ -0,0 +1,245 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+/**
+ * Classifies a text token as a number (and what kind of number), or a
+ * numeric special value, in a single pass over its characters, without
+ * allocating anything and without throwing exceptions.
+ *
+ * The numbers accepted are exactly the ones accepted by
+ * {@link Double#valueOf(String)}; the ones that
+ * {@link Long#valueOf(String)} also accepts are integers. The special values
+ * (NaN, NA, Inf, +Inf, -Inf and null) are recognized regardless of case.
+ */
+public final class NumericTokenLexer {
+
+    public enum TokenType {
+        /** An integer that fits in 32 bits. */
+        INTEGER,
+        /** An integer that needs 64 bits. */
+        LONG,
+        /**
+         * A number with a fraction (or an integer too large for 64 bits, or
+         * with a type suffix or surrounding white space).
+         */
+        DECIMAL,
+        /** A number with an exponent. */
+        SCIENTIFIC,
+        NAN,
+        INF,
+        NA,
+        NULL,
+        NOT_NUMERIC;
+
+        /**
+         * Whether the token is a valid value of a numeric variable.
+         */
+        public boolean isNumeric() {
+            return this != NOT_NUMERIC;
+        }
+
+        /**
+         * Whether the token is an integer number (the special values are
+         * not).
+         */
+        public boolean isInteger() {
+            return this == INTEGER || this == LONG;
+        }
+    }
+
+    private NumericTokenLexer() {
+    }
+
+    public static TokenType classify(final CharSequence token) {
+        return classify(token, 0, token.length());
+    }
+
+    /**
+     * Classifies the characters [start, end) of the sequence.
+     */
+    public static TokenType classify(final CharSequence token, final int start, final int end) {
+        if (end <= start) {
+            return TokenType.NOT_NUMERIC;
+        }
+
+        TokenType special = classifySpecialValue(token, start, end);
+        if (special != null) {
+            return special;
+        }
+
+        // White space around the number is allowed (as in
+        // Double.valueOf()), but then it's not an integer:
+        int begin = start;
+        int limit = end;
+        while (begin < limit && token.charAt(begin) <= ' ') {
+            begin++;
+        }
+        while (limit > begin && token.charAt(limit - 1) <= ' ') {
+            limit--;
+        }
+        boolean padded = begin > start || limit < end;
+
+        int i = begin;
+        boolean negative = false;
+        if (i < limit && (token.charAt(i) == '+' || token.charAt(i) == '-')) {
+            negative = token.charAt(i) == '-';
+            i++;
+        }
+        if (i == limit) {
+            return TokenType.NOT_NUMERIC;
+        }
+
+        char c = token.charAt(i);
+        if (c == 'N') {
+            return matches(token, i, limit, "NaN") ? TokenType.NAN : TokenType.NOT_NUMERIC;
+        } else if (c == 'I') {
+            return matches(token, i, limit, "Infinity") ? TokenType.INF : TokenType.NOT_NUMERIC;
+        } else if (c == '0' && i + 1 < limit && (token.charAt(i + 1) == 'x' || token.charAt(i + 1) == 'X')) {
+            return classifyHexadecimal(token, begin, limit);
+        }
+
+        // Integer part; accumulated as a negative number, to cover the
+        // whole range of long (as in Long.parseLong()):
+        long value = 0;
+        boolean overflow = false;
+        int digits = 0;
+        while (i < limit && (c = token.charAt(i)) >= '0' && c <= '9') {
+            int digit = c - '0';
+            if (!overflow) {
+                if (value < Long.MIN_VALUE / 10 || value * 10 < Long.MIN_VALUE + digit) {
+                    overflow = true;
+                } else {
+                    value = value * 10 - digit;
+                }
+            }
+            digits++;
+            i++;
+        }
+
+        if (i == limit) {
+            if (padded || overflow || (!negative && value == Long.MIN_VALUE)) {
+                return TokenType.DECIMAL;
+            }
+            long signed = negative ? value : -value;
+            return signed >= Integer.MIN_VALUE && signed <= Integer.MAX_VALUE ? TokenType.INTEGER : TokenType.LONG;
+        }
+
+        // Fraction:
+        if (c == '.') {
+            i++;
+            while (i < limit && (c = token.charAt(i)) >= '0' && c <= '9') {
+                digits++;
+                i++;
+            }
+        }
+        if (digits == 0) {
+            return TokenType.NOT_NUMERIC;
+        }
+        TokenType type = TokenType.DECIMAL;
+
+        // Exponent:
+        if (i < limit && ((c = token.charAt(i)) == 'e' || c == 'E')) {
+            i++;
+            if (i < limit && ((c = token.charAt(i)) == '+' || c == '-')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            while (i < limit && (c = token.charAt(i)) >= '0' && c <= '9') {
+                exponentDigits++;
+                i++;
+            }
+            if (exponentDigits == 0) {
+                return TokenType.NOT_NUMERIC;
+            }
+            type = TokenType.SCIENTIFIC;
+        }
+
+        // Type suffix (f, F, d or D - still accepted by Double.valueOf()):
+        if (i < limit && ((c = token.charAt(i)) == 'f' || c == 'F' || c == 'd' || c == 'D')) {
+            i++;
+        }
+
+        return i == limit ? type : TokenType.NOT_NUMERIC;
+    }
+
+    /*
+     * NaN, NA, Inf, +Inf, -Inf and null, in any case; or null if the token
+     * is none of them.
+     */
+    private static TokenType classifySpecialValue(final CharSequence token, final int start, final int end) {
+        switch (end - start) {
+        case 2:
+            return matchesIgnoreCase(token, start, end, "NA") ? TokenType.NA : null;
+        case 3:
+            if (matchesIgnoreCase(token, start, end, "NaN")) {
+                return TokenType.NAN;
+            }
+            return matchesIgnoreCase(token, start, end, "Inf") ? TokenType.INF : null;
+        case 4:
+            if (token.charAt(start) == '+' || token.charAt(start) == '-') {
+                return matchesIgnoreCase(token, start + 1, end, "Inf") ? TokenType.INF : null;
+            }
+            return matchesIgnoreCase(token, start, end, "null") ? TokenType.NULL : null;
+        default:
+            return null;
+        }
+    }
+
+    /*
+     * Hexadecimal floating point numbers, such as 0x1.8p1, are accepted by
+     * Double.valueOf(), and are still classified as numbers; they're rare
+     * enough to leave them to the library parser.
+     */
+    private static TokenType classifyHexadecimal(final CharSequence token, final int begin, final int limit) {
+        try {
+            Double.parseDouble(token.subSequence(begin, limit).toString());
+            return TokenType.DECIMAL;
+        } catch (NumberFormatException ex) {
+            return TokenType.NOT_NUMERIC;
+        }
+    }
+
+    private static boolean matches(final CharSequence token, final int start, final int end, final String word) {
+        if (end - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (token.charAt(start + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesIgnoreCase(final CharSequence token, final int start, final int end,
+            final String word) {
+        if (end - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.toLowerCase(token.charAt(start + i)) != Character.toLowerCase(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+/**
+ * Scalar implementation of the {@link DoubleKernels}, for any Java 8+ JVM.
+ *
+ * The loops are unrolled over 4 independent accumulators, and avoid
+ * data-dependent branches, so that the JIT can keep several operations in
+ * flight (and, for the NaN count, auto-vectorize the loop).
+ */
+public class ScalarDoubleKernels implements DoubleKernels {
+
+    @Override
+    public double sum(final double[] values, final int begin, final int length) {
+        if (length == 0) {
+            return Double.NaN;
+        }
+        double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+        int end = begin + length;
+        int i = begin;
+        for (; i + 3 < end; i += 4) {
+            s0 += values[i];
+            s1 += values[i + 1];
+            s2 += values[i + 2];
+            s3 += values[i + 3];
+        }
+        for (; i < end; i++) {
+            s0 += values[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public double min(final double[] values, final int begin, final int length) {
+        if (length == 0) {
+            return Double.NaN;
+        }
+        double m0 = values[begin], m1 = m0, m2 = m0, m3 = m0;
+        int end = begin + length;
+        int i = begin + 1;
+        for (; i + 3 < end; i += 4) {
+            m0 = Math.min(m0, values[i]);
+            m1 = Math.min(m1, values[i + 1]);
+            m2 = Math.min(m2, values[i + 2]);
+            m3 = Math.min(m3, values[i + 3]);
+        }
+        for (; i < end; i++) {
+            m0 = Math.min(m0, values[i]);
+        }
+        return Math.min(Math.min(m0, m1), Math.min(m2, m3));
+    }
+
+    @Override
+    public double max(final double[] values, final int begin, final int length) {
+        if (length == 0) {
+            return Double.NaN;
+        }
+        double m0 = values[begin], m1 = m0, m2 = m0, m3 = m0;
+        int end = begin + length;
+        int i = begin + 1;
+        for (; i + 3 < end; i += 4) {
+            m0 = Math.max(m0, values[i]);
+            m1 = Math.max(m1, values[i + 1]);
+            m2 = Math.max(m2, values[i + 2]);
+            m3 = Math.max(m3, values[i + 3]);
+        }
+        for (; i < end; i++) {
+            m0 = Math.max(m0, values[i]);
+        }
+        return Math.max(Math.max(m0, m1), Math.max(m2, m3));
+    }
+
+    @Override
+    public int countNaNs(final double[] values, final int begin, final int length) {
+        int count = 0;
+        int end = begin + length;
+        for (int i = begin; i < end; i++) {
+            // NaN is the only value not equal to itself:
+            count += values[i] != values[i] ? 1 : 0;
+        }
+        return count;
+    }
+}
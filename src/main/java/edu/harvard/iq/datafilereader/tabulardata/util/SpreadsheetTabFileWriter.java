@@ -0,0 +1,284 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import edu.harvard.iq.datafilereader.tabulardata.model.DataTable;
+import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
+
+/**
+ * Writes the rows of a spreadsheet (Excel XLSX or XLS), as text values, into
+ * a tab file, in a single pass, and determines the variable types on the
+ * way; shared by the spreadsheet readers, so that a sheet comes out the same
+ * whichever format it was saved in.
+ *
+ * The first row holds the variable names. Every variable is assumed to be
+ * numeric, until a value that is not a legit numeric one is found; the
+ * rows are written with the types known so far, and the original values of
+ * the cells whose numeric representation differs are logged, so that the
+ * rows written before a column was found to be a string column can be
+ * corrected by {@link #patch(File)} at the end.
+ */
+public class SpreadsheetTabFileWriter {
+
+    private static Logger dbglog = Logger.getLogger(SpreadsheetTabFileWriter.class.getPackage().getName());
+
+    private final DataTable dataTable;
+    private final PrintWriter tabOut;
+    private final TabFileColumnPatcher patcher;
+    private boolean[] isNumericVariable;
+    // for every column, the number of rows written before it was found not
+    // to be numeric:
+    private long[] patchRowLimits;
+    private int caseCount = 0;
+
+    /**
+     * @param tabOut the tab file; null if only the header is written.
+     * @param patcher the log of the original values; if null, the rows
+     *            written before a column was found not to be numeric can't
+     *            be corrected.
+     */
+    public SpreadsheetTabFileWriter(final DataTable dataTable, final PrintWriter tabOut,
+            final TabFileColumnPatcher patcher) {
+        this.dataTable = dataTable;
+        this.tabOut = tabOut;
+        this.patcher = patcher;
+    }
+
+    /**
+     * Creates the variables, from the values of the first row; the columns
+     * with no name are named after their letter tags.
+     */
+    public void writeHeader(final String[] variableNames) throws IOException {
+        List<DataVariable> variableList = new ArrayList<>();
+        int columnCount = variableNames.length;
+
+        for (int i = 0; i < columnCount; i++) {
+            String varName = variableNames[i];
+
+            if (varName == null || varName.equals("")) {
+                varName = getColumnLetterTag(i);
+                // TODO:
+                // Add a sensible variable name validation algorithm.
+                // -- L.A. 4.0 alpha 1
+            }
+
+            if (varName == null) {
+                throw new IOException("Could not establish variable name for column " + i);
+            }
+
+            varName = varName.replaceAll("[ _\t\n\r]", "");
+
+            DataVariable dv = new DataVariable();
+            dv.setName(varName);
+            dv.setLabel(varName);
+            dv.setInvalidRanges(new ArrayList());
+            dv.setSummaryStatistics(new ArrayList());
+            dv.setUnf("UNF:6:NOTCALCULATED");
+            dv.setCategories(new ArrayList());
+            variableList.add(dv);
+
+            dv.setTypeCharacter();
+            dv.setIntervalDiscrete();
+
+            dv.setFileOrder(i);
+            dv.setDataTable(dataTable);
+        }
+
+        dataTable.setVarQuantity(new Long(columnCount));
+        dataTable.setDataVariables(variableList);
+        isNumericVariable = new boolean[columnCount];
+        patchRowLimits = new long[columnCount];
+
+        for (int i = 0; i < columnCount; i++) {
+            // OK, let's assume that every variable is numeric;
+            // but we'll go through the file and examine every value; the
+            // moment we find a value that's not a legit numeric one, we'll
+            // assume that it is in fact a String.
+            isNumericVariable[i] = true;
+        }
+    }
+
+    /**
+     * Checks the types of the values of a row, and writes it into the tab
+     * file, formatted with the types known so far; null values are missing.
+     */
+    public void writeRow(final String[] dataRow) throws IOException {
+        for (int i = 0; i < isNumericVariable.length; i++) {
+            String value = i >= dataRow.length || dataRow[i] == null ? "" : dataRow[i];
+            if (isNumericVariable[i] && !value.equals("") && !isNumericValue(value)) {
+                // the value is not a legit numeric one; the column is a
+                // String one, and the rows already written need fixing:
+                isNumericVariable[i] = false;
+                patchRowLimits[i] = caseCount;
+            }
+            String formatted;
+            if (isNumericVariable[i]) {
+                formatted = formatNumericValue(value);
+                if (patcher != null && !formatted.equals(value)) {
+                    patcher.logOriginalValue(caseCount, i, value);
+                }
+            } else {
+                formatted = formatStringValue(value);
+            }
+            if (i > 0) {
+                tabOut.write('\t');
+            }
+            tabOut.write(formatted);
+        }
+        tabOut.println();
+        caseCount++;
+    }
+
+    /**
+     * Sets the number of cases, and the final types of the variables; and
+     * closes the tab file writer.
+     */
+    public void finish() {
+        dataTable.setCaseQuantity(new Long(caseCount));
+
+        // Re-type the variables that we've determined are numerics:
+
+        for (int i = 0; isNumericVariable != null && i < isNumericVariable.length; i++) {
+            if (isNumericVariable[i]) {
+                dataTable.getDataVariables().get(i).setTypeNumeric();
+                dataTable.getDataVariables().get(i).setIntervalContinuous();
+            }
+        }
+
+        tabOut.close();
+    }
+
+    /**
+     * Type correction: re-formats, as strings, the cells of the rows written
+     * before each column was found not to be numeric.
+     */
+    public void patch(final File tabFile) throws IOException {
+        if (patchRowLimits != null) {
+            patcher.patch(tabFile, patchRowLimits, (column, originalValue) -> formatStringValue(originalValue));
+        }
+    }
+
+    public int getCaseCount() {
+        return caseCount;
+    }
+
+    /**
+     * The letter tag of a column (A, B, ... Z, AA, AB, ...); null for a
+     * negative column.
+     */
+    public static String getColumnLetterTag(final int columnCount) {
+        if (columnCount < 0) {
+            dbglog.warning("Invalid column number: " + columnCount);
+            return null;
+        }
+        char[] letterTag = new char[8];
+        int start = letterTag.length;
+        for (int n = columnCount + 1; n > 0; n = (n - 1) / 26) {
+            letterTag[--start] = (char) ('A' + (n - 1) % 26);
+        }
+        return new String(letterTag, start, letterTag.length - start);
+    }
+
+    /*
+     * Whether the value is valid in a numeric column: a number, a missing
+     * value ("." or NA) or a numeric special value.
+     */
+    private static boolean isNumericValue(final String value) {
+        return value.equals(".") || NumericTokenLexer.classify(value).isNumeric();
+    }
+
+    /*
+     * The tab file representation of a value of a numeric column.
+     */
+    private static String formatNumericValue(final String value) throws IOException {
+        if (value.equals(".") || value.equals("") || value.equalsIgnoreCase("NA")) {
+            // Missing value - represented as an empty string in
+            // the final tab file
+            return "";
+        } else if (value.equalsIgnoreCase("NaN")) {
+            // "Not a Number" special value:
+            return "NaN";
+        } else if (value.equalsIgnoreCase("Inf") || value.equalsIgnoreCase("+Inf")) {
+            // Positive infinity:
+            return "Inf";
+        } else if (value.equalsIgnoreCase("-Inf")) {
+            // Negative infinity:
+            return "-Inf";
+        } else if (value.equalsIgnoreCase("null")) {
+            // By request from Gus - "NULL" is recognized as a
+            // numeric zero:
+            return "0";
+        }
+        try {
+            return Double.toString(Double.parseDouble(value));
+        } catch (NumberFormatException ex) {
+            throw new IOException("Failed to parse a value recognized as numeric: " + value);
+        }
+    }
+
+    /**
+     * The tab file representation of a value of a string column.
+     * Strings are stored in tab files quoted; missing values are stored as
+     * tab-delimited nothing - i.e., an empty string between two tabs (or one
+     * tab and the new line); empty strings are stored as "" (quoted empty
+     * string).
+     */
+    public static String formatStringValue(final String value) {
+        if (value.equals(".")) {
+            return "";
+        }
+        // Dealing with quotes:
+        // remove the leading and trailing quotes, if present:
+        int start = value.startsWith("\"") ? 1 : 0;
+        int end = value.length() > start && value.endsWith("\"") ? value.length() - 1 : value.length();
+        StringBuilder charToken = new StringBuilder(end - start + 2);
+        charToken.append('"');
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            // escape the remaining ones (and the characters that would
+            // break the line into cells):
+            switch (c) {
+            case '"':
+                charToken.append("\\\"");
+                break;
+            case '\t':
+                charToken.append("\\t");
+                break;
+            case '\n':
+                charToken.append("\\n");
+                break;
+            case '\r':
+                charToken.append("\\r");
+                break;
+            default:
+                charToken.append(c);
+            }
+        }
+        // final pair of quotes:
+        return charToken.append('"').toString();
+    }
+}
@@ -41,7 +41,32 @@ public class SumStatCalculator {
     
     private static Logger logger = Logger.getLogger(SumStatCalculator.class.getPackage().getName());
 
+    private static final DoubleKernels kernels = DoubleKernelsFactory.getKernels();
+
     public static Map<SummaryStatisticType, BigDecimal> calculateSummaryStatistics(final Number[] x) {
+        return calculateSummaryStatistics(x, SummaryStatisticsProfile.BASIC);
+    }
+
+    /**
+     * Calculates the summary statistics selected by the profile. The extra
+     * statistics of the EXTENDED profile are all derived from moments
+     * accumulated while the vector is unboxed, with no pass of their own.
+     * Statistics that are not defined for the vector (for ex., the skewness of
+     * fewer than 3 values) are returned as null values.
+     */
+    public static Map<SummaryStatisticType, BigDecimal> calculateSummaryStatistics(final Number[] x,
+            final SummaryStatisticsProfile profile) {
+        return calculateSummaryStatistics(x, profile, (MomentsAccumulator) null);
+    }
+
+    /**
+     * Calculates the summary statistics selected by the profile, and
+     * accumulates the moments of the valid values into the (empty)
+     * accumulator passed in, unless null, in the same pass; so that they can
+     * be saved, and merged with those of more values later.
+     */
+    public static Map<SummaryStatisticType, BigDecimal> calculateSummaryStatistics(final Number[] x,
+            final SummaryStatisticsProfile profile, final MomentsAccumulator vectorMoments) {
         logger.fine("entering calculate summary statistics ("+x.length+" Number values);");
         
         Map<SummaryStatisticType, BigDecimal> ret = new HashMap<>();
@@ -53,7 +78,15 @@ public class SumStatCalculator {
             logger.fine("Float test NaN value is still recognized as a Double NaN.");
         }
         
-        int invalid = countInvalidValues(x);
+        // unbox the vector once; the counts and reductions below all run
+        // over primitive doubles (the moments of the EXTENDED profile are 
+        // accumulated on the way):
+        MomentsAccumulator moments = vectorMoments;
+        if (moments == null && profile == SummaryStatisticsProfile.EXTENDED) {
+            moments = new MomentsAccumulator();
+        }
+        double[] unboxed = unbox(x, moments);
+        int invalid = countInvalidValues(unboxed);
         ret.put(SummaryStatisticType.INVD, new BigDecimal(invalid));
         logger.fine("counted invalid values: " + invalid);
         int valid = x.length - invalid;
@@ -62,7 +95,7 @@ public class SumStatCalculator {
         
         
         //double[] newx = prepareForSummaryStats(x);
-        double[] newx = prepareForSummaryStatsAlternative(x, x.length - invalid);
+        double[] newx = prepareForSummaryStatsAlternative(unboxed, x.length - invalid);
         logger.fine("prepared double vector for summary stats calculation ("+newx.length+" double values);");        
         
         ////nx[0] = StatUtils.mean(newx);
@@ -76,28 +109,124 @@ public class SumStatCalculator {
         double mode = getMode(newx);
         ret.put(SummaryStatisticType.MODE, new BigDecimal(mode));
         
-        double min = StatUtils.min(newx);
+        double min = kernels.min(newx, 0, newx.length);
         ret.put(SummaryStatisticType.MIN, new BigDecimal(min));
         logger.fine("calculated min: " + min);
-        double max = StatUtils.max(newx);
+        double max = kernels.max(newx, 0, newx.length);
         ret.put(SummaryStatisticType.MAX, new BigDecimal(max));
         logger.fine("calculated max: " + max);
         double variance = Math.sqrt(StatUtils.variance(newx));
         ret.put(SummaryStatisticType.STDEV, new BigDecimal(variance));
         logger.fine("calculated stdev: " + variance);
+
+        if (profile == SummaryStatisticsProfile.EXTENDED) {
+            ret.put(SummaryStatisticType.SUM, toBigDecimal(moments.getSum()));
+            ret.put(SummaryStatisticType.RANGE, toBigDecimal(moments.getRange()));
+            ret.put(SummaryStatisticType.CV, toBigDecimal(moments.getCoefficientOfVariation()));
+            ret.put(SummaryStatisticType.SKEW, toBigDecimal(moments.getSkewness()));
+            ret.put(SummaryStatisticType.KURT, toBigDecimal(moments.getKurtosis()));
+            logger.fine("calculated extended moment statistics.");
+        }
+        return ret;
+    }
+
+    /**
+     * Calculates the summary statistics selected by the profile for a vector
+     * whose values before the index {@code from} have been accumulated
+     * before, into the moments passed in: the moments of the values from that
+     * index on are merged into them (the accumulator is updated in place),
+     * and the counts, the mean, the standard deviation, the range and the
+     * extended moment statistics are all derived from the merged moments.
+     * Only the median and the mode, which can't be merged, are calculated on
+     * the whole vector.
+     */
+    public static Map<SummaryStatisticType, BigDecimal> calculateSummaryStatistics(final Number[] x,
+            final SummaryStatisticsProfile profile, final MomentsAccumulator moments, final int from) {
+        logger.fine("entering calculate summary statistics (" + x.length + " Number values, merging from " + from
+                + ");");
+
+        moments.combine(accumulateMoments(x, from));
+
+        Map<SummaryStatisticType, BigDecimal> ret = new HashMap<>();
+
+        long valid = moments.getN();
+        ret.put(SummaryStatisticType.VALD, new BigDecimal(valid));
+        ret.put(SummaryStatisticType.INVD, new BigDecimal(x.length - valid));
+
+        double[] newx = prepareForSummaryStatsAlternative(unbox(x), (int) valid);
+        ret.put(SummaryStatisticType.MEAN, new BigDecimal(moments.getMean()));
+        ret.put(SummaryStatisticType.MEDN, new BigDecimal(calculateMedian(newx)));
+        ret.put(SummaryStatisticType.MODE, new BigDecimal(getMode(newx)));
+        ret.put(SummaryStatisticType.MIN, new BigDecimal(moments.getMin()));
+        ret.put(SummaryStatisticType.MAX, new BigDecimal(moments.getMax()));
+        ret.put(SummaryStatisticType.STDEV, new BigDecimal(moments.getStandardDeviation()));
+
+        if (profile == SummaryStatisticsProfile.EXTENDED) {
+            ret.put(SummaryStatisticType.SUM, toBigDecimal(moments.getSum()));
+            ret.put(SummaryStatisticType.RANGE, toBigDecimal(moments.getRange()));
+            ret.put(SummaryStatisticType.CV, toBigDecimal(moments.getCoefficientOfVariation()));
+            ret.put(SummaryStatisticType.SKEW, toBigDecimal(moments.getSkewness()));
+            ret.put(SummaryStatisticType.KURT, toBigDecimal(moments.getKurtosis()));
+        }
+        logger.fine("calculated summary statistics from the merged moments.");
         return ret;
     }
 
-    private static double[] prepareForSummaryStatsAlternative(final Number[] x, final int length) {
+    /**
+     * Accumulates the moments of the values of the vector from the index
+     * {@code from} on; nulls and NaNs (missing values) are skipped.
+     */
+    public static MomentsAccumulator accumulateMoments(final Number[] x, final int from) {
+        MomentsAccumulator moments = new MomentsAccumulator();
+        for (int i = from; i < x.length; i++) {
+            if (x[i] != null) {
+                moments.add(x[i].doubleValue());
+            }
+        }
+        return moments;
+    }
+
+    private static BigDecimal toBigDecimal(final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return null;
+        }
+        return new BigDecimal(value);
+    }
+
+    /**
+     * Converts the vector to primitive doubles; nulls (missing values) become
+     * NaNs.
+     */
+    private static double[] unbox(final Number[] x) {
+        return unbox(x, null);
+    }
+
+    /**
+     * Converts the vector to primitive doubles, and adds the valid values to
+     * the moments, unless null.
+     */
+    private static double[] unbox(final Number[] x, final MomentsAccumulator moments) {
+        double[] values = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            values[i] = x[i] == null ? Double.NaN : x[i].doubleValue();
+            if (moments != null) {
+                // (NaNs are skipped)
+                moments.add(values[i]);
+            }
+        }
+        return values;
+    }
+
+    private static double[] prepareForSummaryStatsAlternative(final double[] x, final int length) {
+        if (length == x.length) {
+            return x;
+        }
         double[] retvector = new double[length];
 
         int c = 0;
         for (int i = 0; i < x.length; i++) {
-            if (x[i] != null) {
-                double xvalue = x[i].doubleValue();
-                if (!Double.isNaN(xvalue)) {
-                    retvector[c++] = xvalue; 
-                }
+            if (!Double.isNaN(x[i])) {
+                retvector[c++] = x[i];
             }
         }
         
@@ -107,18 +236,12 @@ public class SumStatCalculator {
     }
     
     /**
-     * Returns the number of Double.NaNs (or nulls) in a double-type array
+     * Returns the number of Double.NaNs (or nulls, once unboxed) in a
+     * double-type array
      *
      */
-    private static int countInvalidValues(final Number[] x){
-        int counter=0;
-        for (int i=0; i<x.length;i++){
-            ////if ( x[i] == null || x[i].equals(Double.NaN) ) {
-            if ( x[i] == null || (Double.isNaN(x[i].doubleValue())) ) {
-                counter++;
-            }
-        }
-        return counter;
+    private static int countInvalidValues(final double[] x){
+        return kernels.countNaNs(x, 0, x.length);
     }
     
     private static double calculateMedian(final double[] values) {
@@ -178,11 +301,7 @@ public class SumStatCalculator {
         if (values == null || length == 0) {
             return Double.NaN;
         }
-        double sum = 0.0;
-        for (int i = begin; i < begin + length; i++) {
-            sum += values[i];
-        }
-        return sum;
+        return kernels.sum(values, begin, length);
     }
     
     /**
@@ -192,13 +311,7 @@ public class SumStatCalculator {
      * separately; -- L.A. 4.0 alpha 1
      */
     private static int countNaNs(final double[] x) {
-        int NaNcounter = 0;
-        for (int i = 0; i < x.length; i++) {
-            if (Double.isNaN(x[i])) {
-                NaNcounter++;
-            }
-        }
-        return NaNcounter;
+        return kernels.countNaNs(x, 0, x.length);
     }
     
     /**
@@ -241,10 +354,11 @@ public class SumStatCalculator {
             logger.fine("Float test NaN value is still recognized as a Double NaN.");
         }
 
-        int invalid = countInvalidValues(x);
+        double[] unboxed = unbox(x);
+        int invalid = countInvalidValues(unboxed);
         logger.fine("counted invalid values: " + invalid);
 
-        double[] newx = prepareForSummaryStatsAlternative(x, x.length - invalid);
+        double[] newx = prepareForSummaryStatsAlternative(unboxed, x.length - invalid);
         logger.fine("prepared double vector for summary stats calculation (" + newx.length + " double values);");
 
         Map<Double, Integer> ret = new HashMap<>();
@@ -0,0 +1,58 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import edu.harvard.iq.datafilereader.tabulardata.model.SummaryStatistic.SummaryStatisticType;
+
+/**
+ * Selects the set of summary statistics calculated for the numeric
+ * variables.
+ *
+ * BASIC is the traditional DVN set; EXTENDED adds the sum, range,
+ * coefficient of variation, skewness and kurtosis, all derived from moments
+ * accumulated while the vector is unboxed, with no pass of their own.
+ */
+public enum SummaryStatisticsProfile {
+
+    BASIC(EnumSet.of(SummaryStatisticType.MEAN, SummaryStatisticType.MEDN, SummaryStatisticType.MODE,
+            SummaryStatisticType.MIN, SummaryStatisticType.MAX, SummaryStatisticType.STDEV,
+            SummaryStatisticType.VALD, SummaryStatisticType.INVD)),
+
+    EXTENDED(EnumSet.of(SummaryStatisticType.MEAN, SummaryStatisticType.MEDN, SummaryStatisticType.MODE,
+            SummaryStatisticType.MIN, SummaryStatisticType.MAX, SummaryStatisticType.STDEV,
+            SummaryStatisticType.VALD, SummaryStatisticType.INVD, SummaryStatisticType.SUM,
+            SummaryStatisticType.RANGE, SummaryStatisticType.CV, SummaryStatisticType.SKEW,
+            SummaryStatisticType.KURT));
+
+    private final Set<SummaryStatisticType> summaryStatisticTypes;
+
+    private SummaryStatisticsProfile(final Set<SummaryStatisticType> summaryStatisticTypes) {
+        this.summaryStatisticTypes = Collections.unmodifiableSet(summaryStatisticTypes);
+    }
+
+    public Set<SummaryStatisticType> getSummaryStatisticTypes() {
+        return summaryStatisticTypes;
+    }
+}
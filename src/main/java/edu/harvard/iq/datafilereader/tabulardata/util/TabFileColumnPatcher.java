@@ -0,0 +1,195 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Support for the single-pass ("speculative") ingest of text-based formats,
+ * where the tab file is written with the variable types inferred from the
+ * first rows, and a later value may still change the type of a column.
+ *
+ * While the tab file is written, the reader logs the original values of the
+ * cells whose tab file representation does not preserve them (for ex., "NA"
+ * or "null" in a numeric column) with {@link #logOriginalValue(long, int,
+ * String)}; all the other cells are their own original values. Once the final
+ * types are known, {@link #patch(File, long[], CellFormatter)} re-formats the
+ * cells of the columns whose type has changed, in the rows that were written
+ * before the change, and leaves everything else in the file as it was.
+ *
+ * The log is kept in a temporary file, deleted on {@link #close()}.
+ */
+public class TabFileColumnPatcher implements Closeable {
+
+    private static Logger logger = Logger.getLogger(TabFileColumnPatcher.class.getPackage().getName());
+
+    /**
+     * Produces the tab file representation of a cell from its original
+     * value, according to the final type of the column.
+     */
+    public interface CellFormatter {
+        String format(int column, String originalValue);
+    }
+
+    private final File originalValuesLog;
+    private DataOutputStream originalValuesOut;
+    private long loggedValueCount = 0;
+
+    public TabFileColumnPatcher() throws IOException {
+        originalValuesLog = File.createTempFile("original-values-", ".log");
+        originalValuesOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(originalValuesLog)));
+    }
+
+    /**
+     * Logs the original value of a cell; the cells must be logged in the
+     * order in which they are written, i.e., by row, then by column.
+     */
+    public void logOriginalValue(final long row, final int column, final String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        originalValuesOut.writeLong(row);
+        originalValuesOut.writeInt(column);
+        originalValuesOut.writeInt(bytes.length);
+        originalValuesOut.write(bytes);
+        loggedValueCount++;
+    }
+
+    public long getLoggedValueCount() {
+        return loggedValueCount;
+    }
+
+    /**
+     * Re-formats, in place, the cells of the tab file in the rows [0,
+     * patchRowLimits[column]) of every column; columns with a 0 limit are not
+     * touched. Once past the last row to patch, the rest of the file is
+     * copied as is.
+     */
+    public void patch(final File tabFile, final long[] patchRowLimits, final CellFormatter formatter)
+            throws IOException {
+        long maxRowLimit = 0;
+        for (long limit : patchRowLimits) {
+            maxRowLimit = Math.max(maxRowLimit, limit);
+        }
+        if (maxRowLimit == 0) {
+            return;
+        }
+        originalValuesOut.close();
+
+        File patchedFile = File.createTempFile("patched-", ".tab", tabFile.getAbsoluteFile().getParentFile());
+        try (BufferedReader tabReader = new BufferedReader(new FileReader(tabFile));
+                PrintWriter patchedOut = new PrintWriter(patchedFile);
+                OriginalValuesReader originalValues = new OriginalValuesReader(originalValuesLog)) {
+            Map<Integer, String> rowOriginalValues = new HashMap<>();
+            String line;
+            long row = 0;
+            while (row < maxRowLimit && (line = tabReader.readLine()) != null) {
+                originalValues.readRow(row, rowOriginalValues);
+                String[] cells = line.split("\t", -1);
+                for (int column = 0; column < cells.length && column < patchRowLimits.length; column++) {
+                    if (row < patchRowLimits[column]) {
+                        String original = rowOriginalValues.get(column);
+                        cells[column] = formatter.format(column, original != null ? original : cells[column]);
+                    }
+                }
+                patchedOut.println(String.join("\t", cells));
+                row++;
+            }
+
+            char[] buffer = new char[8192];
+            int count;
+            while ((count = tabReader.read(buffer)) > 0) {
+                patchedOut.write(buffer, 0, count);
+            }
+            logger.fine("patched " + row + " rows of the tab file.");
+        }
+        Files.move(patchedFile.toPath(), tabFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            originalValuesOut.close();
+        } finally {
+            originalValuesLog.delete();
+        }
+    }
+
+    private static class OriginalValuesReader implements Closeable {
+        private final DataInputStream in;
+        private long nextRow = -1;
+        private int nextColumn;
+        private String nextValue;
+
+        OriginalValuesReader(final File log) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+            advance();
+        }
+
+        /**
+         * Collects the logged values of the row; the rows must be read in
+         * ascending order.
+         */
+        void readRow(final long row, final Map<Integer, String> values) throws IOException {
+            values.clear();
+            while (nextRow >= 0 && nextRow < row) {
+                advance();
+            }
+            while (nextRow == row) {
+                values.put(nextColumn, nextValue);
+                advance();
+            }
+        }
+
+        private void advance() throws IOException {
+            try {
+                nextRow = in.readLong();
+            } catch (EOFException eof) {
+                nextRow = -1;
+                return;
+            }
+            nextColumn = in.readInt();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            nextValue = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -716,6 +716,22 @@ public class TabularSubsetGenerator {
         }
     }
 
+    /*
+     * Makes sure the "rotated" image of the tab file exists; once it does,
+     * individual columns can be subset concurrently, from multiple threads.
+     */
+    public File getRotatedImage(final TabularDataIngest dataFile) throws IOException {
+        int varcount = dataFile.getDataTable().getVarQuantity().intValue();
+        int casecount = dataFile.getDataTable().getCaseQuantity().intValue();
+
+        File tabfile = dataFile.getTabDelimitedFile();
+        if (!tabfile.exists()) {
+            throw new IOException("Subsetting is supported on local files only!");
+        }
+
+        return getRotatedImage(tabfile, varcount, casecount);
+    }
+
     private File getRotatedImage(final File tabfile, final int varcount, final int casecount) throws IOException {
         String fileName = tabfile.getAbsolutePath();
         String rotatedImageFileName = fileName + ".90d";
@@ -0,0 +1,471 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Incremental calculator of the Universal Numerical Fingerprint, version 6.
+ *
+ * Values are normalized and fed into the SHA-256 digest one at a time, as they
+ * are read from the data column; so the fingerprint of a vector of any length
+ * can be calculated without holding the vector in memory. Normalization
+ * follows the UNF v6 specification:
+ *
+ * - numeric values are rounded to 7 significant digits (round half to even),
+ * and represented in the exponential notation "+d.ddde+n", with no trailing
+ * zeros in the mantissa and no leading zeros in the exponent; zero is
+ * represented as "+0.e+" (or "-0.e+"); the special values as "+inf", "-inf"
+ * and "+nan";
+ *
+ * - character values are truncated to 128 characters and encoded in UTF-8;
+ *
+ * - the values of date and time variables are parsed with the format of the
+ * variable, and represented in the ISO 8601 forms "yyyy-MM-dd" (or the
+ * partial dates "yyyy-MM" and "yyyy"), "HH:mm:ss.fff" and
+ * "yyyy-MM-ddTHH:mm:ss.fff", with no trailing zeros in the fractions of a
+ * second (and no fraction at all if it is zero); values with a time zone
+ * are converted to UTC, and marked with a "Z". A value that doesn't parse in
+ * the format of the variable is taken as it is;
+ *
+ * - each non-missing value is terminated by an end-of-line and a null byte;
+ * missing values are represented by 3 null bytes.
+ *
+ * The fingerprint is the first 128 bits of the hash, Base64-encoded, with the
+ * "UNF:6:" prefix.
+ *
+ * An instance is not thread-safe; the intended use is one calculator per
+ * variable, so that the columns can be fingerprinted in parallel.
+ */
+public class UNFCalculator {
+
+    private static Logger logger = Logger.getLogger(UNFCalculator.class.getPackage().getName());
+
+    public static final String UNF_VERSION_PREFIX = "UNF:6:";
+
+    public static final int DEFAULT_NUMERIC_DIGITS = 7;
+    public static final int DEFAULT_CHARACTER_LENGTH = 128;
+
+    private static final int HASH_BYTES = 16;
+
+    private static final byte[] MISSING_VALUE = { 0, 0, 0 };
+    private static final byte[] END_OF_VALUE = { '\n', 0 };
+
+    private static final byte[] POSITIVE_INFINITY = "+inf".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEGATIVE_INFINITY = "-inf".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_A_NUMBER = "+nan".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] POSITIVE_ZERO = "+0.e+".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEGATIVE_ZERO = "-0.e+".getBytes(StandardCharsets.US_ASCII);
+
+    // the pattern letters (other than the quoted literals) of the date and
+    // time formats that can be normalized; a format with any other field
+    // (a day of the year, a week, the name of a day) is not normalized:
+    private static final String NORMALIZED_PATTERN_LETTERS = "yuMLdHkKhmsSaVzOXxZ";
+
+    private final MessageDigest digest;
+    private final MathContext mathContext;
+    private final int characterLength;
+    // the parser of the date and time values; null if the values are not
+    // dates or times:
+    private final DateTimeFormatter dateTimeFormatter;
+
+    // reusable buffers for the normalized numeric and date and time values:
+    private final StringBuilder numericBuffer = new StringBuilder(32);
+    private final StringBuilder dateTimeBuffer = new StringBuilder(32);
+
+    private long valueCount = 0;
+    private String unf = null;
+
+    public UNFCalculator() {
+        this(DEFAULT_NUMERIC_DIGITS, DEFAULT_CHARACTER_LENGTH);
+    }
+
+    public UNFCalculator(final int numericDigits, final int characterLength) {
+        this(numericDigits, characterLength, null);
+    }
+
+    /**
+     * Creates a calculator for a variable with the format category and the
+     * format given (as in the variable metadata); if the category is "date"
+     * or "time", the character values are normalized as dates and times in
+     * that format (a SimpleDateFormat pattern).
+     */
+    public UNFCalculator(final String formatCategory, final String format) {
+        this(DEFAULT_NUMERIC_DIGITS, DEFAULT_CHARACTER_LENGTH,
+                "date".equals(formatCategory) || "time".equals(formatCategory) ? createDateTimeFormatter(format)
+                        : null);
+    }
+
+    private UNFCalculator(final int numericDigits, final int characterLength,
+            final DateTimeFormatter dateTimeFormatter) {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException("SHA-256 digest is not available", ex);
+        }
+        this.mathContext = new MathContext(numericDigits, RoundingMode.HALF_EVEN);
+        this.characterLength = characterLength;
+        this.dateTimeFormatter = dateTimeFormatter;
+    }
+
+    public long getValueCount() {
+        return valueCount;
+    }
+
+    public void updateMissing() {
+        checkNotFinished();
+        digest.update(MISSING_VALUE);
+        valueCount++;
+    }
+
+    /**
+     * Adds a numeric value to the fingerprint; null is treated as a missing
+     * value. Integer types are normalized without going through a double, so
+     * that no precision is lost on long values before the rounding.
+     */
+    public void update(final Number value) {
+        if (value == null) {
+            updateMissing();
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            update(value.longValue());
+        } else {
+            update(value.doubleValue());
+        }
+    }
+
+    public void update(final double value) {
+        checkNotFinished();
+        if (Double.isNaN(value)) {
+            digest.update(NOT_A_NUMBER);
+        } else if (value == Double.POSITIVE_INFINITY) {
+            digest.update(POSITIVE_INFINITY);
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            digest.update(NEGATIVE_INFINITY);
+        } else if (value == 0.0) {
+            digest.update(1 / value < 0 ? NEGATIVE_ZERO : POSITIVE_ZERO);
+        } else {
+            updateNormalizedDecimal(new BigDecimal(value));
+        }
+        digest.update(END_OF_VALUE);
+        valueCount++;
+    }
+
+    public void update(final long value) {
+        checkNotFinished();
+        if (value == 0) {
+            digest.update(POSITIVE_ZERO);
+        } else {
+            updateNormalizedDecimal(BigDecimal.valueOf(value));
+        }
+        digest.update(END_OF_VALUE);
+        valueCount++;
+    }
+
+    /**
+     * Adds a character value to the fingerprint; null is treated as a missing
+     * value. The values of a date or time variable are normalized first.
+     */
+    public void update(final String value) {
+        checkNotFinished();
+        if (value == null) {
+            updateMissing();
+            return;
+        }
+        String truncated = dateTimeFormatter != null ? normalizeDateTime(value) : value;
+        if (truncated.length() > characterLength
+                && truncated.codePointCount(0, truncated.length()) > characterLength) {
+            truncated = truncated.substring(0, truncated.offsetByCodePoints(0, characterLength));
+        }
+        digest.update(truncated.getBytes(StandardCharsets.UTF_8));
+        digest.update(END_OF_VALUE);
+        valueCount++;
+    }
+
+    public void update(final Number[] values) {
+        for (Number value : values) {
+            update(value);
+        }
+    }
+
+    public void update(final String[] values) {
+        for (String value : values) {
+            update(value);
+        }
+    }
+
+    /**
+     * Finalizes the calculation and returns the printable fingerprint. Once
+     * this method has been called, no more values can be added.
+     */
+    public String getUNF() {
+        if (unf == null) {
+            byte[] hash = digest.digest();
+            byte[] truncatedHash = new byte[HASH_BYTES];
+            System.arraycopy(hash, 0, truncatedHash, 0, HASH_BYTES);
+            unf = UNF_VERSION_PREFIX + Base64.encodeBase64String(truncatedHash);
+            logger.fine("calculated " + unf + " on " + valueCount + " values.");
+        }
+        return unf;
+    }
+
+    /*
+     * Produces the "+d.ddde+n" representation of a non-zero, finite value
+     * rounded to the configured number of significant digits:
+     */
+    private void updateNormalizedDecimal(final BigDecimal value) {
+        BigDecimal rounded = value.round(mathContext);
+        String digits = rounded.unscaledValue().abs().toString();
+        int exponent = digits.length() - 1 - rounded.scale();
+
+        int lastDigit = digits.length();
+        while (lastDigit > 1 && digits.charAt(lastDigit - 1) == '0') {
+            lastDigit--;
+        }
+
+        StringBuilder sb = numericBuffer;
+        sb.setLength(0);
+        sb.append(rounded.signum() < 0 ? '-' : '+');
+        sb.append(digits.charAt(0));
+        sb.append('.');
+        sb.append(digits, 1, lastDigit);
+        sb.append('e');
+        sb.append(exponent < 0 ? '-' : '+');
+        if (exponent != 0) {
+            sb.append(Math.abs(exponent));
+        }
+
+        for (int i = 0; i < sb.length(); i++) {
+            digest.update((byte) sb.charAt(i));
+        }
+    }
+
+    /*
+     * Produces the ISO 8601 representation of a date or time value; or
+     * returns the value as it is, if it doesn't parse in the format of the
+     * variable.
+     */
+    private String normalizeDateTime(final String value) {
+        TemporalAccessor parsed;
+        try {
+            parsed = dateTimeFormatter.parse(value);
+        } catch (DateTimeParseException ex) {
+            return value;
+        }
+        LocalDate date = parsed.query(TemporalQueries.localDate());
+        LocalTime time = parsed.query(TemporalQueries.localTime());
+        ZoneId zone = parsed.query(TemporalQueries.zone());
+        boolean utc = false;
+
+        if (time != null && zone != null) {
+            if (date != null) {
+                ZonedDateTime dateTime = ZonedDateTime.of(date, time, zone).withZoneSameInstant(ZoneOffset.UTC);
+                date = dateTime.toLocalDate();
+                time = dateTime.toLocalTime();
+            } else if (zone instanceof ZoneOffset) {
+                time = OffsetTime.of(time, (ZoneOffset) zone).withOffsetSameInstant(ZoneOffset.UTC).toLocalTime();
+            } else {
+                // (the offset of a named zone depends on the date)
+                return value;
+            }
+            utc = true;
+        }
+
+        StringBuilder sb = dateTimeBuffer;
+        sb.setLength(0);
+        if (date != null) {
+            appendDigits(sb, date.getYear(), 4);
+            sb.append('-');
+            appendDigits(sb, date.getMonthValue(), 2);
+            sb.append('-');
+            appendDigits(sb, date.getDayOfMonth(), 2);
+        } else if (parsed.isSupported(ChronoField.YEAR)) {
+            // a partial date:
+            appendDigits(sb, parsed.get(ChronoField.YEAR), 4);
+            if (parsed.isSupported(ChronoField.MONTH_OF_YEAR)) {
+                sb.append('-');
+                appendDigits(sb, parsed.get(ChronoField.MONTH_OF_YEAR), 2);
+            }
+        }
+        if (time != null) {
+            if (sb.length() > 0) {
+                sb.append('T');
+            }
+            appendDigits(sb, time.getHour(), 2);
+            sb.append(':');
+            appendDigits(sb, time.getMinute(), 2);
+            sb.append(':');
+            appendDigits(sb, time.getSecond(), 2);
+            int nanos = time.getNano();
+            if (nanos != 0) {
+                int digits = 9;
+                while (nanos % 10 == 0) {
+                    nanos /= 10;
+                    digits--;
+                }
+                sb.append('.');
+                appendDigits(sb, nanos, digits);
+            }
+            if (utc) {
+                sb.append('Z');
+            }
+        }
+        return sb.length() > 0 ? sb.toString() : value;
+    }
+
+    private static void appendDigits(final StringBuilder sb, final int value, final int digits) {
+        String s = Integer.toString(value);
+        for (int i = s.length(); i < digits; i++) {
+            sb.append('0');
+        }
+        sb.append(s);
+    }
+
+    /*
+     * Creates the (strict) parser for the values of a date or time variable
+     * with the format given; null if the format can't be normalized. The
+     * formats of the CSV reader are parsed the way they were detected; any
+     * other is translated from the SimpleDateFormat pattern, with the
+     * fractions of a second ("S") taken as any number of fraction digits.
+     */
+    private static DateTimeFormatter createDateTimeFormatter(final String format) {
+        if (format == null) {
+            return null;
+        }
+        for (List<DateTimeTokenDetector.DateTimeFormat> formats : Arrays.asList(DateTimeTokenDetector.TIME_FORMATS,
+                DateTimeTokenDetector.DATE_FORMATS)) {
+            for (DateTimeTokenDetector.DateTimeFormat detected : formats) {
+                if (detected.getPattern().equals(format)) {
+                    return detected.getFormatter().withResolverStyle(ResolverStyle.STRICT);
+                }
+            }
+        }
+
+        DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder().parseCaseInsensitive();
+        StringBuilder pattern = new StringBuilder();
+        boolean quoted = false;
+        try {
+            for (int i = 0; i < format.length(); i++) {
+                char c = format.charAt(i);
+                if (c == '\'') {
+                    quoted = !quoted;
+                    pattern.append(c);
+                } else if (quoted || !Character.isLetter(c)) {
+                    pattern.append(c);
+                } else if (NORMALIZED_PATTERN_LETTERS.indexOf(c) < 0) {
+                    logger.fine("date format " + format + " can't be normalized for the UNF.");
+                    return null;
+                } else if (c == 'S') {
+                    while (i + 1 < format.length() && format.charAt(i + 1) == 'S') {
+                        i++;
+                    }
+                    // (the fraction, with its decimal point, is optional:
+                    // the readers leave it out of the whole seconds)
+                    boolean decimalPoint = pattern.length() > 0 && pattern.charAt(pattern.length() - 1) == '.';
+                    if (decimalPoint) {
+                        pattern.setLength(pattern.length() - 1);
+                    }
+                    builder.appendPattern(pattern.toString());
+                    pattern.setLength(0);
+                    builder.optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 1, 9, decimalPoint)
+                            .optionalEnd();
+                } else {
+                    // (without an era, the year of the era doesn't resolve strictly)
+                    pattern.append(c == 'y' ? 'u' : c);
+                }
+            }
+            builder.appendPattern(pattern.toString());
+        } catch (IllegalArgumentException ex) {
+            logger.fine("date format " + format + " can't be normalized for the UNF: " + ex.getMessage());
+            return null;
+        }
+        return builder.toFormatter(Locale.ENGLISH).withResolverStyle(ResolverStyle.STRICT);
+    }
+
+    private void checkNotFinished() {
+        if (unf != null) {
+            throw new IllegalStateException("UNF has already been calculated; no more values can be added.");
+        }
+    }
+
+    public static String calculateUNF(final Number[] values) {
+        UNFCalculator calculator = new UNFCalculator();
+        calculator.update(values);
+        return calculator.getUNF();
+    }
+
+    public static String calculateUNF(final String[] values) {
+        UNFCalculator calculator = new UNFCalculator();
+        calculator.update(values);
+        return calculator.getUNF();
+    }
+
+    /**
+     * Combines the fingerprints of the individual variables into the
+     * fingerprint of the data table: the variable UNFs are sorted, and the
+     * UNF of the resulting character vector is calculated. The UNF of a table
+     * with only one variable is the UNF of that variable.
+     */
+    public static String calculateDataTableUNF(final Collection<String> variableUNFs) {
+        if (variableUNFs == null || variableUNFs.isEmpty()) {
+            return null;
+        }
+        if (variableUNFs.size() == 1) {
+            return variableUNFs.iterator().next();
+        }
+        List<String> sortedUNFs = new ArrayList<>(variableUNFs);
+        Collections.sort(sortedUNFs);
+
+        UNFCalculator calculator = new UNFCalculator();
+        for (String variableUNF : sortedUNFs) {
+            calculator.update(variableUNF);
+        }
+        return calculator.getUNF();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import java.util.logging.Logger;
+
+/**
+ * Provides the {@link DoubleKernels} implementation for the running JVM.
+ *
+ * This is the Java 17 version, from the multi-release jar: it returns the
+ * Vector API kernels when the incubating jdk.incubator.vector module has been
+ * added to the boot layer ("--add-modules jdk.incubator.vector"), and the
+ * scalar kernels otherwise.
+ */
+public class DoubleKernelsFactory {
+
+    private static final Logger logger = Logger.getLogger(DoubleKernelsFactory.class.getPackage().getName());
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    private static final DoubleKernels KERNELS = createKernels();
+
+    private DoubleKernelsFactory() {
+    }
+
+    public static DoubleKernels getKernels() {
+        return KERNELS;
+    }
+
+    private static DoubleKernels createKernels() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                DoubleKernels kernels = new VectorDoubleKernels();
+                logger.fine("using the Vector API statistics kernels.");
+                return kernels;
+            } catch (LinkageError e) {
+                logger.warning("failed to load the Vector API statistics kernels: " + e.getMessage());
+            }
+        }
+        return new ScalarDoubleKernels();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API (jdk.incubator.vector) implementation of the
+ * {@link DoubleKernels}, using the preferred vector width of the platform.
+ * The tails of the ranges, shorter than one vector, are handled by the
+ * scalar kernels.
+ */
+class VectorDoubleKernels implements DoubleKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private final ScalarDoubleKernels scalar = new ScalarDoubleKernels();
+
+    @Override
+    public double sum(final double[] values, final int begin, final int length) {
+        if (length < SPECIES.length()) {
+            return scalar.sum(values, begin, length);
+        }
+        int end = begin + length;
+        int upperBound = begin + SPECIES.loopBound(length);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = begin;
+        for (; i < upperBound; i += SPECIES.length()) {
+            acc = acc.add(DoubleVector.fromArray(SPECIES, values, i));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < end; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double min(final double[] values, final int begin, final int length) {
+        if (length < SPECIES.length()) {
+            return scalar.min(values, begin, length);
+        }
+        int end = begin + length;
+        int upperBound = begin + SPECIES.loopBound(length);
+        DoubleVector acc = DoubleVector.fromArray(SPECIES, values, begin);
+        int i = begin + SPECIES.length();
+        for (; i < upperBound; i += SPECIES.length()) {
+            acc = acc.min(DoubleVector.fromArray(SPECIES, values, i));
+        }
+        double min = acc.reduceLanes(VectorOperators.MIN);
+        for (; i < end; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+
+    @Override
+    public double max(final double[] values, final int begin, final int length) {
+        if (length < SPECIES.length()) {
+            return scalar.max(values, begin, length);
+        }
+        int end = begin + length;
+        int upperBound = begin + SPECIES.loopBound(length);
+        DoubleVector acc = DoubleVector.fromArray(SPECIES, values, begin);
+        int i = begin + SPECIES.length();
+        for (; i < upperBound; i += SPECIES.length()) {
+            acc = acc.max(DoubleVector.fromArray(SPECIES, values, i));
+        }
+        double max = acc.reduceLanes(VectorOperators.MAX);
+        for (; i < end; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    @Override
+    public int countNaNs(final double[] values, final int begin, final int length) {
+        int end = begin + length;
+        int upperBound = begin + SPECIES.loopBound(length);
+        // count in the lanes, so that the masks are not converted to scalars
+        // in every iteration:
+        DoubleVector ones = DoubleVector.broadcast(SPECIES, 1.0);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = begin;
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, values, i);
+            VectorMask<Double> nans = v.test(VectorOperators.IS_NAN);
+            acc = acc.add(ones, nans);
+        }
+        int count = (int) acc.reduceLanes(VectorOperators.ADD);
+        return count + scalar.countNaNs(values, i, end - i);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.dta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.iq.datafilereader.tabulardata.TabularDataIngest;
+import edu.harvard.iq.datafilereader.tabulardata.model.DataTable;
+import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
+import edu.harvard.iq.datafilereader.tabulardata.model.VariableCategory;
+
+public class DTA117FileReaderTest {
+
+    private static final int TYPE_BYTE = 65530;
+    private static final int TYPE_DOUBLE = 65526;
+    private static final int TYPE_STR8 = 8;
+
+    private File dtaFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dtaFile = File.createTempFile("dta117test.", ".dta");
+    }
+
+    @After
+    public void tearDown() {
+        dtaFile.delete();
+    }
+
+    @Test
+    public void testMetadataOnlyNarrowFile() throws IOException {
+        checkMetadataOnlyRead(3, 2000);
+    }
+
+    /*
+     * The dictionary of a wide file spans several buffers of the reader;
+     * the offset of the data section must still be tracked exactly, for the
+     * reader to skip to the value labels.
+     */
+    @Test
+    public void testMetadataOnlyWideFile() throws IOException {
+        checkMetadataOnlyRead(60, 500);
+        checkMetadataOnlyRead(200, 500);
+    }
+
+    private void checkMetadataOnlyRead(final int nvar, final int nobs) throws IOException {
+        writeDTA117(dtaFile, nvar, nobs);
+
+        DTA117FileReader probeReader = new DTA117FileReader();
+        probeReader.setMetadataOnly(true);
+        TabularDataIngest probe = probeReader.read(dtaFile);
+        assertNull(probe.getTabDelimitedFile());
+
+        TabularDataIngest full = new DTA117FileReader().read(dtaFile);
+        full.getTabDelimitedFile().delete();
+
+        DataTable probed = probe.getDataTable();
+        DataTable read = full.getDataTable();
+        assertEquals(read.getVarQuantity(), probed.getVarQuantity());
+        assertEquals(Long.valueOf(nobs), probed.getCaseQuantity());
+        assertEquals(nvar, probed.getDataVariables().size());
+        for (int i = 0; i < nvar; i++) {
+            DataVariable expected = read.getDataVariables().get(i);
+            DataVariable actual = probed.getDataVariables().get(i);
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getLabel(), actual.getLabel());
+            assertEquals(describeCategories(expected), describeCategories(actual));
+        }
+        assertEquals("[0=no, 1=yes]", describeCategories(probed.getDataVariables().get(0)));
+    }
+
+    private static String describeCategories(final DataVariable variable) {
+        Map<String, String> categories = new LinkedHashMap<>();
+        if (variable.getCategories() != null) {
+            for (VariableCategory category : variable.getCategories()) {
+                categories.put(category.getValue(), category.getLabel());
+            }
+        }
+        return categories.toString().replace('{', '[').replace('}', ']');
+    }
+
+    /*
+     * Writes a Stata 13 file: a byte variable with the value label "yesno",
+     * then doubles and str8 variables in turn.
+     */
+    private static void writeDTA117(final File file, final int nvar, final int nobs) throws IOException {
+        int[] types = new int[nvar];
+        types[0] = TYPE_BYTE;
+        for (int i = 1; i < nvar; i++) {
+            types[i] = i % 2 == 1 ? TYPE_DOUBLE : TYPE_STR8;
+        }
+
+        Section dta = new Section();
+        long[] offsets = new long[14];
+
+        dta.ascii("<stata_dta><header><release>117</release><byteorder>LSF</byteorder>");
+        dta.ascii("<K>").int16(nvar).ascii("</K><N>").int32(nobs).ascii("</N>");
+        dta.ascii("<label>").int8(4).ascii("test").ascii("</label>");
+        dta.ascii("<timestamp>").int8(17).ascii("19 Oct 2026 07:30").ascii("</timestamp></header>");
+
+        offsets[1] = dta.size();
+        int mapPosition = dta.size() + "<map>".length();
+        dta.ascii("<map>").zeros(14 * 8).ascii("</map>");
+
+        offsets[2] = dta.size();
+        dta.ascii("<variable_types>");
+        for (int type : types) {
+            dta.int16(type);
+        }
+        dta.ascii("</variable_types>");
+
+        offsets[3] = dta.size();
+        dta.ascii("<varnames>");
+        for (int i = 0; i < nvar; i++) {
+            dta.fixed("var" + i, 33);
+        }
+        dta.ascii("</varnames>");
+
+        offsets[4] = dta.size();
+        dta.ascii("<sortlist>").zeros(2 * (nvar + 1)).ascii("</sortlist>");
+
+        offsets[5] = dta.size();
+        dta.ascii("<formats>");
+        for (int type : types) {
+            dta.fixed(type == TYPE_STR8 ? "%8s" : type == TYPE_DOUBLE ? "%10.0g" : "%8.0g", 49);
+        }
+        dta.ascii("</formats>");
+
+        offsets[6] = dta.size();
+        dta.ascii("<value_label_names>");
+        for (int i = 0; i < nvar; i++) {
+            dta.fixed(i == 0 ? "yesno" : "", 33);
+        }
+        dta.ascii("</value_label_names>");
+
+        offsets[7] = dta.size();
+        dta.ascii("<variable_labels>");
+        for (int i = 0; i < nvar; i++) {
+            dta.fixed("Variable number " + i, 81);
+        }
+        dta.ascii("</variable_labels>");
+
+        offsets[8] = dta.size();
+        dta.ascii("<characteristics></characteristics>");
+
+        offsets[9] = dta.size();
+        dta.ascii("<data>");
+        for (int j = 0; j < nobs; j++) {
+            for (int i = 0; i < nvar; i++) {
+                if (types[i] == TYPE_BYTE) {
+                    dta.int8(j % 2);
+                } else if (types[i] == TYPE_DOUBLE) {
+                    dta.float64(j * 0.5 + i);
+                } else {
+                    dta.fixed("s" + (j % 1000), 8);
+                }
+            }
+        }
+        dta.ascii("</data>");
+
+        offsets[10] = dta.size();
+        dta.ascii("<strls></strls>");
+
+        offsets[11] = dta.size();
+        dta.ascii("<value_labels><lbl>");
+        // (n, txtlen, off[n], val[n], txt)
+        dta.int32(4 + 4 + 2 * 4 + 2 * 4 + 7);
+        dta.fixed("yesno", 33).zeros(3);
+        dta.int32(2).int32(7).int32(0).int32(3).int32(0).int32(1).ascii("no\0yes\0");
+        dta.ascii("</lbl></value_labels>");
+
+        offsets[12] = dta.size();
+        dta.ascii("</stata_dta>");
+        offsets[13] = dta.size();
+
+        byte[] bytes = dta.toByteArray();
+        ByteBuffer map = ByteBuffer.wrap(bytes, mapPosition, 14 * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (long offset : offsets) {
+            map.putLong(offset);
+        }
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+
+    private static class Section extends ByteArrayOutputStream {
+        private final ByteBuffer scratch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+        Section ascii(final String s) {
+            byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+            write(b, 0, b.length);
+            return this;
+        }
+
+        Section fixed(final String s, final int width) {
+            byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+            write(b, 0, b.length);
+            return zeros(width - b.length);
+        }
+
+        Section zeros(final int n) {
+            for (int i = 0; i < n; i++) {
+                write(0);
+            }
+            return this;
+        }
+
+        Section int8(final int v) {
+            write(v);
+            return this;
+        }
+
+        Section int16(final int v) {
+            scratch.clear();
+            scratch.putShort((short) v);
+            write(scratch.array(), 0, 2);
+            return this;
+        }
+
+        Section int32(final int v) {
+            scratch.clear();
+            scratch.putInt(v);
+            write(scratch.array(), 0, 4);
+            return this;
+        }
+
+        Section float64(final double v) {
+            scratch.clear();
+            scratch.putDouble(v);
+            write(scratch.array(), 0, 8);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.sav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SAVDecodePlanTest {
+
+    /*
+     * A numeric variable, a 20 byte string (3 OBS units), a date, a 255
+     * byte string (32 OBS units, the last one with its last byte dropped)
+     * and a weekday.
+     */
+    @Test
+    public void testLayout() throws IOException {
+        List<Integer> obsTypes = new ArrayList<>(Arrays.asList(0, 20, -1, -1, 0, 255));
+        obsTypes.addAll(Collections.nCopies(30, -1));
+        obsTypes.addAll(Arrays.asList(-2, 0));
+
+        SAVDecodePlan plan = SAVDecodePlan.compile(obsTypes, Arrays.asList(0, 20, 0, 255, 0),
+                new String[] { "other", "other", "date", "other", "other" },
+                new String[] { "F", "A", "DATE", "A", "WKDAY" }, Arrays.asList(2, 0, 0, 0, 0));
+
+        assertEquals(38, plan.obsCount);
+        assertEquals(5, plan.variableCount);
+        byte[] kinds = new byte[38];
+        int[] variables = new int[38];
+        kinds[1] = SAVDecodePlan.STRING;
+        kinds[2] = kinds[3] = SAVDecodePlan.STRING_SEGMENT;
+        variables[1] = variables[2] = variables[3] = 1;
+        variables[4] = 2;
+        for (int j = 5; j < 37; j++) {
+            kinds[j] = j == 5 ? SAVDecodePlan.STRING : SAVDecodePlan.STRING_SEGMENT;
+            variables[j] = 3;
+        }
+        kinds[36] = SAVDecodePlan.STRING_SEGMENT_7;
+        variables[37] = 4;
+        assertEquals(SAVDecodePlan.NUMERIC, kinds[0]);
+        assertArrayEquals(kinds, plan.obsKinds);
+        assertArrayEquals(variables, plan.obsVariables);
+
+        assertArrayEquals(new boolean[] { false, true, false, true, false }, plan.isString);
+        assertArrayEquals(new int[] { 2, 0, 0, 0, 0 }, plan.decimalPositions);
+        assertEquals("DATE", plan.printFormats[2]);
+        // only the plain numbers are checked for decimal points:
+        assertArrayEquals(new boolean[] { true, false, false, false, false }, plan.checkDecimal);
+    }
+
+    @Test
+    public void testContinuationNotAfterString() {
+        assertRejected("String continuation in OBS unit 0 does not follow a string.", Arrays.asList(-1, 0),
+                Arrays.asList(0));
+        assertRejected("String continuation in OBS unit 1 does not follow a string.", Arrays.asList(0, -2),
+                Arrays.asList(0));
+    }
+
+    @Test
+    public void testInvalidType() {
+        assertRejected("Invalid type -3 of OBS unit 1.", Arrays.asList(0, -3), Arrays.asList(0, 0));
+    }
+
+    @Test
+    public void testTooManyVariables() {
+        assertRejected("The OBS units of a case hold more than the 2 variables defined (OBS unit 2 starts "
+                + "another one).", Arrays.asList(0, 8, 0), Arrays.asList(0, 8));
+    }
+
+    @Test
+    public void testTooFewVariables() {
+        assertRejected("The 2 OBS units of a case hold 1 variables; 2 variables are defined.",
+                Arrays.asList(16, -1), Arrays.asList(16, 0));
+    }
+
+    private static void assertRejected(final String message, final List<Integer> obsTypes,
+            final List<Integer> variableTypes) {
+        int n = variableTypes.size();
+        try {
+            SAVDecodePlan.compile(obsTypes, variableTypes, new String[n], new String[n],
+                    Collections.nCopies(n, 0));
+            fail("the layout " + obsTypes + " of " + variableTypes + " was accepted");
+        } catch (IOException ex) {
+            assertEquals(message, ex.getMessage());
+        }
+    }
+}
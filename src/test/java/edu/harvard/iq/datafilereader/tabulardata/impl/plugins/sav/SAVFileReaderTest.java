@@ -0,0 +1,124 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.sav;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import edu.harvard.iq.datafilereader.tabulardata.TabularDataIngest;
+import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
+
+/*
+ * The fixtures hold the same 60 cases of a numeric ID, a 24 byte string
+ * (3 OBS units) and a numeric X: blanks.sav uncompressed, and
+ * blanks-bytecode.sav bytecode-compressed. Some of the strings have an OBS
+ * unit of all blanks inside them, which the compressed file stores as the
+ * byte code 254.
+ */
+public class SAVFileReaderTest {
+
+    // 5 OBS units per case:
+    private static final long CASE_LENGTH = 5 * 8;
+
+    /*
+     * The blanks of a string are kept, whether the file is compressed or
+     * not; only the trailing padding is stripped.
+     */
+    @Test
+    public void testBlankStringSegments() throws IOException, URISyntaxException {
+        TabularDataIngest uncompressed = new SAVFileReader().read(getFixture("blanks.sav"));
+        TabularDataIngest compressed = new SAVFileReader().read(getFixture("blanks-bytecode.sav"));
+        try {
+            List<String> rows = readTabFile(uncompressed);
+            assertEquals(60, rows.size());
+            assertEquals(rows, readTabFile(compressed));
+            assertEquals("1\t\"abcdefgh        ijkl\"\t-3", rows.get(0));
+            assertEquals("2\t\" \"\t-2.75", rows.get(1));
+            assertEquals("3\t\"        x\"\t-2.5", rows.get(2));
+            assertEquals("6\t\"a       b       c\"\t-1.75", rows.get(5));
+        } finally {
+            uncompressed.getTabDelimitedFile().delete();
+            compressed.getTabDelimitedFile().delete();
+        }
+    }
+
+    /*
+     * The uncompressed data section of a file is mapped, and decoded in
+     * ranges, in parallel; with ranges of 1, 7 (the last one shorter) and
+     * all 60 cases, it comes out as the same tab file as when it is decoded
+     * sequentially, from a stream.
+     */
+    @Test
+    public void testUncompressedRanges() throws IOException, URISyntaxException {
+        File fixture = getFixture("blanks.sav");
+        TabularDataIngest fromStream = new SAVFileReader().read(
+                new BufferedInputStream(Files.newInputStream(fixture.toPath())), Optional.empty());
+        try {
+            List<String> expected = readTabFile(fromStream);
+            for (long rangeSize : new long[] { 1, 7 * CASE_LENGTH, 60 * CASE_LENGTH }) {
+                SAVFileReader reader = new SAVFileReader();
+                reader.setUncompressedRangeSize(rangeSize);
+                reader.setParallelism(3);
+                TabularDataIngest fromFile = reader.read(fixture);
+                try {
+                    assertEquals("range size " + rangeSize, expected, readTabFile(fromFile));
+                    assertEquals(describeVariables(fromStream), describeVariables(fromFile));
+                } finally {
+                    fromFile.getTabDelimitedFile().delete();
+                }
+            }
+        } finally {
+            fromStream.getTabDelimitedFile().delete();
+        }
+    }
+
+    private static String describeVariables(final TabularDataIngest ingest) {
+        StringBuilder description = new StringBuilder("[");
+        for (DataVariable variable : ingest.getDataTable().getDataVariables()) {
+            if (description.length() > 1) {
+                description.append(", ");
+            }
+            description.append(variable.getName()).append(':')
+                    .append(variable.isTypeNumeric() ? (variable.isIntervalDiscrete() ? "discrete" : "continuous")
+                            : "character");
+        }
+        return description.append(']').toString();
+    }
+
+    private static File getFixture(final String name) throws URISyntaxException {
+        return new File(SAVFileReaderTest.class.getResource(name).toURI());
+    }
+
+    private static List<String> readTabFile(final TabularDataIngest ingest) throws IOException {
+        return Files.readAllLines(ingest.getTabDelimitedFile().toPath(), StandardCharsets.UTF_8);
+    }
+}
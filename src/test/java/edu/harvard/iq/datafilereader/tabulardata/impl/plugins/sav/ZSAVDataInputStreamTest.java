@@ -0,0 +1,230 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.sav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.iq.datafilereader.tabulardata.TabularDataIngest;
+
+/*
+ * The fixtures hold the same 400 cases (numeric and string variables, with
+ * system-missing values): bytecode.sav as a bytecode-compressed SAV file,
+ * and bytecode.zsav as a ZSAV file with the same data, in 8 blocks of
+ * (up to) 2048 bytes. The dictionaries are the same length, so the zheader
+ * of the ZSAV file is where the data section of the SAV file starts.
+ */
+public class ZSAVDataInputStreamTest {
+
+    private static final int ZSAV_BLOCKS = 8;
+
+    private byte[] sav;
+    private byte[] zsav;
+    private int zheaderOffset;
+    private File truncated;
+
+    @Before
+    public void setUp() throws IOException, URISyntaxException {
+        sav = Files.readAllBytes(getFixture("bytecode.sav").toPath());
+        zsav = Files.readAllBytes(getFixture("bytecode.zsav").toPath());
+        zheaderOffset = findZheader(zsav);
+        truncated = File.createTempFile("zsavtest.", ".zsav");
+    }
+
+    @After
+    public void tearDown() {
+        truncated.delete();
+    }
+
+    /*
+     * The ZSAV file comes out as the same tab file as the SAV file; whether
+     * its blocks are inflated in parallel, from the file, or one after
+     * another, from a stream.
+     */
+    @Test
+    public void testSameTabFileAsSAV() throws IOException, URISyntaxException {
+        TabularDataIngest expected = new SAVFileReader().read(getFixture("bytecode.sav"));
+        SAVFileReader parallelReader = new SAVFileReader();
+        parallelReader.setParallelism(3);
+        TabularDataIngest fromFile = parallelReader.read(getFixture("bytecode.zsav"));
+        TabularDataIngest fromStream = new SAVFileReader().read(
+                new BufferedInputStream(new ByteArrayInputStream(zsav)), Optional.empty());
+        try {
+            List<String> expectedRows = readTabFile(expected);
+            assertEquals(400, expectedRows.size());
+            assertEquals(Long.valueOf(400), fromFile.getDataTable().getCaseQuantity());
+            assertEquals(expectedRows, readTabFile(fromFile));
+            assertEquals(expectedRows, readTabFile(fromStream));
+        } finally {
+            expected.getTabDelimitedFile().delete();
+            fromFile.getTabDelimitedFile().delete();
+            fromStream.getTabDelimitedFile().delete();
+        }
+    }
+
+    /*
+     * The zheader and the ztrailer are parsed, and the blocks inflate to
+     * the data section of the SAV file; read across the block boundaries in
+     * odd-sized chunks. available() stays positive until the end of the
+     * data, where it is 0 (the end of the data section is detected on it).
+     */
+    @Test
+    public void testInflatedData() throws IOException, URISyntaxException {
+        byte[] expected = Arrays.copyOfRange(sav, zheaderOffset, sav.length);
+        ByteBuffer zheader = ByteBuffer.wrap(zsav, zheaderOffset, 24).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(zheaderOffset, zheader.getLong());
+        long ztrailerOffset = zheader.getLong();
+        assertEquals((ZSAV_BLOCKS + 1) * 24, zheader.getLong());
+        assertEquals(zsav.length, ztrailerOffset + (ZSAV_BLOCKS + 1) * 24);
+
+        assertArrayEquals(expected, inflate(getFixture("bytecode.zsav"), 1, 7));
+        assertArrayEquals(expected, inflate(getFixture("bytecode.zsav"), 4, 2048));
+        assertArrayEquals(expected, inflate(null, 1, 7));
+        assertArrayEquals(expected, inflate(null, 1, 5000));
+    }
+
+    @Test
+    public void testInvalidZheader() throws IOException {
+        byte[] zheader = new byte[24];
+        ByteBuffer.wrap(zheader).order(ByteOrder.LITTLE_ENDIAN).putLong(408).putLong(1000).putLong(30);
+        try {
+            ZSAVDataInputStream.open(new ByteArrayInputStream(zheader), null, true, 1);
+            fail("a ztrailer length that is not a multiple of 24 bytes was accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Invalid ZSAV zheader"));
+        }
+    }
+
+    /*
+     * A file cut short in the ztrailer is rejected before any block is
+     * inflated, when read from the file; a stream cut short in the blocks
+     * fails at the end of the stream.
+     */
+    @Test
+    public void testTruncatedZtrailer() throws IOException, URISyntaxException {
+        Files.write(truncated.toPath(), Arrays.copyOf(zsav, zsav.length - 12));
+        try (InputStream stream = openAtZheader(truncated)) {
+            ZSAVDataInputStream.open(stream, truncated, true, 2);
+            fail("a truncated ztrailer was accepted");
+        } catch (IOException ex) {
+            assertEquals("ZSAV ztrailer past the end of the file.", ex.getMessage());
+        }
+        try {
+            new SAVFileReader().read(truncated);
+            fail("a truncated ZSAV file was read");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("ZSAV ztrailer past the end of the file."));
+        }
+
+        byte[] cut = Arrays.copyOfRange(zsav, zheaderOffset, zsav.length - (ZSAV_BLOCKS + 1) * 24 - 100);
+        try (ZSAVDataInputStream zstream = ZSAVDataInputStream.open(new ByteArrayInputStream(cut), null, true,
+                1)) {
+            readAll(zstream, 4096);
+            fail("a truncated ZSAV stream was inflated");
+        } catch (EOFException ex) {
+            assertEquals("Unexpected end of the ZSAV data.", ex.getMessage());
+        }
+    }
+
+    /*
+     * Inflates the data section of the fixture: in parallel from the file,
+     * if given, or else sequentially from the stream.
+     */
+    private byte[] inflate(final File file, final int parallelism, final int chunkSize) throws IOException {
+        InputStream stream = file != null ? openAtZheader(file)
+                : new ByteArrayInputStream(zsav, zheaderOffset, zsav.length - zheaderOffset);
+        try (ZSAVDataInputStream zstream = ZSAVDataInputStream.open(stream, file, true, parallelism)) {
+            byte[] inflated = readAll(zstream, chunkSize);
+            assertEquals(-1, zstream.read());
+            assertEquals(0, zstream.available());
+            return inflated;
+        } finally {
+            stream.close();
+        }
+    }
+
+    private InputStream openAtZheader(final File file) throws IOException {
+        InputStream stream = Files.newInputStream(file.toPath());
+        long skipped = 0;
+        while (skipped < zheaderOffset) {
+            skipped += stream.skip(zheaderOffset - skipped);
+        }
+        return stream;
+    }
+
+    private static byte[] readAll(final ZSAVDataInputStream zstream, final int chunkSize) throws IOException {
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        byte[] chunk = new byte[chunkSize];
+        while (zstream.available() > 0) {
+            if (chunkSize == 1) {
+                inflated.write(zstream.read());
+            } else {
+                int n = zstream.read(chunk, 0, chunk.length);
+                inflated.write(chunk, 0, n);
+            }
+        }
+        return inflated.toByteArray();
+    }
+
+    /*
+     * The zheader starts with its own offset.
+     */
+    private static int findZheader(final byte[] zsav) {
+        ByteBuffer bb = ByteBuffer.wrap(zsav).order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 0; offset + 24 <= zsav.length; offset++) {
+            if (bb.getLong(offset) == offset) {
+                return offset;
+            }
+        }
+        throw new IllegalStateException("no zheader in the ZSAV fixture");
+    }
+
+    private static File getFixture(final String name) throws URISyntaxException {
+        return new File(ZSAVDataInputStreamTest.class.getResource(name).toURI());
+    }
+
+    private static List<String> readTabFile(final TabularDataIngest ingest) throws IOException {
+        return Files.readAllLines(ingest.getTabDelimitedFile().toPath(), StandardCharsets.UTF_8);
+    }
+}
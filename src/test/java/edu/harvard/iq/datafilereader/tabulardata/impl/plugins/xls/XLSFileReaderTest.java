@@ -0,0 +1,103 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.xls;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import edu.harvard.iq.datafilereader.tabulardata.TabularDataIngest;
+import edu.harvard.iq.datafilereader.tabulardata.impl.plugins.xlsx.XLSXFileReader;
+import edu.harvard.iq.datafilereader.tabulardata.model.DataVariable;
+
+public class XLSFileReaderTest {
+
+    /*
+     * The same workbook, saved as XLS and as XLSX (numbers, a string column
+     * with numeric cells, booleans, blanks, numeric, string and error
+     * formulas, a column with no name), comes out as the same tab file.
+     */
+    @Test
+    public void testSameTabFileAsXLSX() throws IOException, URISyntaxException {
+        TabularDataIngest xls = new XLSFileReader().read(getFixture("mixed-types.xls"));
+        TabularDataIngest xlsx = new XLSXFileReader().read(getFixture("mixed-types.xlsx"));
+        try {
+            assertEquals(describeVariables(xlsx), describeVariables(xls));
+            assertEquals("[id:numeric, x:numeric, mixed:character, flag:numeric, twice:numeric, "
+                    + "label:character, ratio:character, H:numeric]", describeVariables(xls));
+            assertEquals(Long.valueOf(24), xls.getDataTable().getCaseQuantity());
+
+            List<String> xlsRows = readTabFile(xls);
+            assertEquals(readTabFile(xlsx), xlsRows);
+            assertEquals("2.0\t0.1\t\"3.0\"\t1.0\t4.0\t\"row 2\"\t\"0.5\"\t200.0", xlsRows.get(1));
+            assertEquals("4.0\t1.0E15\t\"6.0\"\t1.0\t8.0\t\"row 4\"\t\"#DIV/0!\"\t400.0", xlsRows.get(3));
+        } finally {
+            xls.getTabDelimitedFile().delete();
+            xlsx.getTabDelimitedFile().delete();
+        }
+    }
+
+    /*
+     * Reading from a stream gives the same tab file as reading from a file.
+     */
+    @Test
+    public void testStreamRead() throws IOException, URISyntaxException {
+        File fixture = getFixture("mixed-types.xls");
+        TabularDataIngest fromFile = new XLSFileReader().read(fixture);
+        TabularDataIngest fromStream = new XLSFileReader().read(
+                new BufferedInputStream(Files.newInputStream(fixture.toPath())), Optional.empty());
+        try {
+            assertEquals(readTabFile(fromFile), readTabFile(fromStream));
+        } finally {
+            fromFile.getTabDelimitedFile().delete();
+            fromStream.getTabDelimitedFile().delete();
+        }
+    }
+
+    private static File getFixture(final String name) throws URISyntaxException {
+        return new File(XLSFileReaderTest.class.getResource(name).toURI());
+    }
+
+    private static List<String> readTabFile(final TabularDataIngest ingest) throws IOException {
+        return Files.readAllLines(ingest.getTabDelimitedFile().toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static String describeVariables(final TabularDataIngest ingest) {
+        StringBuilder description = new StringBuilder("[");
+        for (DataVariable variable : ingest.getDataTable().getDataVariables()) {
+            if (description.length() > 1) {
+                description.append(", ");
+            }
+            description.append(variable.getName()).append(':')
+                    .append(variable.isTypeNumeric() ? "numeric" : "character");
+        }
+        return description.append(']').toString();
+    }
+}
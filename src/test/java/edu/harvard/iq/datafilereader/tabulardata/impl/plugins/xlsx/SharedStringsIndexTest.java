@@ -0,0 +1,113 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+
+package edu.harvard.iq.datafilereader.tabulardata.impl.plugins.xlsx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.poi.xssf.model.SharedStringsTable;
+import org.junit.Test;
+
+public class SharedStringsIndexTest {
+
+    private static final String SHARED_STRINGS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+            + "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" count=\"6\" uniqueCount=\"6\">"
+            + "<si><t>plain</t></si>"
+            + "<si><r><rPr><b/></rPr><t>rich </t></r><r><t xml:space=\"preserve\">text</t></r></si>"
+            + "<si><t>東京</t><rPh sb=\"0\" eb=\"2\"><t>トウキョウ</t></rPh></si>"
+            + "<si><t/></si>"
+            + "<si><t>café &amp; &lt;tag&gt;</t></si>"
+            + "<si><t>tab_x0009_and_x000D__x000A_break</t></si>"
+            + "</sst>";
+
+    /*
+     * The plain text of the strings: the runs of a rich string are
+     * concatenated, the phonetic runs are left out, and the escapes of the
+     * characters not allowed in XML are decoded.
+     */
+    @Test
+    public void testRead() throws IOException {
+        SharedStringsIndex index = SharedStringsIndex.read(
+                new ByteArrayInputStream(SHARED_STRINGS.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(6, index.size());
+        assertEquals("plain", index.get(0));
+        assertEquals("rich text", index.get(1));
+        assertEquals("東京", index.get(2));
+        assertEquals("", index.get(3));
+        assertEquals("café & <tag>", index.get(4));
+        assertEquals("tab\tand\r\nbreak", index.get(5));
+
+        try {
+            index.get(6);
+            fail("a string past the end of the index was returned");
+        } catch (IndexOutOfBoundsException ex) {
+            assertEquals("Shared string 6 of 6.", ex.getMessage());
+        }
+        try {
+            index.get(-1);
+            fail("a string at a negative index was returned");
+        } catch (IndexOutOfBoundsException ex) {
+            assertEquals("Shared string -1 of 6.", ex.getMessage());
+        }
+    }
+
+    /*
+     * An index of a loaded table has the same strings as the index of its
+     * XML.
+     */
+    @Test
+    public void testSharedStringsTable() throws IOException {
+        SharedStringsTable sst = new SharedStringsTable();
+        sst.readFrom(new ByteArrayInputStream(SHARED_STRINGS.getBytes(StandardCharsets.UTF_8)));
+        SharedStringsIndex index = SharedStringsIndex.of(sst);
+        SharedStringsIndex expected = SharedStringsIndex.read(
+                new ByteArrayInputStream(SHARED_STRINGS.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(expected.size(), index.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), index.get(i));
+        }
+        assertEquals(0, SharedStringsIndex.of(null).size());
+    }
+
+    @Test
+    public void testParseIndex() {
+        assertEquals(0, parseIndex("0"));
+        assertEquals(12, parseIndex("12"));
+        assertEquals(123456789, parseIndex("123456789"));
+        assertEquals(-1, parseIndex(""));
+        assertEquals(-1, parseIndex("1a"));
+        assertEquals(-1, parseIndex("-1"));
+        assertEquals(-1, parseIndex(" 1"));
+        assertEquals(-1, parseIndex("99999999999"));
+    }
+
+    private static int parseIndex(final String text) {
+        // (the text is followed by garbage past the length, as in a reused
+        // buffer)
+        char[] buffer = (text + "77").toCharArray();
+        return SharedStringsIndex.parseIndex(buffer, text.length());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.text.DecimalFormat;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DoubleFormatterTest {
+
+    private static final double[] EDGE_VALUES = { 0.0, -0.0, 1.0, -1.0, 3.0, 0.1, -0.1, 0.5, 100.0, 1e7, 1e-3,
+            1e-7, 123456.789, 1e15, 1e16, 1e22, 1e23, 2.82879384806159E17, Double.MIN_VALUE, -Double.MIN_VALUE,
+            Double.MIN_NORMAL, Double.MAX_VALUE, -Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Math.PI, -Math.E, 9007199254740993.0, 4.35, 0.3 };
+
+    /*
+     * COMPATIBLE writes what the DecimalFormat the readers used to format
+     * their values with wrote, in every locale (their symbols, and the
+     * affixes of their number patterns).
+     */
+    @Test
+    public void testCompatibleMatchesDecimalFormat() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            for (Locale locale : DecimalFormat.getAvailableLocales()) {
+                Locale.setDefault(locale);
+                DecimalFormat decimalFormat = new DecimalFormat();
+                decimalFormat.setGroupingUsed(false);
+                decimalFormat.setMaximumFractionDigits(340);
+                DoubleFormatter formatter = new DoubleFormatter(DoubleFormatMode.COMPATIBLE);
+                char[] chars = new char[formatter.getMaxLength() + 3];
+
+                Random random = new Random(locale.hashCode());
+                for (int i = 0; i < EDGE_VALUES.length + 500; i++) {
+                    double value = i < EDGE_VALUES.length ? EDGE_VALUES[i] : randomValue(random);
+                    String expected = decimalFormat.format(value);
+                    assertEquals(locale + ": " + value, expected, formatter.format(value));
+                    int length = formatter.format(value, chars, 3);
+                    assertEquals(locale + ": " + value, expected, new String(chars, 3, length));
+                }
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    /*
+     * SHORTEST values parse back to the same double, and are not longer
+     * than those of Double.toString().
+     */
+    @Test
+    public void testShortestRoundTrips() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.ROOT);
+            DoubleFormatter shortest = new DoubleFormatter(DoubleFormatMode.SHORTEST);
+            DoubleFormatter compatible = new DoubleFormatter(DoubleFormatMode.COMPATIBLE);
+
+            Random random = new Random(11);
+            for (int i = 0; i < EDGE_VALUES.length + 200000; i++) {
+                double value = i < EDGE_VALUES.length ? EDGE_VALUES[i] : randomValue(random);
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    continue;
+                }
+                String formatted = shortest.format(value);
+                assertEquals(formatted, Double.doubleToLongBits(value),
+                        Double.doubleToLongBits(Double.parseDouble(formatted)));
+                assertTrue(formatted, significantDigits(formatted) <= significantDigits(compatible.format(value)));
+            }
+
+            assertEquals("0.3", shortest.format(0.3));
+            assertEquals("100000000000000000000000", shortest.format(1e23));
+            assertEquals("282879384806159000", shortest.format(2.82879384806159E17));
+            assertEquals("-5", shortest.format(-5.0));
+            assertEquals("-0", shortest.format(-0.0));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    /*
+     * Random doubles of all magnitudes: random bits, random integers, and
+     * values with a few decimals.
+     */
+    private static double randomValue(final Random random) {
+        switch (random.nextInt(3)) {
+            case 0:
+                double value = Double.longBitsToDouble(random.nextLong());
+                return Double.isNaN(value) ? random.nextDouble() : value;
+            case 1:
+                return random.nextInt();
+            default:
+                return Math.round(random.nextGaussian() * 1e6) / 100.0;
+        }
+    }
+
+    private static int significantDigits(final String formatted) {
+        String digits = formatted.replace("-", "").replace(".", "").replaceAll("^0+", "").replaceAll("0+$", "");
+        return digits.length();
+    }
+}
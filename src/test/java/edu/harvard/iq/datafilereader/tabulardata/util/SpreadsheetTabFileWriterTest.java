@@ -0,0 +1,62 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class SpreadsheetTabFileWriterTest {
+
+    @Test
+    public void testColumnLetterTag() {
+        assertEquals("A", SpreadsheetTabFileWriter.getColumnLetterTag(0));
+        assertEquals("Z", SpreadsheetTabFileWriter.getColumnLetterTag(25));
+        assertEquals("AA", SpreadsheetTabFileWriter.getColumnLetterTag(26));
+        assertEquals("AZ", SpreadsheetTabFileWriter.getColumnLetterTag(51));
+        assertEquals("BA", SpreadsheetTabFileWriter.getColumnLetterTag(52));
+        assertEquals("ZZ", SpreadsheetTabFileWriter.getColumnLetterTag(701));
+        assertEquals("AAA", SpreadsheetTabFileWriter.getColumnLetterTag(702));
+        // (the last column of an Excel 2007+ sheet)
+        assertEquals("XFD", SpreadsheetTabFileWriter.getColumnLetterTag(16383));
+        assertNull(SpreadsheetTabFileWriter.getColumnLetterTag(-1));
+    }
+
+    /*
+     * Strings are quoted, with the quotes already around the value dropped;
+     * the quotes inside, and the characters that would break the line into
+     * cells, are escaped.
+     */
+    @Test
+    public void testFormatStringValue() {
+        assertEquals("", SpreadsheetTabFileWriter.formatStringValue("."));
+        assertEquals("\"\"", SpreadsheetTabFileWriter.formatStringValue(""));
+        assertEquals("\"\"", SpreadsheetTabFileWriter.formatStringValue("\""));
+        assertEquals("\"abc\"", SpreadsheetTabFileWriter.formatStringValue("abc"));
+        assertEquals("\"abc\"", SpreadsheetTabFileWriter.formatStringValue("\"abc\""));
+        assertEquals("\"a\\\"b\"", SpreadsheetTabFileWriter.formatStringValue("a\"b"));
+        assertEquals("\"a\\tb\\nc\\rd\"", SpreadsheetTabFileWriter.formatStringValue("a\tb\nc\rd"));
+        assertEquals("\"\\r\\n\"", SpreadsheetTabFileWriter.formatStringValue("\"\r\n\""));
+        assertEquals("\"café\"", SpreadsheetTabFileWriter.formatStringValue("café"));
+    }
+}
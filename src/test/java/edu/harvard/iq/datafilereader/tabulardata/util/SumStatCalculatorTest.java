@@ -0,0 +1,109 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.harvard.iq.datafilereader.tabulardata.model.SummaryStatistic.SummaryStatisticType;
+
+public class SumStatCalculatorTest {
+
+    /*
+     * The EXTENDED profile adds the moment statistics of the valid values
+     * to the BASIC ones, which don't change.
+     */
+    @Test
+    public void testExtendedProfile() {
+        Random random = new Random(3);
+        Number[] vector = new Number[5000];
+        MomentsAccumulator expected = new MomentsAccumulator();
+        for (int i = 0; i < vector.length; i++) {
+            if (i % 11 == 0) {
+                vector[i] = i % 2 == 0 ? null : Float.NaN;
+            } else {
+                vector[i] = Math.exp(random.nextGaussian());
+                expected.add(vector[i].doubleValue());
+            }
+        }
+
+        Map<SummaryStatisticType, BigDecimal> basic = SumStatCalculator.calculateSummaryStatistics(vector,
+                SummaryStatisticsProfile.BASIC);
+        Map<SummaryStatisticType, BigDecimal> extended = SumStatCalculator.calculateSummaryStatistics(vector,
+                SummaryStatisticsProfile.EXTENDED);
+
+        assertEquals(SummaryStatisticsProfile.BASIC.getSummaryStatisticTypes(), basic.keySet());
+        assertEquals(SummaryStatisticsProfile.EXTENDED.getSummaryStatisticTypes(), extended.keySet());
+        for (SummaryStatisticType type : basic.keySet()) {
+            assertEquals(type.toString(), basic.get(type), extended.get(type));
+        }
+        assertEquals(new BigDecimal(expected.getSum()), extended.get(SummaryStatisticType.SUM));
+        assertEquals(new BigDecimal(expected.getRange()), extended.get(SummaryStatisticType.RANGE));
+        assertEquals(new BigDecimal(expected.getCoefficientOfVariation()), extended.get(SummaryStatisticType.CV));
+        assertEquals(new BigDecimal(expected.getSkewness()), extended.get(SummaryStatisticType.SKEW));
+        assertEquals(new BigDecimal(expected.getKurtosis()), extended.get(SummaryStatisticType.KURT));
+
+        // the moments passed in are accumulated in the same pass, whatever the profile:
+        MomentsAccumulator moments = new MomentsAccumulator();
+        assertEquals(basic, SumStatCalculator.calculateSummaryStatistics(vector, SummaryStatisticsProfile.BASIC,
+                moments));
+        assertEquals(expected.getN(), moments.getN());
+        assertEquals(expected.getSum(), moments.getSum(), 0.0);
+        assertEquals(expected.getKurtosis(), moments.getKurtosis(), 0.0);
+    }
+
+    /*
+     * The statistics of a vector whose first values have been accumulated
+     * before, merged with the moments of the rest, are those of the whole
+     * vector.
+     */
+    @Test
+    public void testMergedSummaryStatistics() {
+        Random random = new Random(7);
+        Double[] vector = new Double[10000];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = i % 9 == 0 ? null : random.nextGaussian() * 50 + 1000;
+        }
+        int from = 6000;
+
+        Map<SummaryStatisticType, BigDecimal> full = SumStatCalculator.calculateSummaryStatistics(vector,
+                SummaryStatisticsProfile.EXTENDED);
+
+        Double[] head = new Double[from];
+        System.arraycopy(vector, 0, head, 0, from);
+        MomentsAccumulator moments = SumStatCalculator.accumulateMoments(head, 0);
+        Map<SummaryStatisticType, BigDecimal> merged = SumStatCalculator.calculateSummaryStatistics(vector,
+                SummaryStatisticsProfile.EXTENDED, moments, from);
+
+        assertEquals(vector.length - vector.length / 9 - 1, moments.getN());
+        assertEquals(full.keySet(), merged.keySet());
+        for (SummaryStatisticType type : full.keySet()) {
+            double expected = full.get(type).doubleValue();
+            assertEquals(type.toString(), expected, merged.get(type).doubleValue(), Math.abs(expected) * 1e-9);
+        }
+    }
+}
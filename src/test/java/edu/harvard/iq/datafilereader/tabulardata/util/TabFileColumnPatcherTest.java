@@ -0,0 +1,101 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TabFileColumnPatcherTest {
+
+    /*
+     * Column 1 was written as numeric, and turned out to be a string column
+     * in row 2; column 2 in row 1. The original values of the cells that
+     * were not written as they were (1 and NA) are logged.
+     */
+    private static final List<String> TAB_FILE = Arrays.asList(
+            "\"a\"\t1.0\t5.0",
+            "\"b\"\t\t6.0",
+            "\"c\"\t\"x\"\t\"y\"",
+            "\"d\"\t\"2\"\t\"7\"");
+
+    private File tabFile;
+    private TabFileColumnPatcher patcher;
+
+    @Before
+    public void setUp() throws IOException {
+        tabFile = File.createTempFile("patchertest.", ".tab");
+        Files.write(tabFile.toPath(), TAB_FILE, StandardCharsets.UTF_8);
+        patcher = new TabFileColumnPatcher();
+        patcher.logOriginalValue(0, 1, "1");
+        patcher.logOriginalValue(1, 1, "NA");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        patcher.close();
+        tabFile.delete();
+    }
+
+    /*
+     * Only the cells of the changed columns, in the rows before the change,
+     * are re-formatted: from their logged original values, or else from the
+     * cells themselves.
+     */
+    @Test
+    public void testPatch() throws IOException {
+        assertEquals(2, patcher.getLoggedValueCount());
+        patcher.patch(tabFile, new long[] { 0, 2, 1 }, (column, originalValue) -> {
+            assertNotEquals(0, column);
+            return SpreadsheetTabFileWriter.formatStringValue(originalValue);
+        });
+        assertEquals(Arrays.asList(
+                "\"a\"\t\"1\"\t\"5.0\"",
+                "\"b\"\t\"NA\"\t6.0",
+                "\"c\"\t\"x\"\t\"y\"",
+                "\"d\"\t\"2\"\t\"7\""), Files.readAllLines(tabFile.toPath(), StandardCharsets.UTF_8));
+
+    }
+
+    /*
+     * A file with no column to patch is left as it is.
+     */
+    @Test
+    public void testNothingToPatch() throws IOException {
+        long lastModified = tabFile.lastModified();
+        patcher.patch(tabFile, new long[] { 0, 0, 0 }, (column, originalValue) -> {
+            throw new AssertionError("cell of column " + column + " re-formatted");
+        });
+        assertEquals(TAB_FILE, Files.readAllLines(tabFile.toPath(), StandardCharsets.UTF_8));
+        assertEquals(lastModified, tabFile.lastModified());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+   Copyright (C) 2005-2012, by the President and Fellows of Harvard College.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   Dataverse Network - A web application to share, preserve and analyze research data.
+   Developed at the Institute for Quantitative Social Science, Harvard University.
+   Version 3.0.
+*/
+
+
+package edu.harvard.iq.datafilereader.tabulardata.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class UNFCalculatorTest {
+
+    /*
+     * The published examples: the vector {1.23456789, <missing>, 0} of the
+     * UNF v6 specification, and 1:20 of the R UNF package (as integers and
+     * as doubles).
+     */
+    @Test
+    public void testPublishedNumericVectors() {
+        assertEquals("UNF:6:Do5dfAoOOFt4FSj0JcByEw==", UNFCalculator.calculateUNF(new Number[] { 1.23456789, null,
+                0.0 }));
+
+        Long[] integers = new Long[20];
+        Double[] doubles = new Double[20];
+        for (int i = 0; i < 20; i++) {
+            integers[i] = (long) (i + 1);
+            doubles[i] = (double) (i + 1);
+        }
+        assertEquals("UNF:6:/FIOZM/29oC3TK/IE52m2A==", UNFCalculator.calculateUNF(integers));
+        assertEquals("UNF:6:/FIOZM/29oC3TK/IE52m2A==", UNFCalculator.calculateUNF(doubles));
+    }
+
+    /*
+     * The special values, and the rounding to 7 significant digits; the
+     * expected fingerprint is the hash of the normalized strings
+     * "+inf", "-inf", "+nan", "-0.e+", "+1.e+5" and "-3.333333e-1".
+     */
+    @Test
+    public void testNumericNormalization() {
+        assertEquals("UNF:6:2vYomC0bv0AlP9Njt9li3A==", UNFCalculator.calculateUNF(new Number[] {
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN, -0.0, 100000L, -1.0 / 3 }));
+
+        assertEquals(UNFCalculator.calculateUNF(new Number[] { 1.234568 }),
+                UNFCalculator.calculateUNF(new Number[] { 1.23456789 }));
+        // (round half to even)
+        assertEquals(UNFCalculator.calculateUNF(new Number[] { 12345680L }),
+                UNFCalculator.calculateUNF(new Number[] { 12345685L }));
+        assertNotEquals(UNFCalculator.calculateUNF(new Number[] { 0.0 }),
+                UNFCalculator.calculateUNF(new Number[] { -0.0 }));
+    }
+
+    /*
+     * Character values, with a missing value and an empty string (which is
+     * not missing); and the truncation to 128 characters.
+     */
+    @Test
+    public void testCharacterVectors() {
+        assertEquals("UNF:6:FWBO/a1GcxDnM3fNLdzrHw==", UNFCalculator.calculateUNF(new String[] { "a", "b", "c" }));
+        assertEquals("UNF:6:NV2eqaLk09wBT9LUl+slrw==", UNFCalculator.calculateUNF(new String[] { "x", null, "" }));
+
+        char[] characters = new char[129];
+        Arrays.fill(characters, 'é');
+        String longValue = new String(characters);
+        assertEquals(UNFCalculator.calculateUNF(new String[] { longValue.substring(0, 128) }),
+                UNFCalculator.calculateUNF(new String[] { longValue }));
+    }
+
+    /*
+     * The values of date and time variables are normalized to ISO 8601, in
+     * UTC if they have a time zone; the expected fingerprints are the hashes
+     * of the normalized strings.
+     */
+    @Test
+    public void testDateTimeNormalization() {
+        // SPSS date-times, with and without the fractions of a second:
+        assertEquals("UNF:6:PvXJ5z6CxwttSrGfQweOZg==", calculateUNF("time", "yyyy-MM-dd HH:mm:ss.S",
+                "2014-08-22 13:14:23", "2014-08-22 13:14:23.250", null));
+        assertEquals(UNFCalculator.calculateUNF(new String[] { "2014-08-22T13:14:23" }),
+                calculateUNF("time", "yyyy-MM-dd HH:mm:ss", "2014-08-22 13:14:23"));
+
+        // ISO 8601 and CSV date-times with a time zone:
+        assertEquals("UNF:6:aCrMX7oAMWWQth6+LwB1/Q==", calculateUNF("time", "yyyy-MM-dd'T'HH:mm:ssXXX",
+                "2013-04-08T13:14:23-05:00", "2013-04-08T13:14:23.5+02:00"));
+        assertEquals(UNFCalculator.calculateUNF(new String[] { "2013-04-08T18:14:23Z" }),
+                calculateUNF("time", "yyyy-MM-dd HH:mm:ss z", "2013-04-08 13:14:23 -0500"));
+
+        // dates, partial dates and times of the day:
+        assertEquals("UNF:6:UUfgr++aiUo4IuL4zW6akA==", calculateUNF("date", "M/d/yyyy", "4/8/2013", "12/31/1999"));
+        assertEquals("UNF:6:Eg3tf1VR5+/mADB5yhGEmQ==", calculateUNF("date", "yyyy", "2014"));
+        assertEquals("UNF:6:8yYRwkcwv4kBGapjh69Uqw==", calculateUNF("date", "yyyy-MM", "2014-08"));
+        assertEquals("UNF:6:MPwEkPw7+n73TkDtrXRbxw==", calculateUNF("time", "HH:mm:ss", "07:05:00", "23:59:59"));
+    }
+
+    /*
+     * Values that don't parse in the format of the variable, formats that
+     * can't be normalized, and the values of variables that are not dates
+     * are all fingerprinted as they are.
+     */
+    @Test
+    public void testValuesNotNormalized() {
+        assertEquals(UNFCalculator.calculateUNF(new String[] { "2014-02-30", "not a date" }),
+                calculateUNF("date", "yyyy-MM-dd", "2014-02-30", "not a date"));
+        assertEquals(UNFCalculator.calculateUNF(new String[] { "005 10:00:00" }),
+                calculateUNF("time", "DDD HH:mm:ss", "005 10:00:00"));
+        assertEquals(UNFCalculator.calculateUNF(new String[] { "2014-08-22 13:14:23" }),
+                calculateUNF(null, "yyyy-MM-dd HH:mm:ss", "2014-08-22 13:14:23"));
+    }
+
+    private static String calculateUNF(final String formatCategory, final String format, final String... values) {
+        UNFCalculator calculator = new UNFCalculator(formatCategory, format);
+        calculator.update(values);
+        return calculator.getUNF();
+    }
+}